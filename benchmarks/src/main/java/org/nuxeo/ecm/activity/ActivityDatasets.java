@@ -0,0 +1,212 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.event.EventBundle;
+import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+import org.nuxeo.ecm.core.event.impl.EventBundleImpl;
+import org.nuxeo.ecm.core.event.impl.EventImpl;
+
+/**
+ * Generates the datasets of the benchmarks.
+ * <p>
+ * The datasets are generated from a fixed seed, so that all the runs measure the same data. As in a real instance, a
+ * few users and documents appear in most of the activities.
+ *
+ * @since 11.1
+ */
+public class ActivityDatasets {
+
+    public static final long SEED = 42;
+
+    public static final String REPOSITORY_NAME = "default";
+
+    public static final String[] VERBS = { "documentCreated", "documentModified", "documentModified",
+            "documentModified", "documentRemoved", "circle", "message" };
+
+    protected static final String[] WORDS = { "the", "review", "of", "contract", "is", "done", "please", "check",
+            "budget", "&", "<draft>", "for", "next", "quarter", "thanks", "see", "meeting", "notes" };
+
+    protected static final String[] URLS = { "http://www.nuxeo.com", "https://doc.nuxeo.com/nxdoc/activity/",
+            "https://jira.nuxeo.com/browse/NXP-12345?focusedCommentId=42&page=comment#comment-42" };
+
+    protected final Random random = new Random(SEED);
+
+    protected final int users;
+
+    protected final int documents;
+
+    public ActivityDatasets(int users, int documents) {
+        this.users = users;
+        this.documents = documents;
+    }
+
+    /**
+     * Returns an index between {@code 0} and {@code count}, the lowest ones being the most frequent.
+     */
+    protected int skewed(int count) {
+        return (int) (count * Math.pow(random.nextDouble(), 3));
+    }
+
+    public String username() {
+        return "user" + skewed(users);
+    }
+
+    public String documentId() {
+        return String.format("%08x-0000-4000-8000-%012x", skewed(documents), (long) skewed(documents));
+    }
+
+    public String user() {
+        return ActivityHelper.createUserActivityObject(username());
+    }
+
+    public String document() {
+        return ActivityHelper.createDocumentActivityObject(REPOSITORY_NAME, documentId());
+    }
+
+    /**
+     * Returns {@code count} activities, of which about a third have between 1 and {@code maxReplies} replies.
+     */
+    public List<Activity> activities(int count, int maxReplies) {
+        List<Activity> activities = new ArrayList<>(count);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            ActivityImpl activity = new ActivityImpl();
+            activity.setId(Long.valueOf(i + 1));
+            String username = username();
+            activity.setActor(ActivityHelper.createUserActivityObject(username));
+            activity.setDisplayActor("User " + username);
+            activity.setVerb(VERBS[random.nextInt(VERBS.length)]);
+            String object = document();
+            activity.setObject(object);
+            activity.setDisplayObject("Document " + ActivityHelper.getDocumentId(object).substring(0, 8));
+            String target = document();
+            activity.setTarget(target);
+            activity.setDisplayTarget("Workspace " + ActivityHelper.getDocumentId(target).substring(0, 8));
+            activity.setContext(target);
+            activity.setPublishedDateMillis(now - random.nextInt(30 * 24 * 3600) * 1000L);
+            if (maxReplies > 0 && random.nextInt(3) == 0) {
+                activity.setActivityReplies(replies(activity, 1 + random.nextInt(maxReplies)));
+            }
+            activities.add(activity);
+        }
+        return activities;
+    }
+
+    /**
+     * Returns {@code count} replies to the given {@code activity}, with ids as computed by the service.
+     */
+    public List<ActivityReply> replies(Activity activity, int count) {
+        List<ActivityReply> replies = new ArrayList<>(count);
+        long publishedDate = activity.getPublishedDateMillis();
+        for (int i = 0; i < count; i++) {
+            String username = username();
+            ActivityReply reply = new ActivityReply(ActivityHelper.createUserActivityObject(username),
+                    "User " + username, message(random.nextInt(2)), publishedDate + (i + 1) * 60_000L);
+            reply.setId(activity.getId() + "-reply-" + (i + 1));
+            replies.add(reply);
+        }
+        return replies;
+    }
+
+    /**
+     * Returns a user message of a few words, with the given number of URLs.
+     */
+    public String message(int urls) {
+        StringBuilder sb = new StringBuilder();
+        int words = 5 + random.nextInt(30);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            if (urls > 0 && random.nextInt(words - i) < urls) {
+                sb.append(URLS[random.nextInt(URLS.length)]);
+                urls--;
+            } else {
+                sb.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns {@code count} user, document and activity objects, mostly documents.
+     */
+    public List<String> activityObjects(int count) {
+        List<String> activityObjects = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int kind = random.nextInt(10);
+            if (kind < 3) {
+                activityObjects.add(user());
+            } else if (kind < 9) {
+                activityObjects.add(document());
+            } else {
+                activityObjects.add(ActivityHelper.createActivityObject(Long.valueOf(random.nextInt(1_000_000))));
+            }
+        }
+        return activityObjects;
+    }
+
+    /**
+     * Returns a bundle of {@code count} document events, as fired by a transaction touching {@code documents}
+     * documents: most documents get several events of the same name.
+     */
+    public EventBundle events(int count, int documents) {
+        String[] names = { "documentCreated", "documentModified", "documentModified", "documentModified" };
+        List<DocumentModel> docs = new ArrayList<>(documents);
+        for (int i = 0; i < documents; i++) {
+            docs.add(newDocument(documentId() + "-" + i));
+        }
+        EventBundleImpl bundle = new EventBundleImpl();
+        for (int i = 0; i < count; i++) {
+            DocumentModel doc = docs.get(random.nextInt(documents));
+            bundle.push(new EventImpl(names[random.nextInt(names.length)], new DocumentEventContext(null, null, doc)));
+        }
+        return bundle;
+    }
+
+    /**
+     * Returns a document only answering its id and reference, the only properties the event filtering reads.
+     */
+    protected static DocumentModel newDocument(String id) {
+        IdRef ref = new IdRef(id);
+        return (DocumentModel) Proxy.newProxyInstance(DocumentModel.class.getClassLoader(),
+                new Class<?>[] { DocumentModel.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getId":
+                        return id;
+                    case "getRef":
+                        return ref;
+                    case "hashCode":
+                        return id.hashCode();
+                    case "equals":
+                        return proxy == args[0];
+                    case "toString":
+                        return id;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventBundle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the grouping of activities by document done before checking their permissions, and the filtering of
+ * duplicate events done before logging them as activities.
+ *
+ * @since 11.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ActivityFilterBenchmark {
+
+    @Param({ "100", "1000" })
+    public int size;
+
+    protected ActivitiesListImpl activities;
+
+    protected ActivityStreamListener activityStreamListener;
+
+    protected EventBundle events;
+
+    @Setup
+    public void setup() {
+        ActivityDatasets datasets = new ActivityDatasets(size / 2, size);
+        activities = new ActivitiesListImpl(datasets.activities(size, 0));
+        activityStreamListener = new ActivityStreamListener();
+        events = datasets.events(size, Math.max(1, size / 10));
+    }
+
+    @Benchmark
+    public Map<String, List<Activity>> getActivitiesByDocument() {
+        return activities.getActivitiesByDocument();
+    }
+
+    @Benchmark
+    public List<Event> filterDuplicateEvents() {
+        return activityStreamListener.filterDuplicateEvents(events);
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the parsing of the user, document and activity objects by {@link ActivityHelper}.
+ *
+ * @since 11.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ActivityHelperBenchmark {
+
+    protected List<String> activityObjects;
+
+    protected List<String> userActivityObjects;
+
+    @Setup
+    public void setup() {
+        activityObjects = new ActivityDatasets(500, 1000).activityObjects(1000);
+        userActivityObjects = activityObjects.stream().filter(ActivityHelper::isUser).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public void parseActivityObjects(Blackhole blackhole) {
+        for (String activityObject : activityObjects) {
+            if (ActivityHelper.isUser(activityObject)) {
+                blackhole.consume(ActivityHelper.getUsername(activityObject));
+            } else if (ActivityHelper.isDocument(activityObject)) {
+                blackhole.consume(ActivityHelper.getRepositoryName(activityObject));
+                blackhole.consume(ActivityHelper.getDocumentId(activityObject));
+            } else if (ActivityHelper.isActivity(activityObject)) {
+                blackhole.consume(ActivityHelper.getActivityId(activityObject));
+            }
+        }
+    }
+
+    @Benchmark
+    public List<String> getUsernames() {
+        return ActivityHelper.getUsernames(userActivityObjects);
+    }
+
+}
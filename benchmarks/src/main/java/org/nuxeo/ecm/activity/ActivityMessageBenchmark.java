@@ -0,0 +1,131 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the rendering of activities as messages.
+ *
+ * @since 11.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ActivityMessageBenchmark {
+
+    @Param({ "100", "1000" })
+    public int size;
+
+    protected ActivityStreamServiceImpl activityStreamService;
+
+    protected ActivityLinkBuilder activityLinkBuilder;
+
+    protected Map<String, String> messageTemplates;
+
+    protected List<Activity> activities;
+
+    protected String[] messages;
+
+    @Setup
+    public void setup() {
+        activityStreamService = new ActivityStreamServiceImpl();
+        activityStreamService.activityVerbRegistry = new ActivityVerbRegistry();
+        messageTemplates = new HashMap<>();
+        registerVerb("documentCreated", "${actor} created ${object} in ${target}");
+        registerVerb("documentModified", "${actor} updated ${object}");
+        registerVerb("documentRemoved", "${actor} removed ${object} from ${target}");
+        registerVerb("circle", "${actor} added ${object} to the circle of ${target}");
+        activityLinkBuilder = new BenchmarkActivityLinkBuilder();
+
+        ActivityDatasets datasets = new ActivityDatasets(size / 2, size);
+        activities = datasets.activities(size, 5);
+        messages = new String[size];
+        for (int i = 0; i < size; i++) {
+            messages[i] = datasets.message(i % 3);
+        }
+    }
+
+    protected void registerVerb(String name, String messageTemplate) {
+        ActivityVerb verb = new ActivityVerb();
+        verb.setVerb(name);
+        verb.setLabelKey("label.activity." + name);
+        verb.setIcon("/icons/" + name + ".png");
+        activityStreamService.activityVerbRegistry.addContribution(verb);
+        messageTemplates.put(verb.getLabelKey(), messageTemplate);
+    }
+
+    @Benchmark
+    public void toActivityMessage(Blackhole blackhole) {
+        for (Activity activity : activities) {
+            ActivityMessage message = activityStreamService.toActivityMessage(activity, activityLinkBuilder,
+                    messageTemplates::get, false);
+            blackhole.consume(message.getMessage());
+        }
+    }
+
+    @Benchmark
+    public void replaceURLsByLinks(Blackhole blackhole) {
+        for (String message : messages) {
+            blackhole.consume(ActivityMessageHelper.replaceURLsByLinks(message));
+        }
+    }
+
+    /**
+     * Builds the links as the default link builder does, without looking up the URL services.
+     */
+    protected static class BenchmarkActivityLinkBuilder implements ActivityLinkBuilder {
+
+        @Override
+        public String getDocumentLink(String documentActivityObject, String displayValue) {
+            return "<a href=\"/nuxeo/nxdoc/" + ActivityHelper.getRepositoryName(documentActivityObject) + "/"
+                    + ActivityHelper.getDocumentId(documentActivityObject) + "/view_documents\">" + displayValue
+                    + "</a>";
+        }
+
+        @Override
+        public String getUserProfileLink(String userActivityObject, String displayValue) {
+            return "<a href=\"/nuxeo/user/" + ActivityHelper.getUsername(userActivityObject) + "\">" + displayValue
+                    + "</a>";
+        }
+
+        @Override
+        public String getUserAvatarURL(CoreSession session, String username) {
+            return "/nuxeo/icons/missing_avatar.png";
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the reading and writing of the replies of an activity, and the computation of a new reply id.
+ *
+ * @since 11.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ActivityRepliesBenchmark {
+
+    @Param({ "1", "10", "100" })
+    public int replies;
+
+    protected ActivityStreamServiceImpl activityStreamService;
+
+    protected Activity activity;
+
+    protected List<ActivityReply> activityReplies;
+
+    @Setup
+    public void setup() {
+        activityStreamService = new ActivityStreamServiceImpl();
+        ActivityDatasets datasets = new ActivityDatasets(50, 100);
+        activity = datasets.activities(1, 0).get(0);
+        activityReplies = datasets.replies(activity, replies);
+        activity.setActivityReplies(activityReplies);
+    }
+
+    @Benchmark
+    public List<ActivityReply> getActivityReplies() {
+        return activity.getActivityReplies();
+    }
+
+    @Benchmark
+    public String setActivityReplies() {
+        activity.setActivityReplies(activityReplies);
+        return activity.getReplies();
+    }
+
+    @Benchmark
+    public String computeNewReplyId() {
+        return activityStreamService.computeNewReplyId(activity);
+    }
+
+}
@@ -0,0 +1,34 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+/**
+ * Abstract class for all {@link ChunkedActivityUpgrader}s.
+ *
+ * @since 11.1
+ */
+public abstract class AbstractChunkedActivityUpgrader extends AbstractActivityUpgrader
+        implements ChunkedActivityUpgrader {
+
+    @Override
+    public void doUpgrade(ActivityStreamService activityStreamService) {
+        ActivityStreamServiceImpl activityStreamServiceImpl = (ActivityStreamServiceImpl) activityStreamService;
+        new ChunkedActivityUpgradeRunner(activityStreamServiceImpl, this,
+                activityStreamServiceImpl.getUpgradeChunkSize(),
+                activityStreamServiceImpl.getUpgradeParallelism()).run();
+    }
+
+}
@@ -0,0 +1,315 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Base {@link ActivityStore} keeping in memory, in concurrent skip lists, the indexes of the activities by
+ * publication date, actor, context and object, and answering the scans from them.
+ * <p>
+ * The indexes hold the {@link ActivityWatermark}s of the activities, subclasses load the activities themselves by id.
+ * Reads run under the read lock of {@link #lock}, writes must run under its write lock.
+ *
+ * @since 11.1
+ */
+public abstract class AbstractIndexedActivityStore implements ActivityStore {
+
+    protected static final Comparator<ActivityWatermark> DESCENDING = Comparator.reverseOrder();
+
+    protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    protected final NavigableSet<ActivityWatermark> byPublishedDate = new ConcurrentSkipListSet<>();
+
+    protected final Map<String, NavigableSet<ActivityWatermark>> byActor = new ConcurrentHashMap<>();
+
+    protected final Map<String, NavigableSet<ActivityWatermark>> byContext = new ConcurrentHashMap<>();
+
+    protected final Map<String, NavigableSet<ActivityWatermark>> byObject = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the activity with the given id, {@code null} if there is none.
+     */
+    protected abstract Activity load(Long id);
+
+    /**
+     * Returns the ids of the stored activities, in ascending order.
+     */
+    protected abstract NavigableSet<Long> getIds();
+
+    /**
+     * Returns the number of stored activities.
+     */
+    public int size() {
+        return getIds().size();
+    }
+
+    protected void index(ActivityWatermark watermark, String actor, String context, String object) {
+        byPublishedDate.add(watermark);
+        index(byActor, actor, watermark);
+        index(byContext, context, watermark);
+        index(byObject, object, watermark);
+    }
+
+    protected void unindex(ActivityWatermark watermark, String actor, String context, String object) {
+        byPublishedDate.remove(watermark);
+        unindex(byActor, actor, watermark);
+        unindex(byContext, context, watermark);
+        unindex(byObject, object, watermark);
+    }
+
+    protected static void index(Map<String, NavigableSet<ActivityWatermark>> index, String key,
+            ActivityWatermark watermark) {
+        if (key != null) {
+            index.computeIfAbsent(key, k -> new ConcurrentSkipListSet<>()).add(watermark);
+        }
+    }
+
+    protected static void unindex(Map<String, NavigableSet<ActivityWatermark>> index, String key,
+            ActivityWatermark watermark) {
+        if (key != null) {
+            index.computeIfPresent(key, (k, watermarks) -> {
+                watermarks.remove(watermark);
+                return watermarks.isEmpty() ? null : watermarks;
+            });
+        }
+    }
+
+    protected void clearIndexes() {
+        byPublishedDate.clear();
+        byActor.clear();
+        byContext.clear();
+        byObject.clear();
+    }
+
+    protected static Long toId(Serializable id) {
+        if (id instanceof Number) {
+            return ((Number) id).longValue();
+        }
+        try {
+            return id != null ? Long.valueOf(id.toString()) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a new {@link ActivityImpl} with the attributes of the given {@code activity}, except its id.
+     */
+    protected static ActivityImpl copy(Activity activity) {
+        ActivityImpl activityImpl = new ActivityImpl();
+        activityImpl.setActor(activity.getActor());
+        activityImpl.setDisplayActor(activity.getDisplayActor());
+        activityImpl.setVerb(activity.getVerb());
+        activityImpl.setObject(activity.getObject());
+        activityImpl.setDisplayObject(activity.getDisplayObject());
+        activityImpl.setTarget(activity.getTarget());
+        activityImpl.setDisplayTarget(activity.getDisplayTarget());
+        activityImpl.setContext(activity.getContext());
+        activityImpl.setPublishedDate(activity.getPublishedDate());
+        activityImpl.setLastUpdatedDate(activity.getLastUpdatedDate());
+        activityImpl.setReplies(activity.getReplies());
+        if (activity instanceof ActivityImpl) {
+            activityImpl.setReplyCount(((ActivityImpl) activity).getReplyCount());
+        }
+        activityImpl.setRollupCount(activity.getRollupCount());
+        activityImpl.setRollupStartDate(activity.getRollupStartDate());
+        return activityImpl;
+    }
+
+    @Override
+    public ActivitiesList getActivities(Collection<Serializable> activityIds) {
+        lock.readLock().lock();
+        try {
+            ActivitiesList activities = new ActivitiesListImpl();
+            for (Serializable activityId : activityIds) {
+                Long id = toId(activityId);
+                Activity activity = id != null ? load(id) : null;
+                if (activity != null) {
+                    activities.add(activity);
+                }
+            }
+            return activities;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the indexed watermarks to go through for the given {@code criteria}: the ones of its actors, contexts or
+     * objects if any, otherwise all of them.
+     */
+    protected List<NavigableSet<ActivityWatermark>> getSources(ActivityCriteria criteria) {
+        Map<String, NavigableSet<ActivityWatermark>> index;
+        List<String> keys;
+        if (!criteria.getActors().isEmpty()) {
+            index = byActor;
+            keys = criteria.getActors();
+        } else if (!criteria.getContexts().isEmpty()) {
+            index = byContext;
+            keys = criteria.getContexts();
+        } else if (!criteria.getObjects().isEmpty()) {
+            index = byObject;
+            keys = criteria.getObjects();
+        } else {
+            return Collections.singletonList(byPublishedDate);
+        }
+        List<NavigableSet<ActivityWatermark>> sources = new ArrayList<>();
+        for (String key : keys) {
+            NavigableSet<ActivityWatermark> watermarks = index.get(key);
+            if (watermarks != null) {
+                sources.add(watermarks);
+            }
+        }
+        return sources;
+    }
+
+    @Override
+    public ActivitiesList scanAfter(ActivityCriteria criteria, ActivityWatermark watermark, long limit) {
+        return scan(criteria, watermark, false, limit);
+    }
+
+    @Override
+    public ActivitiesList scanBefore(ActivityCriteria criteria, ActivityWatermark watermark, long limit) {
+        return scan(criteria, watermark, true, limit);
+    }
+
+    protected ActivitiesList scan(ActivityCriteria criteria, ActivityWatermark watermark, boolean descending,
+            long limit) {
+        lock.readLock().lock();
+        try {
+            // the first matching activities of each source, merged in order
+            TreeMap<ActivityWatermark, Activity> matching = new TreeMap<>(
+                    descending ? DESCENDING : Comparator.naturalOrder());
+            for (NavigableSet<ActivityWatermark> source : getSources(criteria)) {
+                long found = 0;
+                for (ActivityWatermark candidate : getRange(source, criteria, watermark, descending)) {
+                    Activity activity = load(candidate.getId());
+                    if (activity != null && criteria.matches(activity)) {
+                        matching.put(candidate, activity);
+                        if (limit > 0 && ++found >= limit) {
+                            break;
+                        }
+                    }
+                }
+            }
+            ActivitiesList activities = new ActivitiesListImpl();
+            for (Activity activity : matching.values()) {
+                if (limit > 0 && activities.size() >= limit) {
+                    break;
+                }
+                activities.add(activity);
+            }
+            return activities;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the watermarks of {@code source} after, or before if {@code descending}, the given {@code watermark} and
+     * within the published dates of the given {@code criteria}, in scan order. The walk thus stops at the date bounds
+     * instead of loading the activities outside of them.
+     */
+    protected NavigableSet<ActivityWatermark> getRange(NavigableSet<ActivityWatermark> source,
+            ActivityCriteria criteria, ActivityWatermark watermark, boolean descending) {
+        ActivityWatermark from = null;
+        boolean fromInclusive = true;
+        ActivityWatermark to = null;
+        boolean toInclusive = false;
+        if (criteria.getPublishedAfter() != null) {
+            from = new ActivityWatermark(criteria.getPublishedAfter().getTime(), Long.MIN_VALUE);
+        }
+        if (criteria.getPublishedBefore() != null) {
+            to = new ActivityWatermark(criteria.getPublishedBefore().getTime(), Long.MIN_VALUE);
+        }
+        if (watermark != null) {
+            if (descending) {
+                if (to == null || watermark.compareTo(to) <= 0) {
+                    to = watermark;
+                    toInclusive = false;
+                }
+            } else if (from == null || watermark.compareTo(from) >= 0) {
+                from = watermark;
+                fromInclusive = false;
+            }
+        }
+        NavigableSet<ActivityWatermark> range;
+        if (from != null && to != null) {
+            if (from.compareTo(to) > 0) {
+                return Collections.emptyNavigableSet();
+            }
+            range = source.subSet(from, fromInclusive, to, toInclusive);
+        } else if (from != null) {
+            range = source.tailSet(from, fromInclusive);
+        } else if (to != null) {
+            range = source.headSet(to, toInclusive);
+        } else {
+            range = source;
+        }
+        return descending ? range.descendingSet() : range;
+    }
+
+    @Override
+    public List<Serializable> getActivityIds(ActivityCriteria criteria, Serializable fromId, int limit) {
+        lock.readLock().lock();
+        try {
+            Long from = toId(fromId);
+            Collection<Long> candidates;
+            if (criteria.getActors().isEmpty() && criteria.getContexts().isEmpty()
+                    && criteria.getObjects().isEmpty()) {
+                candidates = from != null ? getIds().tailSet(from, false) : getIds();
+            } else {
+                TreeSet<Long> ids = new TreeSet<>();
+                for (NavigableSet<ActivityWatermark> source : getSources(criteria)) {
+                    for (ActivityWatermark candidate : getRange(source, criteria, null, false)) {
+                        if (from == null || candidate.getId() > from) {
+                            ids.add(candidate.getId());
+                        }
+                    }
+                }
+                candidates = ids;
+            }
+            List<Serializable> activityIds = new ArrayList<>();
+            for (Long id : candidates) {
+                Activity activity = criteria.isEmpty() ? null : load(id);
+                if (criteria.isEmpty() || activity != null && criteria.matches(activity)) {
+                    activityIds.add(id);
+                    if (activityIds.size() >= limit) {
+                        break;
+                    }
+                }
+            }
+            return activityIds;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+}
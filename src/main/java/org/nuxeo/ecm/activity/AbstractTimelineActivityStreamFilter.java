@@ -0,0 +1,170 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * {@link ActivityStreamFilter} materializing a timeline per principal (fan-out on write).
+ * <p>
+ * When a new activity is stored, its id is appended to the timeline of each principal returned by
+ * {@link #getTimelineOwners(ActivityStreamService, Activity)}, so that reading a timeline is a single indexed range scan
+ * instead of a query over all the activities.
+ * <p>
+ * Activities with more than {@link #getMaxFanOut()} interested principals are only appended once, to the timeline of
+ * their source (see {@link #getTimelineSource(Activity)}), and merged at read time in the timelines of the principals
+ * following this source (fan-out on read).
+ * <p>
+ * The timeline to read is given by the {@link #TIMELINE_OWNER_PARAMETER} query parameter. Timeline entries are kept by
+ * the {@link ActivityStore}, see {@link ActivityStore#addTimelineEntries(Collection)}.
+ *
+ * @since 11.1
+ */
+public abstract class AbstractTimelineActivityStreamFilter implements ActivityStreamFilter {
+
+    public static final String TIMELINE_OWNER_PARAMETER = "timelineOwner";
+
+    /**
+     * Property holding the maximum number of timelines an activity is appended to.
+     */
+    public static final String MAX_FAN_OUT_PROPERTY = "nuxeo.activity.timeline.maxFanOut";
+
+    public static final int DEFAULT_MAX_FAN_OUT = 1000;
+
+    /**
+     * Prefix of the owner of the timelines of the high fan-out sources.
+     */
+    public static final String SOURCE_TIMELINE_PREFIX = "source:";
+
+    /**
+     * Delay after which the known high fan-out sources are reloaded, to see the ones created on other nodes.
+     */
+    protected static final long HIGH_FAN_OUT_SOURCES_TTL = TimeUnit.MINUTES.toMillis(1);
+
+    protected final Set<String> highFanOutSources = ConcurrentHashMap.newKeySet();
+
+    protected volatile long highFanOutSourcesLoadTime;
+
+    /**
+     * Returns the principals in the timelines of which the given {@code activity} must appear.
+     */
+    protected abstract Collection<String> getTimelineOwners(ActivityStreamService activityStreamService,
+            Activity activity);
+
+    /**
+     * Returns the source of the given {@code activity}, for instance its actor or its context, used to store the
+     * activity once when it has too many interested principals.
+     */
+    protected abstract String getTimelineSource(Activity activity);
+
+    /**
+     * Returns the sources followed by the given {@code owner}, whose timelines are merged in its own one when they have
+     * too many followers.
+     */
+    protected Collection<String> getFollowedSources(ActivityStreamService activityStreamService, String owner) {
+        return Collections.emptyList();
+    }
+
+    protected int getMaxFanOut() {
+        return Integer.parseInt(Framework.getProperty(MAX_FAN_OUT_PROPERTY, String.valueOf(DEFAULT_MAX_FAN_OUT)));
+    }
+
+    @Override
+    public void handleNewActivity(ActivityStreamService activityStreamService, Activity activity) {
+        Collection<String> owners = getTimelineOwners(activityStreamService, activity);
+        if (owners == null || owners.isEmpty()) {
+            return;
+        }
+        Long activityId = (Long) activity.getId();
+        List<ActivityTimelineEntry> entries = new ArrayList<>();
+        if (owners.size() > getMaxFanOut()) {
+            String source = SOURCE_TIMELINE_PREFIX + getTimelineSource(activity);
+            entries.add(new ActivityTimelineEntry(source, activityId, activity.getPublishedDate()));
+            highFanOutSources.add(source);
+        } else {
+            for (String owner : owners) {
+                entries.add(new ActivityTimelineEntry(owner, activityId, activity.getPublishedDate()));
+            }
+        }
+        activityStreamService.getActivityStore().addTimelineEntries(entries);
+    }
+
+    @Override
+    public void handleUpdatedActivity(ActivityStreamService activityStreamService, Activity activity) {
+        // timelines are ordered by published date, which moves forward when an activity is rolled up
+        activityStreamService.getActivityStore().updateTimelineEntries(activity.getId(), activity.getPublishedDate());
+    }
+
+    @Override
+    public void handleRemovedActivities(ActivityStreamService activityStreamService, ActivitiesList activities) {
+        handleRemovedActivityIds(activityStreamService, activities.toActivityIds());
+    }
+
+    @Override
+    public void handleRemovedActivityIds(ActivityStreamService activityStreamService,
+            List<Serializable> activityIds) {
+        activityStreamService.getActivityStore().removeTimelineEntries(activityIds);
+    }
+
+    @Override
+    public void handleRemovedActivityReply(ActivityStreamService activityStreamService, Activity activity,
+            ActivityReply activityReply) {
+        // replies are read with their activity
+    }
+
+    @Override
+    public ActivitiesList query(ActivityStreamService activityStreamService, Map<String, Serializable> parameters,
+            long offset, long limit) {
+        String owner = parameters != null ? (String) parameters.get(TIMELINE_OWNER_PARAMETER) : null;
+        if (owner == null) {
+            return new ActivitiesListImpl();
+        }
+        ActivityStore activityStore = activityStreamService.getActivityStore();
+
+        List<String> owners = new ArrayList<>();
+        owners.add(owner);
+        Set<String> sources = getHighFanOutSources(activityStore);
+        if (!sources.isEmpty()) {
+            for (String source : getFollowedSources(activityStreamService, owner)) {
+                if (sources.contains(SOURCE_TIMELINE_PREFIX + source)) {
+                    owners.add(SOURCE_TIMELINE_PREFIX + source);
+                }
+            }
+        }
+
+        return activityStore.getTimeline(owners, offset, limit);
+    }
+
+    protected Set<String> getHighFanOutSources(ActivityStore activityStore) {
+        long now = System.currentTimeMillis();
+        if (now - highFanOutSourcesLoadTime > HIGH_FAN_OUT_SOURCES_TTL) {
+            highFanOutSources.addAll(activityStore.getTimelineOwners(SOURCE_TIMELINE_PREFIX));
+            highFanOutSourcesLoadTime = now;
+        }
+        return highFanOutSources;
+    }
+
+}
@@ -127,22 +127,13 @@ public class ActivitiesListImpl extends ArrayList<Activity> implements Activitie
 
     @Override
     public List<ActivityMessage> toActivityMessages(Locale locale) {
-        ActivityStreamService activityStreamService = Framework.getService(ActivityStreamService.class);
-        List<ActivityMessage> messages = new ArrayList<>();
-        for (Activity activity : this) {
-            messages.add(activityStreamService.toActivityMessage(activity, locale));
-        }
-        return messages;
+        return toActivityMessages(locale, null);
     }
 
     @Override
     public List<ActivityMessage> toActivityMessages(Locale locale, String activityLinkBuilderName) {
         ActivityStreamService activityStreamService = Framework.getService(ActivityStreamService.class);
-        List<ActivityMessage> messages = new ArrayList<>();
-        for (Activity activity : this) {
-            messages.add(activityStreamService.toActivityMessage(activity, locale, activityLinkBuilderName));
-        }
-        return messages;
+        return activityStreamService.toActivityMessages(this, locale, activityLinkBuilderName);
     }
 
     @Override
@@ -154,4 +145,14 @@ public class ActivitiesListImpl extends ArrayList<Activity> implements Activitie
         return activityIds;
     }
 
+    /**
+     * Serializes this page in the {@link ActivityCodec} format, the activities being deserialized as
+     * {@link ActivityImpl}s.
+     *
+     * @since 11.1
+     */
+    private Object writeReplace() {
+        return new ActivityCodec.SerializedForm(ActivityCodec.encodeActivities(this));
+    }
+
 }
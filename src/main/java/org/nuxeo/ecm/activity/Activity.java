@@ -94,6 +94,41 @@ public interface Activity {
      */
     void setLastUpdatedDate(Date lastUpdatedDate);
 
+    /**
+     * Returns the published date of this {@code Activity} as epoch milliseconds, 0 if not set, without allocating a
+     * {@link Date}.
+     *
+     * @since 11.1
+     */
+    default long getPublishedDateMillis() {
+        Date publishedDate = getPublishedDate();
+        return publishedDate != null ? publishedDate.getTime() : 0;
+    }
+
+    /**
+     * @since 11.1
+     */
+    default void setPublishedDateMillis(long publishedDate) {
+        setPublishedDate(new Date(publishedDate));
+    }
+
+    /**
+     * Returns the last updated date of this {@code Activity} as epoch milliseconds, 0 if not set.
+     *
+     * @since 11.1
+     */
+    default long getLastUpdatedDateMillis() {
+        Date lastUpdatedDate = getLastUpdatedDate();
+        return lastUpdatedDate != null ? lastUpdatedDate.getTime() : 0;
+    }
+
+    /**
+     * @since 11.1
+     */
+    default void setLastUpdatedDateMillis(long lastUpdatedDate) {
+        setLastUpdatedDate(new Date(lastUpdatedDate));
+    }
+
     /**
      * Returns the replies of this {@code Activity}.
      * <p>
@@ -126,4 +161,23 @@ public interface Activity {
 
     Map<String, String> toMap();
 
+    /**
+     * Returns the number of occurrences rolled up in this {@code Activity}, {@code null} if it was not rolled up.
+     *
+     * @since 11.1
+     */
+    default Integer getRollupCount() {
+        return null;
+    }
+
+    /**
+     * Returns the published date of the first occurrence rolled up in this {@code Activity}, {@code null} if it was not
+     * rolled up. The published date is the one of the last occurrence.
+     *
+     * @since 11.1
+     */
+    default Date getRollupStartDate() {
+        return null;
+    }
+
 }
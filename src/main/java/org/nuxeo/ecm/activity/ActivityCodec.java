@@ -0,0 +1,602 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * Compact binary format of the activities, activity replies and activity messages, used to cache, export or send them
+ * to other nodes instead of Java serialization.
+ * <p>
+ * A frame starts with a magic byte, the format version, the kind of its items and their count. Numbers and string
+ * lengths are variable-length integers; ids and dates are written as deltas from the previous ones, which are small
+ * for the pages of activities sorted by id or date. Verbs, display names, actors, objects, targets and contexts go
+ * through a dictionary: the first occurrence of a string in a frame is written in full, the next ones as its index.
+ * New actors, objects, targets and contexts are written as their prefix ({@code user:}, {@code doc:default:}...),
+ * itself through the dictionary, and the rest. The dictionary starts with well-known entries which are part of the
+ * format version and must not change.
+ * <p>
+ * The replies of an {@link Activity} are kept as their JSON text, which is how activities hold them.
+ * <p>
+ * Frames are decoded from a {@link ByteBuffer} without copying it: strings are read in place from heap buffers.
+ *
+ * @since 11.1
+ */
+public final class ActivityCodec {
+
+    public static final byte MAGIC = (byte) 0xAC;
+
+    public static final byte VERSION = 1;
+
+    public static final byte ACTIVITIES = 1;
+
+    public static final byte ACTIVITY_REPLIES = 2;
+
+    public static final byte ACTIVITY_MESSAGES = 3;
+
+    public static final byte ACTIVITY_REPLY_MESSAGES = 4;
+
+    /**
+     * Initial dictionary of the version 1 of the format.
+     */
+    protected static final List<String> DICTIONARY_V1 = Collections.unmodifiableList(Arrays.asList("", "user:",
+            "doc:", "doc:default:", "activity:", "group:", "documentCreated", "documentModified", "documentRemoved",
+            "circle", "Administrator"));
+
+    protected static final byte LONG_ID = 'L';
+
+    protected static final byte STRING_ID = 'S';
+
+    protected static final int HAS_ID = 1;
+
+    protected static final int HAS_PUBLISHED_DATE = 1 << 1;
+
+    protected static final int HAS_LAST_UPDATED_DATE = 1 << 2;
+
+    protected static final int HAS_ROLLUP_START_DATE = 1 << 3;
+
+    private ActivityCodec() {
+        // utility class
+    }
+
+    public static byte[] encodeActivities(Collection<? extends Activity> activities) {
+        Encoder encoder = new Encoder(ACTIVITIES, activities.size(), 128 * (activities.size() + 1));
+        for (Activity activity : activities) {
+            encoder.writeActivity(activity);
+        }
+        return encoder.toByteArray();
+    }
+
+    /**
+     * Decodes the frame of activities starting at the position of the given {@code buffer}, moving it after the frame.
+     *
+     * @throws NuxeoException if the buffer does not start with a frame of activities
+     */
+    public static ActivitiesList decodeActivities(ByteBuffer buffer) {
+        Decoder decoder = new Decoder(buffer, ACTIVITIES);
+        ActivitiesList activities = new ActivitiesListImpl();
+        for (int i = 0; i < decoder.count; i++) {
+            activities.add(decoder.readActivity());
+        }
+        return activities;
+    }
+
+    public static byte[] encodeActivityReplies(Collection<ActivityReply> activityReplies) {
+        Encoder encoder = new Encoder(ACTIVITY_REPLIES, activityReplies.size(), 64 * (activityReplies.size() + 1));
+        for (ActivityReply activityReply : activityReplies) {
+            encoder.writeActivityReply(activityReply);
+        }
+        return encoder.toByteArray();
+    }
+
+    public static List<ActivityReply> decodeActivityReplies(ByteBuffer buffer) {
+        Decoder decoder = new Decoder(buffer, ACTIVITY_REPLIES);
+        List<ActivityReply> activityReplies = new ArrayList<>(decoder.count);
+        for (int i = 0; i < decoder.count; i++) {
+            activityReplies.add(decoder.readActivityReply());
+        }
+        return activityReplies;
+    }
+
+    public static byte[] encodeActivityMessages(Collection<ActivityMessage> activityMessages) {
+        Encoder encoder = new Encoder(ACTIVITY_MESSAGES, activityMessages.size(),
+                256 * (activityMessages.size() + 1));
+        for (ActivityMessage activityMessage : activityMessages) {
+            encoder.writeActivityMessage(activityMessage);
+        }
+        return encoder.toByteArray();
+    }
+
+    public static List<ActivityMessage> decodeActivityMessages(ByteBuffer buffer) {
+        Decoder decoder = new Decoder(buffer, ACTIVITY_MESSAGES);
+        List<ActivityMessage> activityMessages = new ArrayList<>(decoder.count);
+        for (int i = 0; i < decoder.count; i++) {
+            activityMessages.add(decoder.readActivityMessage());
+        }
+        return activityMessages;
+    }
+
+    public static byte[] encodeActivityReplyMessages(Collection<ActivityReplyMessage> activityReplyMessages) {
+        Encoder encoder = new Encoder(ACTIVITY_REPLY_MESSAGES, activityReplyMessages.size(),
+                128 * (activityReplyMessages.size() + 1));
+        for (ActivityReplyMessage activityReplyMessage : activityReplyMessages) {
+            encoder.writeActivityReplyMessage(activityReplyMessage);
+        }
+        return encoder.toByteArray();
+    }
+
+    public static List<ActivityReplyMessage> decodeActivityReplyMessages(ByteBuffer buffer) {
+        Decoder decoder = new Decoder(buffer, ACTIVITY_REPLY_MESSAGES);
+        List<ActivityReplyMessage> activityReplyMessages = new ArrayList<>(decoder.count);
+        for (int i = 0; i < decoder.count; i++) {
+            activityReplyMessages.add(decoder.readActivityReplyMessage());
+        }
+        return activityReplyMessages;
+    }
+
+    /**
+     * Returns the kind of the frame starting at the position of the given {@code buffer}, without moving it.
+     */
+    public static byte readKind(ByteBuffer buffer) {
+        return buffer.get(buffer.position() + 2);
+    }
+
+    protected static class Encoder {
+
+        protected ByteBuffer buffer;
+
+        protected final Map<String, Integer> dictionary = new HashMap<>();
+
+        protected long previousId;
+
+        protected long previousDate;
+
+        protected Encoder(byte kind, int count, int capacity) {
+            buffer = ByteBuffer.allocate(Math.max(capacity, 16));
+            for (String entry : DICTIONARY_V1) {
+                dictionary.put(entry, dictionary.size());
+            }
+            buffer.put(MAGIC);
+            buffer.put(VERSION);
+            buffer.put(kind);
+            writeVarLong(count);
+        }
+
+        protected byte[] toByteArray() {
+            return Arrays.copyOf(buffer.array(), buffer.position());
+        }
+
+        protected void writeActivity(Activity activity) {
+            Serializable id = activity.getId();
+            Date publishedDate = activity.getPublishedDate();
+            Date lastUpdatedDate = activity.getLastUpdatedDate();
+            Date rollupStartDate = activity.getRollupStartDate();
+            int flags = (id != null ? HAS_ID : 0) | (publishedDate != null ? HAS_PUBLISHED_DATE : 0)
+                    | (lastUpdatedDate != null ? HAS_LAST_UPDATED_DATE : 0)
+                    | (rollupStartDate != null ? HAS_ROLLUP_START_DATE : 0);
+            writeVarLong(flags);
+            if (id != null) {
+                writeIdDelta(id instanceof Number ? ((Number) id).longValue() : Long.parseLong(id.toString()));
+            }
+            if (publishedDate != null) {
+                writeDateDelta(publishedDate.getTime());
+            }
+            if (lastUpdatedDate != null) {
+                writeZigZag(lastUpdatedDate.getTime() - previousDate);
+            }
+            if (rollupStartDate != null) {
+                writeZigZag(rollupStartDate.getTime() - previousDate);
+            }
+            Integer replyCount = activity instanceof ActivityImpl ? ((ActivityImpl) activity).getReplyCount() : null;
+            writeVarLong(replyCount != null ? replyCount + 1L : 0);
+            writeVarLong(activity.getRollupCount() != null ? activity.getRollupCount() + 1L : 0);
+            writeIdentifier(activity.getActor());
+            writeDictionaryString(activity.getDisplayActor());
+            writeDictionaryString(activity.getVerb());
+            writeIdentifier(activity.getObject());
+            writeDictionaryString(activity.getDisplayObject());
+            writeIdentifier(activity.getTarget());
+            writeDictionaryString(activity.getDisplayTarget());
+            writeIdentifier(activity.getContext());
+            writeString(activity.getReplies());
+        }
+
+        protected void writeActivityReply(ActivityReply activityReply) {
+            writeString(activityReply.getId());
+            writeIdentifier(activityReply.getActor());
+            writeDictionaryString(activityReply.getDisplayActor());
+            writeString(activityReply.getMessage());
+            writeDateDelta(activityReply.getPublishedDate());
+        }
+
+        protected void writeActivityMessage(ActivityMessage activityMessage) {
+            Serializable activityId = activityMessage.getActivityId();
+            boolean hasPublishedDate = activityMessage.getPublishedDateMillis() != 0
+                    || activityMessage.getPublishedDate() != null;
+            int flags = (activityId != null ? HAS_ID : 0) | (hasPublishedDate ? HAS_PUBLISHED_DATE : 0);
+            writeVarLong(flags);
+            if (activityId instanceof Long) {
+                buffer.put(LONG_ID);
+                writeIdDelta((Long) activityId);
+            } else if (activityId != null) {
+                buffer.put(STRING_ID);
+                writeString(activityId.toString());
+            }
+            if (hasPublishedDate) {
+                writeDateDelta(activityMessage.getPublishedDateMillis());
+            }
+            writeIdentifier(activityMessage.getActor());
+            writeDictionaryString(activityMessage.getDisplayActor());
+            writeDictionaryString(activityMessage.getDisplayActorLink());
+            writeDictionaryString(activityMessage.getVerb());
+            writeString(activityMessage.getMessage());
+            writeDictionaryString(activityMessage.getIcon());
+            List<ActivityReplyMessage> replies = activityMessage.getActivityReplyMessages();
+            writeVarLong(replies != null ? replies.size() + 1L : 0);
+            if (replies != null) {
+                for (ActivityReplyMessage reply : replies) {
+                    writeActivityReplyMessage(reply);
+                }
+            }
+        }
+
+        protected void writeActivityReplyMessage(ActivityReplyMessage activityReplyMessage) {
+            writeString(activityReplyMessage.getActivityReplyId());
+            writeIdentifier(activityReplyMessage.getActor());
+            writeDictionaryString(activityReplyMessage.getDisplayActor());
+            writeDictionaryString(activityReplyMessage.getDisplayActorLink());
+            writeString(activityReplyMessage.getMessage());
+            writeDateDelta(activityReplyMessage.getPublishedDate());
+        }
+
+        protected void ensureCapacity(int size) {
+            if (buffer.remaining() < size) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+
+        protected void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        protected void writeZigZag(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        protected void writeIdDelta(long id) {
+            writeZigZag(id - previousId);
+            previousId = id;
+        }
+
+        protected void writeDateDelta(long date) {
+            writeZigZag(date - previousDate);
+            previousDate = date;
+        }
+
+        protected void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1L);
+            ensureCapacity(bytes.length);
+            buffer.put(bytes);
+        }
+
+        /**
+         * Writes 0 for {@code null}, the index of a known string shifted left with the low bit set, or the length of a
+         * new string shifted left followed by its bytes.
+         */
+        protected void writeDictionaryString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            Integer index = dictionary.get(value);
+            if (index != null) {
+                writeVarLong(((long) index << 1) | 1);
+                return;
+            }
+            dictionary.put(value, dictionary.size());
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong((bytes.length + 1L) << 1);
+            ensureCapacity(bytes.length);
+            buffer.put(bytes);
+        }
+
+        /**
+         * Writes an actor, object, target or context as 0 for {@code null}, as its index shifted left with the low bit
+         * set when already written, or as 2 followed by its prefix, up to the last {@code :}, through the dictionary
+         * and the rest as a plain string.
+         */
+        protected void writeIdentifier(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            Integer index = dictionary.get(value);
+            if (index != null) {
+                writeVarLong(((long) index << 1) | 1);
+                return;
+            }
+            writeVarLong(2);
+            int separator = value.lastIndexOf(ActivityHelper.SEPARATOR) + 1;
+            writeDictionaryString(value.substring(0, separator));
+            writeString(value.substring(separator));
+            dictionary.putIfAbsent(value, dictionary.size());
+        }
+
+    }
+
+    protected static class Decoder {
+
+        protected final ByteBuffer buffer;
+
+        protected final List<String> dictionary = new ArrayList<>(DICTIONARY_V1);
+
+        protected final int count;
+
+        protected long previousId;
+
+        protected long previousDate;
+
+        protected Decoder(ByteBuffer buffer, byte kind) {
+            this.buffer = buffer;
+            if (buffer.remaining() < 4 || buffer.get() != MAGIC) {
+                throw new NuxeoException("Invalid activity frame");
+            }
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new NuxeoException(String.format("Unsupported activity frame version: %d", version));
+            }
+            byte frameKind = buffer.get();
+            if (frameKind != kind) {
+                throw new NuxeoException(String.format("Unexpected activity frame kind: %d, expected %d", frameKind,
+                        kind));
+            }
+            count = (int) readVarLong();
+        }
+
+        protected ActivityImpl readActivity() {
+            ActivityImpl activity = new ActivityImpl();
+            int flags = (int) readVarLong();
+            if ((flags & HAS_ID) != 0) {
+                activity.setId(readIdDelta());
+            }
+            if ((flags & HAS_PUBLISHED_DATE) != 0) {
+                activity.setPublishedDateMillis(readDateDelta());
+            }
+            if ((flags & HAS_LAST_UPDATED_DATE) != 0) {
+                activity.setLastUpdatedDateMillis(previousDate + readZigZag());
+            }
+            if ((flags & HAS_ROLLUP_START_DATE) != 0) {
+                activity.setRollupStartDate(new Date(previousDate + readZigZag()));
+            }
+            long replyCount = readVarLong();
+            activity.setReplyCount(replyCount > 0 ? (int) replyCount - 1 : null);
+            long rollupCount = readVarLong();
+            activity.setRollupCount(rollupCount > 0 ? (int) rollupCount - 1 : null);
+            activity.setActor(readIdentifier());
+            activity.setDisplayActor(readDictionaryString());
+            activity.setVerb(readDictionaryString());
+            activity.setObject(readIdentifier());
+            activity.setDisplayObject(readDictionaryString());
+            activity.setTarget(readIdentifier());
+            activity.setDisplayTarget(readDictionaryString());
+            activity.setContext(readIdentifier());
+            activity.setReplies(readString());
+            return activity;
+        }
+
+        protected ActivityReply readActivityReply() {
+            ActivityReply activityReply = new ActivityReply();
+            activityReply.setId(readString());
+            activityReply.setActor(readIdentifier());
+            activityReply.setDisplayActor(readDictionaryString());
+            activityReply.setMessage(readString());
+            activityReply.setPublishedDate(readDateDelta());
+            return activityReply;
+        }
+
+        protected ActivityMessage readActivityMessage() {
+            int flags = (int) readVarLong();
+            Serializable activityId = null;
+            if ((flags & HAS_ID) != 0) {
+                activityId = buffer.get() == LONG_ID ? readIdDelta() : readString();
+            }
+            long publishedDate = (flags & HAS_PUBLISHED_DATE) != 0 ? readDateDelta() : Long.MIN_VALUE;
+            String actor = readIdentifier();
+            String displayActor = readDictionaryString();
+            String displayActorLink = readDictionaryString();
+            String verb = readDictionaryString();
+            String message = readString();
+            String icon = readDictionaryString();
+            List<ActivityReplyMessage> replies = null;
+            long repliesCount = readVarLong();
+            if (repliesCount > 0) {
+                replies = new ArrayList<>((int) repliesCount - 1);
+                for (int i = 0; i < repliesCount - 1; i++) {
+                    replies.add(readActivityReplyMessage());
+                }
+            }
+            return new ActivityMessage(activityId, actor, displayActor, displayActorLink, verb, message,
+                    publishedDate, icon, replies);
+        }
+
+        protected ActivityReplyMessage readActivityReplyMessage() {
+            String activityReplyId = readString();
+            String actor = readIdentifier();
+            String displayActor = readDictionaryString();
+            String displayActorLink = readDictionaryString();
+            String message = readString();
+            long publishedDate = readDateDelta();
+            return new ActivityReplyMessage(activityReplyId, actor, displayActor, displayActorLink, message,
+                    publishedDate);
+        }
+
+        protected long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        protected long readZigZag() {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        protected long readIdDelta() {
+            previousId += readZigZag();
+            return previousId;
+        }
+
+        protected long readDateDelta() {
+            previousDate += readZigZag();
+            return previousDate;
+        }
+
+        protected String readString() {
+            long length = readVarLong();
+            return length == 0 ? null : readUTF8((int) length - 1);
+        }
+
+        protected String readDictionaryString() {
+            long tag = readVarLong();
+            if (tag == 0) {
+                return null;
+            }
+            if ((tag & 1) != 0) {
+                return dictionary.get((int) (tag >>> 1));
+            }
+            String value = readUTF8((int) (tag >>> 1) - 1);
+            dictionary.add(value);
+            return value;
+        }
+
+        protected String readIdentifier() {
+            long tag = readVarLong();
+            if (tag == 0) {
+                return null;
+            }
+            if ((tag & 1) != 0) {
+                return dictionary.get((int) (tag >>> 1));
+            }
+            String prefix = readDictionaryString();
+            String rest = readString();
+            String value = prefix.isEmpty() ? rest : prefix.concat(rest);
+            if (!value.equals(prefix)) {
+                dictionary.add(value);
+            }
+            return value;
+        }
+
+        protected String readUTF8(int length) {
+            String value;
+            if (buffer.hasArray()) {
+                // read in place, without an intermediate copy
+                value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                        StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + length);
+            } else {
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return value;
+        }
+
+    }
+
+    /**
+     * Serialized form of the activity pages and messages, replacing them in Java serialization by their frame.
+     */
+    public static class SerializedForm implements Externalizable {
+
+        private static final long serialVersionUID = 1L;
+
+        protected byte[] bytes;
+
+        public SerializedForm() {
+            // for deserialization
+        }
+
+        public SerializedForm(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        @Override
+        public void readExternal(ObjectInput in) throws IOException {
+            bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+        }
+
+        /**
+         * Returns a page of activities as an {@link ActivitiesList}, and a message or reply message as itself.
+         */
+        protected Object readResolve() {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            switch (readKind(buffer)) {
+            case ACTIVITIES:
+                return decodeActivities(buffer);
+            case ACTIVITY_MESSAGES:
+                return decodeActivityMessages(buffer).get(0);
+            case ACTIVITY_REPLY_MESSAGES:
+                return decodeActivityReplyMessages(buffer).get(0);
+            default:
+                throw new NuxeoException(String.format("Unexpected activity frame kind: %d", readKind(buffer)));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.io.Serializable;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Number of activities for a given actor, object or context, as returned by the top-N counters queries.
+ *
+ * @since 11.1
+ */
+public class ActivityCount implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    protected final String value;
+
+    protected final long count;
+
+    public ActivityCount(String value, long count) {
+        this.value = value;
+        this.count = count;
+    }
+
+    /**
+     * Returns the actor, object or context counted.
+     */
+    public String getValue() {
+        return value;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return ToStringBuilder.reflectionToString(this);
+    }
+
+}
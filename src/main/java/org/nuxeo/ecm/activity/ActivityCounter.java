@@ -0,0 +1,178 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * Pre-aggregated number of activities of a given verb, for a given actor, object or context, during a given hour or
+ * day.
+ * <p>
+ * The id of a counter is built from all its keys, see {@link #computeId(Dimension, String, String, Granularity, Date)}.
+ *
+ * @since 11.1
+ */
+@Entity(name = "ActivityCounter")
+@Table(name = "nxp_activity_counters")
+public class ActivityCounter {
+
+    /**
+     * Attribute of the activities a counter is about.
+     */
+    public enum Dimension {
+        ACTOR, OBJECT, CONTEXT;
+
+        public String getValue(Activity activity) {
+            switch (this) {
+            case ACTOR:
+                return activity.getActor();
+            case OBJECT:
+                return activity.getObject();
+            default:
+                return activity.getContext();
+            }
+        }
+    }
+
+    /**
+     * Duration of the time bucket of a counter. Buckets are aligned on UTC hours and days.
+     */
+    public enum Granularity {
+        HOUR(TimeUnit.HOURS.toMillis(1)), DAY(TimeUnit.DAYS.toMillis(1));
+
+        protected final long duration;
+
+        Granularity(long duration) {
+            this.duration = duration;
+        }
+
+        /**
+         * Returns the start of the bucket containing the given {@code date}.
+         */
+        public Date getBucket(Date date) {
+            long time = date.getTime();
+            return new Date(time - Math.floorMod(time, duration));
+        }
+    }
+
+    private String id;
+
+    private String dimension;
+
+    private String dimensionValue;
+
+    private String verb;
+
+    private String granularity;
+
+    private Date bucket;
+
+    private Long count;
+
+    public ActivityCounter() {
+    }
+
+    public ActivityCounter(Dimension dimension, String dimensionValue, String verb, Granularity granularity,
+            Date bucket, long count) {
+        this.id = computeId(dimension, dimensionValue, verb, granularity, bucket);
+        this.dimension = dimension.name();
+        this.dimensionValue = dimensionValue;
+        this.verb = verb;
+        this.granularity = granularity.name();
+        this.bucket = bucket;
+        this.count = count;
+    }
+
+    public static String computeId(Dimension dimension, String dimensionValue, String verb, Granularity granularity,
+            Date bucket) {
+        return dimension.name() + '|' + granularity.name() + '|' + bucket.getTime() + '|' + verb + '|'
+                + dimensionValue;
+    }
+
+    @Id
+    @Column(nullable = false, length = 1024)
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    @Column(nullable = false)
+    public String getDimension() {
+        return dimension;
+    }
+
+    public void setDimension(String dimension) {
+        this.dimension = dimension;
+    }
+
+    @Column(nullable = false)
+    public String getDimensionValue() {
+        return dimensionValue;
+    }
+
+    public void setDimensionValue(String dimensionValue) {
+        this.dimensionValue = dimensionValue;
+    }
+
+    @Column
+    public String getVerb() {
+        return verb;
+    }
+
+    public void setVerb(String verb) {
+        this.verb = verb;
+    }
+
+    @Column(nullable = false)
+    public String getGranularity() {
+        return granularity;
+    }
+
+    public void setGranularity(String granularity) {
+        this.granularity = granularity;
+    }
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(nullable = false)
+    public Date getBucket() {
+        return bucket;
+    }
+
+    public void setBucket(Date bucket) {
+        this.bucket = bucket;
+    }
+
+    @Column(nullable = false)
+    public Long getCount() {
+        return count;
+    }
+
+    public void setCount(Long count) {
+        this.count = count;
+    }
+
+}
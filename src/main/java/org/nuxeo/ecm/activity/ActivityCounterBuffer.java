@@ -0,0 +1,150 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Buffers the deltas of the {@link ActivityCounter}s and writes them in batch, out of the transactions storing the
+ * activities.
+ * <p>
+ * The deltas of a same counter are summed in memory, so that a hot counter, the one of a busy context for instance, is
+ * written once per flush instead of once per activity. The deltas are written every {@code flushDelay} milliseconds by
+ * a single daemon thread, through the given {@code writer}, which must either write a whole batch or throw without
+ * writing anything: the batch is then kept for the next flush.
+ * <p>
+ * The deltas are only kept in memory: the ones of the activities committed during the last {@code flushDelay}
+ * milliseconds, and longer while the writes fail, are lost if the server stops without {@link #shutdown()}, leaving
+ * the counters below the actual number of activities. They can then be rebuilt from the stored activities, see
+ * {@link ActivityStreamServiceImpl#rebuildCounters()}.
+ *
+ * @since 11.1
+ */
+public class ActivityCounterBuffer {
+
+    private static final Log log = LogFactory.getLog(ActivityCounterBuffer.class);
+
+    protected final ConcurrentMap<String, ActivityCounter> deltas = new ConcurrentHashMap<>();
+
+    protected final Consumer<Collection<ActivityCounter>> writer;
+
+    protected final ScheduledExecutorService executor;
+
+    public ActivityCounterBuffer(long flushDelay, Consumer<Collection<ActivityCounter>> writer) {
+        this.writer = writer;
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Nuxeo-Activity-Counters");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::write, flushDelay, flushDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds the given deltas, holding the number of activities to add in their count, to the buffered ones.
+     */
+    public void add(Collection<ActivityCounter> counters) {
+        for (ActivityCounter counter : counters) {
+            deltas.merge(counter.getId(), counter, ActivityCounterBuffer::sum);
+        }
+    }
+
+    protected static ActivityCounter sum(ActivityCounter counter, ActivityCounter delta) {
+        ActivityCounter sum = new ActivityCounter();
+        sum.setId(counter.getId());
+        sum.setDimension(counter.getDimension());
+        sum.setDimensionValue(counter.getDimensionValue());
+        sum.setVerb(counter.getVerb());
+        sum.setGranularity(counter.getGranularity());
+        sum.setBucket(counter.getBucket());
+        sum.setCount(counter.getCount() + delta.getCount());
+        return sum;
+    }
+
+    /**
+     * Returns the number of counters having some buffered deltas.
+     */
+    public int size() {
+        return deltas.size();
+    }
+
+    /**
+     * Writes the buffered deltas and waits for their writing, so that the caller reads up-to-date counters.
+     */
+    public void flush() {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        try {
+            executor.submit(this::write).get();
+        } catch (RejectedExecutionException e) {
+            log.debug("Activity counters buffer is shut down", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error(String.format("Unable to flush the activity counters: %s", e.getMessage()));
+            log.debug(e, e);
+        }
+    }
+
+    /**
+     * Stops the periodic flushes and writes the buffered deltas.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        write();
+    }
+
+    protected synchronized void write() {
+        List<ActivityCounter> counters = new ArrayList<>();
+        for (String id : deltas.keySet()) {
+            ActivityCounter counter = deltas.remove(id);
+            if (counter != null && counter.getCount() != 0) {
+                counters.add(counter);
+            }
+        }
+        if (counters.isEmpty()) {
+            return;
+        }
+        try {
+            writer.accept(counters);
+        } catch (RuntimeException e) {
+            log.error(String.format("Unable to write %d activity counters, retrying on next flush: %s",
+                    counters.size(), e.getMessage()));
+            log.debug(e, e);
+            add(counters);
+        }
+    }
+
+}
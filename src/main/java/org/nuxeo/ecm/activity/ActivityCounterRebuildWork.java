@@ -0,0 +1,65 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import org.nuxeo.ecm.core.work.AbstractWork;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Work rebuilding the {@link ActivityCounter}s from the stored activities.
+ * <p>
+ * The work is not transactional: the activities are read by batches, and the counters written by the
+ * {@link ActivityCounterBuffer}.
+ *
+ * @since 11.1
+ */
+public class ActivityCounterRebuildWork extends AbstractWork {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String ID = "activityCounterRebuild";
+
+    public static final String CATEGORY = "activityCounterRebuild";
+
+    public ActivityCounterRebuildWork() {
+        // fixed id so that only one rebuild is scheduled at a time
+        super(ID);
+    }
+
+    @Override
+    public String getTitle() {
+        return "Activity counters rebuild";
+    }
+
+    @Override
+    public String getCategory() {
+        return CATEGORY;
+    }
+
+    @Override
+    public boolean isTransactional() {
+        return false;
+    }
+
+    @Override
+    public void work() {
+        setStatus("Rebuilding activity counters");
+        ActivityStreamService activityStreamService = Framework.getService(ActivityStreamService.class);
+        ((ActivityStreamServiceImpl) activityStreamService).rebuildCounters();
+        setStatus("Done");
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Criteria selecting activities directly in the storage, without loading them.
+ * <p>
+ * All the given criteria must match, each one matching if the activity has one of its values:
+ *
+ * <pre>
+ * new ActivityCriteria().objects(docActivityObjects).verbs(DOCUMENT_CREATED, DOCUMENT_UPDATED).publishedBefore(date)
+ * </pre>
+ *
+ * @since 11.1
+ */
+public class ActivityCriteria implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    protected final List<String> actors = new ArrayList<>();
+
+    protected final List<String> objects = new ArrayList<>();
+
+    protected final List<String> targets = new ArrayList<>();
+
+    protected final List<String> contexts = new ArrayList<>();
+
+    protected final List<String> verbs = new ArrayList<>();
+
+    protected Date publishedAfter;
+
+    protected Date publishedBefore;
+
+    public ActivityCriteria actors(String... actors) {
+        return actors(Arrays.asList(actors));
+    }
+
+    public ActivityCriteria actors(Collection<String> actors) {
+        this.actors.addAll(actors);
+        return this;
+    }
+
+    public ActivityCriteria objects(String... objects) {
+        return objects(Arrays.asList(objects));
+    }
+
+    public ActivityCriteria objects(Collection<String> objects) {
+        this.objects.addAll(objects);
+        return this;
+    }
+
+    public ActivityCriteria targets(String... targets) {
+        return targets(Arrays.asList(targets));
+    }
+
+    public ActivityCriteria targets(Collection<String> targets) {
+        this.targets.addAll(targets);
+        return this;
+    }
+
+    public ActivityCriteria contexts(String... contexts) {
+        return contexts(Arrays.asList(contexts));
+    }
+
+    public ActivityCriteria contexts(Collection<String> contexts) {
+        this.contexts.addAll(contexts);
+        return this;
+    }
+
+    public ActivityCriteria verbs(String... verbs) {
+        return verbs(Arrays.asList(verbs));
+    }
+
+    public ActivityCriteria verbs(Collection<String> verbs) {
+        this.verbs.addAll(verbs);
+        return this;
+    }
+
+    /**
+     * Selects the activities published at or after the given {@code date}.
+     */
+    public ActivityCriteria publishedAfter(Date date) {
+        publishedAfter = date;
+        return this;
+    }
+
+    /**
+     * Selects the activities published strictly before the given {@code date}.
+     */
+    public ActivityCriteria publishedBefore(Date date) {
+        publishedBefore = date;
+        return this;
+    }
+
+    /**
+     * Selects the activities published at or after the given epoch milliseconds.
+     *
+     * @since 11.1
+     */
+    public ActivityCriteria publishedAfter(long date) {
+        return publishedAfter(new Date(date));
+    }
+
+    /**
+     * Selects the activities published strictly before the given epoch milliseconds.
+     *
+     * @since 11.1
+     */
+    public ActivityCriteria publishedBefore(long date) {
+        return publishedBefore(new Date(date));
+    }
+
+    public List<String> getActors() {
+        return actors;
+    }
+
+    public List<String> getObjects() {
+        return objects;
+    }
+
+    public List<String> getTargets() {
+        return targets;
+    }
+
+    public List<String> getContexts() {
+        return contexts;
+    }
+
+    public List<String> getVerbs() {
+        return verbs;
+    }
+
+    public Date getPublishedAfter() {
+        return publishedAfter;
+    }
+
+    public Date getPublishedBefore() {
+        return publishedBefore;
+    }
+
+    /**
+     * Returns {@code true} if no criterion is set, ie. if all the activities match.
+     */
+    public boolean isEmpty() {
+        return actors.isEmpty() && objects.isEmpty() && targets.isEmpty() && contexts.isEmpty() && verbs.isEmpty()
+                && publishedAfter == null && publishedBefore == null;
+    }
+
+    /**
+     * Returns {@code true} if the given {@code activity} matches all the criteria, for stores filtering in memory.
+     */
+    public boolean matches(Activity activity) {
+        if (!matches(actors, activity.getActor()) || !matches(objects, activity.getObject())
+                || !matches(targets, activity.getTarget()) || !matches(contexts, activity.getContext())
+                || !matches(verbs, activity.getVerb())) {
+            return false;
+        }
+        long publishedDate = activity.getPublishedDateMillis();
+        if (publishedAfter != null && publishedDate < publishedAfter.getTime()) {
+            return false;
+        }
+        return publishedBefore == null || publishedDate < publishedBefore.getTime();
+    }
+
+    protected static boolean matches(List<String> values, String value) {
+        return values.isEmpty() || values.contains(value);
+    }
+
+    @Override
+    public String toString() {
+        return ToStringBuilder.reflectionToString(this);
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Formats the dates of the rendered activities and replies, in the medium date style of a locale.
+ * <p>
+ * The immutable {@link DateTimeFormatter} of each locale is cached, and so is its last formatted day: the dates of a
+ * page of activities are mostly in the same few days, and a date within the cached day is formatted without any
+ * computation.
+ *
+ * @since 11.1
+ */
+public final class ActivityDateFormatter {
+
+    /**
+     * Maximum number of cached locales, the locale of a request being possibly any language.
+     */
+    public static final int MAX_LOCALES = 128;
+
+    private static final Map<Locale, ActivityDateFormatter> FORMATTERS = new ConcurrentHashMap<>();
+
+    private final DateTimeFormatter formatter;
+
+    private final ZoneId zone;
+
+    private volatile FormattedDay lastDay;
+
+    private static final class FormattedDay {
+
+        private final long start;
+
+        private final long end;
+
+        private final String text;
+
+        private FormattedDay(long start, long end, String text) {
+            this.start = start;
+            this.end = end;
+            this.text = text;
+        }
+
+    }
+
+    private ActivityDateFormatter(Locale locale) {
+        formatter = DateTimeFormatter.ofLocalizedDate(FormatStyle.MEDIUM).withLocale(locale);
+        zone = ZoneId.systemDefault();
+    }
+
+    /**
+     * Returns the formatter of the given {@code locale}, of the default locale if {@code null}.
+     */
+    public static ActivityDateFormatter of(Locale locale) {
+        Locale l = locale != null ? locale : Locale.getDefault();
+        ActivityDateFormatter dateFormatter = FORMATTERS.get(l);
+        if (dateFormatter == null) {
+            dateFormatter = new ActivityDateFormatter(l);
+            if (FORMATTERS.size() < MAX_LOCALES) {
+                FORMATTERS.putIfAbsent(l, dateFormatter);
+            }
+        }
+        return dateFormatter;
+    }
+
+    public static String formatDate(long date, Locale locale) {
+        return of(locale).format(date);
+    }
+
+    public static String formatDate(Date date, Locale locale) {
+        return of(locale).format(date.getTime());
+    }
+
+    /**
+     * Formats the day of the given epoch milliseconds.
+     */
+    public String format(long date) {
+        FormattedDay day = lastDay;
+        if (day != null && date >= day.start && date < day.end) {
+            return day.text;
+        }
+        LocalDate localDate = Instant.ofEpochMilli(date).atZone(zone).toLocalDate();
+        day = new FormattedDay(localDate.atStartOfDay(zone).toInstant().toEpochMilli(),
+                localDate.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli(), formatter.format(localDate));
+        lastDay = day;
+        return day.text;
+    }
+
+}
@@ -85,7 +85,7 @@ public class ActivityHelper {
     public static String getRepositoryName(String activityObject) {
         if (isDocument(activityObject)) {
             String[] v = activityObject.split(":");
-            return v[1];
+            return ActivityStrings.dedup(v[1]);
         }
         return "";
     }
@@ -20,13 +20,18 @@
 package org.nuxeo.ecm.activity;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.io.StringWriter;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -60,6 +65,13 @@ public class ActivityImpl implements Activity {
 
     private static final Log log = LogFactory.getLog(ActivityImpl.class);
 
+    /**
+     * The keys of {@link #toMap()}.
+     */
+    protected static final Set<String> FIELDS = Collections.unmodifiableSet(new LinkedHashSet<>(
+            Arrays.asList("id", "actor", "displayActor", "object", "displayObject", "target", "displayTarget", "verb",
+                    "context", "publishedDate", "lastUpdatedDate", "replies", "rollupCount")));
+
     private Long id;
 
     private String actor;
@@ -78,12 +90,23 @@ public class ActivityImpl implements Activity {
 
     private String context;
 
-    private Date publishedDate;
+    /**
+     * Value of the dates not set, the dates being held as epoch milliseconds.
+     */
+    protected static final long NO_DATE = Long.MIN_VALUE;
+
+    private long publishedDate = NO_DATE;
 
-    private Date lastUpdatedDate;
+    private long lastUpdatedDate = NO_DATE;
 
     private String replies;
 
+    private Integer replyCount = 0;
+
+    private Integer rollupCount;
+
+    private Date rollupStartDate;
+
     @Id
     @GeneratedValue(strategy = GenerationType.AUTO)
     @Column(nullable = false, columnDefinition = "integer")
@@ -104,7 +127,7 @@ public class ActivityImpl implements Activity {
 
     @Override
     public void setActor(String actor) {
-        this.actor = actor;
+        this.actor = ActivityStrings.dedup(actor);
     }
 
     @Column
@@ -115,7 +138,7 @@ public class ActivityImpl implements Activity {
 
     @Override
     public void setDisplayActor(String displayActor) {
-        this.displayActor = displayActor;
+        this.displayActor = ActivityStrings.dedup(displayActor);
     }
 
     @Column
@@ -126,7 +149,7 @@ public class ActivityImpl implements Activity {
 
     @Override
     public void setVerb(String verb) {
-        this.verb = verb;
+        this.verb = ActivityStrings.dedup(verb);
     }
 
     @Column
@@ -137,7 +160,7 @@ public class ActivityImpl implements Activity {
 
     @Override
     public void setObject(String object) {
-        this.object = object;
+        this.object = ActivityStrings.dedup(object);
     }
 
     @Column
@@ -148,7 +171,7 @@ public class ActivityImpl implements Activity {
 
     @Override
     public void setDisplayObject(String displayObject) {
-        this.displayObject = displayObject;
+        this.displayObject = ActivityStrings.dedup(displayObject);
     }
 
     @Column
@@ -159,7 +182,7 @@ public class ActivityImpl implements Activity {
 
     @Override
     public void setTarget(String target) {
-        this.target = target;
+        this.target = ActivityStrings.dedup(target);
     }
 
     @Column
@@ -170,7 +193,7 @@ public class ActivityImpl implements Activity {
 
     @Override
     public void setDisplayTarget(String displayTarget) {
-        this.displayTarget = displayTarget;
+        this.displayTarget = ActivityStrings.dedup(displayTarget);
     }
 
     @Column
@@ -181,18 +204,35 @@ public class ActivityImpl implements Activity {
 
     @Override
     public void setContext(String context) {
-        this.context = context;
+        this.context = ActivityStrings.dedup(context);
     }
 
     @Temporal(TemporalType.TIMESTAMP)
     @Column(nullable = false)
     @Override
     public Date getPublishedDate() {
-        return publishedDate;
+        return publishedDate != NO_DATE ? new Date(publishedDate) : null;
     }
 
     @Override
     public void setPublishedDate(Date publishedDate) {
+        this.publishedDate = publishedDate != null ? publishedDate.getTime() : NO_DATE;
+    }
+
+    /**
+     * @since 11.1
+     */
+    @Transient
+    @Override
+    public long getPublishedDateMillis() {
+        return publishedDate != NO_DATE ? publishedDate : 0;
+    }
+
+    /**
+     * @since 11.1
+     */
+    @Override
+    public void setPublishedDateMillis(long publishedDate) {
         this.publishedDate = publishedDate;
     }
 
@@ -200,12 +240,29 @@ public class ActivityImpl implements Activity {
     @Column
     @Override
     public Date getLastUpdatedDate() {
-        return lastUpdatedDate;
+        return lastUpdatedDate != NO_DATE ? new Date(lastUpdatedDate) : null;
     }
 
     @Override
     public void setLastUpdatedDate(Date lastUpdated) {
-        this.lastUpdatedDate = lastUpdated;
+        this.lastUpdatedDate = lastUpdated != null ? lastUpdated.getTime() : NO_DATE;
+    }
+
+    /**
+     * @since 11.1
+     */
+    @Transient
+    @Override
+    public long getLastUpdatedDateMillis() {
+        return lastUpdatedDate != NO_DATE ? lastUpdatedDate : 0;
+    }
+
+    /**
+     * @since 11.1
+     */
+    @Override
+    public void setLastUpdatedDateMillis(long lastUpdatedDate) {
+        this.lastUpdatedDate = lastUpdatedDate;
     }
 
     @Column
@@ -220,9 +277,36 @@ public class ActivityImpl implements Activity {
         this.replies = replies;
     }
 
+    /**
+     * Returns the number of replies of this {@code Activity}, {@code null} if the activity was stored before the
+     * number of replies was tracked.
+     *
+     * @since 11.1
+     */
+    @Column
+    public Integer getReplyCount() {
+        return replyCount;
+    }
+
+    /**
+     * @since 11.1
+     */
+    public void setReplyCount(Integer replyCount) {
+        this.replyCount = replyCount;
+    }
+
     @Transient
     @Override
     public List<ActivityReply> getActivityReplies() {
+        return toActivityReplies(replies);
+    }
+
+    /**
+     * Converts the JSON string {@code replies} to a list of {@link ActivityReply}.
+     *
+     * @since 11.1
+     */
+    protected static List<ActivityReply> toActivityReplies(String replies) {
         if (replies == null) {
             return new ArrayList<ActivityReply>();
         }
@@ -245,28 +329,118 @@ public class ActivityImpl implements Activity {
             StringWriter writer = new StringWriter();
             mapper.writeValue(writer, activityReplies);
             replies = writer.toString();
+            replyCount = activityReplies.size();
         } catch (IOException e) {
             log.warn(String.format("Unable to convert replies to ActivityReply: %s", e.getMessage()));
             log.debug(e, e);
         }
     }
 
+    /**
+     * @since 11.1
+     */
+    @Column
+    @Override
+    public Integer getRollupCount() {
+        return rollupCount;
+    }
+
+    /**
+     * @since 11.1
+     */
+    public void setRollupCount(Integer rollupCount) {
+        this.rollupCount = rollupCount;
+    }
+
+    /**
+     * @since 11.1
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column
+    @Override
+    public Date getRollupStartDate() {
+        return rollupStartDate;
+    }
+
+    /**
+     * @since 11.1
+     */
+    public void setRollupStartDate(Date rollupStartDate) {
+        this.rollupStartDate = rollupStartDate;
+    }
+
     @Override
     public Map<String, String> toMap() {
-        Map<String, String> m = new HashMap<String, String>();
-        m.put("id", String.valueOf(id));
-        m.put("actor", actor);
-        m.put("displayActor", displayActor);
-        m.put("object", object);
-        m.put("displayObject", displayObject);
-        m.put("target", target);
-        m.put("displayTarget", displayTarget);
-        m.put("verb", verb);
-        m.put("context", context);
-        m.put("publishedDate", publishedDate.toString());
-        m.put("lastUpdatedDate", lastUpdatedDate != null ? lastUpdatedDate.toString() : null);
-        m.put("replies", replies);
-        return Collections.unmodifiableMap(m);
+        return new FieldsMap(this);
+    }
+
+    /**
+     * Read-only snapshot of the fields of an activity, taken when it is created. The dates are formatted only when
+     * they are first read.
+     *
+     * @since 11.1
+     */
+    protected static class FieldsMap extends AbstractMap<String, String> implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        protected final Map<String, String> fields = new HashMap<>();
+
+        protected final long publishedDate;
+
+        protected final long lastUpdatedDate;
+
+        protected volatile String formattedPublishedDate;
+
+        protected volatile String formattedLastUpdatedDate;
+
+        protected FieldsMap(ActivityImpl activity) {
+            fields.put("id", String.valueOf(activity.id));
+            fields.put("actor", activity.actor);
+            fields.put("displayActor", activity.displayActor);
+            fields.put("object", activity.object);
+            fields.put("displayObject", activity.displayObject);
+            fields.put("target", activity.target);
+            fields.put("displayTarget", activity.displayTarget);
+            fields.put("verb", activity.verb);
+            fields.put("context", activity.context);
+            fields.put("replies", activity.replies);
+            fields.put("rollupCount", String.valueOf(activity.rollupCount != null ? activity.rollupCount : 1));
+            publishedDate = activity.publishedDate;
+            lastUpdatedDate = activity.lastUpdatedDate;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return FIELDS.contains(key);
+        }
+
+        @Override
+        public String get(Object key) {
+            if ("publishedDate".equals(key)) {
+                if (formattedPublishedDate == null) {
+                    formattedPublishedDate = String.valueOf(publishedDate != NO_DATE ? new Date(publishedDate) : null);
+                }
+                return formattedPublishedDate;
+            }
+            if ("lastUpdatedDate".equals(key)) {
+                if (formattedLastUpdatedDate == null && lastUpdatedDate != NO_DATE) {
+                    formattedLastUpdatedDate = new Date(lastUpdatedDate).toString();
+                }
+                return formattedLastUpdatedDate;
+            }
+            return fields.get(key);
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            Set<Entry<String, String>> entries = new LinkedHashSet<>();
+            for (String field : FIELDS) {
+                entries.add(new SimpleImmutableEntry<>(field, get(field)));
+            }
+            return Collections.unmodifiableSet(entries);
+        }
+
     }
 
     @Override
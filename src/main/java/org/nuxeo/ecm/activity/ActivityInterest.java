@@ -0,0 +1,73 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.io.Serializable;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * What a subscriber is interested in: the activities of a context, of an actor or of an {@link ActivityStream}.
+ *
+ * @since 11.1
+ * @see ActivityStreamService#subscribe(ActivityInterest, java.util.function.Consumer)
+ */
+public final class ActivityInterest implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Kind {
+        CONTEXT, ACTOR, STREAM
+    }
+
+    private final Kind kind;
+
+    private final String value;
+
+    private ActivityInterest(Kind kind, String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("An activity interest needs a value");
+        }
+        this.kind = kind;
+        this.value = value;
+    }
+
+    public static ActivityInterest context(String context) {
+        return new ActivityInterest(Kind.CONTEXT, context);
+    }
+
+    public static ActivityInterest actor(String actor) {
+        return new ActivityInterest(Kind.ACTOR, actor);
+    }
+
+    public static ActivityInterest stream(String streamName) {
+        return new ActivityInterest(Kind.STREAM, streamName);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return ToStringBuilder.reflectionToString(this);
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Bus notifying the activity caches of the activity changes made on this node and on the other nodes of the cluster.
+ * <p>
+ * Local changes are notified right away to the listeners, then coalesced during {@code delay} milliseconds into a
+ * single batch sent to the other nodes through the {@link ActivityInvalidationTransport}. Batches received from the
+ * other nodes are notified to the same listeners: a listener can tell them apart with
+ * {@link ActivityInvalidations#getNodeId()}.
+ *
+ * @since 11.1
+ */
+public class ActivityInvalidationBus {
+
+    private static final Log log = LogFactory.getLog(ActivityInvalidationBus.class);
+
+    protected final String nodeId;
+
+    protected final ActivityInvalidationTransport transport;
+
+    protected final long delay;
+
+    protected final List<Consumer<ActivityInvalidations>> listeners = new CopyOnWriteArrayList<>();
+
+    protected ScheduledExecutorService sender;
+
+    protected ActivityInvalidations pending;
+
+    /**
+     * The transport is only started by {@link #start()}: until then, local changes are notified to the listeners and
+     * queued for the other nodes.
+     *
+     * @param transport the transport to the other nodes, or {@code null} on a single node
+     * @param delay the time, in milliseconds, during which local changes are coalesced before being sent
+     */
+    public ActivityInvalidationBus(String nodeId, ActivityInvalidationTransport transport, long delay) {
+        this.nodeId = nodeId;
+        this.transport = transport;
+        this.delay = delay;
+    }
+
+    /**
+     * Starts the transport to the other nodes, and sends the changes queued so far.
+     */
+    public void start() {
+        if (transport == null) {
+            return;
+        }
+        synchronized (this) {
+            if (sender != null) {
+                return;
+            }
+            sender = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "Nuxeo-Activity-Invalidations");
+                thread.setDaemon(true);
+                return thread;
+            });
+            if (pending != null) {
+                sender.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+        transport.start(nodeId, this::received);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Returns a new empty batch for this node.
+     */
+    public ActivityInvalidations newInvalidations() {
+        return new ActivityInvalidations(nodeId);
+    }
+
+    public void addListener(Consumer<ActivityInvalidations> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<ActivityInvalidations> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Notifies the listeners of the given local changes, and queues them for the other nodes.
+     */
+    public void invalidate(ActivityInvalidations invalidations) {
+        if (invalidations.isEmpty()) {
+            return;
+        }
+        notifyListeners(invalidations);
+        if (transport == null) {
+            return;
+        }
+        ScheduledExecutorService sender;
+        boolean schedule;
+        synchronized (this) {
+            schedule = pending == null;
+            if (schedule) {
+                pending = newInvalidations();
+            }
+            pending.add(invalidations);
+            // when not started yet, the changes are scheduled by start()
+            sender = this.sender;
+        }
+        if (schedule && sender != null) {
+            try {
+                sender.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                log.debug("Activity invalidation bus is shut down", e);
+            }
+        }
+    }
+
+    /**
+     * Sends the pending changes to the other nodes.
+     */
+    public void flush() {
+        ActivityInvalidations batch;
+        synchronized (this) {
+            batch = pending;
+            pending = null;
+        }
+        if (batch == null) {
+            return;
+        }
+        try {
+            transport.send(batch);
+        } catch (RuntimeException e) {
+            log.error(String.format("Error while sending activity invalidations: %s", e.getMessage()));
+            log.debug(e, e);
+        }
+    }
+
+    protected void received(ActivityInvalidations invalidations) {
+        if (log.isTraceEnabled()) {
+            log.trace(String.format("Received activity invalidations: %s", invalidations));
+        }
+        notifyListeners(invalidations);
+    }
+
+    protected void notifyListeners(ActivityInvalidations invalidations) {
+        for (Consumer<ActivityInvalidations> listener : listeners) {
+            try {
+                listener.accept(invalidations);
+            } catch (RuntimeException e) {
+                log.error(String.format("Error while notifying activity invalidations: %s", e.getMessage()));
+                log.debug(e, e);
+            }
+        }
+    }
+
+    /**
+     * Sends the pending changes and stops the transport.
+     */
+    public void shutdown() {
+        ScheduledExecutorService sender;
+        synchronized (this) {
+            sender = this.sender;
+            this.sender = null;
+        }
+        if (sender == null) {
+            return;
+        }
+        sender.shutdownNow();
+        flush();
+        transport.stop();
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.util.function.Consumer;
+
+/**
+ * Transport of the {@link ActivityInvalidations} between the nodes of a cluster.
+ * <p>
+ * Implementations must have a public no-arg constructor and must not deliver a batch back to the node which sent it.
+ *
+ * @since 11.1
+ */
+public interface ActivityInvalidationTransport {
+
+    /**
+     * Starts receiving the batches sent by the other nodes.
+     *
+     * @param nodeId the id of this node
+     * @param receiver called with each batch received from another node
+     */
+    void start(String nodeId, Consumer<ActivityInvalidations> receiver);
+
+    /**
+     * Sends the given batch to the other nodes.
+     */
+    void send(ActivityInvalidations invalidations);
+
+    void stop();
+
+}
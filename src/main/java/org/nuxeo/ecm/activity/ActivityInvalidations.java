@@ -0,0 +1,262 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * Batch of activity changes published on the {@link ActivityInvalidationBus}.
+ * <p>
+ * A batch coalesces the ids of the added, updated (replies added or removed) and removed activities, and the contexts
+ * they belong to, when known. Adding the same activity several times to a batch only records it once.
+ * <p>
+ * The added and updated activities themselves travel with the batch, in the {@link ActivityCodec} format, up to
+ * {@link #MAX_ACTIVITIES} of them, so that the other nodes do not have to load them again.
+ *
+ * @since 11.1
+ */
+public class ActivityInvalidations {
+
+    protected static final int FORMAT_VERSION = 2;
+
+    /**
+     * The format without the activities, still read from the nodes not upgraded yet.
+     */
+    protected static final int FORMAT_VERSION_IDS = 1;
+
+    public static final int MAX_ACTIVITIES = 100;
+
+    protected static final byte LONG_ID = 'L';
+
+    protected static final byte STRING_ID = 'S';
+
+    protected final String nodeId;
+
+    protected final Set<Serializable> addedActivityIds = new LinkedHashSet<>();
+
+    protected final Set<Serializable> updatedActivityIds = new LinkedHashSet<>();
+
+    protected final Set<Serializable> removedActivityIds = new LinkedHashSet<>();
+
+    protected final Set<String> contexts = new LinkedHashSet<>();
+
+    protected final Map<Serializable, Activity> activities = new LinkedHashMap<>();
+
+    /**
+     * @param nodeId the id of the node where the changes happened
+     */
+    public ActivityInvalidations(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public ActivityInvalidations activityAdded(Activity activity) {
+        addedActivityIds.add(activity.getId());
+        addActivity(activity);
+        return addContext(activity.getContext());
+    }
+
+    public ActivityInvalidations activityUpdated(Activity activity) {
+        updatedActivityIds.add(activity.getId());
+        addActivity(activity);
+        return addContext(activity.getContext());
+    }
+
+    public ActivityInvalidations activitiesRemoved(Collection<Activity> removedActivities) {
+        for (Activity activity : removedActivities) {
+            removedActivityIds.add(activity.getId());
+            activities.remove(activity.getId());
+            addContext(activity.getContext());
+        }
+        return this;
+    }
+
+    /**
+     * Records removed activities whose contexts are unknown.
+     */
+    public ActivityInvalidations activityIdsRemoved(Collection<Serializable> activityIds) {
+        removedActivityIds.addAll(activityIds);
+        activityIds.forEach(activities::remove);
+        return this;
+    }
+
+    protected void addActivity(Activity activity) {
+        if (activities.containsKey(activity.getId()) || activities.size() < MAX_ACTIVITIES) {
+            activities.put(activity.getId(), activity);
+        }
+    }
+
+    protected ActivityInvalidations addContext(String context) {
+        if (context != null) {
+            contexts.add(context);
+        }
+        return this;
+    }
+
+    /**
+     * Merges the given {@code invalidations} into this batch.
+     */
+    public void add(ActivityInvalidations invalidations) {
+        addedActivityIds.addAll(invalidations.addedActivityIds);
+        updatedActivityIds.addAll(invalidations.updatedActivityIds);
+        removedActivityIds.addAll(invalidations.removedActivityIds);
+        contexts.addAll(invalidations.contexts);
+        invalidations.activities.values().forEach(this::addActivity);
+        removedActivityIds.forEach(activities::remove);
+    }
+
+    public boolean isEmpty() {
+        return addedActivityIds.isEmpty() && updatedActivityIds.isEmpty() && removedActivityIds.isEmpty();
+    }
+
+    public Set<Serializable> getAddedActivityIds() {
+        return Collections.unmodifiableSet(addedActivityIds);
+    }
+
+    public Set<Serializable> getUpdatedActivityIds() {
+        return Collections.unmodifiableSet(updatedActivityIds);
+    }
+
+    public Set<Serializable> getRemovedActivityIds() {
+        return Collections.unmodifiableSet(removedActivityIds);
+    }
+
+    /**
+     * Returns the contexts of the changed activities. Removals by {@link #activityIdsRemoved(Collection)} do not
+     * contribute any context.
+     */
+    public Set<String> getContexts() {
+        return Collections.unmodifiableSet(contexts);
+    }
+
+    /**
+     * Returns the added or updated activity with the given id as it was committed, {@code null} if it did not travel
+     * with this batch and must be loaded.
+     */
+    public Activity getActivity(Serializable activityId) {
+        return activities.get(activityId);
+    }
+
+    /**
+     * Returns {@code true} if the given {@code activityId} is added, updated or removed by this batch.
+     */
+    public boolean contains(Serializable activityId) {
+        return addedActivityIds.contains(activityId) || updatedActivityIds.contains(activityId)
+                || removedActivityIds.contains(activityId);
+    }
+
+    public byte[] toBytes() {
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(baos)) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeUTF(nodeId);
+            writeIds(out, addedActivityIds);
+            writeIds(out, updatedActivityIds);
+            writeIds(out, removedActivityIds);
+            out.writeInt(contexts.size());
+            for (String context : contexts) {
+                out.writeUTF(context);
+            }
+            byte[] encodedActivities = ActivityCodec.encodeActivities(activities.values());
+            out.writeInt(encodedActivities.length);
+            out.write(encodedActivities);
+            out.flush();
+            return baos.toByteArray();
+        } catch (IOException e) {
+            throw new NuxeoException(e);
+        }
+    }
+
+    /**
+     * Reads a batch written by {@link #toBytes()}.
+     *
+     * @throws NuxeoException if the given {@code bytes} are not a valid batch
+     */
+    public static ActivityInvalidations fromBytes(byte[] bytes) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            int version = in.readByte();
+            if (version != FORMAT_VERSION && version != FORMAT_VERSION_IDS) {
+                throw new NuxeoException(String.format("Unsupported activity invalidations version: %d", version));
+            }
+            ActivityInvalidations invalidations = new ActivityInvalidations(in.readUTF());
+            readIds(in, invalidations.addedActivityIds);
+            readIds(in, invalidations.updatedActivityIds);
+            readIds(in, invalidations.removedActivityIds);
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                invalidations.contexts.add(in.readUTF());
+            }
+            if (version == FORMAT_VERSION) {
+                byte[] encodedActivities = new byte[in.readInt()];
+                in.readFully(encodedActivities);
+                for (Activity activity : ActivityCodec.decodeActivities(ByteBuffer.wrap(encodedActivities))) {
+                    invalidations.activities.put(activity.getId(), activity);
+                }
+            }
+            return invalidations;
+        } catch (IOException e) {
+            throw new NuxeoException("Invalid activity invalidations", e);
+        }
+    }
+
+    protected static void writeIds(DataOutputStream out, Set<Serializable> ids) throws IOException {
+        out.writeInt(ids.size());
+        for (Serializable id : ids) {
+            if (id instanceof Long) {
+                out.writeByte(LONG_ID);
+                out.writeLong((Long) id);
+            } else {
+                out.writeByte(STRING_ID);
+                out.writeUTF(String.valueOf(id));
+            }
+        }
+    }
+
+    protected static void readIds(DataInputStream in, Set<Serializable> ids) throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            if (in.readByte() == LONG_ID) {
+                ids.add(in.readLong());
+            } else {
+                ids.add(in.readUTF());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return ToStringBuilder.reflectionToString(this);
+    }
+
+}
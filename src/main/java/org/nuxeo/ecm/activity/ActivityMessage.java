@@ -22,12 +22,13 @@ import static org.nuxeo.ecm.activity.ActivityHelper.getUsername;
 import static org.nuxeo.ecm.activity.ActivityHelper.isUser;
 
 import java.io.Serializable;
-import java.text.DateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.runtime.api.Framework;
@@ -52,9 +53,14 @@ public final class ActivityMessage implements Serializable {
 
     private final String verb;
 
-    private final String message;
+    private volatile String message;
 
-    private final Date publishedDate;
+    private final transient Supplier<String> messageSupplier;
+
+    /**
+     * Epoch milliseconds, {@link Long#MIN_VALUE} if not set.
+     */
+    private final long publishedDate;
 
     private final String icon;
 
@@ -65,12 +71,44 @@ public final class ActivityMessage implements Serializable {
      */
     public ActivityMessage(Serializable activityId, String actor, String displayActor, String displayActorLink,
             String verb, String message, Date publishedDate, String icon, List<ActivityReplyMessage> replies) {
+        this(activityId, actor, displayActor, displayActorLink, verb, message,
+                publishedDate != null ? publishedDate.getTime() : Long.MIN_VALUE, icon, replies);
+    }
+
+    /**
+     * @param publishedDate the published date as epoch milliseconds
+     * @since 11.1
+     */
+    public ActivityMessage(Serializable activityId, String actor, String displayActor, String displayActorLink,
+            String verb, String message, long publishedDate, String icon, List<ActivityReplyMessage> replies) {
         this.activityId = activityId;
         this.actor = actor;
         this.displayActor = displayActor;
         this.displayActorLink = displayActorLink;
         this.verb = verb;
         this.message = message;
+        this.messageSupplier = null;
+        this.publishedDate = publishedDate;
+        this.icon = icon;
+        this.replies = replies;
+    }
+
+    /**
+     * Creates a message whose text is only computed by the given {@code messageSupplier} when first read, as messages
+     * are often rendered for pages whose activities are not all displayed.
+     *
+     * @param publishedDate the published date as epoch milliseconds
+     * @since 11.1
+     */
+    public ActivityMessage(Serializable activityId, String actor, String displayActor, String displayActorLink,
+            String verb, Supplier<String> messageSupplier, long publishedDate, String icon,
+            List<ActivityReplyMessage> replies) {
+        this.activityId = activityId;
+        this.actor = actor;
+        this.displayActor = displayActor;
+        this.displayActorLink = displayActorLink;
+        this.verb = verb;
+        this.messageSupplier = messageSupplier;
         this.publishedDate = publishedDate;
         this.icon = icon;
         this.replies = replies;
@@ -109,11 +147,26 @@ public final class ActivityMessage implements Serializable {
     }
 
     public String getMessage() {
-        return message;
+        String value = message;
+        if (value == null && messageSupplier != null) {
+            // computing it twice from concurrent threads gives the same value
+            value = messageSupplier.get();
+            message = value;
+        }
+        return value;
     }
 
     public Date getPublishedDate() {
-        return publishedDate;
+        return publishedDate != Long.MIN_VALUE ? new Date(publishedDate) : null;
+    }
+
+    /**
+     * Returns the published date as epoch milliseconds, 0 if not set, without allocating a {@link Date}.
+     *
+     * @since 11.1
+     */
+    public long getPublishedDateMillis() {
+        return publishedDate != Long.MIN_VALUE ? publishedDate : 0;
     }
 
     /**
@@ -144,8 +197,6 @@ public final class ActivityMessage implements Serializable {
         ActivityLinkBuilder activityLinkBuilder = Framework.getService(ActivityStreamService.class)
                                                            .getActivityLinkBuilder(activityLinkBuilderName);
 
-        DateFormat dateFormat = DateFormat.getDateInstance(DateFormat.MEDIUM, locale);
-
         Map<String, Object> o = new HashMap<>();
         o.put("id", getActivityId());
         o.put("actor", getActor());
@@ -157,9 +208,18 @@ public final class ActivityMessage implements Serializable {
         }
         o.put("activityVerb", getVerb());
         o.put("activityMessage", getMessage());
-        o.put("publishedDate", dateFormat.format(getPublishedDate()));
+        o.put("publishedDate", ActivityDateFormatter.formatDate(getPublishedDateMillis(), locale));
         o.put("icon", getIcon());
         return o;
     }
 
+    /**
+     * Serializes this message in the {@link ActivityCodec} format.
+     *
+     * @since 11.1
+     */
+    private Object writeReplace() {
+        return new ActivityCodec.SerializedForm(ActivityCodec.encodeActivityMessages(Collections.singletonList(this)));
+    }
+
 }
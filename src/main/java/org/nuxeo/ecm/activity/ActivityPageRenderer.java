@@ -0,0 +1,252 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+
+import org.apache.commons.lang3.StringUtils;
+import org.nuxeo.ecm.core.api.CoreSession;
+
+/**
+ * Renders a page of activities as {@link ActivityMessage}s, resolving only once what the messages of the page share.
+ * <p>
+ * The message templates of the distinct verbs of the page are resolved first, then the links of the distinct users and
+ * documents referenced by these templates and of the actors. The messages are then assembled from these resolved
+ * values. The links of the reply actors are resolved and kept while the replies are rendered.
+ * <p>
+ * When given an {@link ActivityRenderExecutor}, the messages are assembled in parallel once the message templates are
+ * resolved, and the links are resolved while rendering, on the executor threads.
+ * <p>
+ * A renderer is bound to a locale and a link builder, and is meant to be used for one page or one export.
+ *
+ * @since 11.1
+ */
+public class ActivityPageRenderer {
+
+    protected final ActivityStreamServiceImpl activityStreamService;
+
+    protected final Locale locale;
+
+    protected final CachingActivityLinkBuilder activityLinkBuilder;
+
+    protected final Map<String, Optional<String>> messageTemplates = new ConcurrentHashMap<>();
+
+    protected final Map<String, List<String>> messageFields = new ConcurrentHashMap<>();
+
+    protected final ActivityRenderExecutor executor;
+
+    public ActivityPageRenderer(ActivityStreamServiceImpl activityStreamService, Locale locale,
+            String activityLinkBuilderName) {
+        this(activityStreamService, locale, activityLinkBuilderName, null);
+    }
+
+    /**
+     * @param executor the executor rendering the messages in parallel, {@code null} to render them on the calling
+     *            thread
+     */
+    public ActivityPageRenderer(ActivityStreamServiceImpl activityStreamService, Locale locale,
+            String activityLinkBuilderName, ActivityRenderExecutor executor) {
+        this.activityStreamService = activityStreamService;
+        this.locale = locale;
+        this.executor = executor;
+        activityLinkBuilder = new CachingActivityLinkBuilder(
+                activityStreamService.getActivityLinkBuilder(activityLinkBuilderName));
+    }
+
+    /**
+     * Returns the messages of the given {@code activities}, in the same order.
+     */
+    public List<ActivityMessage> render(List<Activity> activities) {
+        if (executor != null) {
+            resolveMessageTemplates(activities);
+            return executor.map(activities, this::render);
+        }
+        resolve(activities);
+        List<ActivityMessage> messages = new ArrayList<>(activities.size());
+        for (Activity activity : activities) {
+            messages.add(render(activity));
+        }
+        return messages;
+    }
+
+    /**
+     * Returns the message of the given {@code activity}, reusing what was already resolved by this renderer.
+     */
+    public ActivityMessage render(Activity activity) {
+        return activityStreamService.toActivityMessage(activity, activityLinkBuilder, this::getMessageTemplate);
+    }
+
+    /**
+     * Resolves the message templates and the user and document links needed by the given {@code activities}.
+     */
+    protected void resolve(List<Activity> activities) {
+        resolveMessageTemplates(activities);
+
+        Set<Link> users = new LinkedHashSet<>();
+        Set<Link> documents = new LinkedHashSet<>();
+        for (Activity activity : activities) {
+            if (ActivityHelper.isUser(activity.getActor())) {
+                users.add(new Link(activity.getActor(), activity.getDisplayActor()));
+            }
+            ActivityVerb verb = activityStreamService.activityVerbRegistry.get(activity.getVerb());
+            if (verb == null || verb.getLabelKey() == null) {
+                continue;
+            }
+            String messageTemplate = getMessageTemplate(activityStreamService.getLabelKey(activity, verb));
+            if (messageTemplate == null) {
+                continue;
+            }
+            Map<String, String> fields = activity.toMap();
+            for (String field : getMessageFields(messageTemplate)) {
+                String value = fields.get(field);
+                if (ActivityHelper.isDocument(value)) {
+                    documents.add(new Link(value, fields.get("display" + StringUtils.capitalize(field))));
+                } else if (ActivityHelper.isUser(value)) {
+                    users.add(new Link(value, fields.get("display" + StringUtils.capitalize(field))));
+                }
+            }
+        }
+        for (Link user : users) {
+            activityLinkBuilder.getUserProfileLink(user.value, user.displayValue);
+        }
+        for (Link document : documents) {
+            activityLinkBuilder.getDocumentLink(document.value, document.displayValue);
+        }
+    }
+
+    /**
+     * Resolves the message templates of the distinct verbs of the given {@code activities}.
+     */
+    protected void resolveMessageTemplates(List<Activity> activities) {
+        Set<String> labelKeys = new LinkedHashSet<>();
+        for (Activity activity : activities) {
+            ActivityVerb verb = activityStreamService.activityVerbRegistry.get(activity.getVerb());
+            if (verb != null && verb.getLabelKey() != null) {
+                labelKeys.add(activityStreamService.getLabelKey(activity, verb));
+            }
+        }
+        for (String labelKey : labelKeys) {
+            getMessageTemplate(labelKey);
+        }
+    }
+
+    protected String getMessageTemplate(String labelKey) {
+        return messageTemplates.computeIfAbsent(labelKey,
+                k -> Optional.ofNullable(activityStreamService.getMessageTemplate(k, locale))).orElse(null);
+    }
+
+    /**
+     * Returns the fields referenced by the placeholders of the given {@code messageTemplate}.
+     */
+    protected List<String> getMessageFields(String messageTemplate) {
+        return messageFields.computeIfAbsent(messageTemplate, template -> {
+            List<String> fields = new ArrayList<>();
+            Matcher m = ActivityStreamServiceImpl.MESSAGE_PLACEHOLDER_PATTERN.matcher(template);
+            while (m.find()) {
+                fields.add(m.group(1));
+            }
+            return fields;
+        });
+    }
+
+    /**
+     * A user or document activity object with its display value.
+     */
+    protected static final class Link {
+
+        protected final String value;
+
+        protected final String displayValue;
+
+        protected Link(String value, String displayValue) {
+            this.value = value;
+            this.displayValue = displayValue;
+        }
+
+        protected String key() {
+            return value + '\u0000' + displayValue;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Link && key().equals(((Link) obj).key());
+        }
+
+        @Override
+        public int hashCode() {
+            return key().hashCode();
+        }
+    }
+
+    /**
+     * An {@link ActivityLinkBuilder} keeping the document and user links computed by another one.
+     */
+    protected static class CachingActivityLinkBuilder implements ActivityLinkBuilder {
+
+        protected final ActivityLinkBuilder activityLinkBuilder;
+
+        protected final Map<String, String> documentLinks = new ConcurrentHashMap<>();
+
+        protected final Map<String, String> userProfileLinks = new ConcurrentHashMap<>();
+
+        protected CachingActivityLinkBuilder(ActivityLinkBuilder activityLinkBuilder) {
+            this.activityLinkBuilder = activityLinkBuilder;
+        }
+
+        @Override
+        public String getDocumentLink(String documentActivityObject, String displayValue) {
+            return getLink(documentLinks, new Link(documentActivityObject, displayValue),
+                    () -> activityLinkBuilder.getDocumentLink(documentActivityObject, displayValue));
+        }
+
+        @Override
+        public String getUserProfileLink(String userActivityObject, String displayValue) {
+            return getLink(userProfileLinks, new Link(userActivityObject, displayValue),
+                    () -> activityLinkBuilder.getUserProfileLink(userActivityObject, displayValue));
+        }
+
+        /**
+         * Returns the cached link, computing it outside of any lock: two threads may compute the same link, but a slow
+         * link builder does not block the threads needing other links.
+         */
+        protected String getLink(Map<String, String> links, Link link, Supplier<String> supplier) {
+            String key = link.key();
+            String value = links.get(key);
+            if (value == null) {
+                value = supplier.get();
+                if (value != null) {
+                    links.putIfAbsent(key, value);
+                }
+            }
+            return value;
+        }
+
+        @Override
+        public String getUserAvatarURL(CoreSession session, String username) {
+            return activityLinkBuilder.getUserAvatarURL(session, username);
+        }
+    }
+
+}
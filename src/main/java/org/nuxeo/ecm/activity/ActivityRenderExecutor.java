@@ -0,0 +1,165 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.local.ClientLoginModule;
+import org.nuxeo.ecm.core.api.local.LoginStack;
+
+/**
+ * Executor rendering the activity messages of large pages and exports in parallel.
+ * <p>
+ * Tasks run on virtual threads when the JVM provides them, so that link builders blocking on lookups do not hold a
+ * platform thread, and on a fixed pool of {@code parallelism} daemon threads otherwise. In both cases at most
+ * {@code parallelism} tasks run at once, whatever the number of callers. The tasks run with the login and the context
+ * class loader of the caller.
+ *
+ * @since 11.1
+ */
+public class ActivityRenderExecutor {
+
+    private static final Log log = LogFactory.getLog(ActivityRenderExecutor.class);
+
+    protected static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    protected final int parallelism;
+
+    protected final Semaphore permits;
+
+    protected final ExecutorService executor;
+
+    public ActivityRenderExecutor(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        permits = new Semaphore(this.parallelism);
+        executor = newExecutor();
+    }
+
+    protected ExecutorService newExecutor() {
+        try {
+            // Java 21+, looked up reflectively as the module targets Java 11
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ExecutorService virtualThreadExecutor = (ExecutorService) method.invoke(null);
+            log.debug("Rendering activity messages on virtual threads");
+            return virtualThreadExecutor;
+        } catch (ReflectiveOperationException e) {
+            log.debug(String.format("Rendering activity messages on %d threads", parallelism));
+            return Executors.newFixedThreadPool(parallelism, r -> {
+                Thread thread = new Thread(r, "Nuxeo-Activity-Render-" + THREAD_COUNTER.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Applies the given {@code function} to all the given {@code items} in parallel, and returns the results in the
+     * order of the items.
+     *
+     * @throws NuxeoException if the function fails on an item, or if the calling thread is interrupted
+     */
+    public <T, R> List<R> map(List<T> items, Function<? super T, ? extends R> function) {
+        int size = items.size();
+        Object[] results = new Object[size];
+        int chunkSize = Math.max(1, (size + parallelism - 1) / parallelism);
+        Context context = new Context();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int from = 0; from < size; from += chunkSize) {
+            int start = from;
+            int end = Math.min(size, from + chunkSize);
+            futures.add(executor.submit(() -> context.run(() -> {
+                for (int i = start; i < end; i++) {
+                    results[i] = function.apply(items.get(i));
+                }
+            })));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new NuxeoException(e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new NuxeoException(e.getCause());
+        }
+        @SuppressWarnings("unchecked")
+        List<R> list = (List<R>) Arrays.asList(results);
+        return new ArrayList<>(list);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The login and context class loader of a calling thread, restored around the tasks it submits.
+     */
+    protected class Context {
+
+        protected final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+
+        protected final LoginStack.Entry login = ClientLoginModule.getThreadLocalLogin().peek();
+
+        protected void run(Runnable task) {
+            Thread thread = Thread.currentThread();
+            ClassLoader previousClassLoader = thread.getContextClassLoader();
+            LoginStack loginStack = ClientLoginModule.getThreadLocalLogin();
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                thread.interrupt();
+                throw new NuxeoException(e);
+            }
+            thread.setContextClassLoader(classLoader);
+            if (login != null) {
+                loginStack.push(login.getPrincipal(), login.getCredential(), login.getSubject());
+            }
+            try {
+                task.run();
+            } finally {
+                if (login != null) {
+                    loginStack.pop();
+                }
+                thread.setContextClassLoader(previousClassLoader);
+                permits.release();
+            }
+        }
+    }
+
+}
@@ -39,8 +39,8 @@ public final class ActivityReply {
     }
 
     public ActivityReply(String actor, String displayActor, String message, long publishedDate) {
-        this.actor = actor;
-        this.displayActor = displayActor;
+        this.actor = ActivityStrings.dedup(actor);
+        this.displayActor = ActivityStrings.dedup(displayActor);
         this.message = message;
         this.publishedDate = publishedDate;
     }
@@ -58,7 +58,7 @@ public final class ActivityReply {
     }
 
     public void setActor(String actor) {
-        this.actor = actor;
+        this.actor = ActivityStrings.dedup(actor);
     }
 
     public String getDisplayActor() {
@@ -66,7 +66,7 @@ public final class ActivityReply {
     }
 
     public void setDisplayActor(String displayActor) {
-        this.displayActor = displayActor;
+        this.displayActor = ActivityStrings.dedup(displayActor);
     }
 
     public String getMessage() {
@@ -23,8 +23,7 @@ import static org.nuxeo.ecm.activity.ActivityHelper.getUsername;
 import static org.nuxeo.ecm.activity.ActivityHelper.isUser;
 
 import java.io.Serializable;
-import java.text.DateFormat;
-import java.util.Date;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -95,8 +94,6 @@ public class ActivityReplyMessage implements Serializable {
         ActivityLinkBuilder activityLinkBuilder = Framework.getService(ActivityStreamService.class).getActivityLinkBuilder(
                 activityLinkBuilderName);
 
-        DateFormat dateFormat = DateFormat.getDateInstance(DateFormat.MEDIUM, locale);
-
         Map<String, Object> o = new HashMap<String, Object>();
         o.put("id", getActivityReplyId());
         o.put("actor", getActor());
@@ -107,7 +104,17 @@ public class ActivityReplyMessage implements Serializable {
             o.put("actorAvatarURL", activityLinkBuilder.getUserAvatarURL(session, actorUsername));
         }
         o.put("message", getMessage());
-        o.put("publishedDate", dateFormat.format(new Date(getPublishedDate())));
+        o.put("publishedDate", ActivityDateFormatter.formatDate(getPublishedDate(), locale));
         return o;
     }
+
+    /**
+     * Serializes this reply message in the {@link ActivityCodec} format.
+     *
+     * @since 11.1
+     */
+    private Object writeReplace() {
+        return new ActivityCodec.SerializedForm(
+                ActivityCodec.encodeActivityReplyMessages(Collections.singletonList(this)));
+    }
 }
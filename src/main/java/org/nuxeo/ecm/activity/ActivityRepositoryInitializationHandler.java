@@ -33,7 +33,12 @@ public class ActivityRepositoryInitializationHandler extends RepositoryInitializ
     public void doInitializeRepository(CoreSession session) {
         ActivityStreamService activityStreamService = Framework.getService(ActivityStreamService.class);
         if (activityStreamService != null) {
-            ((ActivityStreamServiceImpl) activityStreamService).upgradeActivities();
+            ActivityStreamServiceImpl activityStreamServiceImpl = (ActivityStreamServiceImpl) activityStreamService;
+            if (activityStreamServiceImpl.isBackgroundUpgrade()) {
+                activityStreamServiceImpl.scheduleUpgradeActivities();
+            } else {
+                activityStreamServiceImpl.upgradeActivities();
+            }
         }
     }
 
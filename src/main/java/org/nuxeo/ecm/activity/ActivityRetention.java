@@ -0,0 +1,110 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XObject;
+
+/**
+ * Retention policy of the activities of a given verb, or of all the verbs of a given {@link ActivityStream}.
+ *
+ * <pre>
+ * &lt;activityRetention name="documentModified" verb="documentModified" days="90" /&gt;
+ * &lt;activityRetention name="userActivityStream" stream="userActivityStream" days="365" /&gt;
+ * </pre>
+ *
+ * @since 11.1
+ */
+@XObject("activityRetention")
+public class ActivityRetention {
+
+    @XNode("@name")
+    protected String name;
+
+    @XNode("@enabled")
+    protected boolean enabled = true;
+
+    @XNode("@verb")
+    protected String verb;
+
+    @XNode("@stream")
+    protected String stream;
+
+    @XNode("@days")
+    protected int days;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getVerb() {
+        return verb;
+    }
+
+    public void setVerb(String verb) {
+        this.verb = verb;
+    }
+
+    public String getStream() {
+        return stream;
+    }
+
+    public void setStream(String stream) {
+        this.stream = stream;
+    }
+
+    public int getDays() {
+        return days;
+    }
+
+    public void setDays(int days) {
+        this.days = days;
+    }
+
+    /**
+     * Returns the date before which the activities are expired, relative to {@code now}.
+     */
+    public Date getExpirationDate(Date now) {
+        return new Date(now.getTime() - TimeUnit.DAYS.toMillis(days));
+    }
+
+    @Override
+    public ActivityRetention clone() {
+        ActivityRetention clone = new ActivityRetention();
+        clone.setName(name);
+        clone.setEnabled(enabled);
+        clone.setVerb(verb);
+        clone.setStream(stream);
+        clone.setDays(days);
+        return clone;
+    }
+
+}
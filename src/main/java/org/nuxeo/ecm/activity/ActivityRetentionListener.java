@@ -0,0 +1,39 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventListener;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Listener scheduling an {@link ActivityRetentionWork} when the retention scheduler fires.
+ *
+ * @since 11.1
+ */
+public class ActivityRetentionListener implements EventListener {
+
+    public static final String ACTIVITY_RETENTION_EVENT = "activityRetention";
+
+    @Override
+    public void handleEvent(Event event) {
+        if (ACTIVITY_RETENTION_EVENT.equals(event.getName())) {
+            Framework.getService(WorkManager.class).schedule(new ActivityRetentionWork());
+        }
+    }
+
+}
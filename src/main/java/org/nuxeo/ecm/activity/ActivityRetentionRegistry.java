@@ -0,0 +1,76 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.nuxeo.runtime.model.ContributionFragmentRegistry;
+
+/**
+ * Registry for activity retentions, handling merge of registered {@link ActivityRetention} elements.
+ *
+ * @since 11.1
+ */
+public class ActivityRetentionRegistry extends ContributionFragmentRegistry<ActivityRetention> {
+
+    protected Map<String, ActivityRetention> activityRetentions = new LinkedHashMap<>();
+
+    public List<ActivityRetention> getActivityRetentions() {
+        return new ArrayList<>(activityRetentions.values());
+    }
+
+    @Override
+    public String getContributionId(ActivityRetention contrib) {
+        return contrib.getName();
+    }
+
+    @Override
+    public void contributionUpdated(String id, ActivityRetention contrib, ActivityRetention newOrigContrib) {
+        if (contrib.isEnabled()) {
+            activityRetentions.put(id, contrib);
+        } else {
+            activityRetentions.remove(id);
+        }
+    }
+
+    @Override
+    public void contributionRemoved(String id, ActivityRetention origContrib) {
+        activityRetentions.remove(id);
+    }
+
+    @Override
+    public ActivityRetention clone(ActivityRetention orig) {
+        return orig.clone();
+    }
+
+    @Override
+    public void merge(ActivityRetention src, ActivityRetention dst) {
+        if (src.getVerb() != null) {
+            dst.setVerb(src.getVerb());
+        }
+        if (src.getStream() != null) {
+            dst.setStream(src.getStream());
+        }
+        if (src.getDays() > 0) {
+            dst.setDays(src.getDays());
+        }
+        dst.setEnabled(src.isEnabled());
+    }
+
+}
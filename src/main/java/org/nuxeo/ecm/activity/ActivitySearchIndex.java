@@ -0,0 +1,289 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.io.Serializable;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory inverted index of the activities, over their display actor, object and target and their reply messages.
+ * <p>
+ * Texts are split on non alphanumeric characters, lower-cased and stripped of their accents and HTML tags. Each term
+ * maps to the {@link ActivityWatermark}s of the activities containing it, so that matches are naturally ordered by
+ * recency. A forward index of the terms of each activity allows to re-index or remove it.
+ * <p>
+ * The index is built in the background from the stored activities (see {@link #buildStarted()}), and answers with the
+ * activities indexed so far until the build is done. The activities indexed or removed meanwhile are recorded, so that
+ * the build does not bring back a stale version of them.
+ *
+ * @since 11.1
+ */
+public class ActivitySearchIndex {
+
+    protected static final Pattern HTML_TAG = Pattern.compile("<[^>]*>");
+
+    protected static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    protected static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+    protected static final int MIN_TERM_LENGTH = 2;
+
+    protected final ConcurrentSkipListMap<String, NavigableSet<ActivityWatermark>> postings = new ConcurrentSkipListMap<>();
+
+    protected final Map<Long, Indexed> activities = new ConcurrentHashMap<>();
+
+    /**
+     * Ids of the activities indexed or removed while the index is being built, {@code null} when not building.
+     */
+    protected Set<Long> changedDuringBuild;
+
+    protected volatile boolean ready = true;
+
+    protected static class Indexed {
+
+        protected final ActivityWatermark watermark;
+
+        protected final Set<String> terms;
+
+        protected Indexed(ActivityWatermark watermark, Set<String> terms) {
+            this.watermark = watermark;
+            this.terms = terms;
+        }
+
+    }
+
+    /**
+     * Indexes the given {@code activity}, replacing its previous version if any.
+     */
+    public synchronized void index(Activity activity) {
+        Long id = toId(activity.getId());
+        if (id == null) {
+            return;
+        }
+        if (changedDuringBuild != null) {
+            changedDuringBuild.add(id);
+        }
+        index(id, activity);
+    }
+
+    /**
+     * Indexes the given stored {@code activity} while building the index, unless it was indexed or removed since the
+     * build started.
+     */
+    public synchronized void build(Activity activity) {
+        Long id = toId(activity.getId());
+        if (id == null || changedDuringBuild == null || changedDuringBuild.contains(id)) {
+            return;
+        }
+        index(id, activity);
+    }
+
+    protected void index(Long id, Activity activity) {
+        Set<String> terms = new LinkedHashSet<>();
+        terms.addAll(tokenize(activity.getDisplayActor()));
+        terms.addAll(tokenize(activity.getDisplayObject()));
+        terms.addAll(tokenize(activity.getDisplayTarget()));
+        if (activity.getReplies() != null) {
+            for (ActivityReply reply : activity.getActivityReplies()) {
+                terms.addAll(tokenize(reply.getMessage()));
+            }
+        }
+        remove(id);
+        if (terms.isEmpty()) {
+            return;
+        }
+        ActivityWatermark watermark = ActivityWatermark.of(activity);
+        for (String term : terms) {
+            postings.computeIfAbsent(term, k -> new ConcurrentSkipListSet<>()).add(watermark);
+        }
+        activities.put(id, new Indexed(watermark, terms));
+    }
+
+    /**
+     * Removes the activities with the given ids from the index.
+     */
+    public synchronized void remove(Collection<Serializable> activityIds) {
+        for (Serializable activityId : activityIds) {
+            Long id = toId(activityId);
+            if (id != null) {
+                if (changedDuringBuild != null) {
+                    changedDuringBuild.add(id);
+                }
+                remove(id);
+            }
+        }
+    }
+
+    protected void remove(Long id) {
+        Indexed indexed = activities.remove(id);
+        if (indexed == null) {
+            return;
+        }
+        for (String term : indexed.terms) {
+            postings.computeIfPresent(term, (k, watermarks) -> {
+                watermarks.remove(indexed.watermark);
+                return watermarks.isEmpty() ? null : watermarks;
+            });
+        }
+    }
+
+    /**
+     * Returns the ids of the activities containing all the terms of the given {@code query}, most recent first.
+     * <p>
+     * A term ending with {@code *} matches all the terms starting with it.
+     *
+     * @param limit the maximum number of ids to return, or 0 for all of them
+     */
+    public List<Long> search(String query, long offset, long limit) {
+        List<Long> ids = new ArrayList<>();
+        List<NavigableSet<ActivityWatermark>> matches = new ArrayList<>();
+        for (String term : parseQuery(query)) {
+            NavigableSet<ActivityWatermark> match = getMatches(term);
+            if (match.isEmpty()) {
+                return ids;
+            }
+            matches.add(match);
+        }
+        if (matches.isEmpty()) {
+            return ids;
+        }
+        // go through the smallest match, checking the others
+        matches.sort(Comparator.comparingInt(Set::size));
+        NavigableSet<ActivityWatermark> smallest = matches.get(0);
+        long skipped = 0;
+        for (ActivityWatermark watermark : smallest.descendingSet()) {
+            boolean all = true;
+            for (int i = 1; i < matches.size() && all; i++) {
+                all = matches.get(i).contains(watermark);
+            }
+            if (!all) {
+                continue;
+            }
+            if (skipped++ < offset) {
+                continue;
+            }
+            ids.add(watermark.getId());
+            if (limit > 0 && ids.size() >= limit) {
+                break;
+            }
+        }
+        return ids;
+    }
+
+    protected NavigableSet<ActivityWatermark> getMatches(String term) {
+        if (!term.endsWith("*")) {
+            NavigableSet<ActivityWatermark> watermarks = postings.get(term);
+            return watermarks != null ? watermarks : new ConcurrentSkipListSet<>();
+        }
+        String prefix = term.substring(0, term.length() - 1);
+        NavigableSet<ActivityWatermark> watermarks = new ConcurrentSkipListSet<>();
+        for (NavigableSet<ActivityWatermark> match : postings.subMap(prefix, true, prefix + Character.MAX_VALUE,
+                true).values()) {
+            watermarks.addAll(match);
+        }
+        return watermarks;
+    }
+
+    protected static List<String> parseQuery(String query) {
+        List<String> terms = new ArrayList<>();
+        if (query == null) {
+            return terms;
+        }
+        for (String word : query.trim().split("\\s+")) {
+            boolean prefix = word.endsWith("*");
+            for (String term : tokenize(word)) {
+                terms.add(term);
+            }
+            if (prefix && !terms.isEmpty()) {
+                terms.set(terms.size() - 1, terms.get(terms.size() - 1) + "*");
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Splits the given {@code text} into normalized terms.
+     */
+    public static Set<String> tokenize(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null || text.isEmpty()) {
+            return terms;
+        }
+        String normalized = Normalizer.normalize(HTML_TAG.matcher(text).replaceAll(" "), Normalizer.Form.NFD);
+        normalized = DIACRITICS.matcher(normalized).replaceAll("").toLowerCase();
+        for (String term : SEPARATORS.split(normalized)) {
+            if (term.length() >= MIN_TERM_LENGTH) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+
+    protected static Long toId(Serializable id) {
+        if (id instanceof Number) {
+            return ((Number) id).longValue();
+        }
+        try {
+            return id != null ? Long.valueOf(id.toString()) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts building this index: until {@link #buildDone()}, it is not ready and the activities indexed or removed
+     * are recorded.
+     */
+    public synchronized void buildStarted() {
+        changedDuringBuild = new HashSet<>();
+        ready = false;
+    }
+
+    public synchronized void buildDone() {
+        changedDuringBuild = null;
+        ready = true;
+    }
+
+    /**
+     * Returns {@code true} once all the stored activities are indexed.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int size() {
+        return activities.size();
+    }
+
+    public synchronized void clear() {
+        postings.clear();
+        activities.clear();
+    }
+
+}
@@ -0,0 +1,307 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * Storage backend of the activities used by the {@link ActivityStreamService}.
+ * <p>
+ * Filtering is expressed with {@link ActivityCriteria}, independently of the backend: each store decides which of its
+ * indexes (publication date, actor, context, object, ...) serves a scan. Scans are ordered by publication date then
+ * id, the order of {@link ActivityWatermark}s.
+ * <p>
+ * Besides the activities, a store may keep the {@link ActivityCounter}s and the {@link ActivityTimelineEntry}s. The
+ * default implementations of the corresponding methods throw a {@link NuxeoException}, so that features a store does
+ * not support fail fast instead of being silently ignored.
+ * <p>
+ * Implementations must have a public no-arg constructor. The {@link JpaActivityStore} is the default one.
+ *
+ * @since 11.1
+ */
+public interface ActivityStore {
+
+    /**
+     * Called when the {@code ActivityStreamService} starts.
+     */
+    void activate(ActivityStreamService activityStreamService);
+
+    /**
+     * Called when the {@code ActivityStreamService} stops.
+     */
+    void deactivate();
+
+    /**
+     * Stores a new activity, assigning its id.
+     *
+     * @return the stored activity
+     */
+    Activity append(Activity activity);
+
+    /**
+     * Stores new activities, assigning their ids.
+     *
+     * @return the stored activities, in the same order
+     */
+    default List<Activity> appendAll(Collection<Activity> activities) {
+        List<Activity> stored = new ArrayList<>(activities.size());
+        for (Activity activity : activities) {
+            stored.add(append(activity));
+        }
+        return stored;
+    }
+
+    /**
+     * Stores the new state of an existing activity, such as its replies.
+     */
+    void update(Activity activity);
+
+    /**
+     * Returns the activities with the given ids, ignoring the unknown ones.
+     */
+    ActivitiesList getActivities(Collection<Serializable> activityIds);
+
+    /**
+     * Returns the activities matching the given {@code criteria} published strictly after the given
+     * {@code watermark}, oldest first.
+     *
+     * @param watermark the watermark to start after, {@link ActivityWatermark#NONE} to start from the first activity
+     * @param limit the maximum number of activities to return, or 0 for all of them
+     */
+    ActivitiesList scanAfter(ActivityCriteria criteria, ActivityWatermark watermark, long limit);
+
+    /**
+     * Returns the activities matching the given {@code criteria} published strictly before the given
+     * {@code watermark}, latest first.
+     *
+     * @param watermark the watermark to start before, {@code null} to start from the latest activity
+     * @param limit the maximum number of activities to return, or 0 for all of them
+     */
+    ActivitiesList scanBefore(ActivityCriteria criteria, ActivityWatermark watermark, long limit);
+
+    /**
+     * Returns, in ascending order, the ids of at most {@code limit} activities matching the given {@code criteria} and
+     * whose id is greater than {@code fromId}.
+     *
+     * @param fromId the id to start after, {@code null} to start from the first activity
+     */
+    List<Serializable> getActivityIds(ActivityCriteria criteria, Serializable fromId, int limit);
+
+    /**
+     * Removes the activities with the given ids.
+     */
+    void remove(Collection<Serializable> activityIds);
+
+    /**
+     * Removes the activities matching the given {@code criteria}, by batches of {@code batchSize} activities.
+     *
+     * @return the number of removed activities
+     */
+    default long remove(ActivityCriteria criteria, int batchSize) {
+        long removed = 0;
+        Serializable lastId = null;
+        List<Serializable> batch;
+        do {
+            batch = getActivityIds(criteria, lastId, batchSize);
+            if (!batch.isEmpty()) {
+                remove(batch);
+                removed += batch.size();
+                lastId = batch.get(batch.size() - 1);
+            }
+        } while (batch.size() == batchSize);
+        return removed;
+    }
+
+    /**
+     * Returns, in ascending order of id, at most {@code limit} activities starting at {@code offset}.
+     *
+     * @param limit the maximum number of activities to return, or 0 for all of them
+     */
+    default ActivitiesList getActivities(long offset, long limit) {
+        int size = limit > 0 ? (int) Math.min(offset + limit, Integer.MAX_VALUE) : Integer.MAX_VALUE;
+        List<Serializable> activityIds = getActivityIds(new ActivityCriteria(), null, size);
+        return getActivities(activityIds.subList((int) Math.min(offset, activityIds.size()), activityIds.size()));
+    }
+
+    /**
+     * Returns, in ascending order of id, the summaries of at most {@code limit} activities starting at {@code offset}.
+     *
+     * @param limit the maximum number of activities to return, or 0 for all of them
+     */
+    default List<ActivitySummary> getActivitySummaries(long offset, long limit) {
+        List<ActivitySummary> summaries = new ArrayList<>();
+        for (Activity activity : getActivities(offset, limit)) {
+            summaries.add(ActivitySummary.from(activity));
+        }
+        return summaries;
+    }
+
+    /**
+     * Returns, in ascending order of id, the summaries of the activities with the given ids, ignoring the unknown ones.
+     */
+    default List<ActivitySummary> getActivitySummaries(Collection<Serializable> activityIds) {
+        List<ActivitySummary> summaries = new ArrayList<>();
+        for (Activity activity : getActivities(activityIds)) {
+            summaries.add(ActivitySummary.from(activity));
+        }
+        summaries.sort((s1, s2) -> Long.compare(((Number) s1.getId()).longValue(),
+                ((Number) s2.getId()).longValue()));
+        return summaries;
+    }
+
+    /**
+     * Returns the replies of the activities with the given ids, by activity id, omitting the activities without
+     * replies.
+     */
+    default Map<Serializable, List<ActivityReply>> getActivityReplies(Collection<Serializable> activityIds) {
+        Map<Serializable, List<ActivityReply>> replies = new HashMap<>();
+        for (Activity activity : getActivities(activityIds)) {
+            List<ActivityReply> activityReplies = activity.getActivityReplies();
+            if (!activityReplies.isEmpty()) {
+                replies.put(activity.getId(), activityReplies);
+            }
+        }
+        return replies;
+    }
+
+    /**
+     * Returns the last occurrence of the given {@code activity}, with the same actor, verb, object, target and
+     * context, published since the given date, {@code null} if none.
+     * <p>
+     * Used to roll up activities: the returned occurrence is then updated with {@link #update(Activity)}. Transactional
+     * stores lock it until the end of the transaction, so that the concurrent rollups into it are serialized.
+     */
+    default Activity getLastActivity(Activity activity, Date since) {
+        ActivityCriteria criteria = new ActivityCriteria().verbs(activity.getVerb()).publishedAfter(since);
+        if (activity.getActor() != null) {
+            criteria.actors(activity.getActor());
+        }
+        if (activity.getContext() != null) {
+            criteria.contexts(activity.getContext());
+        }
+        for (Activity candidate : scanBefore(criteria, null, 0)) {
+            // the criteria cannot select null values
+            if (Objects.equals(activity.getActor(), candidate.getActor())
+                    && Objects.equals(activity.getObject(), candidate.getObject())
+                    && Objects.equals(activity.getTarget(), candidate.getTarget())
+                    && Objects.equals(activity.getContext(), candidate.getContext())) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns {@code true} if this store keeps the {@link ActivityCounter}s.
+     */
+    default boolean isCountersSupported() {
+        return false;
+    }
+
+    /**
+     * Adds the given deltas to the counters, creating the missing ones.
+     */
+    default void updateCounters(Collection<ActivityCounter> counters) {
+        throw unsupported("Activity counters");
+    }
+
+    /**
+     * Deletes all the counters, before rebuilding them.
+     */
+    default void deleteCounters() {
+        throw unsupported("Activity counters");
+    }
+
+    /**
+     * Returns the number of occurrences of the given activities, as needed to update their counters: each returned
+     * activity only holds an actor, object, context, verb and published date, and as rollup count the number of
+     * occurrences, rolled up ones included, of the given activities having them.
+     * <p>
+     * The default implementation returns the activities themselves.
+     */
+    default List<Activity> getActivityOccurrences(Collection<Serializable> activityIds) {
+        return getActivities(activityIds);
+    }
+
+    /**
+     * @see ActivityStreamService#getTopActivityCounts
+     */
+    default List<ActivityCount> getTopActivityCounts(ActivityCounter.Dimension dimension, String verb,
+            ActivityCounter.Granularity granularity, Date from, Date to, int limit) {
+        throw unsupported("Activity counters");
+    }
+
+    /**
+     * @see ActivityStreamService#getActivityHistogram
+     */
+    default SortedMap<Date, Long> getActivityHistogram(ActivityCounter.Dimension dimension, String value,
+            String verb, ActivityCounter.Granularity granularity, Date from, Date to) {
+        throw unsupported("Activity counters");
+    }
+
+    /**
+     * Stores the given timeline entries.
+     */
+    default void addTimelineEntries(Collection<ActivityTimelineEntry> entries) {
+        throw unsupported("Activity timelines");
+    }
+
+    /**
+     * Moves the timeline entries of the given activity to the given published date.
+     */
+    default void updateTimelineEntries(Serializable activityId, Date publishedDate) {
+        throw unsupported("Activity timelines");
+    }
+
+    /**
+     * Removes the timeline entries of the activities with the given ids.
+     */
+    default void removeTimelineEntries(Collection<Serializable> activityIds) {
+        throw unsupported("Activity timelines");
+    }
+
+    /**
+     * Returns the activities in the timelines of the given owners, latest first.
+     *
+     * @param limit the maximum number of activities to return, or 0 for all of them
+     */
+    default ActivitiesList getTimeline(Collection<String> owners, long offset, long limit) {
+        throw unsupported("Activity timelines");
+    }
+
+    /**
+     * Returns the owners of the timelines starting with the given prefix.
+     */
+    default Set<String> getTimelineOwners(String prefix) {
+        throw unsupported("Activity timelines");
+    }
+
+    private NuxeoException unsupported(String feature) {
+        return new NuxeoException(String.format("%s are not supported by %s", feature, getClass().getSimpleName()));
+    }
+
+}
@@ -19,10 +19,14 @@
 package org.nuxeo.ecm.activity;
 
 import java.io.Serializable;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Filter called by the {@code ActivityStreamService} to store and filter activities for specific use cases.
+ * <p>
+ * Filters reading or removing activities should go through {@link ActivityStreamService#getActivityStore()}, which
+ * works in the same transaction as the service call, to stay independent of the configured storage.
  *
  * @author <a href="mailto:troger@nuxeo.com">Thomas Roger</a>
  * @since 5.5
@@ -47,6 +51,18 @@ public interface ActivityStreamFilter {
      */
     void handleNewActivity(ActivityStreamService activityStreamService, Activity activity);
 
+    /**
+     * Called by the {@code ActivityStreamService} when an already stored {@code Activity} is updated, for instance when
+     * a new occurrence is rolled up into it, changing its published date and its rollup count.
+     * <p>
+     * The given {@code activity} must not be modified. The default implementation does nothing, filters keeping
+     * attributes of the activities, such as their published date, should override it.
+     *
+     * @since 11.1
+     */
+    default void handleUpdatedActivity(ActivityStreamService activityStreamService, Activity activity) {
+    }
+
     /**
      * Called by the {@code ActivityStreamService} before removing the given {@code activities}.
      *
@@ -54,6 +70,21 @@ public interface ActivityStreamFilter {
      */
     void handleRemovedActivities(ActivityStreamService activityStreamService, ActivitiesList activities);
 
+    /**
+     * Called by the {@code ActivityStreamService} before removing the activities with the given ids, when activities
+     * are removed by criteria without being loaded.
+     * <p>
+     * This method is called for each chunk of removed activities. The default implementation loads the chunk and
+     * delegates to {@link #handleRemovedActivities(ActivityStreamService, ActivitiesList)}, filters only needing the
+     * ids should override it.
+     *
+     * @since 11.1
+     */
+    default void handleRemovedActivityIds(ActivityStreamService activityStreamService,
+            List<Serializable> activityIds) {
+        handleRemovedActivities(activityStreamService, activityStreamService.getActivities(activityIds));
+    }
+
     /**
      * Called by the {@code ActivityStreamService} before removing the given {@code activityReply}.
      *
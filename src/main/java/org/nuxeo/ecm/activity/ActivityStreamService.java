@@ -21,8 +21,12 @@ package org.nuxeo.ecm.activity;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.Consumer;
 
 /**
  * Service storing and querying activities.
@@ -53,6 +57,40 @@ public interface ActivityStreamService {
      */
     void removeActivities(Collection<Activity> activities);
 
+    /**
+     * Removes the activities matching the given {@code criteria}, without loading them.
+     * <p>
+     * The activities are removed by bounded batches, each batch being notified to the filters through
+     * {@link ActivityStreamFilter#handleRemovedActivityIds(ActivityStreamService, List)}.
+     *
+     * @return the number of removed activities
+     * @throws org.nuxeo.ecm.core.api.NuxeoException if the {@code criteria} is empty
+     * @since 11.1
+     */
+    long removeActivities(ActivityCriteria criteria);
+
+    /**
+     * Returns the {@code limit} actors, objects or contexts with the most activities of the given {@code verb}, or of
+     * all the verbs if {@code null}, published between the buckets of {@code from} (inclusive) and {@code to}
+     * (exclusive).
+     * <p>
+     * The counts are read from the pre-aggregated counters, maintained only when the counters are enabled.
+     *
+     * @since 11.1
+     */
+    List<ActivityCount> getTopActivityCounts(ActivityCounter.Dimension dimension, String verb,
+            ActivityCounter.Granularity granularity, Date from, Date to, int limit);
+
+    /**
+     * Returns the number of activities of the given {@code verb}, or of all the verbs if {@code null}, for the given
+     * actor, object or context {@code value}, per hour or day bucket between the buckets of {@code from} (inclusive)
+     * and {@code to} (exclusive). Buckets without activity are not returned.
+     *
+     * @since 11.1
+     */
+    SortedMap<Date, Long> getActivityHistogram(ActivityCounter.Dimension dimension, String value, String verb,
+            ActivityCounter.Granularity granularity, Date from, Date to);
+
     /**
      * Returns the list of activities filtered by the given parameters using the {@code ActivityStreamFilter} referenced
      * by {@code filterId}.
@@ -75,6 +113,50 @@ public interface ActivityStreamService {
      */
     ActivitiesList query(String filterId, Map<String, Serializable> parameters);
 
+    /**
+     * Calls the given {@code consumer} on each stored {@link Activity}, in ascending id order.
+     * <p>
+     * Activities are loaded by batches of {@code batchSize} activities, the persistence context being cleared after
+     * each batch: the memory used does not depend on the number of stored activities. The activities given to the
+     * {@code consumer} are detached.
+     *
+     * @param batchSize the number of activities to load at once, or 0 to use the default one.
+     * @since 11.1
+     */
+    void forEachActivity(int batchSize, Consumer<Activity> consumer);
+
+    /**
+     * Returns the list of activity summaries filtered by the given parameters using the {@code ActivityStreamFilter}
+     * referenced by {@code filterId}.
+     * <p>
+     * Summaries do not hold the activities replies, use {@link #getActivityReplies(Collection)} to load them.
+     *
+     * @param filterId the id of the {@code ActivityStreamFilter} to use.
+     * @param parameters this query parameters.
+     * @param offset the offset (starting at 0) into the list of activities.
+     * @param limit the maximum number of activities to retrieve, or 0 for all of them.
+     * @throws NuxeoException if there is no {@code ActivityStreamFilter} matching the given {@code filterId}.
+     * @since 11.1
+     */
+    List<ActivitySummary> querySummaries(String filterId, Map<String, Serializable> parameters, long offset,
+            long limit);
+
+    /**
+     * Returns the summaries of the activities referenced by the given {@code activityIds}.
+     *
+     * @since 11.1
+     */
+    List<ActivitySummary> getActivitySummaries(Collection<Serializable> activityIds);
+
+    /**
+     * Returns the replies of the activities referenced by the given {@code activityIds}, in one query.
+     * <p>
+     * Activities without replies are not part of the returned map.
+     *
+     * @since 11.1
+     */
+    Map<Serializable, List<ActivityReply>> getActivityReplies(Collection<Serializable> activityIds);
+
     /**
      * Computes an {@link ActivityMessage} from the given {@code activity} and {@code locale}.
      */
@@ -85,6 +167,14 @@ public interface ActivityStreamService {
      */
     ActivityMessage toActivityMessage(Activity activity, Locale locale, String activityLinkBuilderName);
 
+    /**
+     * Returns the messages of the given {@code activities}, in the same order, resolving only once per page their
+     * shared verbs, message templates, user and document links.
+     *
+     * @since 11.1
+     */
+    List<ActivityMessage> toActivityMessages(List<Activity> activities, Locale locale, String activityLinkBuilderName);
+
     /**
      * Computes an {@link ActivityReplyMessage} from the given {@code activityReply} and {@code locale}.
      *
@@ -129,4 +219,98 @@ public interface ActivityStreamService {
      */
     ActivityReply removeActivityReply(Serializable activityId, String activityReplyId);
 
+    /**
+     * Returns the {@code limit} documents with the highest trending scores in the given {@code context}, or among all
+     * the documents if {@code null}.
+     * <p>
+     * The scores are kept in memory and only account for the activities added on this node.
+     *
+     * @since 11.1
+     */
+    List<TrendingDocument> getTrendingDocuments(String context, int limit);
+
+    /**
+     * Returns the activities matching the given {@code criteria}, possibly empty, published after the given
+     * {@code watermark}, ordered by ascending (publishedDate, id).
+     * <p>
+     * The watermark of the last returned activity is the one to use for the next call.
+     *
+     * @param limit the maximum number of activities to retrieve, or 0 for all of them.
+     * @since 11.1
+     */
+    ActivitiesList querySince(ActivityCriteria criteria, ActivityWatermark watermark, long limit);
+
+    /**
+     * Returns the activities whose display actor, object, target or reply messages contain all the words of the given
+     * {@code query}, most recent first. A word ending with {@code *} matches all the words starting with it.
+     * <p>
+     * The search runs on an in-memory index of this node, built in the background from the stored activities on the
+     * first search and kept up to date as activities are added, replied to or removed. Until the build is done, only
+     * the activities indexed so far are returned.
+     *
+     * @param limit the maximum number of activities to retrieve, or 0 for all of them.
+     * @since 11.1
+     */
+    ActivitiesList searchActivities(String query, long offset, long limit);
+
+    /**
+     * Returns the watermark of the last activity, {@link ActivityWatermark#NONE} if none.
+     * <p>
+     * Watermarks are answered from memory and can be compared to the one of the last activity seen by a client to
+     * avoid querying unchanged streams.
+     *
+     * @since 11.1
+     */
+    ActivityWatermark getWatermark();
+
+    /**
+     * Returns the watermark of the last activity of the given {@code context}, {@link ActivityWatermark#NONE} if none.
+     *
+     * @since 11.1
+     */
+    ActivityWatermark getContextWatermark(String context);
+
+    /**
+     * Returns the watermark of the last activity with one of the verbs of the given {@link ActivityStream},
+     * {@link ActivityWatermark#NONE} if none.
+     *
+     * @since 11.1
+     */
+    ActivityWatermark getStreamWatermark(String streamName);
+
+    /**
+     * Subscribes the given {@code listener} to the new activities matching the given {@code interest}.
+     * <p>
+     * The listener is called asynchronously, by a single dispatcher thread, once the activities are committed on this
+     * node. It must not block, and must check itself whether the activities can be shown to its principal.
+     *
+     * @since 11.1
+     */
+    ActivitySubscription subscribe(ActivityInterest interest, Consumer<Activity> listener);
+
+    /**
+     * Registers a {@code listener} notified of the activities added, updated or removed on this node, once committed,
+     * and on the other nodes of the cluster when an {@link ActivityInvalidationTransport} is configured.
+     * <p>
+     * Caches of activities, rendered messages or counts use it to evict their stale entries.
+     *
+     * @since 11.1
+     */
+    void addInvalidationListener(Consumer<ActivityInvalidations> listener);
+
+    /**
+     * @since 11.1
+     */
+    void removeInvalidationListener(Consumer<ActivityInvalidations> listener);
+
+    /**
+     * Returns the {@link ActivityStore} holding the activities.
+     * <p>
+     * Filters should read and remove activities through it rather than through a storage specific API, to work with
+     * any configured store.
+     *
+     * @since 11.1
+     */
+    ActivityStore getActivityStore();
+
 }
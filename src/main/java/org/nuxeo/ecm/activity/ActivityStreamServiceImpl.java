@@ -18,34 +18,66 @@
  */
 package org.nuxeo.ecm.activity;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.MissingResourceException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.nuxeo.common.Environment;
 import org.nuxeo.common.utils.i18n.I18NUtils;
+import org.nuxeo.ecm.activity.log.LogActivityStore;
 import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
+import org.nuxeo.ecm.core.api.security.SecurityConstants;
 import org.nuxeo.ecm.core.persistence.PersistenceProvider;
 import org.nuxeo.ecm.core.persistence.PersistenceProviderFactory;
 import org.nuxeo.ecm.core.repository.RepositoryInitializationHandler;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.ecm.core.work.api.WorkManager.Scheduling;
 import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.model.ComponentContext;
 import org.nuxeo.runtime.model.ComponentInstance;
 import org.nuxeo.runtime.model.DefaultComponent;
+import org.nuxeo.runtime.transaction.TransactionHelper;
 
 /**
  * Default implementation of {@link ActivityStreamService}.
@@ -59,6 +91,13 @@ public class ActivityStreamServiceImpl extends DefaultComponent implements Activ
 
     public static final String ACTIVITIES_PROVIDER = "nxactivities";
 
+    /**
+     * Persistence unit bound to the read-only {@code nxactivities-replica} datasource.
+     *
+     * @since 11.1
+     */
+    public static final String ACTIVITIES_REPLICA_PROVIDER = "nxactivities-replica";
+
     public static final String ACTIVITY_STREAM_FILTER_EP = "activityStreamFilters";
 
     public static final String ACTIVITY_STREAMS_EP = "activityStreams";
@@ -69,6 +108,178 @@ public class ActivityStreamServiceImpl extends DefaultComponent implements Activ
 
     public static final String ACTIVITY_UPGRADERS_EP = "activityUpgraders";
 
+    /**
+     * @since 11.1
+     */
+    public static final String ACTIVITY_RETENTIONS_EP = "activityRetentions";
+
+    /**
+     * Property holding the number of expired activities removed in one transaction.
+     *
+     * @since 11.1
+     */
+    public static final String RETENTION_BATCH_SIZE_PROPERTY = "nuxeo.activity.retention.batchSize";
+
+    public static final int DEFAULT_RETENTION_BATCH_SIZE = 1000;
+
+    /**
+     * Property holding the number of activities removed in one batch when removing activities by criteria.
+     *
+     * @since 11.1
+     */
+    public static final String REMOVAL_BATCH_SIZE_PROPERTY = "nuxeo.activity.removal.batchSize";
+
+    public static final int DEFAULT_REMOVAL_BATCH_SIZE = 500;
+
+    /**
+     * Property enabling the maintenance of the pre-aggregated {@link ActivityCounter}s.
+     *
+     * @since 11.1
+     */
+    public static final String COUNTERS_ENABLED_PROPERTY = "nuxeo.activity.counters.enabled";
+
+    /**
+     * Property holding the delay, in milliseconds, between two writes of the buffered counter deltas.
+     *
+     * @since 11.1
+     */
+    public static final String COUNTERS_FLUSH_DELAY_PROPERTY = "nuxeo.activity.counters.flushDelay";
+
+    public static final long DEFAULT_COUNTERS_FLUSH_DELAY = 1000;
+
+    /**
+     * Property holding the half-life, in hours, of the activities in the trending documents scores.
+     *
+     * @since 11.1
+     */
+    public static final String TRENDING_HALF_LIFE_PROPERTY = "nuxeo.activity.trending.halfLife";
+
+    public static final int DEFAULT_TRENDING_HALF_LIFE = 24;
+
+    /**
+     * Property holding the number of seconds after which an in-memory {@link ActivityWatermark} is reloaded.
+     *
+     * @since 11.1
+     */
+    public static final String WATERMARK_TTL_PROPERTY = "nuxeo.activity.watermark.ttl";
+
+    public static final int DEFAULT_WATERMARK_TTL = 30;
+
+    /**
+     * Property holding the {@link ActivityInvalidationTransport} used to notify the other nodes of the activity
+     * changes: {@code local}, {@code pubsub}, {@code none} or a class name. Defaults to {@code pubsub} when
+     * clustering is enabled, {@code none} otherwise.
+     *
+     * @since 11.1
+     */
+    public static final String INVALIDATION_TRANSPORT_PROPERTY = "nuxeo.activity.invalidation.transport";
+
+    /**
+     * Property holding the number of milliseconds during which the activity changes are coalesced before being sent
+     * to the other nodes.
+     *
+     * @since 11.1
+     */
+    public static final String INVALIDATION_DELAY_PROPERTY = "nuxeo.activity.invalidation.delay";
+
+    public static final int DEFAULT_INVALIDATION_DELAY = 200;
+
+    public static final String CLUSTERING_ENABLED_PROPERTY = "repository.clustering.enabled";
+
+    public static final String CLUSTERING_NODE_ID_PROPERTY = "repository.clustering.id";
+
+    /**
+     * Property enabling the routing of the activity reads to the {@link #ACTIVITIES_REPLICA_PROVIDER} persistence unit.
+     *
+     * @since 11.1
+     */
+    public static final String REPLICA_ENABLED_PROPERTY = "nuxeo.activity.replica.enabled";
+
+    /**
+     * Property holding the number of seconds during which the reads of a user are routed to the primary datasource
+     * after the user wrote, so that the user reads their own writes despite the replication lag. Only the node that
+     * took the write knows about it: on the other nodes of a cluster, the reads of the user still go to the replica.
+     *
+     * @since 11.1
+     */
+    public static final String REPLICA_READ_YOUR_WRITES_PROPERTY = "nuxeo.activity.replica.readYourWrites";
+
+    public static final int DEFAULT_REPLICA_READ_YOUR_WRITES = 10;
+
+    /**
+     * Property holding the {@link ActivityStore} used to store the activities: {@code jpa} (the default),
+     * {@code log} for the {@link LogActivityStore}, {@code memory} for the {@link MemoryActivityStore}, or a class
+     * name.
+     *
+     * @since 11.1
+     */
+    public static final String STORE_PROPERTY = "nuxeo.activity.store";
+
+    protected static final int MAX_RECENT_WRITERS = 10000;
+
+    /**
+     * Property holding the number of activity ids upgraded in one transaction by a {@link ChunkedActivityUpgrader}.
+     *
+     * @since 11.1
+     */
+    public static final String UPGRADE_CHUNK_SIZE_PROPERTY = "nuxeo.activity.upgrade.chunkSize";
+
+    /**
+     * Property holding the number of threads used to run a {@link ChunkedActivityUpgrader}.
+     *
+     * @since 11.1
+     */
+    public static final String UPGRADE_PARALLELISM_PROPERTY = "nuxeo.activity.upgrade.parallelism";
+
+    /**
+     * Property enabling the run of the activity upgraders in the background, after the repository initialization.
+     *
+     * @since 11.1
+     */
+    public static final String UPGRADE_BACKGROUND_PROPERTY = "nuxeo.activity.upgrade.background";
+
+    public static final int DEFAULT_UPGRADE_CHUNK_SIZE = 1000;
+
+    public static final int DEFAULT_UPGRADE_PARALLELISM = 2;
+
+    /**
+     * Property holding the number of activity messages rendered at once by {@link #toActivityMessages}, {@code 0} to
+     * render them on the calling thread.
+     *
+     * @since 11.1
+     */
+    public static final String RENDER_PARALLELISM_PROPERTY = "nuxeo.activity.render.parallelism";
+
+    /**
+     * Property holding the minimum number of activities of a page rendered in parallel.
+     *
+     * @since 11.1
+     */
+    public static final String RENDER_PARALLEL_THRESHOLD_PROPERTY = "nuxeo.activity.render.parallelThreshold";
+
+    public static final int DEFAULT_RENDER_PARALLELISM = 0;
+
+    public static final int DEFAULT_RENDER_PARALLEL_THRESHOLD = 1000;
+
+    /**
+     * Default number of activities loaded at once when walking through all the activities.
+     *
+     * @since 11.1
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * Number of locks serializing the rollups of the activities, selected by the hash of the rolled up attributes.
+     *
+     * @since 11.1
+     */
+    protected static final int ROLLUP_LOCKS = 64;
+
+    /**
+     * @since 11.1
+     */
+    protected static final Pattern MESSAGE_PLACEHOLDER_PATTERN = Pattern.compile("\\$\\{(.*?)\\}");
+
     protected final ThreadLocal<EntityManager> localEntityManager = new ThreadLocal<>();
 
     protected final Map<String, ActivityStreamFilter> activityStreamFilters = new HashMap<>();
@@ -81,139 +292,1411 @@ public class ActivityStreamServiceImpl extends DefaultComponent implements Activ
 
     protected ActivityUpgraderRegistry activityUpgraderRegistry;
 
+    /**
+     * @since 11.1
+     */
+    protected ActivityRetentionRegistry activityRetentionRegistry;
+
     protected PersistenceProvider persistenceProvider;
 
+    /**
+     * @since 11.1
+     */
+    protected PersistenceProvider replicaPersistenceProvider;
+
+    /**
+     * Time of the last write of the recent writers, by user name.
+     *
+     * @since 11.1
+     */
+    protected final Map<String, Long> recentWriters = new ConcurrentHashMap<>();
+
+    /**
+     * Set while the reads of the current thread must go to the primary datasource.
+     *
+     * @since 11.1
+     */
+    protected final ThreadLocal<Boolean> forcePrimary = new ThreadLocal<>();
+
+    /**
+     * @since 11.1
+     */
+    protected ActivityStore activityStore;
+
     protected RepositoryInitializationHandler initializationHandler;
 
+    /**
+     * Locks held from the look up of the activity an activity is rolled up into until it is stored, so that the
+     * concurrent occurrences of a same activity are merged one after the other on this node. Across transactions and
+     * nodes, the merges are serialized by the database lock taken by {@link ActivityStore#getLastActivity}.
+     *
+     * @since 11.1
+     */
+    protected final ReentrantLock[] rollupLocks = newRollupLocks();
+
+    /**
+     * @since 11.1
+     */
+    protected volatile TrendingDocumentsTracker trendingDocumentsTracker;
+
+    /**
+     * @since 11.1
+     */
+    protected ActivityWatermarks activityWatermarks;
+
+    /**
+     * @since 11.1
+     */
+    protected ActivitySubscriptions activitySubscriptions;
+
+    /**
+     * Full-text index of the activities, built in the background from the first search.
+     *
+     * @since 11.1
+     */
+    protected volatile ActivitySearchIndex activitySearchIndex;
+
+    /**
+     * @since 11.1
+     */
+    protected volatile ActivityRenderExecutor activityRenderExecutor;
+
+    /**
+     * @since 11.1
+     */
+    protected volatile ActivityCounterBuffer activityCounterBuffer;
+
+    /**
+     * @since 11.1
+     */
+    protected ActivityInvalidationBus activityInvalidationBus;
+
+    /**
+     * @since 11.1
+     */
+    protected final Map<String, ActivityUpgradeProgress> upgradeProgresses = new ConcurrentHashMap<>();
+
+    /**
+     * Names of the {@link ChunkedActivityUpgrader}s scheduled in the background and not yet completed.
+     *
+     * @since 11.1
+     */
+    protected final Set<String> pendingUpgraders = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @since 11.1
+     */
+    protected volatile ActivityUpgradeStatus upgradeStatus = ActivityUpgradeStatus.PENDING;
+
     public void upgradeActivities() {
+        upgradeStatus = ActivityUpgradeStatus.RUNNING;
+        boolean failed = false;
         for (final ActivityUpgrader upgrader : activityUpgraderRegistry.getOrderedActivityUpgraders()) {
             try {
-                getOrCreatePersistenceProvider().run(false, em -> {
-                    upgradeActivities(em, upgrader);
+                if (upgrader instanceof ChunkedActivityUpgrader) {
+                    if (!isChunkedUpgradeSupported(upgrader)) {
+                        continue;
+                    }
+                    new ChunkedActivityUpgradeRunner(this, (ChunkedActivityUpgrader) upgrader,
+                            getUpgradeChunkSize(), getUpgradeParallelism()).run();
+                    pendingUpgraders.remove(upgrader.getName());
+                    continue;
+                }
+                runWithEntityManager(false, () -> {
+                    upgrader.doUpgrade(this);
+                    return null;
                 });
             } catch (NuxeoException e) {
+                failed = true;
                 log.error(String.format("Error while running '%s' activity upgrader: %s", upgrader.getName(),
                         e.getMessage()));
                 log.debug(e, e);
             }
         }
+        upgradeStatus = failed ? ActivityUpgradeStatus.FAILED : ActivityUpgradeStatus.COMPLETED;
+    }
+
+    /**
+     * Schedules the run of the activity upgraders in the background, once the current transaction is committed.
+     * <p>
+     * Until a {@link ChunkedActivityUpgrader} completes, the activities read through this service and not yet upgraded
+     * are upgraded on the fly, in memory, so that callers always see upgraded activities. The upgrade is applied to a
+     * copy of the stored activity, which is not stored unless the caller updates it through this service.
+     * <p>
+     * The upgrade work has a fixed id and is scheduled only if it is not already scheduled or running, so that the
+     * nodes of a cluster starting together run it once. The nodes not running it keep upgrading on the fly the
+     * activities after the checkpoint read at startup until they are restarted.
+     * <p>
+     * The {@link ChunkedActivityUpgrader}s are skipped if the activities are not stored with JPA.
+     *
+     * @since 11.1
+     */
+    public void scheduleUpgradeActivities() {
+        for (ActivityUpgrader upgrader : activityUpgraderRegistry.getOrderedActivityUpgraders()) {
+            if (upgrader instanceof ChunkedActivityUpgrader) {
+                if (!isChunkedUpgradeSupported(upgrader)) {
+                    continue;
+                }
+                String name = upgrader.getName();
+                upgradeProgresses.put(name, new ActivityUpgradeProgress(name, 0, getUpgradeCheckpoint(name)));
+                pendingUpgraders.add(name);
+            } else {
+                log.warn(String.format("Activity upgrader '%s' is not a chunked upgrader, activities may be read "
+                        + "before being upgraded", upgrader.getName()));
+            }
+        }
+        upgradeStatus = ActivityUpgradeStatus.SCHEDULED;
+        WorkManager workManager = Framework.getService(WorkManager.class);
+        workManager.schedule(new ActivityUpgradeWork(), Scheduling.IF_NOT_RUNNING_OR_SCHEDULED, true);
+    }
+
+    /**
+     * Returns {@code true} if the given {@link ChunkedActivityUpgrader} can run on the current activity store, logs a
+     * warning otherwise.
+     *
+     * @since 11.1
+     */
+    protected boolean isChunkedUpgradeSupported(ActivityUpgrader upgrader) {
+        if (activityStore instanceof JpaActivityStore) {
+            return true;
+        }
+        log.warn(String.format("Activity upgrader '%s' skipped, chunked upgrades are not supported by %s",
+                upgrader.getName(), activityStore.getClass().getSimpleName()));
+        return false;
+    }
+
+    /**
+     * Upgrades in memory the given activities not yet upgraded by the pending {@link ChunkedActivityUpgrader}s.
+     *
+     * @since 11.1
+     */
+    protected ActivitiesList ensureAllUpgraded(ActivitiesList activities) {
+        if (!pendingUpgraders.isEmpty()) {
+            for (ListIterator<Activity> it = activities.listIterator(); it.hasNext();) {
+                it.set(ensureUpgraded(it.next()));
+            }
+        }
+        return activities;
+    }
+
+    /**
+     * Returns an upgraded copy of the given activity if some pending {@link ChunkedActivityUpgrader}s did not upgrade
+     * it yet, the activity itself otherwise.
+     * <p>
+     * The activity itself is never modified: it may still be managed by the {@code EntityManager} of the current
+     * transaction, which would store the upgrade when committing.
+     *
+     * @since 11.1
+     */
+    protected Activity ensureUpgraded(Activity activity) {
+        if (activity == null || pendingUpgraders.isEmpty()) {
+            return activity;
+        }
+        Activity upgradedActivity = activity;
+        for (ActivityUpgrader upgrader : activityUpgraderRegistry.getOrderedActivityUpgraders()) {
+            if (!pendingUpgraders.contains(upgrader.getName())) {
+                continue;
+            }
+            ActivityUpgradeProgress progress = upgradeProgresses.get(upgrader.getName());
+            Long lastId = progress != null ? progress.getLastId() : null;
+            if (lastId == null || ((Number) activity.getId()).longValue() > lastId) {
+                if (upgradedActivity == activity) {
+                    upgradedActivity = copy(activity);
+                }
+                ((ChunkedActivityUpgrader) upgrader).upgradeActivity(this, upgradedActivity);
+            }
+        }
+        return upgradedActivity;
+    }
+
+    /**
+     * Returns a new {@link ActivityImpl} with all the attributes of the given {@code activity}, including its id.
+     *
+     * @since 11.1
+     */
+    protected static ActivityImpl copy(Activity activity) {
+        ActivityImpl activityImpl = AbstractIndexedActivityStore.copy(activity);
+        activityImpl.setId(((Number) activity.getId()).longValue());
+        return activityImpl;
+    }
+
+    /**
+     * Upgrades the activities whose id is greater than {@code fromId} and lower or equal to {@code toId}.
+     *
+     * @return the number of upgraded activities
+     * @since 11.1
+     */
+    protected int upgradeActivities(ChunkedActivityUpgrader upgrader, long fromId, long toId) {
+        checkJpaActivityStore("Chunked activity upgrades");
+        return getOrCreatePersistenceProvider().run(true, em -> {
+            return upgradeActivities(em, upgrader, fromId, toId);
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    protected int upgradeActivities(EntityManager em, ChunkedActivityUpgrader upgrader, long fromId, long toId) {
+        try {
+            localEntityManager.set(em);
+            Query query = em.createQuery("select activity from Activity activity"
+                    + " where activity.id > :fromId and activity.id <= :toId order by activity.id asc");
+            query.setParameter("fromId", fromId);
+            query.setParameter("toId", toId);
+            List<Activity> activities = query.getResultList();
+            for (Activity activity : activities) {
+                upgrader.upgradeActivity(this, activity);
+            }
+            return activities.size();
+        } finally {
+            localEntityManager.remove();
+        }
+    }
+
+    /**
+     * Returns the last activity id upgraded by the upgrader named {@code upgraderName}, {@code null} if none.
+     *
+     * @since 11.1
+     */
+    public Long getUpgradeCheckpoint(final String upgraderName) {
+        checkJpaActivityStore("Activity upgrade checkpoints");
+        return getOrCreatePersistenceProvider().run(false, em -> {
+            ActivityUpgradeCheckpoint checkpoint = em.find(ActivityUpgradeCheckpoint.class, upgraderName);
+            return checkpoint != null ? checkpoint.getLastId() : null;
+        });
+    }
+
+    /**
+     * Stores {@code lastId} as the last activity id upgraded by the upgrader named {@code upgraderName}.
+     *
+     * @since 11.1
+     */
+    public void saveUpgradeCheckpoint(final String upgraderName, final Long lastId) {
+        checkJpaActivityStore("Activity upgrade checkpoints");
+        getOrCreatePersistenceProvider().run(true, em -> {
+            ActivityUpgradeCheckpoint checkpoint = em.find(ActivityUpgradeCheckpoint.class, upgraderName);
+            if (checkpoint == null) {
+                checkpoint = new ActivityUpgradeCheckpoint();
+                checkpoint.setUpgraderName(upgraderName);
+                checkpoint.setLastId(lastId);
+                checkpoint.setLastUpdatedDate(new Date());
+                em.persist(checkpoint);
+            } else {
+                checkpoint.setLastId(lastId);
+                checkpoint.setLastUpdatedDate(new Date());
+            }
+        });
+    }
+
+    /**
+     * Returns the lowest activity id greater than {@code fromId}, or the lowest activity id if {@code fromId} is
+     * {@code null}.
+     *
+     * @since 11.1
+     */
+    protected Long getMinActivityId(final Long fromId) {
+        checkJpaActivityStore("Chunked activity upgrades");
+        return getOrCreatePersistenceProvider().run(false, em -> {
+            Query query;
+            if (fromId == null) {
+                query = em.createQuery("select min(activity.id) from Activity activity");
+            } else {
+                query = em.createQuery("select min(activity.id) from Activity activity where activity.id > :fromId");
+                query.setParameter("fromId", fromId);
+            }
+            return (Long) query.getSingleResult();
+        });
+    }
+
+    /**
+     * @since 11.1
+     */
+    protected Long getMaxActivityId() {
+        checkJpaActivityStore("Chunked activity upgrades");
+        return getOrCreatePersistenceProvider().run(false, em -> {
+            return (Long) em.createQuery("select max(activity.id) from Activity activity").getSingleResult();
+        });
+    }
+
+    /**
+     * @since 11.1
+     */
+    protected void upgradeStarted(ActivityUpgradeProgress progress) {
+        upgradeProgresses.put(progress.getUpgraderName(), progress);
+    }
+
+    /**
+     * Returns the progress of the last run of the {@link ChunkedActivityUpgrader} named {@code upgraderName},
+     * {@code null} if it did not run.
+     *
+     * @since 11.1
+     */
+    public ActivityUpgradeProgress getUpgradeProgress(String upgraderName) {
+        return upgradeProgresses.get(upgraderName);
+    }
+
+    /**
+     * Returns the status of the activity upgrades.
+     *
+     * @since 11.1
+     */
+    public ActivityUpgradeStatus getUpgradeStatus() {
+        return upgradeStatus;
+    }
+
+    /**
+     * Returns {@code true} if some activities may still be read before being upgraded.
+     *
+     * @since 11.1
+     */
+    public boolean isUpgradePending() {
+        return !pendingUpgraders.isEmpty();
+    }
+
+    /**
+     * @since 11.1
+     */
+    public boolean isBackgroundUpgrade() {
+        return Framework.isBooleanPropertyTrue(UPGRADE_BACKGROUND_PROPERTY);
+    }
+
+    /**
+     * @since 11.1
+     */
+    public int getUpgradeChunkSize() {
+        return Integer.parseInt(
+                Framework.getProperty(UPGRADE_CHUNK_SIZE_PROPERTY, String.valueOf(DEFAULT_UPGRADE_CHUNK_SIZE)));
+    }
+
+    /**
+     * @since 11.1
+     */
+    public int getUpgradeParallelism() {
+        return Integer.parseInt(
+                Framework.getProperty(UPGRADE_PARALLELISM_PROPERTY, String.valueOf(DEFAULT_UPGRADE_PARALLELISM)));
+    }
+
+    @Override
+    public ActivitiesList query(String filterId, final Map<String, Serializable> parameters) {
+        return query(filterId, parameters, 0, 0);
+    }
+
+    @Override
+    public ActivitiesList query(String filterId, final Map<String, Serializable> parameters, final long offset,
+            final long limit) {
+        if (ALL_ACTIVITIES.equals(filterId)) {
+            return queryAll(offset, limit);
+        }
+
+        final ActivityStreamFilter filter = activityStreamFilters.get(filterId);
+        if (filter == null) {
+            throw new NuxeoException(String.format("Unable to retrieve '%s' ActivityStreamFilter", filterId));
+        }
+
+        return query(filter, parameters, offset, limit);
+    }
+
+    /**
+     * Runs the query of the given {@code filter} on the primary datasource: the replica persistence unit only knows the
+     * core activity entities, not the ones contributed for the filters.
+     */
+    protected ActivitiesList query(final ActivityStreamFilter filter, final Map<String, Serializable> parameters,
+            final long offset, final long limit) {
+        return ensureAllUpgraded(
+                runWithEntityManager(false, () -> filter.query(this, parameters, offset, limit)));
+    }
+
+    protected ActivitiesList queryAll(final long offset, final long limit) {
+        return ensureAllUpgraded(activityStore.getActivities(offset, limit));
+    }
+
+    @Override
+    public void forEachActivity(int batchSize, Consumer<Activity> consumer) {
+        final int size = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+        Serializable lastId = null;
+        int count;
+        do {
+            final Serializable fromId = lastId;
+            ActivitiesList activities;
+            if (activityStore instanceof JpaActivityStore) {
+                activities = getOrCreatePersistenceProvider().run(false, em -> {
+                    return getNextActivities(em, fromId, size);
+                });
+                count = activities.size();
+                if (count > 0) {
+                    lastId = activities.get(count - 1).getId();
+                }
+            } else {
+                // activities removed since their id was read are skipped, continue from the last id read
+                List<Serializable> activityIds = activityStore.getActivityIds(new ActivityCriteria(), fromId, size);
+                activities = activityStore.getActivities(activityIds);
+                count = activityIds.size();
+                if (count > 0) {
+                    lastId = activityIds.get(count - 1);
+                }
+            }
+            for (Activity activity : ensureAllUpgraded(activities)) {
+                consumer.accept(activity);
+            }
+        } while (count == size);
+    }
+
+    /**
+     * Writes the activities matching the given {@code criteria}, ordered by id, to the given {@code out} stream as
+     * {@link ActivityCodec} frames of at most {@link #DEFAULT_BATCH_SIZE} activities, each one preceded by its length.
+     *
+     * @return the number of exported activities
+     * @since 11.1
+     */
+    public long exportActivities(ActivityCriteria criteria, OutputStream out) {
+        DataOutputStream data = new DataOutputStream(out);
+        long count = 0;
+        Serializable lastId = null;
+        List<Serializable> activityIds;
+        try {
+            do {
+                activityIds = activityStore.getActivityIds(criteria, lastId, DEFAULT_BATCH_SIZE);
+                if (activityIds.isEmpty()) {
+                    break;
+                }
+                ActivitiesList activities = getActivities(activityIds);
+                byte[] frame = ActivityCodec.encodeActivities(activities);
+                data.writeInt(frame.length);
+                data.write(frame);
+                count += activities.size();
+                lastId = activityIds.get(activityIds.size() - 1);
+            } while (activityIds.size() == DEFAULT_BATCH_SIZE);
+            data.flush();
+        } catch (IOException e) {
+            throw new NuxeoException("Unable to export activities", e);
+        }
+        return count;
+    }
+
+    /**
+     * Adds the activities written by {@link #exportActivities(ActivityCriteria, OutputStream)} to the given {@code in}
+     * stream, under new ids.
+     * <p>
+     * The activities go through the same path as {@link #addActivity(Activity)}: filters, rollup and counters, the
+     * other side effects being run once each frame is committed.
+     *
+     * @return the number of imported activities
+     * @since 11.1
+     */
+    public long importActivities(InputStream in) {
+        DataInputStream data = new DataInputStream(in);
+        long count = 0;
+        try {
+            int length;
+            while ((length = readFrameLength(data)) >= 0) {
+                byte[] frame = new byte[length];
+                data.readFully(frame);
+                ActivitiesList activities = ActivityCodec.decodeActivities(ByteBuffer.wrap(frame));
+                recordWrite();
+                count += runWithEntityManager(true, () -> {
+                    for (Activity activity : activities) {
+                        ((ActivityImpl) activity).setId(null);
+                        if (storeNewActivity(activity) == activity) {
+                            renumberReplies(activity);
+                        }
+                    }
+                    return activities.size();
+                });
+            }
+        } catch (IOException e) {
+            throw new NuxeoException("Unable to import activities", e);
+        }
+        return count;
+    }
+
+    protected int readFrameLength(DataInputStream data) throws IOException {
+        try {
+            return data.readInt();
+        } catch (EOFException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Renames the replies of an imported activity after its new id, as expected by {@link #computeNewReplyId}.
+     */
+    protected void renumberReplies(Activity activity) {
+        if (activity.getReplies() == null) {
+            return;
+        }
+        List<ActivityReply> replies = activity.getActivityReplies();
+        if (replies.isEmpty()) {
+            return;
+        }
+        for (ActivityReply reply : replies) {
+            reply.setId(activity.getId() + "-reply-" + StringUtils.substringAfterLast(reply.getId(), "-reply-"));
+        }
+        activity.setActivityReplies(replies);
+        activityStore.update(activity);
+    }
+
+    /**
+     * Returns at most {@code limit} activities whose id is greater than {@code fromId}, ordered by id.
+     * <p>
+     * The persistence context is cleared so that the returned activities are detached.
+     *
+     * @param fromId the id to start after, {@code null} to start from the first activity.
+     * @since 11.1
+     */
+    @SuppressWarnings("unchecked")
+    protected ActivitiesList getNextActivities(EntityManager em, Serializable fromId, int limit) {
+        Query query;
+        if (fromId == null) {
+            query = em.createQuery("select activity from Activity activity order by activity.id asc");
+        } else {
+            query = em.createQuery(
+                    "select activity from Activity activity where activity.id > :fromId order by activity.id asc");
+            query.setParameter("fromId", fromId);
+        }
+        query.setMaxResults(limit);
+        ActivitiesList activities = new ActivitiesListImpl(query.getResultList());
+        em.clear();
+        return activities;
+    }
+
+    @Override
+    public List<ActivitySummary> querySummaries(String filterId, final Map<String, Serializable> parameters,
+            final long offset, final long limit) {
+        if (ALL_ACTIVITIES.equals(filterId)) {
+            return queryAllSummaries(offset, limit);
+        }
+
+        final ActivityStreamFilter filter = activityStreamFilters.get(filterId);
+        if (filter == null) {
+            throw new NuxeoException(String.format("Unable to retrieve '%s' ActivityStreamFilter", filterId));
+        }
+
+        if (!(filter instanceof ActivitySummaryStreamFilter)) {
+            List<ActivitySummary> summaries = new ArrayList<>();
+            for (Activity activity : query(filter, parameters, offset, limit)) {
+                summaries.add(ActivitySummary.from(activity));
+            }
+            return summaries;
+        }
+        ActivitySummaryStreamFilter summaryFilter = (ActivitySummaryStreamFilter) filter;
+        return runWithEntityManager(false,
+                () -> summaryFilter.querySummaries(this, parameters, offset, limit));
+    }
+
+    protected List<ActivitySummary> queryAllSummaries(final long offset, final long limit) {
+        return activityStore.getActivitySummaries(offset, limit);
+    }
+
+    @Override
+    public List<ActivitySummary> getActivitySummaries(final Collection<Serializable> activityIds) {
+        if (activityIds == null || activityIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return activityStore.getActivitySummaries(activityIds);
+    }
+
+    @Override
+    public Map<Serializable, List<ActivityReply>> getActivityReplies(final Collection<Serializable> activityIds) {
+        if (activityIds == null || activityIds.isEmpty()) {
+            return new HashMap<>();
+        }
+        return activityStore.getActivityReplies(activityIds);
+    }
+
+    @Override
+    public Activity addActivity(final Activity activity) {
+        if (activity.getPublishedDate() == null) {
+            activity.setPublishedDate(new Date());
+        }
+        recordWrite();
+        return runWithEntityManager(true, () -> storeNewActivity(activity));
+    }
+
+    /**
+     * Stores the given new {@code activity}, or rolls it up into its last occurrence, updates the counters and
+     * schedules the side effects of the addition once the current transaction is committed. Must be called through
+     * {@link #runWithEntityManager(boolean, Supplier)}.
+     *
+     * @return the stored activity, or the one it was rolled up into
+     * @since 11.1
+     */
+    protected Activity storeNewActivity(Activity activity) {
+        Lock rollupLock = lockRollup(activity);
+        Activity storedActivity;
+        try {
+            Activity rolledUpActivity = rollupLock != null ? rollupActivity(activity) : null;
+            if (rolledUpActivity == null) {
+                storeActivity(activity);
+            }
+            updateCounters(activity.getActor(), activity.getObject(), activity.getContext(), activity.getVerb(),
+                    activity.getPublishedDate(), 1);
+            storedActivity = rolledUpActivity != null ? rolledUpActivity : activity;
+        } finally {
+            if (rollupLock != null) {
+                rollupLock.unlock();
+            }
+        }
+        runAfterCommit(() -> {
+            recordTrendingActivity(activity);
+            updateWatermarks(storedActivity);
+            activitySubscriptions.dispatch(storedActivity);
+            indexActivity(storedActivity);
+            activityInvalidationBus.invalidate(activityInvalidationBus.newInvalidations().activityAdded(storedActivity));
+        });
+        return storedActivity;
+    }
+
+    /**
+     * Runs the given {@code runnable} once the current transaction is committed, or immediately if there is no
+     * transaction.
+     *
+     * @since 11.1
+     */
+    protected void runAfterCommit(Runnable runnable) {
+        if (!TransactionHelper.isTransactionActiveOrMarkedRollback()) {
+            runnable.run();
+            return;
+        }
+        TransactionHelper.registerSynchronization(new Synchronization() {
+
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    runnable.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Publishes the given {@code invalidations} on the {@link ActivityInvalidationBus} once the current transaction is
+     * committed.
+     *
+     * @since 11.1
+     */
+    protected void invalidateAfterCommit(ActivityInvalidations invalidations) {
+        runAfterCommit(() -> activityInvalidationBus.invalidate(invalidations));
+    }
+
+    /**
+     * @since 11.1
+     */
+    protected void updateWatermarks(Activity activity) {
+        ActivityWatermark watermark = ActivityWatermark.of(activity);
+        activityWatermarks.update(ALL_ACTIVITIES, watermark);
+        if (activity.getContext() != null) {
+            activityWatermarks.update("context:" + activity.getContext(), watermark);
+        }
+        if (activity.getVerb() != null) {
+            activityWatermarks.update("verb:" + activity.getVerb(), watermark);
+        }
+    }
+
+    @Override
+    public ActivitySubscription subscribe(ActivityInterest interest, Consumer<Activity> listener) {
+        List<String> verbs = new ArrayList<>();
+        if (interest.getKind() == ActivityInterest.Kind.STREAM) {
+            ActivityStream activityStream = activityStreamRegistry.get(interest.getValue());
+            if (activityStream == null) {
+                throw new NuxeoException(
+                        String.format("Unable to retrieve '%s' ActivityStream", interest.getValue()));
+            }
+            verbs.addAll(activityStream.getVerbs());
+        }
+        return activitySubscriptions.subscribe(interest, verbs, listener);
+    }
+
+    @Override
+    public void addInvalidationListener(Consumer<ActivityInvalidations> listener) {
+        activityInvalidationBus.addListener(listener);
+    }
+
+    @Override
+    public void removeInvalidationListener(Consumer<ActivityInvalidations> listener) {
+        activityInvalidationBus.removeListener(listener);
+    }
+
+    /**
+     * @since 11.1
+     */
+    public ActivityInvalidationBus getActivityInvalidationBus() {
+        return activityInvalidationBus;
+    }
+
+    /**
+     * Keeps the in-memory state of this node up to date with the activity changes made on the other nodes: the
+     * watermarks and trending documents are updated, and the new activities are dispatched to the local subscribers.
+     *
+     * @since 11.1
+     */
+    protected void handleRemoteInvalidations(ActivityInvalidations invalidations) {
+        if (activityInvalidationBus.getNodeId().equals(invalidations.getNodeId())) {
+            return;
+        }
+        if (!invalidations.getRemovedActivityIds().isEmpty()) {
+            // a removed activity may have been the last one of any watermark
+            activityWatermarks.clear();
+        }
+        if (invalidations.getAddedActivityIds().isEmpty()) {
+            return;
+        }
+        for (Activity activity : getActivities(invalidations, invalidations.getAddedActivityIds())) {
+            updateWatermarks(activity);
+            recordTrendingActivity(activity);
+            activitySubscriptions.dispatch(activity);
+        }
+    }
+
+    /**
+     * @since 11.1
+     */
+    protected ActivityInvalidationTransport newInvalidationTransport() {
+        String transport = Framework.getProperty(INVALIDATION_TRANSPORT_PROPERTY);
+        if (StringUtils.isBlank(transport)) {
+            transport = Framework.isBooleanPropertyTrue(CLUSTERING_ENABLED_PROPERTY) ? "pubsub" : "none";
+        }
+        switch (transport) {
+        case "none":
+            return null;
+        case "local":
+            return new LocalActivityInvalidationTransport();
+        case "pubsub":
+            return new PubSubActivityInvalidationTransport();
+        default:
+            try {
+                return (ActivityInvalidationTransport) Class.forName(transport).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new NuxeoException(
+                        String.format("Cannot instantiate activity invalidation transport: %s", transport), e);
+            }
+        }
+    }
+
+    @Override
+    public ActivitiesList searchActivities(String query, long offset, long limit) {
+        List<Long> activityIds = getActivitySearchIndex().search(query, offset, limit);
+        if (activityIds.isEmpty()) {
+            return new ActivitiesListImpl();
+        }
+        Map<Long, Activity> activities = new HashMap<>();
+        for (Activity activity : getActivities(new ArrayList<>(activityIds))) {
+            activities.put(ActivitySearchIndex.toId(activity.getId()), activity);
+        }
+        ActivitiesList result = new ActivitiesListImpl();
+        for (Long activityId : activityIds) {
+            Activity activity = activities.get(activityId);
+            if (activity != null) {
+                result.add(activity);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the full-text index of the activities, scheduling its build from the stored activities on the first
+     * call. Until the build is done, the index only holds part of the activities (see
+     * {@link ActivitySearchIndex#isReady()}).
+     *
+     * @since 11.1
+     */
+    public ActivitySearchIndex getActivitySearchIndex() {
+        ActivitySearchIndex index = activitySearchIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = activitySearchIndex;
+                if (index == null) {
+                    index = new ActivitySearchIndex();
+                    index.buildStarted();
+                    // published first so that the activities added or removed during the build are recorded
+                    activitySearchIndex = index;
+                    Framework.getService(WorkManager.class).schedule(new ActivitySearchIndexWork());
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Builds the full-text index of the activities from the stored activities, if not done yet.
+     *
+     * @since 11.1
+     */
+    protected void buildSearchIndex() {
+        ActivitySearchIndex index = activitySearchIndex;
+        if (index == null || index.isReady()) {
+            return;
+        }
+        log.info("Building the activity search index");
+        try {
+            forEachActivity(DEFAULT_BATCH_SIZE, index::build);
+        } catch (NuxeoException e) {
+            // dropped so that the next search schedules a new build
+            synchronized (this) {
+                if (activitySearchIndex == index) {
+                    activitySearchIndex = null;
+                }
+            }
+            throw e;
+        }
+        index.buildDone();
+        log.info(String.format("Activity search index built with %d activities", index.size()));
+    }
+
+    /**
+     * @since 11.1
+     */
+    protected void indexActivity(Activity activity) {
+        ActivitySearchIndex index = activitySearchIndex;
+        if (index != null) {
+            index.index(activity);
+        }
+    }
+
+    /**
+     * Prunes the removed activities from the search index, and indexes the activities added or updated on the other
+     * nodes.
+     *
+     * @since 11.1
+     */
+    protected void updateSearchIndex(ActivityInvalidations invalidations) {
+        ActivitySearchIndex index = activitySearchIndex;
+        if (index == null) {
+            return;
+        }
+        index.remove(invalidations.getRemovedActivityIds());
+        if (activityInvalidationBus.getNodeId().equals(invalidations.getNodeId())) {
+            return;
+        }
+        List<Serializable> activityIds = new ArrayList<>(invalidations.getAddedActivityIds());
+        activityIds.addAll(invalidations.getUpdatedActivityIds());
+        getActivities(invalidations, activityIds).forEach(index::index);
+    }
+
+    /**
+     * Returns the activities changed by the given {@code invalidations}, loading from the primary datasource the ones
+     * which did not travel with them.
+     *
+     * @since 11.1
+     */
+    protected ActivitiesList getActivities(ActivityInvalidations invalidations, Collection<Serializable> activityIds) {
+        ActivitiesList activities = new ActivitiesListImpl();
+        List<Serializable> missingIds = new ArrayList<>();
+        for (Serializable activityId : activityIds) {
+            Activity activity = invalidations.getActivity(activityId);
+            if (activity != null) {
+                activities.add(activity);
+            } else {
+                missingIds.add(activityId);
+            }
+        }
+        if (!missingIds.isEmpty()) {
+            // from the primary datasource, the replica may not have the new activities yet
+            activities.addAll(
+                    TransactionHelper.runInTransaction(() -> runOnPrimary(() -> getActivities(missingIds))));
+        }
+        return activities;
+    }
+
+    @Override
+    public ActivityWatermark getWatermark() {
+        return activityWatermarks.get(ALL_ACTIVITIES, () -> loadWatermark(new ActivityCriteria()));
+    }
+
+    @Override
+    public ActivityWatermark getContextWatermark(String context) {
+        return activityWatermarks.get("context:" + context,
+                () -> loadWatermark(new ActivityCriteria().contexts(context)));
+    }
+
+    @Override
+    public ActivityWatermark getStreamWatermark(String streamName) {
+        ActivityStream activityStream = activityStreamRegistry.get(streamName);
+        if (activityStream == null) {
+            throw new NuxeoException(String.format("Unable to retrieve '%s' ActivityStream", streamName));
+        }
+        ActivityWatermark watermark = ActivityWatermark.NONE;
+        for (String verb : activityStream.getVerbs()) {
+            watermark = ActivityWatermark.max(watermark,
+                    activityWatermarks.get("verb:" + verb, () -> loadWatermark(new ActivityCriteria().verbs(verb))));
+        }
+        return watermark;
+    }
+
+    /**
+     * @since 11.1
+     */
+    protected ActivityWatermark loadWatermark(final ActivityCriteria criteria) {
+        ActivitiesList latest = runOnPrimary(() -> activityStore.scanBefore(criteria, null, 1));
+        return latest.isEmpty() ? ActivityWatermark.NONE : ActivityWatermark.of(latest.get(0));
+    }
+
+    @Override
+    public ActivitiesList querySince(final ActivityCriteria criteria, final ActivityWatermark watermark,
+            final long limit) {
+        return ensureAllUpgraded(runOnPrimary(() -> activityStore.scanAfter(
+                criteria != null ? criteria : new ActivityCriteria(),
+                watermark != null ? watermark : ActivityWatermark.NONE, limit)));
+    }
+
+    /**
+     * @since 11.1
+     */
+    protected void recordTrendingActivity(Activity activity) {
+        if (DocumentEventTypes.DOCUMENT_REMOVED.equals(activity.getVerb())) {
+            getTrendingDocumentsTracker().remove(activity.getObject());
+        } else {
+            getTrendingDocumentsTracker().record(activity.getContext(), activity.getObject(), activity.getVerb(),
+                    activity.getPublishedDateMillis());
+        }
+    }
+
+    @Override
+    public List<TrendingDocument> getTrendingDocuments(String context, int limit) {
+        return getTrendingDocumentsTracker().getTrendingDocuments(context, limit);
+    }
+
+    /**
+     * @since 11.1
+     */
+    public TrendingDocumentsTracker getTrendingDocumentsTracker() {
+        if (trendingDocumentsTracker == null) {
+            synchronized (this) {
+                if (trendingDocumentsTracker == null) {
+                    int halfLife = Integer.parseInt(Framework.getProperty(TRENDING_HALF_LIFE_PROPERTY,
+                            String.valueOf(DEFAULT_TRENDING_HALF_LIFE)));
+                    TrendingDocumentsTracker tracker = new TrendingDocumentsTracker(TimeUnit.HOURS.toMillis(halfLife),
+                            TrendingDocumentsTracker.DEFAULT_VERB_WEIGHTS);
+                    File file = getTrendingDocumentsFile();
+                    if (file != null) {
+                        tracker.load(file);
+                    }
+                    trendingDocumentsTracker = tracker;
+                }
+            }
+        }
+        return trendingDocumentsTracker;
+    }
+
+    /**
+     * Saves the trending documents scores, so that they survive a restart.
+     *
+     * @since 11.1
+     */
+    public void checkpointTrendingDocuments() {
+        File file = getTrendingDocumentsFile();
+        if (trendingDocumentsTracker != null && file != null) {
+            trendingDocumentsTracker.checkpoint(file);
+        }
+    }
+
+    /**
+     * @since 11.1
+     */
+    protected File getTrendingDocumentsFile() {
+        Environment env = Environment.getDefault();
+        if (env == null || env.getData() == null) {
+            return null;
+        }
+        return new File(new File(env.getData(), "activity"), "trending-documents.json");
+    }
+
+    protected static ReentrantLock[] newRollupLocks() {
+        ReentrantLock[] locks = new ReentrantLock[ROLLUP_LOCKS];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        return locks;
+    }
+
+    /**
+     * Returns {@code true} if the given {@code activity} may be rolled up into a previous occurrence.
+     *
+     * @since 11.1
+     */
+    protected boolean isRollupEnabled(Activity activity) {
+        ActivityVerb verb = activityVerbRegistry.get(activity.getVerb());
+        return verb != null && verb.getRollupWindow() > 0 && activity instanceof ActivityImpl;
+    }
+
+    /**
+     * Acquires the lock serializing the rollups of the given {@code activity} on this node, to be released by the
+     * caller, in the same thread, once the activity is stored.
+     *
+     * @return the acquired lock, {@code null} if the activity must not be rolled up
+     * @since 11.1
+     */
+    protected Lock lockRollup(Activity activity) {
+        if (!isRollupEnabled(activity)) {
+            return null;
+        }
+        int hash = Objects.hash(activity.getActor(), activity.getVerb(), activity.getObject(), activity.getTarget(),
+                activity.getContext());
+        Lock lock = rollupLocks[Math.floorMod(hash, rollupLocks.length)];
+        lock.lock();
+        return lock;
+    }
+
+    /**
+     * Merges the given {@code activity} into the last occurrence of the same activity if its verb has a rollup window
+     * and this occurrence was published within the window.
+     * <p>
+     * The caller must hold the rollup lock of the activity, see {@link #lockRollup(Activity)}. The occurrence is looked
+     * up with {@link ActivityStore#getLastActivity(Activity, Date)}, which locks it in the database until the end of
+     * the transaction, serializing the rollups done by the other transactions and nodes.
+     *
+     * @return the activity the given one was merged into, {@code null} if it must be stored
+     * @since 11.1
+     */
+    protected Activity rollupActivity(Activity activity) {
+        if (!isRollupEnabled(activity)) {
+            return null;
+        }
+
+        ActivityVerb verb = activityVerbRegistry.get(activity.getVerb());
+        Date since = new Date(
+                activity.getPublishedDateMillis() - TimeUnit.SECONDS.toMillis(verb.getRollupWindow()));
+        Activity lastActivity = activityStore.getLastActivity(activity, since);
+        if (!(lastActivity instanceof ActivityImpl)) {
+            return null;
+        }
+
+        ActivityImpl rolledUpActivity = (ActivityImpl) lastActivity;
+        if (rolledUpActivity.getRollupStartDate() == null) {
+            rolledUpActivity.setRollupStartDate(rolledUpActivity.getPublishedDate());
+        }
+        Integer rollupCount = rolledUpActivity.getRollupCount();
+        rolledUpActivity.setRollupCount(rollupCount != null ? rollupCount + 1 : 2);
+        if (activity.getPublishedDateMillis() > rolledUpActivity.getPublishedDateMillis()) {
+            rolledUpActivity.setPublishedDateMillis(activity.getPublishedDateMillis());
+        }
+        if (activity.getDisplayActor() != null) {
+            rolledUpActivity.setDisplayActor(activity.getDisplayActor());
+        }
+        if (activity.getDisplayObject() != null) {
+            rolledUpActivity.setDisplayObject(activity.getDisplayObject());
+        }
+        if (activity.getDisplayTarget() != null) {
+            rolledUpActivity.setDisplayTarget(activity.getDisplayTarget());
+        }
+        rolledUpActivity.setLastUpdatedDate(new Date());
+        activityStore.update(rolledUpActivity);
+        for (ActivityStreamFilter filter : activityStreamFilters.values()) {
+            if (filter.isInterestedIn(rolledUpActivity)) {
+                filter.handleUpdatedActivity(this, rolledUpActivity);
+            }
+        }
+        return rolledUpActivity;
+    }
+
+    /**
+     * Stores the given new {@code activity} and notifies the interested filters.
+     *
+     * @since 11.1
+     */
+    protected void storeActivity(Activity activity) {
+        activityStore.append(activity);
+        for (ActivityStreamFilter filter : activityStreamFilters.values()) {
+            if (filter.isInterestedIn(activity)) {
+                filter.handleNewActivity(this, activity);
+            }
+        }
+    }
+
+    @Override
+    public void removeActivities(final Collection<Activity> activities) {
+        if (activities == null || activities.isEmpty()) {
+            return;
+        }
+        recordWrite();
+        runWithEntityManager(true, () -> {
+            ActivitiesList l = new ActivitiesListImpl(activities);
+            for (ActivityStreamFilter filter : activityStreamFilters.values()) {
+                filter.handleRemovedActivities(this, l);
+            }
+            decrementCounters(l);
+
+            activityStore.remove(l.toActivityIds());
+            invalidateAfterCommit(activityInvalidationBus.newInvalidations().activitiesRemoved(l));
+            return null;
+        });
+    }
+
+    /**
+     * Removes the activities expired according to the contributed {@link ActivityRetention}s.
+     * <p>
+     * The activities are removed by batches of {@link #getRetentionBatchSize()} activities, each batch being removed,
+     * and notified to the filters, in its own transaction.
+     *
+     * @return the number of removed activities
+     * @since 11.1
+     */
+    public long removeExpiredActivities() {
+        Date now = new Date();
+        long removed = 0;
+        for (ActivityRetention retention : activityRetentionRegistry.getActivityRetentions()) {
+            try {
+                removed += removeExpiredActivities(retention, now);
+            } catch (NuxeoException e) {
+                log.error(String.format("Error while applying '%s' activity retention: %s", retention.getName(),
+                        e.getMessage()));
+                log.debug(e, e);
+            }
+        }
+        return removed;
+    }
+
+    protected long removeExpiredActivities(ActivityRetention retention, Date now) {
+        final List<String> verbs = getRetentionVerbs(retention);
+        if (verbs.isEmpty() || retention.getDays() <= 0) {
+            log.warn(String.format("Activity retention '%s' has no verb or no duration, ignoring it",
+                    retention.getName()));
+            return 0;
+        }
+        ActivityCriteria criteria = new ActivityCriteria().verbs(verbs).publishedBefore(
+                retention.getExpirationDate(now));
+        long removed = removeActivities(criteria, getRetentionBatchSize());
+        if (removed > 0) {
+            log.info(String.format("Removed %d activities expired according to '%s' activity retention", removed,
+                    retention.getName()));
+        }
+        return removed;
+    }
+
+    /**
+     * @since 11.1
+     */
+    protected List<String> getRetentionVerbs(ActivityRetention retention) {
+        List<String> verbs = new ArrayList<>();
+        if (retention.getVerb() != null) {
+            verbs.add(retention.getVerb());
+        }
+        if (retention.getStream() != null) {
+            ActivityStream activityStream = activityStreamRegistry.get(retention.getStream());
+            if (activityStream != null) {
+                verbs.addAll(activityStream.getVerbs());
+            }
+        }
+        return verbs;
     }
 
-    protected void upgradeActivities(EntityManager em, ActivityUpgrader upgrader) {
-        try {
-            localEntityManager.set(em);
-            upgrader.doUpgrade(this);
-        } finally {
-            localEntityManager.remove();
-        }
+    /**
+     * @since 11.1
+     */
+    public int getRetentionBatchSize() {
+        return Integer.parseInt(
+                Framework.getProperty(RETENTION_BATCH_SIZE_PROPERTY, String.valueOf(DEFAULT_RETENTION_BATCH_SIZE)));
     }
 
     @Override
-    public ActivitiesList query(String filterId, final Map<String, Serializable> parameters) {
-        return query(filterId, parameters, 0, 0);
+    public long removeActivities(ActivityCriteria criteria) {
+        return removeActivities(criteria, getRemovalBatchSize());
     }
 
-    @Override
-    public ActivitiesList query(String filterId, final Map<String, Serializable> parameters, final long offset,
-            final long limit) {
-        if (ALL_ACTIVITIES.equals(filterId)) {
-            return queryAll(offset, limit);
+    /**
+     * Removes the activities matching the given {@code criteria} by batches of {@code batchSize} activities. Each batch
+     * runs in its own transaction, unless a transaction is already active.
+     *
+     * @since 11.1
+     */
+    public long removeActivities(final ActivityCriteria criteria, final int batchSize) {
+        if (criteria == null || criteria.isEmpty()) {
+            throw new NuxeoException("Cannot remove activities without any criteria");
         }
+        recordWrite();
+        long removed = 0;
+        Serializable lastId = null;
+        List<Serializable> batch;
+        do {
+            final Serializable fromId = lastId;
+            batch = TransactionHelper.runInTransaction(() -> {
+                return runWithEntityManager(true, () -> removeActivities(criteria, fromId, batchSize));
+            });
+            if (!batch.isEmpty()) {
+                removed += batch.size();
+                lastId = batch.get(batch.size() - 1);
+            }
+        } while (batch.size() == batchSize);
+        return removed;
+    }
 
-        final ActivityStreamFilter filter = activityStreamFilters.get(filterId);
-        if (filter == null) {
-            throw new NuxeoException(String.format("Unable to retrieve '%s' ActivityStreamFilter", filterId));
+    /**
+     * Removes at most {@code limit} activities matching the given {@code criteria} and whose id is greater than
+     * {@code fromId}.
+     *
+     * @return the ids of the removed activities, in ascending order
+     * @since 11.1
+     */
+    protected List<Serializable> removeActivities(ActivityCriteria criteria, Serializable fromId, int limit) {
+        List<Serializable> activityIds = activityStore.getActivityIds(criteria, fromId, limit);
+        if (activityIds.isEmpty()) {
+            return activityIds;
         }
 
-        return query(filter, parameters, offset, limit);
-    }
+        for (ActivityStreamFilter filter : activityStreamFilters.values()) {
+            filter.handleRemovedActivityIds(this, activityIds);
+        }
+        if (isCountersEnabled()) {
+            decrementCounters(activityStore.getActivityOccurrences(activityIds));
+        }
 
-    protected ActivitiesList query(final ActivityStreamFilter filter, final Map<String, Serializable> parameters,
-            final long offset, final long limit) {
-        return getOrCreatePersistenceProvider().run(false, em -> {
-            return query(em, filter, parameters, offset, limit);
-        });
+        activityStore.remove(activityIds);
+        invalidateAfterCommit(activityInvalidationBus.newInvalidations().activityIdsRemoved(activityIds));
+        return activityIds;
     }
 
-    protected ActivitiesList query(EntityManager em, ActivityStreamFilter filter, Map<String, Serializable> parameters,
-            long offset, long limit) {
-        try {
-            localEntityManager.set(em);
-            return filter.query(this, parameters, offset, limit);
-        } finally {
-            localEntityManager.remove();
+    /**
+     * Adds {@code delta} to the hourly and daily counters of the given actor, object and context for the given verb.
+     * <p>
+     * The deltas are buffered once the current transaction is committed, and written in batch by the
+     * {@link ActivityCounterBuffer}: the counters are not updated in the transaction storing the activities.
+     *
+     * @since 11.1
+     */
+    protected void updateCounters(String actor, String object, String context, String verb, Date publishedDate,
+            long delta) {
+        if (!isCountersEnabled() || publishedDate == null) {
+            return;
         }
-
+        List<ActivityCounter> counters = new ArrayList<>();
+        addCounters(counters, ActivityCounter.Dimension.ACTOR, actor, verb, publishedDate, delta);
+        addCounters(counters, ActivityCounter.Dimension.OBJECT, object, verb, publishedDate, delta);
+        addCounters(counters, ActivityCounter.Dimension.CONTEXT, context, verb, publishedDate, delta);
+        runAfterCommit(() -> getActivityCounterBuffer().add(counters));
     }
 
-    protected ActivitiesList queryAll(final long offset, final long limit) {
-        return getOrCreatePersistenceProvider().run(false, em -> {
-            return queryAll(em, offset, limit);
-        });
+    protected void addCounters(List<ActivityCounter> counters, ActivityCounter.Dimension dimension, String value,
+            String verb, Date publishedDate, long delta) {
+        if (value == null) {
+            return;
+        }
+        for (ActivityCounter.Granularity granularity : ActivityCounter.Granularity.values()) {
+            counters.add(new ActivityCounter(dimension, value, verb, granularity, granularity.getBucket(publishedDate),
+                    delta));
+        }
     }
 
-    @SuppressWarnings("unchecked")
-    protected ActivitiesList queryAll(EntityManager em, long offset, long limit) {
-        Query query = em.createQuery("select activity from Activity activity order by activity.id asc");
-        if (limit > 0) {
-            query.setMaxResults((int) limit);
+    /**
+     * Returns the buffer of the counter deltas, created on first use.
+     *
+     * @since 11.1
+     */
+    public ActivityCounterBuffer getActivityCounterBuffer() {
+        ActivityCounterBuffer buffer = activityCounterBuffer;
+        if (buffer == null) {
+            synchronized (this) {
+                buffer = activityCounterBuffer;
+                if (buffer == null) {
+                    buffer = new ActivityCounterBuffer(getCountersFlushDelay(), activityStore::updateCounters);
+                    activityCounterBuffer = buffer;
+                }
+            }
         }
-        if (offset > 0) {
-            query.setFirstResult((int) offset);
+        return buffer;
+    }
+
+    /**
+     * Writes the buffered counter deltas, so that the counters read afterwards include all the committed activities.
+     *
+     * @since 11.1
+     */
+    protected void flushCounters() {
+        ActivityCounterBuffer buffer = activityCounterBuffer;
+        if (buffer != null) {
+            buffer.flush();
         }
-        return new ActivitiesListImpl(query.getResultList());
     }
 
-    @Override
-    public Activity addActivity(final Activity activity) {
-        if (activity.getPublishedDate() == null) {
-            activity.setPublishedDate(new Date());
+    /**
+     * Rebuilds the {@link ActivityCounter}s from the stored activities, to recover the deltas lost when the server
+     * stopped before writing them (see {@link ActivityCounterBuffer}).
+     * <p>
+     * The counters are deleted, then all the activities are counted again by batches. The activities added or removed
+     * meanwhile may be counted twice or not at all: the counters should be rebuilt while no activities are written.
+     *
+     * @return the number of counted activities
+     * @since 11.1
+     */
+    public long rebuildCounters() {
+        if (!isCountersEnabled()) {
+            throw new NuxeoException("Activity counters are not enabled");
         }
-        getOrCreatePersistenceProvider().run(true, em -> {
-            addActivity(em, activity);
+        flushCounters();
+        activityStore.deleteCounters();
+        AtomicLong counted = new AtomicLong();
+        forEachActivity(DEFAULT_BATCH_SIZE, activity -> {
+            Integer rollupCount = activity.getRollupCount();
+            updateCounters(activity.getActor(), activity.getObject(), activity.getContext(), activity.getVerb(),
+                    activity.getPublishedDate(), rollupCount != null ? rollupCount : 1);
+            counted.incrementAndGet();
         });
-        return activity;
+        flushCounters();
+        log.info(String.format("Rebuilt the activity counters from %d activities", counted.get()));
+        return counted.get();
     }
 
-    protected void addActivity(EntityManager em, Activity activity) {
-        try {
-            localEntityManager.set(em);
-            em.persist(activity);
-            for (ActivityStreamFilter filter : activityStreamFilters.values()) {
-                if (filter.isInterestedIn(activity)) {
-                    filter.handleNewActivity(this, activity);
-                }
-            }
-        } finally {
-            localEntityManager.remove();
+    /**
+     * Schedules the rebuild of the {@link ActivityCounter}s in the background.
+     *
+     * @see #rebuildCounters()
+     * @since 11.1
+     */
+    public void scheduleRebuildCounters() {
+        WorkManager workManager = Framework.getService(WorkManager.class);
+        workManager.schedule(new ActivityCounterRebuildWork(), Scheduling.IF_NOT_RUNNING_OR_SCHEDULED, true);
+    }
+
+    /**
+     * Decrements the counters of the given activities, by their number of rolled up occurrences.
+     *
+     * @since 11.1
+     */
+    protected void decrementCounters(Collection<Activity> activities) {
+        for (Activity activity : activities) {
+            Integer rollupCount = activity.getRollupCount();
+            updateCounters(activity.getActor(), activity.getObject(), activity.getContext(), activity.getVerb(),
+                    activity.getPublishedDate(), rollupCount != null ? -rollupCount : -1);
         }
     }
 
     @Override
-    public void removeActivities(final Collection<Activity> activities) {
-        if (activities == null || activities.isEmpty()) {
-            return;
-        }
-        getOrCreatePersistenceProvider().run(true, em -> {
-            removeActivities(em, activities);
-        });
+    public List<ActivityCount> getTopActivityCounts(final ActivityCounter.Dimension dimension, final String verb,
+            final ActivityCounter.Granularity granularity, final Date from, final Date to, final int limit) {
+        flushCounters();
+        return activityStore.getTopActivityCounts(dimension, verb, granularity, from, to, limit);
     }
 
-    protected void removeActivities(EntityManager em, Collection<Activity> activities) {
-        try {
-            localEntityManager.set(em);
+    @Override
+    public SortedMap<Date, Long> getActivityHistogram(final ActivityCounter.Dimension dimension, final String value,
+            final String verb, final ActivityCounter.Granularity granularity, final Date from, final Date to) {
+        flushCounters();
+        return activityStore.getActivityHistogram(dimension, value, verb, granularity, from, to);
+    }
 
-            ActivitiesList l = new ActivitiesListImpl(activities);
-            for (ActivityStreamFilter filter : activityStreamFilters.values()) {
-                filter.handleRemovedActivities(this, l);
-            }
+    /**
+     * Returns {@code true} if the counters are enabled and supported by the {@link ActivityStore}.
+     *
+     * @since 11.1
+     */
+    public boolean isCountersEnabled() {
+        return Framework.isBooleanPropertyTrue(COUNTERS_ENABLED_PROPERTY) && activityStore.isCountersSupported();
+    }
 
-            Query query = em.createQuery("delete from Activity activity where activity.id in (:ids)");
-            query.setParameter("ids", l.toActivityIds());
-            query.executeUpdate();
-        } finally {
-            localEntityManager.remove();
-        }
+    /**
+     * @since 11.1
+     */
+    public long getCountersFlushDelay() {
+        return Long.parseLong(
+                Framework.getProperty(COUNTERS_FLUSH_DELAY_PROPERTY, String.valueOf(DEFAULT_COUNTERS_FLUSH_DELAY)));
+    }
+
+    /**
+     * @since 11.1
+     */
+    public int getRemovalBatchSize() {
+        return Integer.parseInt(
+                Framework.getProperty(REMOVAL_BATCH_SIZE_PROPERTY, String.valueOf(DEFAULT_REMOVAL_BATCH_SIZE)));
     }
 
     @Override
@@ -223,10 +1706,69 @@ public class ActivityStreamServiceImpl extends DefaultComponent implements Activ
 
     @Override
     public ActivityMessage toActivityMessage(Activity activity, Locale locale, String activityLinkBuilderName) {
-        ActivityLinkBuilder activityLinkBuilder = getActivityLinkBuilder(activityLinkBuilderName);
+        return toActivityMessage(activity, getActivityLinkBuilder(activityLinkBuilderName),
+                labelKey -> getMessageTemplate(labelKey, locale));
+    }
 
-        Map<String, String> fields = activity.toMap();
+    @Override
+    public List<ActivityMessage> toActivityMessages(List<Activity> activities, Locale locale,
+            String activityLinkBuilderName) {
+        ActivityRenderExecutor executor = null;
+        if (activities.size() >= getRenderParallelThreshold()) {
+            executor = getActivityRenderExecutor();
+        }
+        return new ActivityPageRenderer(this, locale, activityLinkBuilderName, executor).render(activities);
+    }
+
+    /**
+     * Returns the executor rendering large pages in parallel, {@code null} if parallel rendering is disabled.
+     *
+     * @since 11.1
+     */
+    public ActivityRenderExecutor getActivityRenderExecutor() {
+        ActivityRenderExecutor executor = activityRenderExecutor;
+        if (executor == null) {
+            int parallelism = getRenderParallelism();
+            if (parallelism <= 0) {
+                return null;
+            }
+            synchronized (this) {
+                executor = activityRenderExecutor;
+                if (executor == null) {
+                    executor = new ActivityRenderExecutor(parallelism);
+                    activityRenderExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * @since 11.1
+     */
+    public int getRenderParallelism() {
+        return Integer.parseInt(
+                Framework.getProperty(RENDER_PARALLELISM_PROPERTY, String.valueOf(DEFAULT_RENDER_PARALLELISM)));
+    }
+
+    /**
+     * @since 11.1
+     */
+    public int getRenderParallelThreshold() {
+        return Integer.parseInt(Framework.getProperty(RENDER_PARALLEL_THRESHOLD_PROPERTY,
+                String.valueOf(DEFAULT_RENDER_PARALLEL_THRESHOLD)));
+    }
 
+    /**
+     * Renders the given {@code activity} with the given link builder and message templates, shared by the rendering of
+     * a single activity and of a page. The message text is computed right away, on the calling thread: the link
+     * builders may rely on its context, such as the current transaction.
+     *
+     * @param messageTemplates returns the message template of a label key, {@code null} if there is none
+     * @since 11.1
+     */
+    protected ActivityMessage toActivityMessage(Activity activity, ActivityLinkBuilder activityLinkBuilder,
+            Function<String, String> messageTemplates) {
         String actor = activity.getActor();
         String displayActor = activity.getDisplayActor();
         String displayActorLink;
@@ -237,29 +1779,67 @@ public class ActivityStreamServiceImpl extends DefaultComponent implements Activ
         }
 
         List<ActivityReplyMessage> activityReplyMessages = toActivityReplyMessages(activity.getActivityReplies(),
-                locale, activityLinkBuilderName);
+                activityLinkBuilder);
 
         ActivityVerb verb = activityVerbRegistry.get(activity.getVerb());
 
         if (verb == null || verb.getLabelKey() == null) {
             return new ActivityMessage(activity.getId(), actor, displayActor, displayActorLink, activity.getVerb(),
-                    activity.toString(), activity.getPublishedDate(), null, activityReplyMessages);
+                    activity.toString(), activity.getPublishedDateMillis(), null, activityReplyMessages);
+        }
+
+        String labelKey = getLabelKey(activity, verb);
+        String messageTemplate = messageTemplates.apply(labelKey);
+        if (messageTemplate == null) {
+            // just return the labelKey if we have no resource bundle
+            return new ActivityMessage(activity.getId(), actor, displayActor, displayActorLink, activity.getVerb(),
+                    labelKey, activity.getPublishedDateMillis(), verb.getIcon(), activityReplyMessages);
         }
 
+        return new ActivityMessage(activity.getId(), actor, displayActor, displayActorLink, activity.getVerb(),
+                formatMessage(messageTemplate, activity, activityLinkBuilder), activity.getPublishedDateMillis(),
+                verb.getIcon(), activityReplyMessages);
+    }
+
+    /**
+     * Returns the label key of the message of the given {@code activity}, depending on whether it is rolled up.
+     *
+     * @since 11.1
+     */
+    protected String getLabelKey(Activity activity, ActivityVerb verb) {
         String labelKey = verb.getLabelKey();
-        String messageTemplate;
+        Integer rollupCount = activity.getRollupCount();
+        if (rollupCount != null && rollupCount > 1 && verb.getRollupLabelKey() != null) {
+            labelKey = verb.getRollupLabelKey();
+        }
+        return labelKey;
+    }
+
+    /**
+     * Returns the message template of the given {@code labelKey}, {@code null} if there is no resource bundle.
+     *
+     * @since 11.1
+     */
+    protected String getMessageTemplate(String labelKey, Locale locale) {
         try {
-            messageTemplate = I18NUtils.getMessageString("messages", labelKey, null, locale);
+            return I18NUtils.getMessageString("messages", labelKey, null, locale);
         } catch (MissingResourceException e) {
             log.error(e.getMessage());
             log.debug(e, e);
-            // just return the labelKey if we have no resource bundle
-            return new ActivityMessage(activity.getId(), actor, displayActor, displayActorLink, activity.getVerb(),
-                    labelKey, activity.getPublishedDate(), verb.getIcon(), activityReplyMessages);
+            return null;
         }
+    }
 
-        Pattern pattern = Pattern.compile("\\$\\{(.*?)\\}");
-        Matcher m = pattern.matcher(messageTemplate);
+    /**
+     * Replaces the {@code ${field}} placeholders of the given {@code messageTemplate} by the fields of the given
+     * {@code activity}, as links for documents and users.
+     *
+     * @since 11.1
+     */
+    protected String formatMessage(String messageTemplate, Activity activity,
+            ActivityLinkBuilder activityLinkBuilder) {
+        Map<String, String> fields = activity.toMap();
+        Matcher m = MESSAGE_PLACEHOLDER_PATTERN.matcher(messageTemplate);
         while (m.find()) {
             String param = m.group().replaceAll("[\\|$\\|{\\}]", "");
             if (fields.containsKey(param)) {
@@ -276,9 +1856,7 @@ public class ActivityStreamServiceImpl extends DefaultComponent implements Activ
                 messageTemplate = messageTemplate.replace(m.group(), value);
             }
         }
-
-        return new ActivityMessage(activity.getId(), actor, displayActor, displayActorLink, activity.getVerb(),
-                messageTemplate, activity.getPublishedDate(), verb.getIcon(), activityReplyMessages);
+        return messageTemplate;
     }
 
     @Override
@@ -304,8 +1882,14 @@ public class ActivityStreamServiceImpl extends DefaultComponent implements Activ
     @Override
     public ActivityReplyMessage toActivityReplyMessage(ActivityReply activityReply, Locale locale,
             String activityLinkBuilderName) {
-        ActivityLinkBuilder activityLinkBuilder = getActivityLinkBuilder(activityLinkBuilderName);
+        return toActivityReplyMessage(activityReply, getActivityLinkBuilder(activityLinkBuilderName));
+    }
 
+    /**
+     * @since 11.1
+     */
+    protected ActivityReplyMessage toActivityReplyMessage(ActivityReply activityReply,
+            ActivityLinkBuilder activityLinkBuilder) {
         String actor = activityReply.getActor();
         String displayActor = activityReply.getDisplayActor();
         String displayActorLink = activityLinkBuilder.getUserProfileLink(actor, displayActor);
@@ -315,11 +1899,11 @@ public class ActivityStreamServiceImpl extends DefaultComponent implements Activ
 
     }
 
-    private List<ActivityReplyMessage> toActivityReplyMessages(List<ActivityReply> replies, Locale locale,
-            String activityLinkBuilderName) {
+    private List<ActivityReplyMessage> toActivityReplyMessages(List<ActivityReply> replies,
+            ActivityLinkBuilder activityLinkBuilder) {
         List<ActivityReplyMessage> activityReplyMessages = new ArrayList<>();
         for (ActivityReply reply : replies) {
-            activityReplyMessages.add(toActivityReplyMessage(reply, locale, activityLinkBuilderName));
+            activityReplyMessages.add(toActivityReplyMessage(reply, activityLinkBuilder));
         }
         return activityReplyMessages;
     }
@@ -331,7 +1915,8 @@ public class ActivityStreamServiceImpl extends DefaultComponent implements Activ
 
     @Override
     public ActivityReply addActivityReply(Serializable activityId, ActivityReply activityReply) {
-        Activity activity = getActivity(activityId);
+        recordWrite();
+        Activity activity = getActivityForUpdate(activityId);
         if (activity != null) {
             List<ActivityReply> replies = activity.getActivityReplies();
             String newReplyId = computeNewReplyId(activity);
@@ -339,6 +1924,13 @@ public class ActivityStreamServiceImpl extends DefaultComponent implements Activ
             replies.add(activityReply);
             activity.setActivityReplies(replies);
             updateActivity(activity);
+            long now = System.currentTimeMillis();
+            runAfterCommit(() -> {
+                getTrendingDocumentsTracker().record(activity.getContext(), activity.getObject(),
+                        TrendingDocumentsTracker.REPLY_VERB, now);
+                indexActivity(activity);
+            });
+            invalidateAfterCommit(activityInvalidationBus.newInvalidations().activityUpdated(activity));
         }
         return activityReply;
     }
@@ -360,33 +1952,32 @@ public class ActivityStreamServiceImpl extends DefaultComponent implements Activ
         return replyIdPrefix + (maxId + 1);
     }
 
+    /**
+     * Returns the activity with the given id, {@code null} if there is none.
+     */
     public Activity getActivity(final Serializable activityId) {
-        return getOrCreatePersistenceProvider().run(false, em -> {
-            return getActivity(em, activityId);
-        });
+        ActivitiesList activities = activityStore.getActivities(Collections.singletonList(activityId));
+        return activities.isEmpty() ? null : ensureUpgraded(activities.get(0));
+    }
+
+    /**
+     * Loads the given activity from the primary datasource, to update it.
+     *
+     * @since 11.1
+     */
+    protected Activity getActivityForUpdate(final Serializable activityId) {
+        return runOnPrimary(() -> getActivity(activityId));
     }
 
     public ActivitiesList getActivities(final Collection<Serializable> activityIds) {
-        return getOrCreatePersistenceProvider().run(false, em -> {
-            return getActivities(em, activityIds);
-        });
+        return ensureAllUpgraded(activityStore.getActivities(activityIds));
     }
 
     @Override
     public ActivityReply removeActivityReply(final Serializable activityId, final String activityReplyId) {
-        return getOrCreatePersistenceProvider().run(true, em -> {
-            return removeActivityReply(em, activityId, activityReplyId);
-        });
-    }
-
-    /**
-     * @since 5.6
-     */
-    protected ActivityReply removeActivityReply(EntityManager em, Serializable activityId, String activityReplyId) {
-        try {
-            localEntityManager.set(em);
-
-            Activity activity = getActivity(activityId);
+        recordWrite();
+        return runWithEntityManager(true, () -> {
+            Activity activity = getActivityForUpdate(activityId);
             if (activity != null) {
                 List<ActivityReply> replies = activity.getActivityReplies();
                 for (Iterator<ActivityReply> it = replies.iterator(); it.hasNext();) {
@@ -398,40 +1989,168 @@ public class ActivityStreamServiceImpl extends DefaultComponent implements Activ
                         it.remove();
                         activity.setActivityReplies(replies);
                         updateActivity(activity);
+                        runAfterCommit(() -> indexActivity(activity));
+                        invalidateAfterCommit(activityInvalidationBus.newInvalidations().activityUpdated(activity));
                         return reply;
                     }
                 }
             }
             return null;
+        });
+    }
+
+    protected void updateActivity(final Activity activity) {
+        activity.setLastUpdatedDate(new Date());
+        activityStore.update(activity);
+    }
+
+    @Override
+    public ActivityStore getActivityStore() {
+        return activityStore;
+    }
+
+    /**
+     * @since 11.1
+     */
+    protected ActivityStore newActivityStore() {
+        String store = Framework.getProperty(STORE_PROPERTY, "jpa");
+        switch (store) {
+        case "jpa":
+            return new JpaActivityStore();
+        case "log":
+            return new LogActivityStore();
+        case "memory":
+            return new MemoryActivityStore();
+        default:
+            break;
+        }
+        try {
+            return (ActivityStore) Class.forName(store).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new NuxeoException(String.format("Cannot instantiate activity store: %s", store), e);
+        }
+    }
+
+    /**
+     * Runs the given {@code supplier} with its reads routed to the primary datasource.
+     *
+     * @since 11.1
+     */
+    protected <T> T runOnPrimary(Supplier<T> supplier) {
+        if (Boolean.TRUE.equals(forcePrimary.get())) {
+            return supplier.get();
+        }
+        forcePrimary.set(Boolean.TRUE);
+        try {
+            return supplier.get();
         } finally {
-            localEntityManager.remove();
+            forcePrimary.remove();
         }
     }
 
-    protected Activity getActivity(EntityManager em, Serializable activityId) {
-        Query query = em.createQuery("select activity from Activity activity where activity.id = :activityId");
-        query.setParameter("activityId", activityId);
-        return (Activity) query.getSingleResult();
+    /**
+     * Returns the persistence provider to use for reads: the replica one if enabled, unless the current user wrote
+     * during the last {@link #REPLICA_READ_YOUR_WRITES_PROPERTY} seconds or a primary {@link EntityManager} is already
+     * in use by the current thread.
+     *
+     * @since 11.1
+     */
+    public PersistenceProvider getReadPersistenceProvider() {
+        if (!isReplicaEnabled() || localEntityManager.get() != null || forcePrimary.get() != null
+                || hasRecentlyWritten()) {
+            return getOrCreatePersistenceProvider();
+        }
+        if (replicaPersistenceProvider == null) {
+            activateReplicaPersistenceProvider();
+        }
+        return replicaPersistenceProvider;
     }
 
-    @SuppressWarnings("unchecked")
-    protected ActivitiesList getActivities(EntityManager em, Collection<Serializable> activityIds) {
-        Query query = em.createQuery("select activity from Activity activity where activity.id in (:ids)");
-        query.setParameter("ids", activityIds);
-        return new ActivitiesListImpl(query.getResultList());
+    /**
+     * @since 11.1
+     */
+    public boolean isReplicaEnabled() {
+        return Framework.isBooleanPropertyTrue(REPLICA_ENABLED_PROPERTY);
     }
 
-    protected void updateActivity(final Activity activity) {
-        getOrCreatePersistenceProvider().run(false, em -> {
-            activity.setLastUpdatedDate(new Date());
-            return em.merge(activity);
-        });
+    /**
+     * Records that the current user writes, for the read-your-writes window of this node.
+     *
+     * @since 11.1
+     */
+    protected void recordWrite() {
+        if (!isReplicaEnabled()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (recentWriters.size() >= MAX_RECENT_WRITERS) {
+            long window = getReadYourWritesWindow();
+            recentWriters.values().removeIf(time -> now - time > window);
+        }
+        recentWriters.put(getCurrentUsername(), now);
+    }
+
+    /**
+     * @since 11.1
+     */
+    protected boolean hasRecentlyWritten() {
+        Long lastWrite = recentWriters.get(getCurrentUsername());
+        return lastWrite != null && System.currentTimeMillis() - lastWrite <= getReadYourWritesWindow();
+    }
+
+    protected long getReadYourWritesWindow() {
+        return TimeUnit.SECONDS.toMillis(Integer.parseInt(Framework.getProperty(REPLICA_READ_YOUR_WRITES_PROPERTY,
+                String.valueOf(DEFAULT_REPLICA_READ_YOUR_WRITES))));
     }
 
+    protected String getCurrentUsername() {
+        NuxeoPrincipal principal = NuxeoPrincipal.getCurrent();
+        return principal != null ? principal.getName() : SecurityConstants.SYSTEM_USERNAME;
+    }
+
+    /**
+     * Returns the {@code EntityManager} of the current call, {@code null} if none.
+     * <p>
+     * Filters relying on their own JPA entities should use {@link JpaActivityStore#getEntityManager}, which fails
+     * fast when the activities are not stored with JPA.
+     */
     public EntityManager getEntityManager() {
         return localEntityManager.get();
     }
 
+    /**
+     * Runs the given {@code supplier} in an {@code EntityManager} of the primary datasource when the activities are
+     * stored with JPA, so that the {@link JpaActivityStore} and the filters share it, directly otherwise.
+     *
+     * @param handleTransaction whether the {@code EntityManager} must be run in a transaction
+     * @since 11.1
+     */
+    protected <T> T runWithEntityManager(boolean handleTransaction, Supplier<T> supplier) {
+        if (!(activityStore instanceof JpaActivityStore) || localEntityManager.get() != null) {
+            return supplier.get();
+        }
+        return getOrCreatePersistenceProvider().run(handleTransaction, em -> {
+            try {
+                localEntityManager.set(em);
+                return supplier.get();
+            } finally {
+                localEntityManager.remove();
+            }
+        });
+    }
+
+    /**
+     * Throws a {@link NuxeoException} if the activities are not stored with JPA.
+     *
+     * @since 11.1
+     */
+    protected void checkJpaActivityStore(String feature) {
+        if (!(activityStore instanceof JpaActivityStore)) {
+            throw new NuxeoException(String.format("%s are not supported by %s", feature,
+                    activityStore.getClass().getSimpleName()));
+        }
+    }
+
     public PersistenceProvider getOrCreatePersistenceProvider() {
         if (persistenceProvider == null) {
             activatePersistenceProvider();
@@ -440,14 +2159,31 @@ public class ActivityStreamServiceImpl extends DefaultComponent implements Activ
     }
 
     protected void activatePersistenceProvider() {
+        persistenceProvider = newPersistenceProvider(ACTIVITIES_PROVIDER);
+    }
+
+    /**
+     * @since 11.1
+     */
+    protected synchronized void activateReplicaPersistenceProvider() {
+        if (replicaPersistenceProvider == null) {
+            replicaPersistenceProvider = newPersistenceProvider(ACTIVITIES_REPLICA_PROVIDER);
+        }
+    }
+
+    /**
+     * @since 11.1
+     */
+    protected PersistenceProvider newPersistenceProvider(String name) {
         Thread thread = Thread.currentThread();
         ClassLoader last = thread.getContextClassLoader();
         try {
             thread.setContextClassLoader(PersistenceProvider.class.getClassLoader());
             PersistenceProviderFactory persistenceProviderFactory = Framework.getService(
                     PersistenceProviderFactory.class);
-            persistenceProvider = persistenceProviderFactory.newProvider(ACTIVITIES_PROVIDER);
-            persistenceProvider.openPersistenceUnit();
+            PersistenceProvider provider = persistenceProviderFactory.newProvider(name);
+            provider.openPersistenceUnit();
+            return provider;
         } finally {
             thread.setContextClassLoader(last);
         }
@@ -458,6 +2194,10 @@ public class ActivityStreamServiceImpl extends DefaultComponent implements Activ
             persistenceProvider.closePersistenceUnit();
             persistenceProvider = null;
         }
+        if (replicaPersistenceProvider != null) {
+            replicaPersistenceProvider.closePersistenceUnit();
+            replicaPersistenceProvider = null;
+        }
     }
 
     @Override
@@ -467,13 +2207,63 @@ public class ActivityStreamServiceImpl extends DefaultComponent implements Activ
         activityVerbRegistry = new ActivityVerbRegistry();
         activityLinkBuilderRegistry = new ActivityLinkBuilderRegistry();
         activityUpgraderRegistry = new ActivityUpgraderRegistry();
+        activityRetentionRegistry = new ActivityRetentionRegistry();
+        activitySubscriptions = new ActivitySubscriptions();
+        activityWatermarks = new ActivityWatermarks(TimeUnit.SECONDS.toMillis(
+                Integer.parseInt(Framework.getProperty(WATERMARK_TTL_PROPERTY, String.valueOf(DEFAULT_WATERMARK_TTL)))));
+        String nodeId = Framework.getProperty(CLUSTERING_NODE_ID_PROPERTY);
+        activityInvalidationBus = new ActivityInvalidationBus(
+                StringUtils.isNotBlank(nodeId) ? nodeId : UUID.randomUUID().toString(), newInvalidationTransport(),
+                Long.parseLong(
+                        Framework.getProperty(INVALIDATION_DELAY_PROPERTY, String.valueOf(DEFAULT_INVALIDATION_DELAY))));
+        activityInvalidationBus.addListener(this::handleRemoteInvalidations);
+        activityInvalidationBus.addListener(this::updateSearchIndex);
+        activityStore = newActivityStore();
+        activityStore.activate(this);
+        if (Framework.isBooleanPropertyTrue(COUNTERS_ENABLED_PROPERTY) && !activityStore.isCountersSupported()) {
+            log.warn(String.format("Activity counters are not supported by %s, ignoring %s",
+                    activityStore.getClass().getSimpleName(), COUNTERS_ENABLED_PROPERTY));
+        }
 
         initializationHandler = new ActivityRepositoryInitializationHandler();
         initializationHandler.install();
     }
 
+    /**
+     * Starts the {@link ActivityInvalidationBus} transport once the runtime, and the {@code PubSubService} it may use,
+     * are started.
+     *
+     * @since 11.1
+     */
+    @Override
+    public void start(ComponentContext context) {
+        super.start(context);
+        activityInvalidationBus.start();
+    }
+
+    @Override
+    public void stop(ComponentContext context) throws InterruptedException {
+        activityInvalidationBus.shutdown();
+        super.stop(context);
+    }
+
     @Override
     public void deactivate(ComponentContext context) {
+        checkpointTrendingDocuments();
+        if (activitySubscriptions != null) {
+            activitySubscriptions.shutdown();
+        }
+        if (activityRenderExecutor != null) {
+            activityRenderExecutor.shutdown();
+            activityRenderExecutor = null;
+        }
+        if (activityCounterBuffer != null) {
+            activityCounterBuffer.shutdown();
+            activityCounterBuffer = null;
+        }
+        if (activityStore != null) {
+            activityStore.deactivate();
+        }
         deactivatePersistenceProvider();
 
         if (initializationHandler != null) {
@@ -495,6 +2285,8 @@ public class ActivityStreamServiceImpl extends DefaultComponent implements Activ
             registerActivityLinkBuilder((ActivityLinkBuilderDescriptor) contribution);
         } else if (ACTIVITY_UPGRADERS_EP.equals(extensionPoint)) {
             registerActivityUpgrader((ActivityUpgraderDescriptor) contribution);
+        } else if (ACTIVITY_RETENTIONS_EP.equals(extensionPoint)) {
+            registerActivityRetention((ActivityRetention) contribution);
         }
     }
 
@@ -537,6 +2329,11 @@ public class ActivityStreamServiceImpl extends DefaultComponent implements Activ
         activityUpgraderRegistry.addContribution(activityUpgraderDescriptor);
     }
 
+    private void registerActivityRetention(ActivityRetention activityRetention) {
+        log.info(String.format("Registering activity retention '%s'", activityRetention.getName()));
+        activityRetentionRegistry.addContribution(activityRetention);
+    }
+
     @Override
     public void unregisterContribution(Object contribution, String extensionPoint, ComponentInstance contributor) {
         if (ACTIVITY_STREAM_FILTER_EP.equals(extensionPoint)) {
@@ -549,6 +2346,8 @@ public class ActivityStreamServiceImpl extends DefaultComponent implements Activ
             unregisterActivityLinkBuilder((ActivityLinkBuilderDescriptor) contribution);
         } else if (ACTIVITY_UPGRADERS_EP.equals(extensionPoint)) {
             unregisterActivityUpgrader((ActivityUpgraderDescriptor) contribution);
+        } else if (ACTIVITY_RETENTIONS_EP.equals(extensionPoint)) {
+            unregisterActivityRetention((ActivityRetention) contribution);
         }
     }
 
@@ -579,4 +2378,9 @@ public class ActivityStreamServiceImpl extends DefaultComponent implements Activ
         log.info(String.format("Unregistering activity upgrader '%s'", activityUpgraderDescriptor.getName()));
     }
 
+    private void unregisterActivityRetention(ActivityRetention activityRetention) {
+        activityRetentionRegistry.removeContribution(activityRetention);
+        log.info(String.format("Unregistering activity retention '%s'", activityRetention.getName()));
+    }
+
 }
@@ -0,0 +1,59 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded table of the strings repeated across activities, such as verbs, actors, contexts, repository and display
+ * names, so that the activities loaded or built share a single instance of each of them.
+ * <p>
+ * The table is direct-mapped: a string hashes to a single slot, and replaces the one in it on a miss. Lookups take no
+ * lock, its memory is bounded whatever the number of distinct values, and the most used strings stay in it. Long
+ * strings, unlikely to repeat, are not kept.
+ *
+ * @since 11.1
+ */
+public final class ActivityStrings {
+
+    public static final int SIZE = 1 << 14;
+
+    public static final int MAX_LENGTH = 256;
+
+    private static final AtomicReferenceArray<String> STRINGS = new AtomicReferenceArray<>(SIZE);
+
+    private ActivityStrings() {
+        // utility class
+    }
+
+    /**
+     * Returns the instance of the table equal to the given {@code value}, or {@code value} itself after storing it.
+     */
+    public static String dedup(String value) {
+        if (value == null || value.length() > MAX_LENGTH) {
+            return value;
+        }
+        int hash = value.hashCode();
+        int index = (hash ^ (hash >>> 16)) & (SIZE - 1);
+        String cached = STRINGS.get(index);
+        if (value.equals(cached)) {
+            return cached;
+        }
+        STRINGS.lazySet(index, value);
+        return value;
+    }
+
+}
@@ -0,0 +1,34 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+/**
+ * Subscription to the new activities, returned by
+ * {@link ActivityStreamService#subscribe(ActivityInterest, java.util.function.Consumer)}.
+ *
+ * @since 11.1
+ */
+public interface ActivitySubscription extends AutoCloseable {
+
+    ActivityInterest getInterest();
+
+    /**
+     * Stops receiving the new activities. Does nothing if already closed.
+     */
+    @Override
+    void close();
+
+}
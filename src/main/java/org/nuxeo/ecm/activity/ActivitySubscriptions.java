@@ -0,0 +1,172 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Interest index of the {@link ActivitySubscription}s.
+ * <p>
+ * Subscriptions are indexed by context, actor and verb (a stream subscription being indexed by each verb of the
+ * stream), so that dispatching an activity only looks up the subscriptions interested in it. Activities are dispatched
+ * by a single thread: the listeners must not block.
+ *
+ * @since 11.1
+ */
+public class ActivitySubscriptions {
+
+    private static final Log log = LogFactory.getLog(ActivitySubscriptions.class);
+
+    protected final Map<String, Set<Subscription>> index = new ConcurrentHashMap<>();
+
+    protected final ExecutorService dispatcher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Nuxeo-Activity-Dispatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    protected class Subscription implements ActivitySubscription {
+
+        protected final ActivityInterest interest;
+
+        protected final Collection<String> keys;
+
+        protected final Consumer<Activity> listener;
+
+        protected Subscription(ActivityInterest interest, Collection<String> keys, Consumer<Activity> listener) {
+            this.interest = interest;
+            this.keys = keys;
+            this.listener = listener;
+        }
+
+        @Override
+        public ActivityInterest getInterest() {
+            return interest;
+        }
+
+        @Override
+        public void close() {
+            for (String key : keys) {
+                index.computeIfPresent(key, (k, subscriptions) -> {
+                    subscriptions.remove(this);
+                    return subscriptions.isEmpty() ? null : subscriptions;
+                });
+            }
+        }
+
+    }
+
+    /**
+     * Subscribes to the activities of the given {@code interest}, a stream interest being resolved to the given
+     * {@code verbs}.
+     */
+    public ActivitySubscription subscribe(ActivityInterest interest, Collection<String> verbs,
+            Consumer<Activity> listener) {
+        List<String> keys = new ArrayList<>();
+        switch (interest.getKind()) {
+        case CONTEXT:
+            keys.add(contextKey(interest.getValue()));
+            break;
+        case ACTOR:
+            keys.add(actorKey(interest.getValue()));
+            break;
+        default:
+            for (String verb : verbs) {
+                keys.add(verbKey(verb));
+            }
+        }
+        Subscription subscription = new Subscription(interest, keys, listener);
+        for (String key : keys) {
+            index.compute(key, (k, subscriptions) -> {
+                Set<Subscription> result = subscriptions != null ? subscriptions : ConcurrentHashMap.newKeySet();
+                result.add(subscription);
+                return result;
+            });
+        }
+        return subscription;
+    }
+
+    /**
+     * Asynchronously notifies the subscriptions interested in the given {@code activity}.
+     */
+    public void dispatch(Activity activity) {
+        if (index.isEmpty()) {
+            return;
+        }
+        try {
+            dispatcher.execute(() -> {
+                notify(contextKey(activity.getContext()), activity);
+                notify(actorKey(activity.getActor()), activity);
+                notify(verbKey(activity.getVerb()), activity);
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("Activity dispatcher is shut down", e);
+        }
+    }
+
+    protected void notify(String key, Activity activity) {
+        for (Subscription subscription : index.getOrDefault(key, Collections.emptySet())) {
+            try {
+                subscription.listener.accept(activity);
+            } catch (RuntimeException e) {
+                log.error(String.format("Error while notifying activity %s to subscription %s: %s", activity.getId(),
+                        subscription.interest, e.getMessage()));
+                log.debug(e, e);
+            }
+        }
+    }
+
+    public int size() {
+        return index.values().stream().mapToInt(Set::size).sum();
+    }
+
+    public void shutdown() {
+        dispatcher.shutdown();
+        try {
+            dispatcher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        index.clear();
+    }
+
+    protected static String contextKey(String context) {
+        return "context:" + context;
+    }
+
+    protected static String actorKey(String actor) {
+        return "actor:" + actor;
+    }
+
+    protected static String verbKey(String verb) {
+        return "verb:" + verb;
+    }
+
+}
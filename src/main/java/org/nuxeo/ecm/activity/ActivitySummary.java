@@ -0,0 +1,167 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Immutable, read-only projection of an {@link Activity} holding only its scalar attributes and its number of replies.
+ * <p>
+ * Replies are not loaded with a summary, use {@link ActivityStreamService#getActivityReplies(java.util.Collection)} to
+ * load them for a whole page in one query.
+ *
+ * @since 11.1
+ */
+public final class ActivitySummary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Value returned by {@link #getReplyCount()} when the number of replies is unknown.
+     */
+    public static final int UNKNOWN_REPLY_COUNT = -1;
+
+    private final Serializable id;
+
+    private final String actor;
+
+    private final String displayActor;
+
+    private final String verb;
+
+    private final String object;
+
+    private final String displayObject;
+
+    private final String target;
+
+    private final String displayTarget;
+
+    private final String context;
+
+    private final Date publishedDate;
+
+    private final Date lastUpdatedDate;
+
+    private final int replyCount;
+
+    public ActivitySummary(Serializable id, String actor, String displayActor, String verb, String object,
+            String displayObject, String target, String displayTarget, String context, Date publishedDate,
+            Date lastUpdatedDate, Integer replyCount) {
+        this.id = id;
+        this.actor = actor;
+        this.displayActor = displayActor;
+        this.verb = verb;
+        this.object = object;
+        this.displayObject = displayObject;
+        this.target = target;
+        this.displayTarget = displayTarget;
+        this.context = context;
+        this.publishedDate = copy(publishedDate);
+        this.lastUpdatedDate = copy(lastUpdatedDate);
+        this.replyCount = replyCount != null ? replyCount : UNKNOWN_REPLY_COUNT;
+    }
+
+    /**
+     * Creates an {@code ActivitySummary} from an already loaded {@code activity}.
+     */
+    public static ActivitySummary from(Activity activity) {
+        Integer replyCount = null;
+        if (activity instanceof ActivityImpl) {
+            replyCount = ((ActivityImpl) activity).getReplyCount();
+        }
+        if (replyCount == null) {
+            // activities stored before the number of replies was tracked still hold their replies
+            replyCount = activity.getActivityReplies().size();
+        }
+        return new ActivitySummary(activity.getId(), activity.getActor(), activity.getDisplayActor(),
+                activity.getVerb(), activity.getObject(), activity.getDisplayObject(), activity.getTarget(),
+                activity.getDisplayTarget(), activity.getContext(), activity.getPublishedDate(),
+                activity.getLastUpdatedDate(), replyCount);
+    }
+
+    public Serializable getId() {
+        return id;
+    }
+
+    public String getActor() {
+        return actor;
+    }
+
+    public String getDisplayActor() {
+        return displayActor;
+    }
+
+    public String getVerb() {
+        return verb;
+    }
+
+    public String getObject() {
+        return object;
+    }
+
+    public String getDisplayObject() {
+        return displayObject;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public String getDisplayTarget() {
+        return displayTarget;
+    }
+
+    public String getContext() {
+        return context;
+    }
+
+    public Date getPublishedDate() {
+        return copy(publishedDate);
+    }
+
+    public Date getLastUpdatedDate() {
+        return copy(lastUpdatedDate);
+    }
+
+    /**
+     * Returns the number of replies of the activity, or {@link #UNKNOWN_REPLY_COUNT} for activities stored before the
+     * number of replies was tracked.
+     */
+    public int getReplyCount() {
+        return replyCount;
+    }
+
+    /**
+     * Returns {@code true} if the activity has, or may have, some replies.
+     */
+    public boolean hasReplies() {
+        return replyCount != 0;
+    }
+
+    protected static Date copy(Date date) {
+        return date != null ? new Date(date.getTime()) : null;
+    }
+
+    @Override
+    public String toString() {
+        return ToStringBuilder.reflectionToString(this);
+    }
+
+}
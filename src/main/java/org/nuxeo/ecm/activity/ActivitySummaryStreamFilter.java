@@ -0,0 +1,44 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ActivityStreamFilter} able to query {@link ActivitySummary}s without loading the whole activities.
+ * <p>
+ * Filters not implementing this interface are still usable in summary mode, the {@code ActivityStreamService} then
+ * builds the summaries from the activities returned by {@link #query(ActivityStreamService, Map, long, long)}.
+ *
+ * @since 11.1
+ */
+public interface ActivitySummaryStreamFilter extends ActivityStreamFilter {
+
+    /**
+     * Returns the list of activity summaries filtered by the given parameters.
+     *
+     * @param activityStreamService the main {@code ActivityStreamService}
+     * @param parameters this query parameters.
+     * @param offset the offset (starting at 0) into the list of activities.
+     * @param limit the maximum number of activities to retrieve, or 0 for all of them.
+     * @see JpaActivityStore#ACTIVITY_SUMMARY_SELECT
+     */
+    List<ActivitySummary> querySummaries(ActivityStreamService activityStreamService,
+            Map<String, Serializable> parameters, long offset, long limit);
+
+}
@@ -0,0 +1,99 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.persistence.UniqueConstraint;
+
+/**
+ * Entry of a materialized timeline: references an activity appearing in the timeline of a given owner.
+ * <p>
+ * The unique constraint on (owner, publishedDate, activityId) is also the index used to read a timeline.
+ *
+ * @since 11.1
+ * @see AbstractTimelineActivityStreamFilter
+ */
+@Entity(name = "ActivityTimelineEntry")
+@Table(name = "nxp_activity_timelines", uniqueConstraints = @UniqueConstraint(columnNames = { "owner",
+        "publishedDate", "activityId" }))
+public class ActivityTimelineEntry {
+
+    private Long id;
+
+    private String owner;
+
+    private Long activityId;
+
+    private Date publishedDate;
+
+    public ActivityTimelineEntry() {
+    }
+
+    public ActivityTimelineEntry(String owner, Long activityId, Date publishedDate) {
+        this.owner = owner;
+        this.activityId = activityId;
+        this.publishedDate = publishedDate;
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    @Column(nullable = false, columnDefinition = "integer")
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    @Column(nullable = false)
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    @Column(nullable = false, columnDefinition = "integer")
+    public Long getActivityId() {
+        return activityId;
+    }
+
+    public void setActivityId(Long activityId) {
+        this.activityId = activityId;
+    }
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(nullable = false)
+    public Date getPublishedDate() {
+        return publishedDate;
+    }
+
+    public void setPublishedDate(Date publishedDate) {
+        this.publishedDate = publishedDate;
+    }
+
+}
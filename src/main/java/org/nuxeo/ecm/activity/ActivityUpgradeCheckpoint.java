@@ -0,0 +1,71 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * Stores the last activity id upgraded by a {@link ChunkedActivityUpgrader}.
+ *
+ * @since 11.1
+ */
+@Entity(name = "ActivityUpgradeCheckpoint")
+@Table(name = "nxp_activity_upgrades")
+public class ActivityUpgradeCheckpoint {
+
+    private String upgraderName;
+
+    private Long lastId;
+
+    private Date lastUpdatedDate;
+
+    @Id
+    @Column(nullable = false)
+    public String getUpgraderName() {
+        return upgraderName;
+    }
+
+    public void setUpgraderName(String upgraderName) {
+        this.upgraderName = upgraderName;
+    }
+
+    @Column(columnDefinition = "integer")
+    public Long getLastId() {
+        return lastId;
+    }
+
+    public void setLastId(Long lastId) {
+        this.lastId = lastId;
+    }
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column
+    public Date getLastUpdatedDate() {
+        return lastUpdatedDate;
+    }
+
+    public void setLastUpdatedDate(Date lastUpdatedDate) {
+        this.lastUpdatedDate = lastUpdatedDate;
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of a {@link ChunkedActivityUpgrader} run.
+ *
+ * @since 11.1
+ */
+public class ActivityUpgradeProgress {
+
+    protected final String upgraderName;
+
+    protected volatile long totalChunks;
+
+    protected final AtomicLong processedChunks = new AtomicLong();
+
+    protected final AtomicLong upgradedActivities = new AtomicLong();
+
+    protected volatile Long lastId;
+
+    public ActivityUpgradeProgress(String upgraderName, long totalChunks, Long lastId) {
+        this.upgraderName = upgraderName;
+        this.totalChunks = totalChunks;
+        this.lastId = lastId;
+    }
+
+    public String getUpgraderName() {
+        return upgraderName;
+    }
+
+    public long getTotalChunks() {
+        return totalChunks;
+    }
+
+    public long getProcessedChunks() {
+        return processedChunks.get();
+    }
+
+    public long getUpgradedActivities() {
+        return upgradedActivities.get();
+    }
+
+    /**
+     * Returns the id of the last activity known to be upgraded, all the activities with a lower id being upgraded too.
+     */
+    public Long getLastId() {
+        return lastId;
+    }
+
+    public int getPercentage() {
+        if (totalChunks == 0) {
+            return 100;
+        }
+        return (int) (processedChunks.get() * 100 / totalChunks);
+    }
+
+    protected long chunkProcessed(int activitiesCount) {
+        upgradedActivities.addAndGet(activitiesCount);
+        return processedChunks.incrementAndGet();
+    }
+
+    /**
+     * Sets the actual number of chunks, once all of them are known.
+     */
+    protected void setTotalChunks(long totalChunks) {
+        this.totalChunks = totalChunks;
+    }
+
+    protected void setLastId(Long lastId) {
+        this.lastId = lastId;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d%% (%d/%d chunks, %d activities)", upgraderName, getPercentage(),
+                getProcessedChunks(), totalChunks, getUpgradedActivities());
+    }
+
+}
@@ -0,0 +1,40 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+/**
+ * Status of the activity upgrades run after the repository initialization.
+ *
+ * @since 11.1
+ */
+public enum ActivityUpgradeStatus {
+
+    /** The upgrades did not run yet. */
+    PENDING,
+
+    /** The upgrades are scheduled to run in the background. */
+    SCHEDULED,
+
+    /** The upgrades are running. */
+    RUNNING,
+
+    /** All the upgrades completed. */
+    COMPLETED,
+
+    /** At least one of the upgrades failed, it will resume on next startup. */
+    FAILED
+
+}
@@ -0,0 +1,57 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import org.nuxeo.ecm.core.work.AbstractWork;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Work running the activity upgraders in the background.
+ *
+ * @since 11.1
+ */
+public class ActivityUpgradeWork extends AbstractWork {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String ID = "activityUpgrade";
+
+    public static final String CATEGORY = "activityUpgrade";
+
+    public ActivityUpgradeWork() {
+        // fixed id so that the upgrade is scheduled only once
+        super(ID);
+    }
+
+    @Override
+    public String getTitle() {
+        return "Activity upgrade";
+    }
+
+    @Override
+    public String getCategory() {
+        return CATEGORY;
+    }
+
+    @Override
+    public void work() {
+        setStatus("Upgrading activities");
+        ActivityStreamService activityStreamService = Framework.getService(ActivityStreamService.class);
+        ((ActivityStreamServiceImpl) activityStreamService).upgradeActivities();
+        setStatus("Done");
+    }
+
+}
@@ -30,6 +30,8 @@ import org.nuxeo.common.xmap.annotation.XObject;
  * <ul>
  * <li>a label key</li>
  * <li>an icon path</li>
+ * <li>an optional rollup window, in seconds, during which the repeated activities of a same actor on a same object are
+ * merged, and the label key used for such merged activities</li>
  * </ul>
  *
  * @author <a href="mailto:troger@nuxeo.com">Thomas Roger</a>
@@ -47,6 +49,18 @@ public class ActivityVerb {
     @XNode("@icon")
     protected String icon;
 
+    /**
+     * @since 11.1
+     */
+    @XNode("@rollupWindow")
+    protected long rollupWindow;
+
+    /**
+     * @since 11.1
+     */
+    @XNode("@rollupLabelKey")
+    protected String rollupLabelKey;
+
     public String getVerb() {
         return verb;
     }
@@ -71,12 +85,48 @@ public class ActivityVerb {
         this.icon = icon;
     }
 
+    /**
+     * Returns the number of seconds after the last occurrence of an activity during which a new occurrence is merged into
+     * it, 0 if the activities are never merged.
+     *
+     * @since 11.1
+     */
+    public long getRollupWindow() {
+        return rollupWindow;
+    }
+
+    /**
+     * @since 11.1
+     */
+    public void setRollupWindow(long rollupWindow) {
+        this.rollupWindow = rollupWindow;
+    }
+
+    /**
+     * Returns the label key used for the activities merging several occurrences, the {@code rollupCount} field holding
+     * the number of occurrences.
+     *
+     * @since 11.1
+     */
+    public String getRollupLabelKey() {
+        return rollupLabelKey;
+    }
+
+    /**
+     * @since 11.1
+     */
+    public void setRollupLabelKey(String rollupLabelKey) {
+        this.rollupLabelKey = rollupLabelKey;
+    }
+
     @Override
     public ActivityVerb clone() {
         ActivityVerb clone = new ActivityVerb();
         clone.setVerb(getVerb());
         clone.setLabelKey(getLabelKey());
         clone.setIcon(getIcon());
+        clone.setRollupWindow(getRollupWindow());
+        clone.setRollupLabelKey(getRollupLabelKey());
         return clone;
     }
 
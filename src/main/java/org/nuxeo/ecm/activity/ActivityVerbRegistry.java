@@ -68,5 +68,13 @@ public class ActivityVerbRegistry extends ContributionFragmentRegistry<ActivityV
         if (icon != null) {
             dst.setIcon(icon);
         }
+        long rollupWindow = src.getRollupWindow();
+        if (rollupWindow > 0) {
+            dst.setRollupWindow(rollupWindow);
+        }
+        String rollupLabelKey = src.getRollupLabelKey();
+        if (rollupLabelKey != null) {
+            dst.setRollupLabelKey(rollupLabelKey);
+        }
     }
 }
@@ -0,0 +1,127 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Position of an activity in the (publishedDate, id) order, used to poll the activities published after it.
+ * <p>
+ * A watermark can be used as an HTTP entity tag through {@link #toETag()} and {@link #fromETag(String)}.
+ *
+ * @since 11.1
+ */
+public final class ActivityWatermark implements Comparable<ActivityWatermark>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Watermark before any activity.
+     */
+    public static final ActivityWatermark NONE = new ActivityWatermark(0, 0);
+
+    private final long publishedDate;
+
+    private final long id;
+
+    public ActivityWatermark(long publishedDate, long id) {
+        this.publishedDate = publishedDate;
+        this.id = id;
+    }
+
+    public static ActivityWatermark of(Activity activity) {
+        return new ActivityWatermark(activity.getPublishedDateMillis(), ((Number) activity.getId()).longValue());
+    }
+
+    /**
+     * Parses an entity tag returned by {@link #toETag()}, returns {@code null} if it is not a valid one.
+     */
+    public static ActivityWatermark fromETag(String etag) {
+        if (StringUtils.isBlank(etag)) {
+            return null;
+        }
+        String value = StringUtils.removeStart(etag.trim(), "W/");
+        value = StringUtils.strip(value, "\"");
+        int index = value.indexOf('-');
+        if (index <= 0) {
+            return null;
+        }
+        try {
+            return new ActivityWatermark(Long.parseLong(value.substring(0, index)),
+                    Long.parseLong(value.substring(index + 1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public long getPublishedDate() {
+        return publishedDate;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public Date getPublishedDateAsDate() {
+        return new Date(publishedDate);
+    }
+
+    public String toETag() {
+        return "\"" + publishedDate + '-' + id + "\"";
+    }
+
+    public static ActivityWatermark max(ActivityWatermark w1, ActivityWatermark w2) {
+        if (w1 == null) {
+            return w2;
+        }
+        if (w2 == null) {
+            return w1;
+        }
+        return w1.compareTo(w2) >= 0 ? w1 : w2;
+    }
+
+    @Override
+    public int compareTo(ActivityWatermark other) {
+        int res = Long.compare(publishedDate, other.publishedDate);
+        return res != 0 ? res : Long.compare(id, other.id);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ActivityWatermark)) {
+            return false;
+        }
+        ActivityWatermark other = (ActivityWatermark) obj;
+        return publishedDate == other.publishedDate && id == other.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(publishedDate) * 31 + Long.hashCode(id);
+    }
+
+    @Override
+    public String toString() {
+        return publishedDate + "-" + id;
+    }
+
+}
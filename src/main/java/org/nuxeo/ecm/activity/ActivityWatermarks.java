@@ -0,0 +1,82 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * In-memory high-water marks of the activities, per key (context, verb, ...).
+ * <p>
+ * A missing or expired watermark is loaded from the storage, then kept up to date by the activities committed on this
+ * node. The expiration bounds the time during which the activities added on other nodes are not seen.
+ *
+ * @since 11.1
+ */
+public class ActivityWatermarks {
+
+    protected static final class Entry {
+
+        protected final ActivityWatermark watermark;
+
+        protected final long loadTime;
+
+        protected Entry(ActivityWatermark watermark, long loadTime) {
+            this.watermark = watermark;
+            this.loadTime = loadTime;
+        }
+
+    }
+
+    protected final long ttl;
+
+    protected final Map<String, Entry> watermarks = new ConcurrentHashMap<>();
+
+    /**
+     * @param ttl the time, in milliseconds, after which a watermark is reloaded from the storage
+     */
+    public ActivityWatermarks(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Returns the watermark for the given {@code key}, loading it with the given {@code loader} if missing or expired.
+     */
+    public ActivityWatermark get(String key, Supplier<ActivityWatermark> loader) {
+        Entry entry = watermarks.get(key);
+        long now = System.currentTimeMillis();
+        if (entry == null || now - entry.loadTime > ttl) {
+            ActivityWatermark watermark = loader.get();
+            entry = new Entry(watermark != null ? watermark : ActivityWatermark.NONE, now);
+            watermarks.put(key, entry);
+        }
+        return entry.watermark;
+    }
+
+    /**
+     * Moves the watermark for the given {@code key} forward, if it is loaded.
+     */
+    public void update(String key, ActivityWatermark watermark) {
+        watermarks.computeIfPresent(key,
+                (k, entry) -> new Entry(ActivityWatermark.max(entry.watermark, watermark), entry.loadTime));
+    }
+
+    public void clear() {
+        watermarks.clear();
+    }
+
+}
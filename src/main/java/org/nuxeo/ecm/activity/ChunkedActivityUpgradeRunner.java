@@ -0,0 +1,206 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Runs a {@link ChunkedActivityUpgrader} on the existing activities.
+ * <p>
+ * The activities between the last stored checkpoint and the current greatest activity id are split in chunks of
+ * {@code chunkSize} activities, whose bounds are read from the actual ids so that sparse ids do not produce empty
+ * chunks. Each chunk is upgraded and committed in its own transaction, by a pool of {@code parallelism} threads, the
+ * bounds of the next chunks being read as the previous ones are upgraded. The checkpoint is moved forward each time
+ * all the chunks before it are upgraded: after a failure or a restart, the upgrade resumes from the first chunk not
+ * upgraded.
+ *
+ * @since 11.1
+ */
+public class ChunkedActivityUpgradeRunner {
+
+    private static final Log log = LogFactory.getLog(ChunkedActivityUpgradeRunner.class);
+
+    protected static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    protected final ActivityStreamServiceImpl activityStreamService;
+
+    protected final ChunkedActivityUpgrader upgrader;
+
+    protected final int chunkSize;
+
+    protected final int parallelism;
+
+    /**
+     * Last activity id of each chunk, in the order of the chunks.
+     */
+    protected final List<Long> chunkLastIds = new ArrayList<>();
+
+    protected final BitSet upgradedChunks = new BitSet();
+
+    protected int nextCheckpointChunk;
+
+    /**
+     * Bounds the number of chunks read ahead of the upgraded ones.
+     */
+    protected Semaphore pendingChunks;
+
+    protected volatile boolean failed;
+
+    protected ActivityUpgradeProgress progress;
+
+    public ChunkedActivityUpgradeRunner(ActivityStreamServiceImpl activityStreamService,
+            ChunkedActivityUpgrader upgrader, int chunkSize, int parallelism) {
+        this.activityStreamService = activityStreamService;
+        this.upgrader = upgrader;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Upgrades all the activities not yet upgraded.
+     *
+     * @throws NuxeoException if a chunk cannot be upgraded
+     */
+    public void run() {
+        String name = upgrader.getName();
+        Long checkpoint = activityStreamService.getUpgradeCheckpoint(name);
+        Long minId = activityStreamService.getMinActivityId(checkpoint);
+        Long maxId = activityStreamService.getMaxActivityId();
+        if (minId == null || maxId == null || minId > maxId) {
+            progress = new ActivityUpgradeProgress(name, 0, checkpoint);
+            log.debug(String.format("No activity to upgrade with '%s'", name));
+            return;
+        }
+
+        // estimated from the ids, the actual count is known once all the chunks are read
+        long estimatedChunks = Math.max(1, (maxId - minId) / chunkSize + 1);
+        progress = new ActivityUpgradeProgress(name, estimatedChunks, checkpoint);
+        activityStreamService.upgradeStarted(progress);
+        log.info(String.format("Upgrading activities from id %d to %d with '%s'", minId, maxId, name));
+
+        pendingChunks = new Semaphore(parallelism * 2);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, "Nuxeo-Activity-Upgrade-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            ActivityStore activityStore = activityStreamService.getActivityStore();
+            long fromId = minId - 1;
+            while (fromId < maxId && !failed) {
+                List<Serializable> activityIds = activityStore.getActivityIds(new ActivityCriteria(), fromId,
+                        chunkSize);
+                // the last chunk goes up to maxId, so that the chunks cover all the ids even if some were not read
+                long toId = activityIds.size() == chunkSize
+                        ? Math.min(((Number) activityIds.get(chunkSize - 1)).longValue(), maxId)
+                        : maxId;
+                submitChunk(executor, fromId, toId);
+                fromId = toId;
+            }
+            synchronized (this) {
+                progress.setTotalChunks(chunkLastIds.size());
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed = true;
+            throw new NuxeoException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (failed) {
+            throw new NuxeoException(String.format("Upgrade '%s' stopped after activity %s, it will resume from there",
+                    name, progress.getLastId()));
+        }
+        log.info(String.format("Upgraded %d activities with '%s'", progress.getUpgradedActivities(), name));
+    }
+
+    public ActivityUpgradeProgress getProgress() {
+        return progress;
+    }
+
+    protected void submitChunk(ExecutorService executor, long fromId, long toId) throws InterruptedException {
+        pendingChunks.acquire();
+        int chunk;
+        synchronized (this) {
+            chunk = chunkLastIds.size();
+            chunkLastIds.add(toId);
+        }
+        executor.execute(() -> {
+            try {
+                upgradeChunk(chunk, fromId, toId);
+            } finally {
+                pendingChunks.release();
+            }
+        });
+    }
+
+    /**
+     * Upgrades the activities whose id is greater than {@code fromId} and lower or equal to {@code toId}.
+     */
+    protected void upgradeChunk(int chunk, long fromId, long toId) {
+        if (failed) {
+            return;
+        }
+        try {
+            int count = TransactionHelper.runInTransaction(
+                    () -> activityStreamService.upgradeActivities(upgrader, fromId, toId));
+            long processed = progress.chunkProcessed(count);
+            chunkUpgraded(chunk);
+            if (log.isDebugEnabled() || processed % Math.max(1, progress.getTotalChunks() / 10) == 0) {
+                log.info(String.format("Activity upgrade progress: %s", progress));
+            }
+        } catch (RuntimeException e) {
+            failed = true;
+            log.error(String.format("Error while upgrading activities from id %d to %d with '%s': %s", fromId + 1,
+                    toId, upgrader.getName(), e.getMessage()));
+            log.debug(e, e);
+        }
+    }
+
+    /**
+     * Moves the checkpoint forward if all the chunks up to the given one are upgraded.
+     */
+    protected synchronized void chunkUpgraded(int chunk) {
+        upgradedChunks.set(chunk);
+        int previous = nextCheckpointChunk;
+        while (upgradedChunks.get(nextCheckpointChunk)) {
+            nextCheckpointChunk++;
+        }
+        if (nextCheckpointChunk > previous) {
+            Long lastId = chunkLastIds.get(nextCheckpointChunk - 1);
+            TransactionHelper.runInTransaction(
+                    () -> activityStreamService.saveUpgradeCheckpoint(upgrader.getName(), lastId));
+            progress.setLastId(lastId);
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+/**
+ * {@link ActivityUpgrader} upgrading the existing activities one by one.
+ * <p>
+ * Such an upgrader is run by chunks of activity ids, each chunk being committed in its own transaction. The last
+ * upgraded id is stored so that an interrupted upgrade resumes where it stopped, and chunks may be upgraded in
+ * parallel: {@link #upgradeActivity(ActivityStreamService, Activity)} must be idempotent and must not depend on the
+ * other activities.
+ *
+ * @since 11.1
+ * @see ChunkedActivityUpgradeRunner
+ */
+public interface ChunkedActivityUpgrader extends ActivityUpgrader {
+
+    /**
+     * Upgrades the given {@code activity} in place.
+     * <p>
+     * The activity is managed by the current persistence context, its modifications are stored when the chunk is
+     * committed.
+     * <p>
+     * When the upgrades run in the background, this method is also called on copies of the activities read before
+     * being upgraded: it must then only modify the given activity. Such a copy is not stored, unless the caller updates
+     * it through the service, when adding a reply for instance.
+     */
+    void upgradeActivity(ActivityStreamService activityStreamService, Activity activity);
+
+}
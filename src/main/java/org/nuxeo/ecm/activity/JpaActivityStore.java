@@ -0,0 +1,616 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.Query;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.persistence.PersistenceProvider.RunCallback;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Default {@link ActivityStore}, storing the activities with JPA in the {@code nxactivities} datasource.
+ * <p>
+ * When called by the {@link ActivityStreamServiceImpl} while it holds an {@link EntityManager}, for instance from a
+ * filter, the store works in that same {@code EntityManager}, and so in the same transaction. Otherwise reads go
+ * through {@link ActivityStreamServiceImpl#getReadPersistenceProvider()}, which may route them to a replica.
+ * <p>
+ * Filters relying on their own JPA entities get the {@code EntityManager} of the current service call with
+ * {@link #getEntityManager(ActivityStreamService)}.
+ *
+ * @since 11.1
+ */
+public class JpaActivityStore implements ActivityStore {
+
+    private static final Log log = LogFactory.getLog(JpaActivityStore.class);
+
+    /**
+     * JPQL select clause building {@link ActivitySummary}s from an {@code activity} alias, without loading the replies.
+     */
+    public static final String ACTIVITY_SUMMARY_SELECT = "select new org.nuxeo.ecm.activity.ActivitySummary("
+            + "activity.id, activity.actor, activity.displayActor, activity.verb, activity.object, "
+            + "activity.displayObject, activity.target, activity.displayTarget, activity.context, "
+            + "activity.publishedDate, activity.lastUpdatedDate, activity.replyCount)";
+
+    protected ActivityStreamServiceImpl activityStreamService;
+
+    /**
+     * Returns the {@code EntityManager} of the current {@code ActivityStreamService} call, for the filters storing or
+     * querying their own JPA entities.
+     *
+     * @throws NuxeoException if the activities are not stored with JPA, or if called outside of a filter callback
+     */
+    public static EntityManager getEntityManager(ActivityStreamService activityStreamService) {
+        ActivityStore activityStore = activityStreamService.getActivityStore();
+        if (!(activityStore instanceof JpaActivityStore)) {
+            throw new NuxeoException(String.format("JPA entities are not supported by %s",
+                    activityStore.getClass().getSimpleName()));
+        }
+        EntityManager em = ((JpaActivityStore) activityStore).activityStreamService.getEntityManager();
+        if (em == null) {
+            throw new NuxeoException("No EntityManager outside of an ActivityStreamService call");
+        }
+        return em;
+    }
+
+    @Override
+    public void activate(ActivityStreamService activityStreamService) {
+        this.activityStreamService = (ActivityStreamServiceImpl) activityStreamService;
+    }
+
+    @Override
+    public void deactivate() {
+        activityStreamService = null;
+    }
+
+    protected <T> T read(RunCallback<T> callback) {
+        EntityManager em = activityStreamService.getEntityManager();
+        if (em != null) {
+            return callback.runWith(em);
+        }
+        return activityStreamService.getReadPersistenceProvider().run(false, callback);
+    }
+
+    /**
+     * Runs the given read on the primary datasource, for the data not replicated synchronously.
+     */
+    protected <T> T readPrimary(RunCallback<T> callback) {
+        EntityManager em = activityStreamService.getEntityManager();
+        if (em != null) {
+            return callback.runWith(em);
+        }
+        return activityStreamService.getOrCreatePersistenceProvider().run(false, callback);
+    }
+
+    protected <T> T write(RunCallback<T> callback) {
+        EntityManager em = activityStreamService.getEntityManager();
+        if (em != null) {
+            return callback.runWith(em);
+        }
+        return activityStreamService.getOrCreatePersistenceProvider().run(true, callback);
+    }
+
+    @Override
+    public Activity append(Activity activity) {
+        return write(em -> {
+            em.persist(activity);
+            return activity;
+        });
+    }
+
+    @Override
+    public List<Activity> appendAll(Collection<Activity> activities) {
+        return write(em -> {
+            List<Activity> stored = new ArrayList<>(activities.size());
+            for (Activity activity : activities) {
+                em.persist(activity);
+                stored.add(activity);
+            }
+            em.flush();
+            return stored;
+        });
+    }
+
+    @Override
+    public void update(Activity activity) {
+        EntityManager em = activityStreamService.getEntityManager();
+        if (em != null) {
+            em.merge(activity);
+        } else {
+            activityStreamService.getOrCreatePersistenceProvider().run(false, e -> {
+                return e.merge(activity);
+            });
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public ActivitiesList getActivities(Collection<Serializable> activityIds) {
+        if (activityIds.isEmpty()) {
+            return new ActivitiesListImpl();
+        }
+        return read(em -> {
+            Query query = em.createQuery("select activity from Activity activity where activity.id in (:ids)");
+            query.setParameter("ids", activityIds);
+            return new ActivitiesListImpl(query.getResultList());
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public ActivitiesList scanAfter(ActivityCriteria criteria, ActivityWatermark watermark, long limit) {
+        return read(em -> {
+            StringBuilder sb = new StringBuilder("select activity from Activity activity where 1 = 1");
+            appendCriteria(sb, criteria);
+            sb.append(" and (activity.publishedDate > :sinceDate"
+                    + " or (activity.publishedDate = :sinceDate and activity.id > :sinceId))");
+            sb.append(" order by activity.publishedDate asc, activity.id asc");
+            Query query = em.createQuery(sb.toString());
+            setCriteriaParameters(query, criteria);
+            query.setParameter("sinceDate", watermark.getPublishedDateAsDate());
+            query.setParameter("sinceId", watermark.getId());
+            if (limit > 0) {
+                query.setMaxResults((int) limit);
+            }
+            return new ActivitiesListImpl(query.getResultList());
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public ActivitiesList scanBefore(ActivityCriteria criteria, ActivityWatermark watermark, long limit) {
+        return read(em -> {
+            StringBuilder sb = new StringBuilder("select activity from Activity activity where 1 = 1");
+            appendCriteria(sb, criteria);
+            if (watermark != null) {
+                sb.append(" and (activity.publishedDate < :beforeDate"
+                        + " or (activity.publishedDate = :beforeDate and activity.id < :beforeId))");
+            }
+            sb.append(" order by activity.publishedDate desc, activity.id desc");
+            Query query = em.createQuery(sb.toString());
+            setCriteriaParameters(query, criteria);
+            if (watermark != null) {
+                query.setParameter("beforeDate", watermark.getPublishedDateAsDate());
+                query.setParameter("beforeId", watermark.getId());
+            }
+            if (limit > 0) {
+                query.setMaxResults((int) limit);
+            }
+            return new ActivitiesListImpl(query.getResultList());
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Serializable> getActivityIds(ActivityCriteria criteria, Serializable fromId, int limit) {
+        return read(em -> {
+            StringBuilder sb = new StringBuilder("select activity.id from Activity activity where 1 = 1");
+            appendCriteria(sb, criteria);
+            if (fromId != null) {
+                sb.append(" and activity.id > :fromId");
+            }
+            sb.append(" order by activity.id asc");
+            Query query = em.createQuery(sb.toString());
+            setCriteriaParameters(query, criteria);
+            if (fromId != null) {
+                query.setParameter("fromId", fromId);
+            }
+            query.setMaxResults(limit);
+            return query.getResultList();
+        });
+    }
+
+    @Override
+    public void remove(Collection<Serializable> activityIds) {
+        if (activityIds.isEmpty()) {
+            return;
+        }
+        write(em -> {
+            Query query = em.createQuery("delete from Activity activity where activity.id in (:ids)");
+            query.setParameter("ids", activityIds);
+            return query.executeUpdate();
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public ActivitiesList getActivities(long offset, long limit) {
+        return read(em -> {
+            Query query = em.createQuery("select activity from Activity activity order by activity.id asc");
+            setRange(query, offset, limit);
+            return new ActivitiesListImpl(query.getResultList());
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<ActivitySummary> getActivitySummaries(long offset, long limit) {
+        return read(em -> {
+            Query query = em.createQuery(ACTIVITY_SUMMARY_SELECT + " from Activity activity order by activity.id asc");
+            setRange(query, offset, limit);
+            return query.getResultList();
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<ActivitySummary> getActivitySummaries(Collection<Serializable> activityIds) {
+        if (activityIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return read(em -> {
+            Query query = em.createQuery(ACTIVITY_SUMMARY_SELECT
+                    + " from Activity activity where activity.id in (:ids) order by activity.id asc");
+            query.setParameter("ids", activityIds);
+            return query.getResultList();
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<Serializable, List<ActivityReply>> getActivityReplies(Collection<Serializable> activityIds) {
+        if (activityIds.isEmpty()) {
+            return new HashMap<>();
+        }
+        return read(em -> {
+            Query query = em.createQuery("select activity.id, activity.replies from Activity activity"
+                    + " where activity.id in (:ids) and activity.replies is not null");
+            query.setParameter("ids", activityIds);
+            Map<Serializable, List<ActivityReply>> replies = new HashMap<>();
+            for (Object[] row : (List<Object[]>) query.getResultList()) {
+                List<ActivityReply> activityReplies = ActivityImpl.toActivityReplies((String) row[1]);
+                if (!activityReplies.isEmpty()) {
+                    replies.put((Serializable) row[0], activityReplies);
+                }
+            }
+            return replies;
+        });
+    }
+
+    /**
+     * Returns the last occurrence of the given {@code activity}, locked in the database to serialize the rollups done
+     * on other nodes.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Activity getLastActivity(Activity activity, Date since) {
+        return write(em -> {
+            StringBuilder sb = new StringBuilder("select activity from Activity activity"
+                    + " where activity.verb = :verb and activity.publishedDate >= :since");
+            Map<String, Object> parameters = new HashMap<>();
+            appendEquals(sb, parameters, "actor", activity.getActor());
+            appendEquals(sb, parameters, "object", activity.getObject());
+            appendEquals(sb, parameters, "target", activity.getTarget());
+            appendEquals(sb, parameters, "context", activity.getContext());
+            sb.append(" order by activity.publishedDate desc");
+            Query query = em.createQuery(sb.toString());
+            query.setParameter("verb", activity.getVerb());
+            query.setParameter("since", since);
+            for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+                query.setParameter(parameter.getKey(), parameter.getValue());
+            }
+            query.setMaxResults(1);
+            query.setLockMode(LockModeType.PESSIMISTIC_WRITE);
+            List<Activity> activities = query.getResultList();
+            return activities.isEmpty() ? null : activities.get(0);
+        });
+    }
+
+    protected void appendEquals(StringBuilder sb, Map<String, Object> parameters, String field, String value) {
+        if (value == null) {
+            sb.append(" and activity.").append(field).append(" is null");
+        } else {
+            sb.append(" and activity.").append(field).append(" = :").append(field);
+            parameters.put(field, value);
+        }
+    }
+
+    @Override
+    public boolean isCountersSupported() {
+        return true;
+    }
+
+    /**
+     * Writes the given counter deltas, each counter being created if needed.
+     * <p>
+     * The existing counters are updated in one transaction, which throws without writing anything if it fails. The
+     * missing ones are then created each in its own transaction: a counter created meanwhile by another node makes the
+     * creation fail on its primary key, and the delta is then applied as an update.
+     */
+    @Override
+    public void updateCounters(Collection<ActivityCounter> counters) {
+        List<ActivityCounter> missingCounters = TransactionHelper.runInTransaction(
+                () -> activityStreamService.getOrCreatePersistenceProvider().run(true, em -> {
+                    return updateCounters(em, counters);
+                }));
+        for (ActivityCounter counter : missingCounters) {
+            try {
+                TransactionHelper.runInTransaction(
+                        () -> activityStreamService.getOrCreatePersistenceProvider().run(true, em -> {
+                            em.persist(counter);
+                            em.flush();
+                        }));
+            } catch (RuntimeException e) {
+                log.debug(String.format("Activity counter '%s' created concurrently, updating it", counter.getId()), e);
+                try {
+                    TransactionHelper.runInTransaction(
+                            () -> activityStreamService.getOrCreatePersistenceProvider().run(true, em -> {
+                                updateCounters(em, Collections.singletonList(counter));
+                            }));
+                } catch (RuntimeException ee) {
+                    log.error(String.format("Unable to write activity counter '%s': %s", counter.getId(),
+                            ee.getMessage()));
+                    log.debug(ee, ee);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the given deltas to the existing counters.
+     *
+     * @return the counters not existing yet and having a positive delta
+     */
+    protected List<ActivityCounter> updateCounters(EntityManager em, Collection<ActivityCounter> counters) {
+        List<ActivityCounter> missingCounters = new ArrayList<>();
+        Query query = em.createQuery(
+                "update ActivityCounter counter set counter.count = counter.count + :delta where counter.id = :id");
+        for (ActivityCounter counter : counters) {
+            query.setParameter("delta", counter.getCount());
+            query.setParameter("id", counter.getId());
+            if (query.executeUpdate() == 0 && counter.getCount() > 0) {
+                missingCounters.add(counter);
+            }
+        }
+        return missingCounters;
+    }
+
+    @Override
+    public void deleteCounters() {
+        write(em -> em.createQuery("delete from ActivityCounter counter").executeUpdate());
+    }
+
+    /**
+     * Sums the occurrences in the database, the hourly and daily buckets being derived from the published dates by the
+     * caller as JPQL has no portable date truncation.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Activity> getActivityOccurrences(Collection<Serializable> activityIds) {
+        if (activityIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return read(em -> {
+            Query query = em.createQuery("select activity.actor, activity.object, activity.context, activity.verb,"
+                    + " activity.publishedDate, sum(coalesce(activity.rollupCount, 1)) from Activity activity"
+                    + " where activity.id in (:ids) group by activity.actor, activity.object, activity.context,"
+                    + " activity.verb, activity.publishedDate");
+            query.setParameter("ids", activityIds);
+            List<Activity> occurrences = new ArrayList<>();
+            for (Object[] row : (List<Object[]>) query.getResultList()) {
+                ActivityImpl activity = new ActivityImpl();
+                activity.setActor((String) row[0]);
+                activity.setObject((String) row[1]);
+                activity.setContext((String) row[2]);
+                activity.setVerb((String) row[3]);
+                activity.setPublishedDate((Date) row[4]);
+                activity.setRollupCount(((Number) row[5]).intValue());
+                occurrences.add(activity);
+            }
+            return occurrences;
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<ActivityCount> getTopActivityCounts(ActivityCounter.Dimension dimension, String verb,
+            ActivityCounter.Granularity granularity, Date from, Date to, int limit) {
+        return readPrimary(em -> {
+            StringBuilder sb = new StringBuilder("select counter.dimensionValue, sum(counter.count)"
+                    + " from ActivityCounter counter where counter.dimension = :dimension"
+                    + " and counter.granularity = :granularity and counter.bucket >= :from and counter.bucket < :to");
+            if (verb != null) {
+                sb.append(" and counter.verb = :verb");
+            }
+            sb.append(" group by counter.dimensionValue having sum(counter.count) > 0");
+            sb.append(" order by sum(counter.count) desc");
+            Query query = em.createQuery(sb.toString());
+            setCounterParameters(query, dimension, verb, granularity, from, to);
+            if (limit > 0) {
+                query.setMaxResults(limit);
+            }
+            List<ActivityCount> counts = new ArrayList<>();
+            for (Object[] row : (List<Object[]>) query.getResultList()) {
+                counts.add(new ActivityCount((String) row[0], ((Number) row[1]).longValue()));
+            }
+            return counts;
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public SortedMap<Date, Long> getActivityHistogram(ActivityCounter.Dimension dimension, String value, String verb,
+            ActivityCounter.Granularity granularity, Date from, Date to) {
+        return readPrimary(em -> {
+            StringBuilder sb = new StringBuilder("select counter.bucket, sum(counter.count)"
+                    + " from ActivityCounter counter where counter.dimension = :dimension"
+                    + " and counter.dimensionValue = :value and counter.granularity = :granularity"
+                    + " and counter.bucket >= :from and counter.bucket < :to");
+            if (verb != null) {
+                sb.append(" and counter.verb = :verb");
+            }
+            sb.append(" group by counter.bucket");
+            Query query = em.createQuery(sb.toString());
+            setCounterParameters(query, dimension, verb, granularity, from, to);
+            query.setParameter("value", value);
+            SortedMap<Date, Long> histogram = new TreeMap<>();
+            for (Object[] row : (List<Object[]>) query.getResultList()) {
+                long count = ((Number) row[1]).longValue();
+                if (count > 0) {
+                    histogram.put(new Date(((Date) row[0]).getTime()), count);
+                }
+            }
+            return histogram;
+        });
+    }
+
+    protected void setCounterParameters(Query query, ActivityCounter.Dimension dimension, String verb,
+            ActivityCounter.Granularity granularity, Date from, Date to) {
+        query.setParameter("dimension", dimension.name());
+        query.setParameter("granularity", granularity.name());
+        query.setParameter("from", granularity.getBucket(from));
+        query.setParameter("to", to);
+        if (verb != null) {
+            query.setParameter("verb", verb);
+        }
+    }
+
+    @Override
+    public void addTimelineEntries(Collection<ActivityTimelineEntry> entries) {
+        write(em -> {
+            for (ActivityTimelineEntry entry : entries) {
+                em.persist(entry);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void updateTimelineEntries(Serializable activityId, Date publishedDate) {
+        write(em -> {
+            Query query = em.createQuery("update ActivityTimelineEntry entry set entry.publishedDate = :publishedDate"
+                    + " where entry.activityId = :activityId");
+            query.setParameter("publishedDate", publishedDate);
+            query.setParameter("activityId", activityId);
+            return query.executeUpdate();
+        });
+    }
+
+    @Override
+    public void removeTimelineEntries(Collection<Serializable> activityIds) {
+        if (activityIds.isEmpty()) {
+            return;
+        }
+        write(em -> {
+            Query query = em.createQuery(
+                    "delete from ActivityTimelineEntry entry where entry.activityId in (:activityIds)");
+            query.setParameter("activityIds", activityIds);
+            return query.executeUpdate();
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public ActivitiesList getTimeline(Collection<String> owners, long offset, long limit) {
+        return read(em -> {
+            Query query = em.createQuery("select activity from ActivityTimelineEntry entry, Activity activity"
+                    + " where entry.owner in (:owners) and entry.activityId = activity.id"
+                    + " order by entry.publishedDate desc, entry.activityId desc");
+            query.setParameter("owners", owners);
+            setRange(query, offset, limit);
+            return new ActivitiesListImpl(query.getResultList());
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getTimelineOwners(String prefix) {
+        return read(em -> {
+            Query query = em.createQuery(
+                    "select distinct entry.owner from ActivityTimelineEntry entry where entry.owner like :prefix");
+            query.setParameter("prefix", prefix + "%");
+            return new HashSet<>(query.getResultList());
+        });
+    }
+
+    protected void setRange(Query query, long offset, long limit) {
+        if (limit > 0) {
+            query.setMaxResults((int) limit);
+        }
+        if (offset > 0) {
+            query.setFirstResult((int) offset);
+        }
+    }
+
+    /**
+     * Appends to the given JPQL where clause the restrictions of the {@code criteria} on the {@code activity} alias.
+     */
+    protected void appendCriteria(StringBuilder sb, ActivityCriteria criteria) {
+        if (!criteria.getActors().isEmpty()) {
+            sb.append(" and activity.actor in (:actors)");
+        }
+        if (!criteria.getObjects().isEmpty()) {
+            sb.append(" and activity.object in (:objects)");
+        }
+        if (!criteria.getTargets().isEmpty()) {
+            sb.append(" and activity.target in (:targets)");
+        }
+        if (!criteria.getContexts().isEmpty()) {
+            sb.append(" and activity.context in (:contexts)");
+        }
+        if (!criteria.getVerbs().isEmpty()) {
+            sb.append(" and activity.verb in (:verbs)");
+        }
+        if (criteria.getPublishedAfter() != null) {
+            sb.append(" and activity.publishedDate >= :publishedAfter");
+        }
+        if (criteria.getPublishedBefore() != null) {
+            sb.append(" and activity.publishedDate < :publishedBefore");
+        }
+    }
+
+    protected void setCriteriaParameters(Query query, ActivityCriteria criteria) {
+        if (!criteria.getActors().isEmpty()) {
+            query.setParameter("actors", criteria.getActors());
+        }
+        if (!criteria.getObjects().isEmpty()) {
+            query.setParameter("objects", criteria.getObjects());
+        }
+        if (!criteria.getTargets().isEmpty()) {
+            query.setParameter("targets", criteria.getTargets());
+        }
+        if (!criteria.getContexts().isEmpty()) {
+            query.setParameter("contexts", criteria.getContexts());
+        }
+        if (!criteria.getVerbs().isEmpty()) {
+            query.setParameter("verbs", criteria.getVerbs());
+        }
+        if (criteria.getPublishedAfter() != null) {
+            query.setParameter("publishedAfter", criteria.getPublishedAfter());
+        }
+        if (criteria.getPublishedBefore() != null) {
+            query.setParameter("publishedBefore", criteria.getPublishedBefore());
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * {@link ActivityInvalidationTransport} delivering the batches to the other transports started in the same JVM.
+ * <p>
+ * Mainly useful for tests, to simulate several nodes.
+ *
+ * @since 11.1
+ */
+public class LocalActivityInvalidationTransport implements ActivityInvalidationTransport {
+
+    protected static final List<LocalActivityInvalidationTransport> TRANSPORTS = new CopyOnWriteArrayList<>();
+
+    protected String nodeId;
+
+    protected Consumer<ActivityInvalidations> receiver;
+
+    @Override
+    public void start(String nodeId, Consumer<ActivityInvalidations> receiver) {
+        this.nodeId = nodeId;
+        this.receiver = receiver;
+        TRANSPORTS.add(this);
+    }
+
+    @Override
+    public void send(ActivityInvalidations invalidations) {
+        // go through the serialized form, as a remote transport would
+        byte[] bytes = invalidations.toBytes();
+        for (LocalActivityInvalidationTransport transport : TRANSPORTS) {
+            if (!transport.nodeId.equals(nodeId)) {
+                transport.receiver.accept(ActivityInvalidations.fromBytes(bytes));
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        TRANSPORTS.remove(this);
+    }
+
+}
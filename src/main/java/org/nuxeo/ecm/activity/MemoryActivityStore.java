@@ -0,0 +1,296 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * {@link ActivityStore} keeping the activities in memory only, for tests and demo instances not needing durability.
+ * <p>
+ * Activities are copied when stored and when read, so that changes made by callers are only visible once stored with
+ * {@link #update(Activity)}, as with a database. Like the log store, this store is not transactional, and the filters
+ * relying on JPA entities cannot be used with it. The counters and the timeline entries are kept in memory too.
+ *
+ * @since 11.1
+ */
+public class MemoryActivityStore extends AbstractIndexedActivityStore {
+
+    protected final ConcurrentSkipListMap<Long, ActivityImpl> activities = new ConcurrentSkipListMap<>();
+
+    protected final AtomicLong lastId = new AtomicLong();
+
+    protected final Map<String, ActivityCounter> counters = new ConcurrentHashMap<>();
+
+    protected final List<ActivityTimelineEntry> timelineEntries = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void activate(ActivityStreamService activityStreamService) {
+        // nothing to open
+    }
+
+    @Override
+    public void deactivate() {
+        clear();
+    }
+
+    /**
+     * Removes all the activities.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            activities.clear();
+            clearIndexes();
+            counters.clear();
+            timelineEntries.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Activity append(Activity activity) {
+        if (activity.getPublishedDate() == null) {
+            activity.setPublishedDate(new Date());
+        }
+        long id = lastId.incrementAndGet();
+        if (activity instanceof ActivityImpl) {
+            ((ActivityImpl) activity).setId(id);
+        }
+        ActivityImpl stored = copy(activity);
+        stored.setId(id);
+        lock.writeLock().lock();
+        try {
+            activities.put(id, stored);
+            index(ActivityWatermark.of(stored), stored.getActor(), stored.getContext(), stored.getObject());
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return activity instanceof ActivityImpl ? activity : copy(stored, id);
+    }
+
+    @Override
+    public void update(Activity activity) {
+        Long id = toId(activity.getId());
+        lock.writeLock().lock();
+        try {
+            ActivityImpl previous = id != null ? activities.get(id) : null;
+            if (previous == null) {
+                throw new NuxeoException(String.format("Unknown activity: %s", activity.getId()));
+            }
+            unindex(ActivityWatermark.of(previous), previous.getActor(), previous.getContext(),
+                    previous.getObject());
+            ActivityImpl stored = copy(activity, id);
+            activities.put(id, stored);
+            index(ActivityWatermark.of(stored), stored.getActor(), stored.getContext(), stored.getObject());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(Collection<Serializable> activityIds) {
+        lock.writeLock().lock();
+        try {
+            for (Serializable activityId : activityIds) {
+                Long id = toId(activityId);
+                ActivityImpl removed = id != null ? activities.remove(id) : null;
+                if (removed != null) {
+                    unindex(ActivityWatermark.of(removed), removed.getActor(), removed.getContext(),
+                            removed.getObject());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected Activity load(Long id) {
+        ActivityImpl activity = activities.get(id);
+        return activity != null ? copy(activity, id) : null;
+    }
+
+    @Override
+    protected NavigableSet<Long> getIds() {
+        return activities.navigableKeySet();
+    }
+
+    @Override
+    public boolean isCountersSupported() {
+        return true;
+    }
+
+    @Override
+    public void updateCounters(Collection<ActivityCounter> counters) {
+        for (ActivityCounter counter : counters) {
+            this.counters.merge(counter.getId(), copy(counter), (previous, delta) -> {
+                ActivityCounter sum = copy(previous);
+                sum.setCount(previous.getCount() + delta.getCount());
+                return sum;
+            });
+        }
+    }
+
+    @Override
+    public void deleteCounters() {
+        counters.clear();
+    }
+
+    @Override
+    public List<ActivityCount> getTopActivityCounts(ActivityCounter.Dimension dimension, String verb,
+            ActivityCounter.Granularity granularity, Date from, Date to, int limit) {
+        Map<String, Long> sums = new HashMap<>();
+        for (ActivityCounter counter : getCounters(dimension, null, verb, granularity, from, to)) {
+            sums.merge(counter.getDimensionValue(), counter.getCount(), Long::sum);
+        }
+        List<ActivityCount> counts = new ArrayList<>();
+        for (Map.Entry<String, Long> sum : sums.entrySet()) {
+            if (sum.getValue() > 0) {
+                counts.add(new ActivityCount(sum.getKey(), sum.getValue()));
+            }
+        }
+        counts.sort(Comparator.comparingLong(ActivityCount::getCount).reversed());
+        return limit > 0 && counts.size() > limit ? new ArrayList<>(counts.subList(0, limit)) : counts;
+    }
+
+    @Override
+    public SortedMap<Date, Long> getActivityHistogram(ActivityCounter.Dimension dimension, String value, String verb,
+            ActivityCounter.Granularity granularity, Date from, Date to) {
+        SortedMap<Date, Long> histogram = new TreeMap<>();
+        for (ActivityCounter counter : getCounters(dimension, value, verb, granularity, from, to)) {
+            histogram.merge(new Date(counter.getBucket().getTime()), counter.getCount(), Long::sum);
+        }
+        histogram.values().removeIf(count -> count <= 0);
+        return histogram;
+    }
+
+    /**
+     * Returns the counters of the given dimension, and of the given value and verb if not {@code null}, whose bucket
+     * is in the given range.
+     */
+    protected List<ActivityCounter> getCounters(ActivityCounter.Dimension dimension, String value, String verb,
+            ActivityCounter.Granularity granularity, Date from, Date to) {
+        long fromTime = granularity.getBucket(from).getTime();
+        List<ActivityCounter> result = new ArrayList<>();
+        for (ActivityCounter counter : counters.values()) {
+            long bucket = counter.getBucket().getTime();
+            if (dimension.name().equals(counter.getDimension()) && granularity.name().equals(counter.getGranularity())
+                    && (value == null || value.equals(counter.getDimensionValue()))
+                    && (verb == null || verb.equals(counter.getVerb())) && bucket >= fromTime
+                    && bucket < to.getTime()) {
+                result.add(counter);
+            }
+        }
+        return result;
+    }
+
+    protected static ActivityCounter copy(ActivityCounter counter) {
+        ActivityCounter copy = new ActivityCounter();
+        copy.setId(counter.getId());
+        copy.setDimension(counter.getDimension());
+        copy.setDimensionValue(counter.getDimensionValue());
+        copy.setVerb(counter.getVerb());
+        copy.setGranularity(counter.getGranularity());
+        copy.setBucket(counter.getBucket());
+        copy.setCount(counter.getCount());
+        return copy;
+    }
+
+    @Override
+    public void addTimelineEntries(Collection<ActivityTimelineEntry> entries) {
+        for (ActivityTimelineEntry entry : entries) {
+            timelineEntries.add(
+                    new ActivityTimelineEntry(entry.getOwner(), entry.getActivityId(), entry.getPublishedDate()));
+        }
+    }
+
+    @Override
+    public void updateTimelineEntries(Serializable activityId, Date publishedDate) {
+        Long id = toId(activityId);
+        for (ActivityTimelineEntry entry : timelineEntries) {
+            if (Objects.equals(id, entry.getActivityId())) {
+                entry.setPublishedDate(publishedDate);
+            }
+        }
+    }
+
+    @Override
+    public void removeTimelineEntries(Collection<Serializable> activityIds) {
+        Set<Long> ids = new HashSet<>();
+        for (Serializable activityId : activityIds) {
+            ids.add(toId(activityId));
+        }
+        timelineEntries.removeIf(entry -> ids.contains(entry.getActivityId()));
+    }
+
+    @Override
+    public ActivitiesList getTimeline(Collection<String> owners, long offset, long limit) {
+        List<ActivityTimelineEntry> entries = new ArrayList<>();
+        for (ActivityTimelineEntry entry : timelineEntries) {
+            if (owners.contains(entry.getOwner())) {
+                entries.add(entry);
+            }
+        }
+        entries.sort(Comparator.comparing(ActivityTimelineEntry::getPublishedDate)
+                               .thenComparing(ActivityTimelineEntry::getActivityId)
+                               .reversed());
+        int fromIndex = (int) Math.min(offset, entries.size());
+        int toIndex = limit > 0 ? (int) Math.min(offset + limit, entries.size()) : entries.size();
+        List<Serializable> activityIds = new ArrayList<>();
+        for (ActivityTimelineEntry entry : entries.subList(fromIndex, toIndex)) {
+            activityIds.add(entry.getActivityId());
+        }
+        return getActivities(activityIds);
+    }
+
+    @Override
+    public Set<String> getTimelineOwners(String prefix) {
+        Set<String> owners = new HashSet<>();
+        for (ActivityTimelineEntry entry : timelineEntries) {
+            if (entry.getOwner().startsWith(prefix)) {
+                owners.add(entry.getOwner());
+            }
+        }
+        return owners;
+    }
+
+    protected static ActivityImpl copy(Activity activity, Long id) {
+        ActivityImpl activityImpl = copy(activity);
+        activityImpl.setId(id);
+        return activityImpl;
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.pubsub.PubSubService;
+
+/**
+ * {@link ActivityInvalidationTransport} relying on the Nuxeo {@link PubSubService}, and so on its configured provider
+ * (Redis, Kafka, ...).
+ *
+ * @since 11.1
+ */
+public class PubSubActivityInvalidationTransport implements ActivityInvalidationTransport {
+
+    private static final Log log = LogFactory.getLog(PubSubActivityInvalidationTransport.class);
+
+    public static final String TOPIC = "activityInvalidations";
+
+    protected String nodeId;
+
+    protected BiConsumer<String, byte[]> subscriber;
+
+    @Override
+    public void start(String nodeId, Consumer<ActivityInvalidations> receiver) {
+        this.nodeId = nodeId;
+        subscriber = (topic, message) -> {
+            try {
+                ActivityInvalidations invalidations = ActivityInvalidations.fromBytes(message);
+                if (!nodeId.equals(invalidations.getNodeId())) {
+                    receiver.accept(invalidations);
+                }
+            } catch (NuxeoException e) {
+                log.error(String.format("Ignoring activity invalidations: %s", e.getMessage()));
+                log.debug(e, e);
+            }
+        };
+        Framework.getService(PubSubService.class).registerSubscriber(TOPIC, subscriber);
+    }
+
+    @Override
+    public void send(ActivityInvalidations invalidations) {
+        Framework.getService(PubSubService.class).publish(TOPIC, invalidations.toBytes());
+    }
+
+    @Override
+    public void stop() {
+        if (subscriber != null) {
+            PubSubService pubSubService = Framework.getService(PubSubService.class);
+            if (pubSubService != null) {
+                pubSubService.unregisterSubscriber(TOPIC, subscriber);
+            }
+            subscriber = null;
+        }
+    }
+
+}
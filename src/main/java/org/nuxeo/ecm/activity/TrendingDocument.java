@@ -0,0 +1,61 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.io.Serializable;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * A document activity object with its trending score, as returned by
+ * {@link ActivityStreamService#getTrendingDocuments(String, int)}.
+ *
+ * @since 11.1
+ */
+public class TrendingDocument implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    protected final String object;
+
+    protected final double score;
+
+    public TrendingDocument(String object, double score) {
+        this.object = object;
+        this.score = score;
+    }
+
+    /**
+     * Returns the {@code doc:} activity object of the document.
+     */
+    public String getObject() {
+        return object;
+    }
+
+    /**
+     * Returns the decayed score of the document: the sum of the weights of its activities, each one halved every
+     * half-life since it happened.
+     */
+    public double getScore() {
+        return score;
+    }
+
+    @Override
+    public String toString() {
+        return ToStringBuilder.reflectionToString(this);
+    }
+
+}
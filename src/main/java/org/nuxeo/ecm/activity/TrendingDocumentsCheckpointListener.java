@@ -0,0 +1,39 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventListener;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Listener saving the trending documents scores when the checkpoint scheduler fires.
+ *
+ * @since 11.1
+ */
+public class TrendingDocumentsCheckpointListener implements EventListener {
+
+    public static final String TRENDING_DOCUMENTS_CHECKPOINT_EVENT = "activityTrendingDocumentsCheckpoint";
+
+    @Override
+    public void handleEvent(Event event) {
+        if (TRENDING_DOCUMENTS_CHECKPOINT_EVENT.equals(event.getName())) {
+            ActivityStreamService activityStreamService = Framework.getService(ActivityStreamService.class);
+            ((ActivityStreamServiceImpl) activityStreamService).checkpointTrendingDocuments();
+        }
+    }
+
+}
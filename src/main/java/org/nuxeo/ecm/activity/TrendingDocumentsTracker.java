@@ -0,0 +1,365 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Keeps in memory an exponentially decayed score per document activity object, globally and per context.
+ * <p>
+ * Scores are stored relative to a reference time: an activity of weight {@code w} happening at {@code t} adds
+ * {@code w * exp(rate * (t - referenceTime))}. As all the scores decay at the same rate, this avoids updating every
+ * score when time passes, and the ranking is read directly from the stored values. The scores are periodically
+ * rescaled to the current time, dropping the negligible ones, and saved to a checkpoint file.
+ * <p>
+ * Each context also keeps its {@code topSize} best scores sorted, so that reading its trending documents does not scan
+ * all its scores.
+ *
+ * @since 11.1
+ */
+public class TrendingDocumentsTracker {
+
+    private static final Log log = LogFactory.getLog(TrendingDocumentsTracker.class);
+
+    /**
+     * Context holding the scores of all the documents.
+     */
+    public static final String GLOBAL_CONTEXT = "";
+
+    /**
+     * Pseudo verb used to weight the replies to an activity.
+     */
+    public static final String REPLY_VERB = "activityReply";
+
+    /**
+     * Default weights: a reply weighs more than a creation, which weighs more than a modification.
+     */
+    public static final Map<String, Double> DEFAULT_VERB_WEIGHTS;
+
+    static {
+        Map<String, Double> weights = new HashMap<>();
+        weights.put(DocumentEventTypes.DOCUMENT_CREATED, 2.0);
+        weights.put(DocumentEventTypes.DOCUMENT_UPDATED, 1.0);
+        weights.put(REPLY_VERB, 3.0);
+        DEFAULT_VERB_WEIGHTS = Collections.unmodifiableMap(weights);
+    }
+
+    /**
+     * Decayed score under which a document is forgotten.
+     */
+    public static final double MIN_SCORE = 0.01;
+
+    /**
+     * Default number of best scores kept sorted per context.
+     */
+    public static final int DEFAULT_TOP_SIZE = 100;
+
+    protected static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    protected final double decayRate;
+
+    protected final Map<String, Double> verbWeights;
+
+    protected final int topSize;
+
+    protected final Map<String, ContextScores> scores = new ConcurrentHashMap<>();
+
+    protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    protected volatile long referenceTime;
+
+    /**
+     * @param halfLife the time, in milliseconds, after which the weight of an activity is halved
+     * @param verbWeights the weight of the activities per verb, activities of other verbs are ignored
+     */
+    public TrendingDocumentsTracker(long halfLife, Map<String, Double> verbWeights) {
+        this(halfLife, verbWeights, DEFAULT_TOP_SIZE);
+    }
+
+    /**
+     * @param halfLife the time, in milliseconds, after which the weight of an activity is halved
+     * @param verbWeights the weight of the activities per verb, activities of other verbs are ignored
+     * @param topSize the number of best scores kept sorted per context
+     */
+    public TrendingDocumentsTracker(long halfLife, Map<String, Double> verbWeights, int topSize) {
+        decayRate = Math.log(2) / halfLife;
+        this.verbWeights = new HashMap<>(verbWeights);
+        this.topSize = Math.max(1, topSize);
+        referenceTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Records an activity of the given {@code verb} on a document, if the verb is weighted.
+     */
+    public void record(String context, String object, String verb, long time) {
+        Double weight = verbWeights.get(verb);
+        if (weight == null || !ActivityHelper.isDocument(object)) {
+            return;
+        }
+        lock.readLock().lock();
+        try {
+            double value = weight * Math.exp(decayRate * (time - referenceTime));
+            getContextScores(GLOBAL_CONTEXT).add(object, value);
+            if (context != null) {
+                getContextScores(context).add(object, value);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    protected ContextScores getContextScores(String context) {
+        return scores.computeIfAbsent(context, k -> new ContextScores(topSize));
+    }
+
+    /**
+     * Returns the {@code limit} documents with the highest scores in the given {@code context}, or among all the
+     * documents if {@code null}, ordered by descending score.
+     */
+    public List<TrendingDocument> getTrendingDocuments(String context, int limit) {
+        ContextScores contextScores = scores.get(context != null ? context : GLOBAL_CONTEXT);
+        if (contextScores == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        List<ScoredObject> top = contextScores.getTop(limit);
+        double factor = Math.exp(-decayRate * (System.currentTimeMillis() - referenceTime));
+        List<TrendingDocument> trendingDocuments = new ArrayList<>(top.size());
+        for (ScoredObject scoredObject : top) {
+            trendingDocuments.add(new TrendingDocument(scoredObject.object, scoredObject.score * factor));
+        }
+        return trendingDocuments;
+    }
+
+    /**
+     * Forgets the given document, for instance when it is removed.
+     */
+    public void remove(String object) {
+        for (ContextScores contextScores : scores.values()) {
+            contextScores.remove(object);
+        }
+    }
+
+    /**
+     * Rescales all the scores to the current time, dropping the negligible ones.
+     */
+    public void rescale() {
+        lock.writeLock().lock();
+        try {
+            long now = System.currentTimeMillis();
+            double factor = Math.exp(-decayRate * (now - referenceTime));
+            for (ContextScores contextScores : scores.values()) {
+                contextScores.rescale(factor);
+            }
+            scores.values().removeIf(ContextScores::isEmpty);
+            referenceTime = now;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rescales the scores and saves them to the given {@code file}.
+     */
+    public void checkpoint(File file) {
+        rescale();
+        Map<String, Object> checkpoint = new HashMap<>();
+        checkpoint.put("referenceTime", referenceTime);
+        Map<String, Map<String, Double>> savedScores = new HashMap<>();
+        scores.forEach((context, contextScores) -> savedScores.put(context, contextScores.getScores()));
+        checkpoint.put("scores", savedScores);
+        try {
+            file.getParentFile().mkdirs();
+            File tmp = new File(file.getPath() + ".tmp");
+            OBJECT_MAPPER.writeValue(tmp, checkpoint);
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                tmp.renameTo(file);
+            }
+        } catch (IOException e) {
+            log.error(String.format("Unable to save trending documents to %s: %s", file, e.getMessage()));
+            log.debug(e, e);
+        }
+    }
+
+    /**
+     * Loads the scores saved by {@link #checkpoint(File)}, if the file exists.
+     */
+    @SuppressWarnings("unchecked")
+    public void load(File file) {
+        if (!file.isFile()) {
+            return;
+        }
+        try {
+            Map<String, Object> checkpoint = OBJECT_MAPPER.readValue(file, new TypeReference<Map<String, Object>>() {
+            });
+            lock.writeLock().lock();
+            try {
+                referenceTime = ((Number) checkpoint.get("referenceTime")).longValue();
+                scores.clear();
+                Map<String, Map<String, Number>> savedScores = (Map<String, Map<String, Number>>) checkpoint.get(
+                        "scores");
+                for (Map.Entry<String, Map<String, Number>> entry : savedScores.entrySet()) {
+                    ContextScores contextScores = getContextScores(entry.getKey());
+                    entry.getValue().forEach((object, score) -> contextScores.add(object, score.doubleValue()));
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            rescale();
+        } catch (IOException | RuntimeException e) {
+            log.error(String.format("Unable to load trending documents from %s: %s", file, e.getMessage()));
+            log.debug(e, e);
+        }
+    }
+
+    /**
+     * Score of a document.
+     */
+    protected static final class ScoredObject implements Comparable<ScoredObject> {
+
+        protected final String object;
+
+        protected final double score;
+
+        protected ScoredObject(String object, double score) {
+            this.object = object;
+            this.score = score;
+        }
+
+        /**
+         * Orders by descending score, then by object.
+         */
+        @Override
+        public int compareTo(ScoredObject other) {
+            int result = Double.compare(other.score, score);
+            return result != 0 ? result : object.compareTo(other.object);
+        }
+
+    }
+
+    /**
+     * Scores of the documents of a context, along with the sorted {@code topSize} best ones.
+     * <p>
+     * As scores only grow between two rescales, a document entering the top only pushes out the lowest one. The top is
+     * only rebuilt from all the scores when a document of the top is removed, on the next read, and when rescaling.
+     */
+    protected static class ContextScores {
+
+        protected final int topSize;
+
+        protected final Map<String, Double> scores = new HashMap<>();
+
+        protected final TreeSet<ScoredObject> top = new TreeSet<>();
+
+        /**
+         * {@code false} when some scores not in the top may belong to it.
+         */
+        protected boolean topComplete = true;
+
+        protected ContextScores(int topSize) {
+            this.topSize = topSize;
+        }
+
+        protected synchronized void add(String object, double value) {
+            Double previous = scores.get(object);
+            double score = previous != null ? previous + value : value;
+            scores.put(object, score);
+            if (previous != null && top.remove(new ScoredObject(object, previous))) {
+                top.add(new ScoredObject(object, score));
+            } else if (top.size() < topSize) {
+                top.add(new ScoredObject(object, score));
+            } else if (score > top.last().score) {
+                top.add(new ScoredObject(object, score));
+                top.pollLast();
+            }
+        }
+
+        protected synchronized void remove(String object) {
+            Double score = scores.remove(object);
+            if (score != null && top.remove(new ScoredObject(object, score)) && scores.size() > top.size()) {
+                topComplete = false;
+            }
+        }
+
+        protected synchronized void rescale(double factor) {
+            scores.replaceAll((object, score) -> score * factor);
+            scores.values().removeIf(score -> score < MIN_SCORE);
+            rebuildTop();
+        }
+
+        protected void rebuildTop() {
+            top.clear();
+            for (Map.Entry<String, Double> entry : scores.entrySet()) {
+                ScoredObject scoredObject = new ScoredObject(entry.getKey(), entry.getValue());
+                if (top.size() < topSize) {
+                    top.add(scoredObject);
+                } else if (scoredObject.compareTo(top.last()) < 0) {
+                    top.add(scoredObject);
+                    top.pollLast();
+                }
+            }
+            topComplete = true;
+        }
+
+        protected synchronized List<ScoredObject> getTop(int limit) {
+            if (limit > topSize) {
+                // not tracked, sort all the scores
+                List<ScoredObject> all = new ArrayList<>(scores.size());
+                scores.forEach((object, score) -> all.add(new ScoredObject(object, score)));
+                Collections.sort(all);
+                return all.subList(0, Math.min(limit, all.size()));
+            }
+            if (!topComplete) {
+                rebuildTop();
+            }
+            List<ScoredObject> result = new ArrayList<>(Math.min(limit, top.size()));
+            for (ScoredObject scoredObject : top) {
+                if (result.size() == limit) {
+                    break;
+                }
+                result.add(scoredObject);
+            }
+            return result;
+        }
+
+        protected synchronized Map<String, Double> getScores() {
+            return new HashMap<>(scores);
+        }
+
+        protected synchronized boolean isEmpty() {
+            return scores.isEmpty();
+        }
+
+    }
+
+}
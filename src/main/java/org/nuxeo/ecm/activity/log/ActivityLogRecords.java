@@ -0,0 +1,207 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity.log;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import org.nuxeo.ecm.activity.Activity;
+import org.nuxeo.ecm.activity.ActivityImpl;
+
+/**
+ * Binary format of the records of an activity log segment.
+ * <p>
+ * A record is made of its length (4 bytes, not counting itself), its type, the activity id and, except for
+ * tombstones, the activity attributes. Numbers and string lengths are written as variable-length integers, strings in
+ * UTF-8, so that a typical activity takes about the size of its strings.
+ *
+ * @since 11.1
+ */
+public final class ActivityLogRecords {
+
+    /**
+     * First version of an activity.
+     */
+    public static final byte ACTIVITY = 1;
+
+    /**
+     * New version of an existing activity, superseding the previous ones.
+     */
+    public static final byte UPDATE = 2;
+
+    /**
+     * Removal of an activity, dated by its write time.
+     */
+    public static final byte TOMBSTONE = 3;
+
+    public static final int LENGTH_SIZE = 4;
+
+    private ActivityLogRecords() {
+        // utility class
+    }
+
+    public static byte[] encode(byte type, long id, Activity activity) {
+        Writer writer = new Writer(256);
+        writer.buffer.position(LENGTH_SIZE);
+        writer.buffer.put(type);
+        writer.writeVarLong(id);
+        writer.writeVarLong(activity.getPublishedDateMillis());
+        if (type != TOMBSTONE) {
+            writer.writeDate(activity.getLastUpdatedDate());
+            Integer replyCount = activity instanceof ActivityImpl ? ((ActivityImpl) activity).getReplyCount() : null;
+            writer.writeVarLong(replyCount != null ? replyCount + 1 : 0);
+            writer.writeVarLong(activity.getRollupCount() != null ? activity.getRollupCount() + 1 : 0);
+            writer.writeDate(activity.getRollupStartDate());
+            writer.writeString(activity.getActor());
+            writer.writeString(activity.getDisplayActor());
+            writer.writeString(activity.getVerb());
+            writer.writeString(activity.getObject());
+            writer.writeString(activity.getDisplayObject());
+            writer.writeString(activity.getTarget());
+            writer.writeString(activity.getDisplayTarget());
+            writer.writeString(activity.getContext());
+            writer.writeString(activity.getReplies());
+        }
+        int end = writer.buffer.position();
+        writer.buffer.putInt(0, end - LENGTH_SIZE);
+        byte[] bytes = new byte[end];
+        writer.buffer.flip();
+        writer.buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns the type of the record starting at the position of the given {@code buffer}, without moving it.
+     */
+    public static byte readType(ByteBuffer buffer) {
+        return buffer.get(buffer.position() + LENGTH_SIZE);
+    }
+
+    /**
+     * Returns the id of the record starting at the position of the given {@code buffer}, without moving it.
+     */
+    public static long readId(ByteBuffer buffer) {
+        ByteBuffer b = buffer.duplicate();
+        b.position(b.position() + LENGTH_SIZE + 1);
+        return readVarLong(b);
+    }
+
+    /**
+     * Decodes the activity record starting at the position of the given {@code buffer}, moving it to the next record.
+     */
+    public static ActivityImpl decode(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        int end = buffer.position() + length;
+        byte type = buffer.get();
+        ActivityImpl activity = new ActivityImpl();
+        activity.setId(readVarLong(buffer));
+        // tombstones written before they were dated end with their id
+        if (buffer.position() < end) {
+            activity.setPublishedDateMillis(readVarLong(buffer));
+        }
+        if (type != TOMBSTONE) {
+            activity.setLastUpdatedDate(readDate(buffer));
+            long replyCount = readVarLong(buffer);
+            activity.setReplyCount(replyCount > 0 ? (int) replyCount - 1 : null);
+            long rollupCount = readVarLong(buffer);
+            activity.setRollupCount(rollupCount > 0 ? (int) rollupCount - 1 : null);
+            activity.setRollupStartDate(readDate(buffer));
+            activity.setActor(readString(buffer));
+            activity.setDisplayActor(readString(buffer));
+            activity.setVerb(readString(buffer));
+            activity.setObject(readString(buffer));
+            activity.setDisplayObject(readString(buffer));
+            activity.setTarget(readString(buffer));
+            activity.setDisplayTarget(readString(buffer));
+            activity.setContext(readString(buffer));
+            activity.setReplies(readString(buffer));
+        }
+        buffer.position(end);
+        return activity;
+    }
+
+    public static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    protected static Date readDate(ByteBuffer buffer) {
+        long value = readVarLong(buffer);
+        return value > 0 ? new Date(value - 1) : null;
+    }
+
+    protected static String readString(ByteBuffer buffer) {
+        long length = readVarLong(buffer);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[(int) length - 1];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    protected static class Writer {
+
+        protected ByteBuffer buffer;
+
+        protected Writer(int capacity) {
+            buffer = ByteBuffer.allocate(capacity);
+        }
+
+        protected void ensureCapacity(int size) {
+            if (buffer.remaining() < size) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+
+        protected void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        protected void writeDate(Date date) {
+            writeVarLong(date != null ? date.getTime() + 1 : 0);
+        }
+
+        protected void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1L);
+            ensureCapacity(bytes.length);
+            buffer.put(bytes);
+        }
+
+    }
+
+}
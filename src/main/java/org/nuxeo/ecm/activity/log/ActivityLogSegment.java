@@ -0,0 +1,286 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.nuxeo.ecm.activity.ActivityImpl;
+
+/**
+ * Fixed-size, memory-mapped segment of an activity log.
+ * <p>
+ * Records are appended one after the other, the first zero length marking the end of the segment data. Once full, a
+ * segment is sealed: its sidecar index, holding for each record its type, id, publication date, offset, actor,
+ * context and object, is written next to it so that the indexes can be rebuilt at startup without reading the
+ * records.
+ *
+ * @since 11.1
+ */
+public class ActivityLogSegment {
+
+    public static final String SEGMENT_SUFFIX = ".log";
+
+    public static final String INDEX_SUFFIX = ".idx";
+
+    protected static final int INDEX_VERSION = 1;
+
+    /**
+     * Index entry of a record.
+     */
+    public static class Entry {
+
+        public final byte type;
+
+        public final long id;
+
+        public final long publishedDate;
+
+        public final int offset;
+
+        public final String actor;
+
+        public final String context;
+
+        public final String object;
+
+        public Entry(byte type, long id, long publishedDate, int offset, String actor, String context,
+                String object) {
+            this.type = type;
+            this.id = id;
+            this.publishedDate = publishedDate;
+            this.offset = offset;
+            this.actor = actor;
+            this.context = context;
+            this.object = object;
+        }
+
+    }
+
+    protected final long sequence;
+
+    protected final File file;
+
+    protected final File indexFile;
+
+    protected final MappedByteBuffer buffer;
+
+    protected final List<Entry> entries = new ArrayList<>();
+
+    protected int position;
+
+    protected long maxPublishedDate = Long.MIN_VALUE;
+
+    protected boolean sealed;
+
+    /**
+     * Opens, or creates, the segment with the given {@code sequence} number in the given {@code directory}.
+     */
+    public ActivityLogSegment(File directory, long sequence, int size) throws IOException {
+        this.sequence = sequence;
+        String name = String.format("%020d", sequence);
+        file = new File(directory, name + SEGMENT_SUFFIX);
+        indexFile = new File(directory, name + INDEX_SUFFIX);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+        }
+    }
+
+    public static long getSequence(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getMaxPublishedDate() {
+        return maxPublishedDate;
+    }
+
+    public boolean isSealed() {
+        return sealed;
+    }
+
+    /**
+     * Loads the entries of this segment, from its sidecar index if there is one, otherwise by reading its records.
+     *
+     * @param sealed whether no record will be appended to this segment anymore
+     * @param consumer called with each entry, in the log order
+     */
+    public void load(boolean sealed, Consumer<Entry> consumer) throws IOException {
+        if (sealed && indexFile.exists()) {
+            readIndex();
+            position = buffer.capacity();
+        } else {
+            scan();
+        }
+        for (Entry entry : entries) {
+            consumer.accept(entry);
+        }
+        if (sealed) {
+            seal();
+        }
+    }
+
+    protected void scan() {
+        ByteBuffer b = buffer.duplicate();
+        b.position(0);
+        while (b.remaining() > ActivityLogRecords.LENGTH_SIZE && b.getInt(b.position()) > 0) {
+            int offset = b.position();
+            byte type = ActivityLogRecords.readType(b);
+            ActivityImpl activity = ActivityLogRecords.decode(b);
+            addEntry(type, activity, offset);
+        }
+        position = b.position();
+    }
+
+    protected void addEntry(byte type, ActivityImpl activity, int offset) {
+        long publishedDate = activity.getPublishedDateMillis();
+        Entry entry = new Entry(type, (Long) activity.getId(), publishedDate, offset, activity.getActor(),
+                activity.getContext(), activity.getObject());
+        entries.add(entry);
+        maxPublishedDate = Math.max(maxPublishedDate, publishedDate);
+    }
+
+    /**
+     * Appends the given record.
+     *
+     * @return the entry of the record, {@code null} if the segment is full
+     */
+    public Entry append(byte[] record, byte type, ActivityImpl activity) {
+        if (sealed || position + record.length + ActivityLogRecords.LENGTH_SIZE > buffer.capacity()) {
+            return null;
+        }
+        int offset = position;
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset);
+        b.put(record);
+        position = b.position();
+        addEntry(type, activity, offset);
+        return entries.get(entries.size() - 1);
+    }
+
+    /**
+     * Reads the record at the given {@code offset}.
+     */
+    public ActivityImpl read(int offset) {
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset);
+        return ActivityLogRecords.decode(b);
+    }
+
+    /**
+     * Flushes the appended records to the disk.
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    /**
+     * Flushes this segment and writes its sidecar index. No record can be appended afterwards.
+     */
+    public void seal() throws IOException {
+        if (sealed) {
+            return;
+        }
+        sealed = true;
+        force();
+        if (!indexFile.exists()) {
+            writeIndex();
+        }
+    }
+
+    protected void writeIndex() throws IOException {
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tmp.toPath()));
+                DataOutputStream out = new DataOutputStream(os)) {
+            out.writeByte(INDEX_VERSION);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeByte(entry.type);
+                out.writeLong(entry.id);
+                out.writeLong(entry.publishedDate);
+                out.writeInt(entry.offset);
+                writeString(out, entry.actor);
+                writeString(out, entry.context);
+                writeString(out, entry.object);
+            }
+        }
+        Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    protected void readIndex() throws IOException {
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(indexFile.toPath()));
+                DataInputStream in = new DataInputStream(is)) {
+            int version = in.readByte();
+            if (version != INDEX_VERSION) {
+                throw new IOException(String.format("Unsupported activity log index version: %d", version));
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                Entry entry = new Entry(in.readByte(), in.readLong(), in.readLong(), in.readInt(), readString(in),
+                        readString(in), readString(in));
+                entries.add(entry);
+                maxPublishedDate = Math.max(maxPublishedDate, entry.publishedDate);
+            }
+        }
+    }
+
+    protected static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    protected static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Returns the entries of the records of this segment, in the log order.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Deletes the files of this segment. The segment must not be used afterwards.
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(indexFile.toPath());
+        Files.deleteIfExists(file.toPath());
+    }
+
+}
@@ -0,0 +1,386 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.common.Environment;
+import org.nuxeo.ecm.activity.AbstractIndexedActivityStore;
+import org.nuxeo.ecm.activity.Activity;
+import org.nuxeo.ecm.activity.ActivityImpl;
+import org.nuxeo.ecm.activity.ActivityStore;
+import org.nuxeo.ecm.activity.ActivityStreamService;
+import org.nuxeo.ecm.activity.ActivityWatermark;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Embedded {@link ActivityStore} appending the activities to a log of fixed-size, memory-mapped segment files.
+ * <p>
+ * Updates and removals append new versions and tombstones, the latest record of an activity superseding the previous
+ * ones. The indexes by id, publication date, actor, context and object are held in memory, and rebuilt at startup from
+ * the sidecar indexes of the sealed segments (see {@link ActivityLogSegment}). When a retention is configured, the
+ * oldest segments whose records are all older than the retention are deleted as a whole when a new segment is
+ * started.
+ * <p>
+ * The log is not transactional: writes are visible right away and are not rolled back with the transaction. The
+ * filters relying on JPA entities, such as the timeline ones, cannot be used with this store.
+ *
+ * @since 11.1
+ */
+public class LogActivityStore extends AbstractIndexedActivityStore {
+
+    private static final Log log = LogFactory.getLog(LogActivityStore.class);
+
+    /**
+     * Property holding the directory of the log, defaults to {@code activity/log} in the data directory.
+     */
+    public static final String DIRECTORY_PROPERTY = "nuxeo.activity.log.directory";
+
+    /**
+     * Property holding the size, in MB, of the segments.
+     */
+    public static final String SEGMENT_SIZE_PROPERTY = "nuxeo.activity.log.segmentSize";
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64;
+
+    /**
+     * Property holding the number of days after which a segment is deleted, 0 to keep all the segments.
+     */
+    public static final String RETENTION_DAYS_PROPERTY = "nuxeo.activity.log.retentionDays";
+
+    /**
+     * Property enabling the flush of the segment to the disk after each write.
+     */
+    public static final String SYNC_PROPERTY = "nuxeo.activity.log.sync";
+
+    /**
+     * Name of the file holding the greatest activity id written, which the remaining segments may no longer hold once
+     * the oldest ones are deleted.
+     */
+    public static final String LAST_ID_FILE = "lastId";
+
+    /**
+     * Location of the latest record of an activity.
+     */
+    protected static class Location {
+
+        protected final ActivityLogSegment segment;
+
+        protected final ActivityLogSegment.Entry entry;
+
+        protected final ActivityWatermark watermark;
+
+        protected Location(ActivityLogSegment segment, ActivityLogSegment.Entry entry) {
+            this.segment = segment;
+            this.entry = entry;
+            watermark = new ActivityWatermark(entry.publishedDate, entry.id);
+        }
+
+    }
+
+    protected final ConcurrentSkipListMap<Long, ActivityLogSegment> segments = new ConcurrentSkipListMap<>();
+
+    protected final ConcurrentSkipListMap<Long, Location> locations = new ConcurrentSkipListMap<>();
+
+    protected File directory;
+
+    protected int segmentSize;
+
+    protected int retentionDays;
+
+    protected boolean sync;
+
+    protected ActivityLogSegment current;
+
+    protected long lastId;
+
+    @Override
+    public void activate(ActivityStreamService activityStreamService) {
+        String dir = Framework.getProperty(DIRECTORY_PROPERTY);
+        File directory;
+        if (dir != null) {
+            directory = new File(dir);
+        } else {
+            directory = new File(new File(Environment.getDefault().getData(), "activity"), "log");
+        }
+        int segmentSize = Integer.parseInt(
+                Framework.getProperty(SEGMENT_SIZE_PROPERTY, String.valueOf(DEFAULT_SEGMENT_SIZE)));
+        open(directory, segmentSize * 1024 * 1024,
+                Integer.parseInt(Framework.getProperty(RETENTION_DAYS_PROPERTY, "0")),
+                Framework.isBooleanPropertyTrue(SYNC_PROPERTY));
+    }
+
+    /**
+     * Opens the log stored in the given {@code directory}, rebuilding its indexes.
+     *
+     * @param segmentSize the size of the segments, in bytes
+     * @param retentionDays the number of days after which a segment is deleted, 0 to keep all the segments
+     * @param sync whether the segment is flushed to the disk after each write
+     */
+    public void open(File directory, int segmentSize, int retentionDays, boolean sync) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.retentionDays = retentionDays;
+        this.sync = sync;
+        lock.writeLock().lock();
+        try {
+            directory.mkdirs();
+            File[] files = directory.listFiles((d, name) -> name.endsWith(ActivityLogSegment.SEGMENT_SUFFIX));
+            long[] sequences = Arrays.stream(files != null ? files : new File[0])
+                                     .mapToLong(ActivityLogSegment::getSequence)
+                                     .sorted()
+                                     .toArray();
+            for (int i = 0; i < sequences.length; i++) {
+                ActivityLogSegment segment = new ActivityLogSegment(directory, sequences[i], segmentSize);
+                segments.put(segment.getSequence(), segment);
+                segment.load(i < sequences.length - 1, entry -> apply(segment, entry));
+                current = segment;
+            }
+            if (current == null) {
+                current = newSegment(0);
+            }
+            lastId = Math.max(lastId, readLastId());
+            log.info(String.format("Opened activity log %s: %d segments, %d activities", directory, segments.size(),
+                    locations.size()));
+        } catch (IOException e) {
+            throw new NuxeoException(String.format("Cannot open activity log %s", directory), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deactivate() {
+        lock.writeLock().lock();
+        try {
+            if (current != null) {
+                current.force();
+            }
+            segments.clear();
+            locations.clear();
+            clearIndexes();
+            current = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    protected long readLastId() throws IOException {
+        File file = new File(directory, LAST_ID_FILE);
+        if (!file.exists()) {
+            return 0;
+        }
+        return Long.parseLong(new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII).trim());
+    }
+
+    /**
+     * Stores the greatest activity id written, replacing the previous file atomically. Must be called with the write
+     * lock, before deleting segments.
+     */
+    protected void saveLastId() throws IOException {
+        Path tmp = new File(directory, LAST_ID_FILE + ".tmp").toPath();
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(String.valueOf(lastId).getBytes(StandardCharsets.US_ASCII)));
+            channel.force(true);
+        }
+        Files.move(tmp, new File(directory, LAST_ID_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    protected ActivityLogSegment newSegment(long sequence) throws IOException {
+        ActivityLogSegment segment = new ActivityLogSegment(directory, sequence, segmentSize);
+        segments.put(sequence, segment);
+        return segment;
+    }
+
+    protected void apply(ActivityLogSegment segment, ActivityLogSegment.Entry entry) {
+        lastId = Math.max(lastId, entry.id);
+        Location previous = locations.remove(entry.id);
+        if (previous != null) {
+            unindex(previous);
+        }
+        if (entry.type != ActivityLogRecords.TOMBSTONE) {
+            Location location = new Location(segment, entry);
+            locations.put(entry.id, location);
+            index(location.watermark, entry.actor, entry.context, entry.object);
+        }
+    }
+
+    protected void unindex(Location location) {
+        unindex(location.watermark, location.entry.actor, location.entry.context, location.entry.object);
+    }
+
+    /**
+     * Appends a record, starting a new segment if the current one is full. Must be called with the write lock.
+     */
+    protected void write(byte type, long id, ActivityImpl activity) {
+        byte[] record = ActivityLogRecords.encode(type, id, activity);
+        if (record.length > segmentSize) {
+            throw new NuxeoException(String.format("Activity %d is too large for the activity log segments", id));
+        }
+        try {
+            ActivityLogSegment.Entry entry = current.append(record, type, activity);
+            if (entry == null) {
+                current.seal();
+                current = newSegment(current.getSequence() + 1);
+                entry = current.append(record, type, activity);
+                if (retentionDays > 0) {
+                    deleteSegmentsBefore(new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays)));
+                }
+            }
+            if (sync) {
+                current.force();
+            }
+            apply(current, entry);
+        } catch (IOException e) {
+            throw new NuxeoException("Cannot write to the activity log", e);
+        }
+    }
+
+    protected static ActivityImpl toActivityImpl(Activity activity) {
+        return activity instanceof ActivityImpl ? (ActivityImpl) activity : copy(activity);
+    }
+
+    @Override
+    public Activity append(Activity activity) {
+        ActivityImpl activityImpl = toActivityImpl(activity);
+        if (activityImpl.getPublishedDate() == null) {
+            activityImpl.setPublishedDate(new Date());
+        }
+        lock.writeLock().lock();
+        try {
+            long id = lastId + 1;
+            activityImpl.setId(id);
+            write(ActivityLogRecords.ACTIVITY, id, activityImpl);
+            return activityImpl;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void update(Activity activity) {
+        Long id = toId(activity.getId());
+        lock.writeLock().lock();
+        try {
+            if (id == null || !locations.containsKey(id)) {
+                throw new NuxeoException(String.format("Unknown activity: %s", activity.getId()));
+            }
+            write(ActivityLogRecords.UPDATE, id, toActivityImpl(activity));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(Collection<Serializable> activityIds) {
+        lock.writeLock().lock();
+        try {
+            for (Serializable activityId : activityIds) {
+                Long id = toId(activityId);
+                if (id != null && locations.containsKey(id)) {
+                    ActivityImpl tombstone = new ActivityImpl();
+                    tombstone.setId(id);
+                    // dated by write time, so that the segment holding it does not look older than it is
+                    tombstone.setPublishedDate(new Date());
+                    write(ActivityLogRecords.TOMBSTONE, id, tombstone);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected Activity load(Long id) {
+        Location location = locations.get(id);
+        return location != null ? location.segment.read(location.entry.offset) : null;
+    }
+
+    @Override
+    protected NavigableSet<Long> getIds() {
+        return locations.navigableKeySet();
+    }
+
+    /**
+     * Deletes, oldest first, the sealed segments whose records are all dated before the given {@code date}, stopping
+     * at the first segment that cannot be deleted. The activities updated since, whose latest record is in a more
+     * recent segment, are kept.
+     * <p>
+     * As the updates and tombstones of a segment only supersede records of the previous segments, deleting in
+     * sequence order never drops a tombstone while keeping the activity it removed. The greatest activity id written
+     * is stored first, so that the ids of the deleted activities are not reused after a restart.
+     *
+     * @return the number of deleted segments
+     */
+    public int deleteSegmentsBefore(Date date) {
+        lock.writeLock().lock();
+        try {
+            int deleted = 0;
+            for (ActivityLogSegment segment : new ArrayList<>(segments.values())) {
+                if (segment == current || !segment.isSealed() || segment.getMaxPublishedDate() >= date.getTime()) {
+                    break;
+                }
+                if (deleted == 0) {
+                    saveLastId();
+                }
+                for (ActivityLogSegment.Entry entry : segment.getEntries()) {
+                    Location location = locations.get(entry.id);
+                    if (location != null && location.segment == segment) {
+                        locations.remove(entry.id);
+                        unindex(location);
+                    }
+                }
+                segments.remove(segment.getSequence());
+                segment.delete();
+                deleted++;
+            }
+            if (deleted > 0) {
+                log.info(String.format("Deleted %d activity log segments older than %s", deleted, date));
+            }
+            return deleted;
+        } catch (IOException e) {
+            throw new NuxeoException("Cannot delete activity log segments", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int getSegmentsCount() {
+        return segments.size();
+    }
+
+}
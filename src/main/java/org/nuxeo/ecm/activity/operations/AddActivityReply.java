@@ -24,12 +24,12 @@ import static org.nuxeo.ecm.activity.ActivityMessageHelper.replaceURLsByLinks;
 
 import java.io.IOException;
 import java.io.StringWriter;
-import java.text.DateFormat;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 
+import org.nuxeo.ecm.activity.ActivityDateFormatter;
 import org.nuxeo.ecm.activity.ActivityHelper;
 import org.nuxeo.ecm.activity.ActivityLinkBuilder;
 import org.nuxeo.ecm.activity.ActivityReply;
@@ -83,7 +83,6 @@ public class AddActivityReply {
         reply = activityStreamService.addActivityReply(Long.valueOf(activityId), reply);
 
         Locale locale = language != null && !language.isEmpty() ? new Locale(language) : Locale.ENGLISH;
-        DateFormat dateFormat = DateFormat.getDateInstance(DateFormat.MEDIUM, locale);
         ActivityLinkBuilder activityLinkBuilder = Framework.getService(ActivityStreamService.class).getActivityLinkBuilder(
                 activityLinkBuilderName);
 
@@ -94,7 +93,7 @@ public class AddActivityReply {
         m.put("displayActorLink", getDisplayActorLink(reply.getActor(), reply.getDisplayActor(), activityLinkBuilder));
         m.put("actorAvatarURL", activityLinkBuilder.getUserAvatarURL(session, getUsername(reply.getActor())));
         m.put("message", replaceURLsByLinks(reply.getMessage()));
-        m.put("publishedDate", dateFormat.format(new Date(reply.getPublishedDate())));
+        m.put("publishedDate", ActivityDateFormatter.formatDate(reply.getPublishedDate(), locale));
         String username = ActivityHelper.getUsername(reply.getActor());
         m.put("allowDeletion", session.getPrincipal().getName().equals(username));
 
@@ -0,0 +1,407 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity.web;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.activity.ActivitiesList;
+import org.nuxeo.ecm.activity.ActivitiesListImpl;
+import org.nuxeo.ecm.activity.Activity;
+import org.nuxeo.ecm.activity.ActivityCriteria;
+import org.nuxeo.ecm.activity.ActivityHelper;
+import org.nuxeo.ecm.activity.ActivityInterest;
+import org.nuxeo.ecm.activity.ActivityStream;
+import org.nuxeo.ecm.activity.ActivityStreamService;
+import org.nuxeo.ecm.activity.ActivitySubscription;
+import org.nuxeo.ecm.activity.ActivityWatermark;
+import org.nuxeo.ecm.core.api.CoreInstance;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentRef;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.api.repository.RepositoryManager;
+import org.nuxeo.ecm.core.api.security.SecurityConstants;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Server-sent events endpoint pushing the new activities of a context, an actor or a stream.
+ * <p>
+ * The interest is given by one of the {@code context}, {@code actor} or {@code stream} parameters. Connections are
+ * held by the container in asynchronous mode, without any thread per subscriber: the events are queued by the
+ * {@code ActivityStreamService} dispatcher thread and written with non-blocking I/O, and a single heartbeat thread
+ * detects the closed connections. A client not reading its events fast enough is disconnected once
+ * {@link #MAX_PENDING_EVENTS} events are queued, so that it never slows down the dispatch to the other subscribers.
+ * <p>
+ * Only the activity ids are pushed, the clients read the activities through the usual APIs. A user may only subscribe
+ * to the context of a document it can read and to its own activities, administrators to any interest. The dispatched
+ * and replayed activities are filtered, like {@link ActivitiesList#filterActivities(CoreSession)} does, so that a
+ * subscriber only receives the activities of the documents it can read. The id of each event is the watermark of the activity, so that a reconnecting client sending the
+ * {@code Last-Event-ID} header first receives the activities it missed.
+ *
+ * @since 11.1
+ */
+public class ActivityEventsServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Log log = LogFactory.getLog(ActivityEventsServlet.class);
+
+    public static final long HEARTBEAT_PERIOD = TimeUnit.SECONDS.toMillis(30);
+
+    public static final int MAX_REPLAYED_ACTIVITIES = 100;
+
+    /**
+     * Maximum number of events queued for a client before disconnecting it.
+     */
+    public static final int MAX_PENDING_EVENTS = 1000;
+
+    protected final Set<EventStream> eventStreams = ConcurrentHashMap.newKeySet();
+
+    protected ScheduledExecutorService heartbeat;
+
+    @Override
+    public void init() throws ServletException {
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Nuxeo-Activity-Events-Heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleAtFixedRate(this::sendHeartbeats, HEARTBEAT_PERIOD, HEARTBEAT_PERIOD,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        heartbeat.shutdownNow();
+        for (EventStream eventStream : eventStreams) {
+            eventStream.close();
+        }
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        ActivityInterest interest = getInterest(req);
+        if (interest == null) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "One of context, actor or stream is required");
+            return;
+        }
+        NuxeoPrincipal principal = (NuxeoPrincipal) req.getUserPrincipal();
+        if (principal == null) {
+            resp.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+        if (!canSubscribe(principal, interest)) {
+            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        ActivityStreamService activityStreamService = Framework.getService(ActivityStreamService.class);
+
+        // subscribe first, the events dispatched before the connection is started are queued
+        EventStream eventStream = new EventStream(principal);
+        try {
+            eventStream.subscription = activityStreamService.subscribe(interest, eventStream::send);
+        } catch (NuxeoException e) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, e.getMessage());
+            return;
+        }
+
+        try {
+            resp.setContentType("text/event-stream");
+            resp.setCharacterEncoding("UTF-8");
+            resp.setHeader("Cache-Control", "no-cache");
+            AsyncContext asyncContext = req.startAsync();
+            asyncContext.setTimeout(0);
+            eventStreams.add(eventStream);
+            eventStream.start(asyncContext, resp.getOutputStream());
+
+            ActivityWatermark lastEventId = ActivityWatermark.fromETag(req.getHeader("Last-Event-ID"));
+            if (lastEventId != null) {
+                ActivityCriteria criteria = toCriteria(activityStreamService, interest);
+                ActivitiesList activities = activityStreamService.querySince(criteria, lastEventId,
+                        MAX_REPLAYED_ACTIVITIES);
+                for (Activity activity : filterActivities(principal, activities)) {
+                    eventStream.sendEvent(activity);
+                }
+            }
+            eventStream.write(": connected\n\n");
+        } catch (IOException | RuntimeException e) {
+            eventStream.close();
+            throw e;
+        }
+    }
+
+    protected ActivityInterest getInterest(HttpServletRequest req) {
+        String context = req.getParameter("context");
+        if (StringUtils.isNotBlank(context)) {
+            return ActivityInterest.context(context);
+        }
+        String actor = req.getParameter("actor");
+        if (StringUtils.isNotBlank(actor)) {
+            return ActivityInterest.actor(actor);
+        }
+        String stream = req.getParameter("stream");
+        if (StringUtils.isNotBlank(stream)) {
+            return ActivityInterest.stream(stream);
+        }
+        return null;
+    }
+
+    /**
+     * Returns {@code true} if the given {@code principal} may subscribe to the given {@code interest}: the context must
+     * be a document it can read, and only the administrators may follow other actors than themselves.
+     */
+    protected boolean canSubscribe(NuxeoPrincipal principal, ActivityInterest interest) {
+        if (principal.isAdministrator()) {
+            return true;
+        }
+        switch (interest.getKind()) {
+        case CONTEXT:
+            String context = interest.getValue();
+            if (!ActivityHelper.isDocument(context)) {
+                return false;
+            }
+            try {
+                return TransactionHelper.runInTransaction(() -> {
+                    CoreSession session = CoreInstance.getCoreSession(ActivityHelper.getRepositoryName(context),
+                            principal);
+                    DocumentRef docRef = new IdRef(ActivityHelper.getDocumentId(context));
+                    return session.exists(docRef) && session.hasPermission(docRef, SecurityConstants.READ);
+                });
+            } catch (NuxeoException e) {
+                log.debug(String.format("Cannot check the permissions of %s on %s", principal.getName(), context), e);
+                return false;
+            }
+        case ACTOR:
+            return interest.getValue().equals(ActivityHelper.createUserActivityObject(principal));
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Returns the given {@code activities} without the ones related to documents the {@code principal} cannot read.
+     */
+    protected ActivitiesList filterActivities(NuxeoPrincipal principal, ActivitiesList activities) {
+        if (principal.isAdministrator() || activities.isEmpty()) {
+            return activities;
+        }
+        String repositoryName = Framework.getService(RepositoryManager.class).getDefaultRepositoryName();
+        return TransactionHelper.runInTransaction(
+                () -> activities.filterActivities(CoreInstance.getCoreSession(repositoryName, principal)));
+    }
+
+    protected ActivityCriteria toCriteria(ActivityStreamService activityStreamService, ActivityInterest interest) {
+        switch (interest.getKind()) {
+        case CONTEXT:
+            return new ActivityCriteria().contexts(interest.getValue());
+        case ACTOR:
+            return new ActivityCriteria().actors(interest.getValue());
+        default:
+            ActivityStream activityStream = activityStreamService.getActivityStream(interest.getValue());
+            return new ActivityCriteria().verbs(activityStream.getVerbs());
+        }
+    }
+
+    protected void sendHeartbeats() {
+        for (EventStream eventStream : eventStreams) {
+            eventStream.write(": heartbeat\n\n");
+        }
+    }
+
+    /**
+     * Connection of a subscriber.
+     * <p>
+     * The events are queued, then written while the output stream accepts data without blocking. When it does not,
+     * the container calls {@link #onWritePossible()} once the client has read the previous ones.
+     */
+    protected class EventStream implements AsyncListener, WriteListener {
+
+        protected final Deque<String> pendingEvents = new ArrayDeque<>();
+
+        protected final NuxeoPrincipal principal;
+
+        protected AsyncContext asyncContext;
+
+        protected ServletOutputStream output;
+
+        protected boolean flushNeeded;
+
+        protected volatile ActivitySubscription subscription;
+
+        protected volatile boolean closed;
+
+        protected EventStream(NuxeoPrincipal principal) {
+            this.principal = principal;
+        }
+
+        protected synchronized void start(AsyncContext asyncContext, ServletOutputStream output) {
+            this.asyncContext = asyncContext;
+            if (closed) {
+                // disconnected while starting
+                asyncContext.complete();
+                return;
+            }
+            this.output = output;
+            asyncContext.addListener(this);
+            // the container calls onWritePossible once ready
+            output.setWriteListener(this);
+        }
+
+        /**
+         * Sends the given dispatched {@code activity} if the subscriber can read it.
+         */
+        protected void send(Activity activity) {
+            if (closed) {
+                return;
+            }
+            ActivitiesList activities = new ActivitiesListImpl(Collections.singletonList(activity));
+            if (!filterActivities(principal, activities).isEmpty()) {
+                sendEvent(activity);
+            }
+        }
+
+        protected void sendEvent(Activity activity) {
+            String eventId = ActivityWatermark.of(activity).toETag();
+            write("id: " + eventId + "\nevent: activity\ndata: {\"id\":\"" + activity.getId() + "\"}\n\n");
+        }
+
+        /**
+         * Queues the given event and writes the queued ones without blocking.
+         */
+        protected void write(String event) {
+            boolean overflow;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                overflow = pendingEvents.size() >= MAX_PENDING_EVENTS;
+                if (!overflow) {
+                    pendingEvents.add(event);
+                }
+            }
+            if (overflow) {
+                log.debug("Activity events client too slow, disconnecting it");
+                close();
+                return;
+            }
+            writePendingEvents();
+        }
+
+        protected void writePendingEvents() {
+            try {
+                synchronized (this) {
+                    if (output == null) {
+                        // not started yet
+                        return;
+                    }
+                    while (!closed && output.isReady()) {
+                        String event = pendingEvents.poll();
+                        if (event != null) {
+                            output.write(event.getBytes(StandardCharsets.UTF_8));
+                            flushNeeded = true;
+                        } else if (flushNeeded) {
+                            output.flush();
+                            flushNeeded = false;
+                        } else {
+                            return;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                log.debug("Activity events connection closed by the client", e);
+                close();
+            }
+        }
+
+        protected void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                pendingEvents.clear();
+            }
+            eventStreams.remove(this);
+            if (subscription != null) {
+                subscription.close();
+            }
+            if (asyncContext != null) {
+                try {
+                    asyncContext.complete();
+                } catch (IllegalStateException e) {
+                    // already completed
+                }
+            }
+        }
+
+        @Override
+        public void onWritePossible() {
+            writePendingEvents();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            log.debug("Activity events connection error", t);
+            close();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // nothing to do
+        }
+
+    }
+
+}
@@ -32,7 +32,7 @@ public class DummyActivityUpgrader extends AbstractActivityUpgrader {
 
     @Override
     public void doUpgrade(ActivityStreamService activityStreamService) {
-        EntityManager em = ((ActivityStreamServiceImpl) activityStreamService).getEntityManager();
+        EntityManager em = JpaActivityStore.getEntityManager(activityStreamService);
         Query query = em.createQuery("select activity from Activity activity");
         ActivitiesList activities = new ActivitiesListImpl(query.getResultList());
 
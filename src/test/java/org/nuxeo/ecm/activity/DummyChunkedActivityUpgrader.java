@@ -0,0 +1,30 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+/**
+ * @since 11.1
+ */
+public class DummyChunkedActivityUpgrader extends AbstractChunkedActivityUpgrader {
+
+    public static final String UPGRADED_DISPLAY_ACTOR = "Upgraded Actor";
+
+    @Override
+    public void upgradeActivity(ActivityStreamService activityStreamService, Activity activity) {
+        activity.setDisplayActor(UPGRADED_DISPLAY_ACTOR);
+    }
+
+}
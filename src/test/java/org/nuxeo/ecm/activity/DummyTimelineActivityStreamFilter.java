@@ -0,0 +1,67 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Timeline filter appending the activities of "celebrity" to the timeline of its 5 followers, and the other
+ * activities to the timelines of "user1" and "user2".
+ *
+ * @since 11.1
+ */
+public class DummyTimelineActivityStreamFilter extends AbstractTimelineActivityStreamFilter {
+
+    public static final String ID = "DummyTimelineActivityStreamFilter";
+
+    public static final String CELEBRITY = "celebrity";
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public boolean isInterestedIn(Activity activity) {
+        return true;
+    }
+
+    @Override
+    protected Collection<String> getTimelineOwners(ActivityStreamService activityStreamService, Activity activity) {
+        if (CELEBRITY.equals(activity.getActor())) {
+            return Arrays.asList("user0", "user1", "user2", "user3", "user4");
+        }
+        return Arrays.asList("user1", "user2");
+    }
+
+    @Override
+    protected String getTimelineSource(Activity activity) {
+        return activity.getActor();
+    }
+
+    @Override
+    protected Collection<String> getFollowedSources(ActivityStreamService activityStreamService, String owner) {
+        return Collections.singletonList(CELEBRITY);
+    }
+
+    @Override
+    protected int getMaxFanOut() {
+        return 3;
+    }
+
+}
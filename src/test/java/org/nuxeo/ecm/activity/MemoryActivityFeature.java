@@ -0,0 +1,52 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import org.junit.runners.model.FrameworkMethod;
+import org.nuxeo.ecm.core.test.CoreFeature;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.RunnerFeature;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Deploys the {@code ActivityStreamService} configured with {@code nuxeo.activity.store=memory}, without the
+ * {@code nxactivities} datasource nor the test filters storing their entities through JPA.
+ *
+ * @since 11.1
+ */
+@Features(CoreFeature.class)
+@Deploy("org.nuxeo.ecm.core.persistence")
+@Deploy("org.nuxeo.ecm.activity")
+public class MemoryActivityFeature implements RunnerFeature {
+
+    @Override
+    public void initialize(FeaturesRunner runner) throws Exception {
+        // the store is chosen when the service is activated
+        System.setProperty(ActivityStreamServiceImpl.STORE_PROPERTY, "memory");
+    }
+
+    @Override
+    public void stop(FeaturesRunner runner) throws Exception {
+        System.clearProperty(ActivityStreamServiceImpl.STORE_PROPERTY);
+    }
+
+    @Override
+    public void afterMethodRun(FeaturesRunner runner, FrameworkMethod method, Object test) {
+        TransactionHelper.setTransactionRollbackOnly();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * @since 11.1
+ */
+public class TestActivityCodec {
+
+    protected ActivityImpl newActivity(long id, long publishedDate) {
+        ActivityImpl activity = new ActivityImpl();
+        activity.setId(id);
+        activity.setActor("user:Administrator");
+        activity.setDisplayActor("Administrator");
+        activity.setVerb("documentModified");
+        activity.setObject("doc:default:" + id);
+        activity.setDisplayObject("R\u00e9sum\u00e9 " + id);
+        activity.setTarget("doc:default:workspace");
+        activity.setContext("doc:default:workspace");
+        activity.setPublishedDate(new Date(publishedDate));
+        activity.setLastUpdatedDate(new Date(publishedDate + 1000));
+        return activity;
+    }
+
+    protected void assertSameActivity(Activity expected, Activity actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getActor(), actual.getActor());
+        assertEquals(expected.getDisplayActor(), actual.getDisplayActor());
+        assertEquals(expected.getVerb(), actual.getVerb());
+        assertEquals(expected.getObject(), actual.getObject());
+        assertEquals(expected.getDisplayObject(), actual.getDisplayObject());
+        assertEquals(expected.getTarget(), actual.getTarget());
+        assertEquals(expected.getDisplayTarget(), actual.getDisplayTarget());
+        assertEquals(expected.getContext(), actual.getContext());
+        assertEquals(expected.getPublishedDate(), actual.getPublishedDate());
+        assertEquals(expected.getLastUpdatedDate(), actual.getLastUpdatedDate());
+        assertEquals(expected.getRollupCount(), actual.getRollupCount());
+        assertEquals(expected.getRollupStartDate(), actual.getRollupStartDate());
+        assertEquals(expected.getReplies(), actual.getReplies());
+    }
+
+    @Test
+    public void shouldEncodeActivities() {
+        long now = System.currentTimeMillis();
+        List<Activity> activities = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            activities.add(newActivity(1000 - i, now - i * 60_000L));
+        }
+        ActivityImpl rolledUp = newActivity(2000, now);
+        rolledUp.setRollupCount(3);
+        rolledUp.setRollupStartDate(new Date(now - 3_600_000L));
+        rolledUp.setReplies("[{\"id\":\"2000-reply-1\"}]");
+        rolledUp.setActor("system");
+        rolledUp.setTarget(null);
+        activities.add(rolledUp);
+        ActivityImpl empty = new ActivityImpl();
+        activities.add(empty);
+
+        byte[] bytes = ActivityCodec.encodeActivities(activities);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        ActivitiesList decoded = ActivityCodec.decodeActivities(buffer);
+        assertEquals(bytes.length, buffer.position());
+        assertEquals(activities.size(), decoded.size());
+        for (int i = 0; i < activities.size(); i++) {
+            assertSameActivity(activities.get(i), decoded.get(i));
+        }
+        // well under the size of the strings written in full for each activity
+        assertTrue(bytes.length < 40 * activities.size());
+    }
+
+    @Test
+    public void shouldDecodeFromDirectBuffers() {
+        Activity activity = newActivity(42, System.currentTimeMillis());
+        byte[] bytes = ActivityCodec.encodeActivities(Collections.singletonList(activity));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 4);
+        buffer.putInt(7).put(bytes).flip();
+        buffer.getInt();
+        assertSameActivity(activity, ActivityCodec.decodeActivities(buffer).get(0));
+    }
+
+    @Test
+    public void shouldEncodeRepliesAndMessages() {
+        long now = System.currentTimeMillis();
+        ActivityReply reply = new ActivityReply("user:bob", "Bob", "Looks <b>good</b>", now);
+        reply.setId("42-reply-1");
+        List<ActivityReply> replies = ActivityCodec.decodeActivityReplies(
+                ByteBuffer.wrap(ActivityCodec.encodeActivityReplies(Collections.singletonList(reply))));
+        assertEquals(1, replies.size());
+        assertEquals("42-reply-1", replies.get(0).getId());
+        assertEquals("user:bob", replies.get(0).getActor());
+        assertEquals("Looks <b>good</b>", replies.get(0).getMessage());
+        assertEquals(now, replies.get(0).getPublishedDate());
+
+        ActivityReplyMessage replyMessage = new ActivityReplyMessage("42-reply-1", "user:bob", "Bob", "<a>Bob</a>",
+                "Looks good", now);
+        ActivityMessage message = new ActivityMessage(42L, "user:Administrator", "Administrator",
+                "<a>Administrator</a>", "documentModified", "Administrator modified Report", new Date(now),
+                "/icons/modified.png", Arrays.asList(replyMessage));
+        ActivityMessage noReplies = new ActivityMessage("external", null, null, null, "circle", null, null, null,
+                null);
+        List<ActivityMessage> messages = ActivityCodec.decodeActivityMessages(
+                ByteBuffer.wrap(ActivityCodec.encodeActivityMessages(Arrays.asList(message, noReplies))));
+        assertEquals(2, messages.size());
+        assertEquals(42L, messages.get(0).getActivityId());
+        assertEquals("Administrator modified Report", messages.get(0).getMessage());
+        assertEquals(new Date(now), messages.get(0).getPublishedDate());
+        assertEquals("/icons/modified.png", messages.get(0).getIcon());
+        assertEquals(1, messages.get(0).getActivityReplyMessages().size());
+        assertEquals("<a>Bob</a>", messages.get(0).getActivityReplyMessages().get(0).getDisplayActorLink());
+        assertEquals("external", messages.get(1).getActivityId());
+        assertNull(messages.get(1).getPublishedDate());
+        assertNull(messages.get(1).getActivityReplyMessages());
+    }
+
+    @Test
+    public void shouldReplaceJavaSerialization() throws Exception {
+        long now = System.currentTimeMillis();
+        ActivitiesList activities = new ActivitiesListImpl(
+                Arrays.asList(newActivity(1, now), newActivity(2, now + 1)));
+        ActivitiesList deserializedActivities = (ActivitiesList) roundTrip(activities);
+        assertEquals(2, deserializedActivities.size());
+        assertSameActivity(activities.get(1), deserializedActivities.get(1));
+
+        ActivityMessage message = new ActivityMessage(1L, "user:Administrator", "Administrator", null,
+                "documentCreated", "created", new Date(now), null, new ArrayList<>());
+        ActivityMessage deserializedMessage = (ActivityMessage) roundTrip(message);
+        assertEquals("created", deserializedMessage.getMessage());
+        assertEquals(new Date(now), deserializedMessage.getPublishedDate());
+    }
+
+    protected Object roundTrip(Object object) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(baos)) {
+            out.writeObject(object);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            return in.readObject();
+        }
+    }
+
+    @Test(expected = NuxeoException.class)
+    public void shouldRejectUnknownVersions() {
+        byte[] bytes = ActivityCodec.encodeActivities(Collections.emptyList());
+        bytes[1] = 99;
+        ActivityCodec.decodeActivities(ByteBuffer.wrap(bytes));
+    }
+
+}
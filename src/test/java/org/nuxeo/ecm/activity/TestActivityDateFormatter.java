@@ -0,0 +1,57 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.text.DateFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.Locale;
+
+import org.junit.Test;
+
+/**
+ * @since 11.1
+ */
+public class TestActivityDateFormatter {
+
+    @Test
+    public void shouldFormatLikeMediumDateFormat() {
+        long date = System.currentTimeMillis();
+        for (Locale locale : new Locale[] { Locale.ENGLISH, Locale.FRENCH, Locale.GERMAN, Locale.JAPANESE }) {
+            assertEquals(DateFormat.getDateInstance(DateFormat.MEDIUM, locale).format(new Date(date)),
+                    ActivityDateFormatter.formatDate(date, locale));
+        }
+        assertSame(ActivityDateFormatter.of(Locale.FRENCH), ActivityDateFormatter.of(Locale.FRENCH));
+    }
+
+    @Test
+    public void shouldFormatEachDay() {
+        ZoneId zone = ZoneId.systemDefault();
+        long startOfDay = LocalDate.of(2019, 6, 12).atStartOfDay(zone).toInstant().toEpochMilli();
+        long startOfNextDay = LocalDate.of(2019, 6, 13).atStartOfDay(zone).toInstant().toEpochMilli();
+        ActivityDateFormatter formatter = ActivityDateFormatter.of(Locale.ENGLISH);
+        assertEquals("Jun 12, 2019", formatter.format(startOfDay + 1000));
+        assertEquals("Jun 12, 2019", formatter.format(startOfDay));
+        assertEquals("Jun 12, 2019", formatter.format(startOfNextDay - 1));
+        assertEquals("Jun 13, 2019", formatter.format(startOfNextDay));
+        assertEquals("Jun 12, 2019", formatter.format(startOfDay + 1000));
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @since 11.1
+ */
+public class TestActivityImpl {
+
+    @Test
+    public void shouldHoldDatesAsMillis() {
+        ActivityImpl activity = new ActivityImpl();
+        assertNull(activity.getPublishedDate());
+        assertEquals(0, activity.getPublishedDateMillis());
+
+        Date date = new Date(1000);
+        activity.setPublishedDate(date);
+        date.setTime(2000);
+        assertEquals(1000, activity.getPublishedDateMillis());
+        activity.getPublishedDate().setTime(3000);
+        assertEquals(new Date(1000), activity.getPublishedDate());
+
+        activity.setLastUpdatedDateMillis(4000);
+        assertEquals(new Date(4000), activity.getLastUpdatedDate());
+        assertTrue(new ActivityCriteria().publishedAfter(1000).publishedBefore(1001).matches(activity));
+        assertFalse(new ActivityCriteria().publishedAfter(1001).matches(activity));
+    }
+
+    @Test
+    public void shouldMapFields() {
+        Activity activity = new ActivityBuilder().actor("user:Administrator")
+                                                 .verb("documentCreated")
+                                                 .object("doc:default:1234")
+                                                 .publishedDate(new Date(1000))
+                                                 .build();
+        Map<String, String> fields = activity.toMap();
+        assertEquals(13, fields.size());
+        assertTrue(fields.containsKey("target"));
+        assertNull(fields.get("target"));
+        assertFalse(fields.containsKey("unknown"));
+        assertEquals("doc:default:1234", fields.get("object"));
+        assertEquals(new Date(1000).toString(), fields.get("publishedDate"));
+        assertEquals("1", fields.get("rollupCount"));
+    }
+
+    @Test
+    public void shouldSnapshotFields() throws Exception {
+        ActivityImpl activity = new ActivityImpl();
+        activity.setObject("doc:default:1234");
+        activity.setPublishedDate(new Date(1000));
+        Map<String, String> fields = activity.toMap();
+        activity.setObject("doc:default:5678");
+        activity.setPublishedDate(new Date(2000));
+        assertEquals("doc:default:1234", fields.get("object"));
+        assertEquals(new Date(1000).toString(), fields.get("publishedDate"));
+
+        assertTrue(fields instanceof Serializable);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(baos)) {
+            out.writeObject(fields);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            assertEquals(fields, in.readObject());
+        }
+    }
+
+    @Test
+    public void shouldFormatMessagesLazily() {
+        AtomicInteger calls = new AtomicInteger();
+        ActivityMessage message = new ActivityMessage(1L, "user:Administrator", "Administrator", null,
+                "documentCreated", () -> "message " + calls.incrementAndGet(), 1000L, null, null);
+        assertEquals(0, calls.get());
+        assertEquals("message 1", message.getMessage());
+        assertEquals("message 1", message.getMessage());
+        assertEquals(1000, message.getPublishedDateMillis());
+    }
+
+    @Test
+    public void shouldSummarizeActivities() {
+        ActivityImpl activity = new ActivityImpl();
+        activity.setPublishedDate(new Date(1000));
+        activity.setReplies("[{\"id\":\"1-reply-1\",\"actor\":\"user:bender\",\"message\":\"First reply\"}]");
+        activity.setReplyCount(null);
+
+        ActivitySummary summary = ActivitySummary.from(activity);
+        assertEquals(1, summary.getReplyCount());
+        assertTrue(summary.hasReplies());
+        summary.getPublishedDate().setTime(2000);
+        assertEquals(new Date(1000), summary.getPublishedDate());
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @since 11.1
+ */
+public class TestActivityInvalidationBus {
+
+    protected Activity newActivity(long id, String context) {
+        ActivityImpl activity = new ActivityImpl();
+        activity.setId(id);
+        activity.setContext(context);
+        return activity;
+    }
+
+    @Test
+    public void shouldSerializeInvalidations() {
+        ActivityInvalidations invalidations = new ActivityInvalidations("node1");
+        invalidations.activityAdded(newActivity(1, "workspace"));
+        invalidations.activityUpdated(newActivity(2, "section"));
+        invalidations.activityIdsRemoved(Arrays.asList(3L, "4"));
+
+        ActivityInvalidations read = ActivityInvalidations.fromBytes(invalidations.toBytes());
+        assertEquals("node1", read.getNodeId());
+        assertEquals(invalidations.getAddedActivityIds(), read.getAddedActivityIds());
+        assertEquals(invalidations.getUpdatedActivityIds(), read.getUpdatedActivityIds());
+        assertEquals(invalidations.getRemovedActivityIds(), read.getRemovedActivityIds());
+        assertEquals(invalidations.getContexts(), read.getContexts());
+        // the changed activities travel with the ids
+        assertEquals("workspace", read.getActivity(1L).getContext());
+        assertEquals("section", read.getActivity(2L).getContext());
+    }
+
+    @Test
+    public void shouldNotSendRemovedActivities() {
+        ActivityInvalidations invalidations = new ActivityInvalidations("node1");
+        invalidations.activityAdded(newActivity(1, "workspace"));
+        List<Activity> removedActivities = new ArrayList<>(Collections.singletonList(newActivity(1, "workspace")));
+        invalidations.activitiesRemoved(removedActivities);
+        assertEquals(1, removedActivities.size());
+        assertNull(invalidations.getActivity(1L));
+
+        ActivityInvalidations read = ActivityInvalidations.fromBytes(invalidations.toBytes());
+        assertEquals(invalidations.getAddedActivityIds(), read.getAddedActivityIds());
+        assertEquals(invalidations.getRemovedActivityIds(), read.getRemovedActivityIds());
+        assertNull(read.getActivity(1L));
+    }
+
+    @Test
+    public void shouldCoalesceInvalidationsSentToOtherNodes() throws Exception {
+        BlockingQueue<ActivityInvalidations> node1Received = new LinkedBlockingQueue<>();
+        BlockingQueue<ActivityInvalidations> node2Received = new LinkedBlockingQueue<>();
+        ActivityInvalidationBus node1 = new ActivityInvalidationBus("node1", new LocalActivityInvalidationTransport(),
+                100);
+        ActivityInvalidationBus node2 = new ActivityInvalidationBus("node2", new LocalActivityInvalidationTransport(),
+                100);
+        try {
+            node1.addListener(node1Received::add);
+            node2.addListener(node2Received::add);
+            node1.start();
+            node2.start();
+
+            node1.invalidate(node1.newInvalidations().activityAdded(newActivity(1, "workspace")));
+            node1.invalidate(node1.newInvalidations().activityUpdated(newActivity(1, "workspace")));
+            node1.invalidate(node1.newInvalidations().activityAdded(newActivity(2, "section")));
+            // local changes are notified right away
+            assertEquals(3, node1Received.size());
+
+            ActivityInvalidations batch = node2Received.poll(5, TimeUnit.SECONDS);
+            assertNotNull(batch);
+            assertEquals("node1", batch.getNodeId());
+            assertEquals(2, batch.getAddedActivityIds().size());
+            assertTrue(batch.getUpdatedActivityIds().contains(1L));
+            assertEquals(2, batch.getContexts().size());
+            assertNull(node2Received.poll(300, TimeUnit.MILLISECONDS));
+            // not sent back to the sender
+            assertEquals(3, node1Received.size());
+        } finally {
+            node1.shutdown();
+            node2.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldSendChangesQueuedBeforeStart() throws Exception {
+        BlockingQueue<ActivityInvalidations> node1Received = new LinkedBlockingQueue<>();
+        BlockingQueue<ActivityInvalidations> node2Received = new LinkedBlockingQueue<>();
+        ActivityInvalidationBus node1 = new ActivityInvalidationBus("node1", new LocalActivityInvalidationTransport(),
+                100);
+        ActivityInvalidationBus node2 = new ActivityInvalidationBus("node2", new LocalActivityInvalidationTransport(),
+                100);
+        try {
+            node1.addListener(node1Received::add);
+            node2.addListener(node2Received::add);
+            node2.start();
+
+            node1.invalidate(node1.newInvalidations().activityAdded(newActivity(1, "workspace")));
+            assertEquals(1, node1Received.size());
+            assertNull(node2Received.poll(300, TimeUnit.MILLISECONDS));
+
+            node1.start();
+            ActivityInvalidations batch = node2Received.poll(5, TimeUnit.SECONDS);
+            assertNotNull(batch);
+            assertEquals("node1", batch.getNodeId());
+            assertTrue(batch.getAddedActivityIds().contains(1L));
+        } finally {
+            node1.shutdown();
+            node2.shutdown();
+        }
+    }
+
+}
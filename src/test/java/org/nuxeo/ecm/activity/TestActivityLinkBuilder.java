@@ -22,7 +22,9 @@ package org.nuxeo.ecm.activity;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 import javax.inject.Inject;
@@ -74,4 +76,34 @@ public class TestActivityLinkBuilder {
         assertEquals("userAvatarURL", dummyActivityLinkBuilder.getUserAvatarURL(null, "bender"));
     }
 
+    @Test
+    public void shouldRenderAPageOfActivitiesLikeEachActivity() {
+        List<Activity> activities = new ArrayList<>();
+        String[] verbs = { "documentCreated", "documentModified", "test", "documentCreated" };
+        for (int i = 0; i < verbs.length; i++) {
+            ActivityImpl activity = new ActivityImpl();
+            activity.setId(Long.valueOf(i + 1));
+            activity.setActor(ActivityHelper.createUserActivityObject("bender"));
+            activity.setDisplayActor("Bender");
+            activity.setVerb(verbs[i]);
+            activity.setObject(ActivityHelper.createDocumentActivityObject("server", "docId" + i % 2));
+            activity.setDisplayObject("Document " + i % 2);
+            activity.setPublishedDate(new Date());
+            activities.add(activity);
+        }
+
+        List<ActivityMessage> messages = activityStreamService.toActivityMessages(activities, Locale.ENGLISH, "dummy");
+        assertEquals(activities.size(), messages.size());
+        for (int i = 0; i < activities.size(); i++) {
+            ActivityMessage expected = activityStreamService.toActivityMessage(activities.get(i), Locale.ENGLISH,
+                    "dummy");
+            ActivityMessage message = messages.get(i);
+            assertEquals(expected.getActivityId(), message.getActivityId());
+            assertEquals(expected.getVerb(), message.getVerb());
+            assertEquals(expected.getDisplayActorLink(), message.getDisplayActorLink());
+            assertEquals(expected.getMessage(), message.getMessage());
+            assertEquals(expected.getIcon(), message.getIcon());
+        }
+    }
+
 }
@@ -0,0 +1,86 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.After;
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.local.ClientLoginModule;
+import org.nuxeo.ecm.core.api.local.LoginStack;
+
+/**
+ * @since 11.1
+ */
+public class TestActivityRenderExecutor {
+
+    protected ActivityRenderExecutor executor = new ActivityRenderExecutor(4);
+
+    @After
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void shouldPreserveOrder() {
+        List<Integer> items = IntStream.range(0, 1001).boxed().collect(Collectors.toList());
+        List<String> results = executor.map(items, String::valueOf);
+        assertEquals(items.size(), results.size());
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(String.valueOf(i), results.get(i));
+        }
+        assertEquals(0, executor.map(new ArrayList<Integer>(), String::valueOf).size());
+    }
+
+    @Test
+    public void shouldPropagateLogin() {
+        Principal principal = () -> "bender";
+        LoginStack loginStack = ClientLoginModule.getThreadLocalLogin();
+        loginStack.push(principal, null, null);
+        try {
+            List<Principal> principals = executor.map(List.of(1, 2, 3, 4, 5), i -> {
+                LoginStack.Entry login = ClientLoginModule.getThreadLocalLogin().peek();
+                assertNotNull(login);
+                return login.getPrincipal();
+            });
+            for (Principal p : principals) {
+                assertSame(principal, p);
+            }
+        } finally {
+            loginStack.pop();
+        }
+    }
+
+    @Test(expected = NuxeoException.class)
+    public void shouldPropagateFailures() {
+        executor.map(List.of(1, 2, 3), i -> {
+            if (i == 2) {
+                throw new NuxeoException("failure");
+            }
+            return i;
+        });
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.WithFrameworkProperty;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * @since 11.1
+ */
+@RunWith(FeaturesRunner.class)
+@Features(ActivityFeature.class)
+@RepositoryConfig(cleanup = Granularity.METHOD)
+@Deploy("org.nuxeo.ecm.activity:activity-replica-test.xml")
+@WithFrameworkProperty(name = ActivityStreamServiceImpl.REPLICA_ENABLED_PROPERTY, value = "true")
+public class TestActivityReplicaRouting {
+
+    @Inject
+    protected ActivityStreamService activityStreamService;
+
+    @Test
+    public void shouldRouteReadsToReplicaOutsideReadYourWritesWindow() {
+        ActivityStreamServiceImpl impl = (ActivityStreamServiceImpl) activityStreamService;
+        impl.recentWriters.clear();
+        assertNotSame(impl.getOrCreatePersistenceProvider(), impl.getReadPersistenceProvider());
+
+        Activity activity = new ActivityImpl();
+        activity.setActor("Administrator");
+        activity.setVerb("test");
+        activity.setObject("replicated");
+        activity.setPublishedDate(new Date());
+        activity = activityStreamService.addActivity(activity);
+        // reads of the writer stay on the primary
+        assertSame(impl.getOrCreatePersistenceProvider(), impl.getReadPersistenceProvider());
+        assertNotNull(impl.getActivity(activity.getId()));
+
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+        impl.recentWriters.clear();
+        assertNotSame(impl.getOrCreatePersistenceProvider(), impl.getReadPersistenceProvider());
+        Activity replicated = impl.getActivity(activity.getId());
+        assertNotNull(replicated);
+        assertEquals("replicated", replicated.getObject());
+    }
+
+    @Test
+    public void shouldKeepFilterQueriesOnPrimary() {
+        ActivityStreamServiceImpl impl = (ActivityStreamServiceImpl) activityStreamService;
+        Activity activity = new ActivityImpl();
+        activity.setActor("Administrator");
+        activity.setVerb(TweetActivityStreamFilter.TWEET_VERB);
+        activity.setObject("tweeted");
+        activity.setPublishedDate(new Date());
+        activityStreamService.addActivity(activity);
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+        impl.recentWriters.clear();
+        assertNotSame(impl.getOrCreatePersistenceProvider(), impl.getReadPersistenceProvider());
+
+        // the Tweet entity is only known by the primary persistence unit
+        Map<String, Serializable> parameters = Collections.singletonMap("seenBy", "Bob");
+        ActivitiesList activities = activityStreamService.query(TweetActivityStreamFilter.ID, parameters);
+        assertTrue(activities.stream().anyMatch(a -> "tweeted".equals(a.getObject())));
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.Test;
+
+/**
+ * @since 11.1
+ */
+public class TestActivitySearchIndex {
+
+    protected Activity newActivity(long id, long publishedDate, String displayObject) {
+        ActivityImpl activity = new ActivityImpl();
+        activity.setId(id);
+        activity.setActor("Administrator");
+        activity.setDisplayActor("Administrator");
+        activity.setVerb("test");
+        activity.setDisplayObject(displayObject);
+        activity.setPublishedDate(new Date(publishedDate));
+        return activity;
+    }
+
+    @Test
+    public void shouldTokenizeTexts() {
+        assertEquals(Arrays.asList("reunion", "equipe", "link"),
+                Arrays.asList(ActivitySearchIndex.tokenize("R\u00e9union d'\u00e9quipe: <a href=\"x\">link</a>").toArray()));
+        assertTrue(ActivitySearchIndex.tokenize(null).isEmpty());
+    }
+
+    @Test
+    public void shouldSearchMostRecentFirst() {
+        ActivitySearchIndex index = new ActivitySearchIndex();
+        index.index(newActivity(1, 3000, "Annual report"));
+        index.index(newActivity(2, 1000, "Quarterly report"));
+        index.index(newActivity(3, 2000, "Report draft"));
+
+        assertEquals(Arrays.asList(1L, 3L, 2L), index.search("report", 0, 0));
+        assertEquals(Arrays.asList(3L), index.search("report", 1, 1));
+        assertEquals(Arrays.asList(2L), index.search("REPORT quarter*", 0, 10));
+        assertTrue(index.search("report budget", 0, 10).isEmpty());
+        assertTrue(index.search("", 0, 10).isEmpty());
+    }
+
+    @Test
+    public void shouldReindexAndRemoveActivities() {
+        ActivitySearchIndex index = new ActivitySearchIndex();
+        Activity activity = newActivity(1, 1000, "Report");
+        index.index(activity);
+        activity.setActivityReplies(Collections.singletonList(
+                new ActivityReply("Bob", "Bob", "Nice figures", 2000)));
+        index.index(activity);
+        assertEquals(Arrays.asList(1L), index.search("report figures", 0, 10));
+
+        activity.setDisplayObject("Summary");
+        activity.setActivityReplies(Collections.emptyList());
+        index.index(activity);
+        assertTrue(index.search("report", 0, 10).isEmpty());
+        assertEquals(Arrays.asList(1L), index.search("summary", 0, 10));
+
+        index.remove(Collections.singletonList(1L));
+        assertEquals(0, index.size());
+        assertTrue(index.search("summary", 0, 10).isEmpty());
+    }
+
+    @Test
+    public void shouldNotBuildStaleActivities() {
+        ActivitySearchIndex index = new ActivitySearchIndex();
+        index.buildStarted();
+        assertFalse(index.isReady());
+        Activity removed = newActivity(1, 1000, "Removed report");
+        Activity updated = newActivity(2, 2000, "Updated report");
+        // changed after the build read them
+        index.remove(Collections.singletonList(1L));
+        index.index(newActivity(2, 2000, "Updated summary"));
+
+        index.build(removed);
+        index.build(updated);
+        index.build(newActivity(3, 3000, "Annual report"));
+        assertEquals(Arrays.asList(3L), index.search("report", 0, 10));
+        assertEquals(Arrays.asList(2L), index.search("summary", 0, 10));
+
+        index.buildDone();
+        assertTrue(index.isReady());
+        index.remove(Collections.singletonList(3L));
+        assertTrue(index.search("report", 0, 10).isEmpty());
+    }
+
+}
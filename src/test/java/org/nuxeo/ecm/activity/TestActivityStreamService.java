@@ -19,12 +19,19 @@
 
 package org.nuxeo.ecm.activity;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
@@ -38,9 +45,12 @@ import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.ecm.core.persistence.PersistenceProvider;
 import org.nuxeo.ecm.core.test.annotations.Granularity;
 import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.ecm.core.work.api.WorkManager;
 import org.nuxeo.runtime.test.NXRuntimeTestCase;
+import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.WithFrameworkProperty;
 import org.nuxeo.runtime.transaction.TransactionHelper;
 
 import static org.junit.Assert.assertEquals;
@@ -58,6 +68,7 @@ import static org.nuxeo.ecm.core.api.event.DocumentEventTypes.DOCUMENT_UPDATED;
 @RunWith(FeaturesRunner.class)
 @Features(ActivityFeature.class)
 @RepositoryConfig(cleanup = Granularity.METHOD)
+@Deploy("org.nuxeo.ecm.activity:activity-rollup-test.xml")
 public class TestActivityStreamService {
 
     @Inject
@@ -66,6 +77,9 @@ public class TestActivityStreamService {
     @Inject
     protected ActivityStreamService activityStreamService;
 
+    @Inject
+    protected WorkManager workManager;
+
     @Test
     public void serviceRegistration() {
         assertNotNull(activityStreamService);
@@ -322,6 +336,43 @@ public class TestActivityStreamService {
         assertTrue(tweets.isEmpty());
     }
 
+    @Test
+    public void shouldRemoveActivitiesByCriteria() {
+        int offset = getOffset();
+
+        for (int i = 0; i < 5; i++) {
+            Activity activity = new ActivityImpl();
+            activity.setActor(i < 3 ? "Administrator" : "Bob");
+            activity.setVerb(TweetActivityStreamFilter.TWEET_VERB);
+            activity.setObject("activity" + i);
+            activity.setPublishedDate(new Date());
+            activityStreamService.addActivity(activity);
+        }
+        assertEquals(15, getAllTweetActivities().size());
+
+        ActivityCriteria criteria = new ActivityCriteria().actors("Administrator")
+                                                          .verbs(TweetActivityStreamFilter.TWEET_VERB);
+        long removed = ((ActivityStreamServiceImpl) activityStreamService).removeActivities(criteria, 2);
+        assertEquals(3, removed);
+
+        List<Activity> activities = activityStreamService.query(ActivityStreamService.ALL_ACTIVITIES, null, offset,
+                999);
+        assertEquals(2, activities.size());
+        assertEquals("activity3", activities.get(0).getObject());
+        assertEquals("activity4", activities.get(1).getObject());
+        assertEquals(6, getAllTweetActivities().size());
+    }
+
+    @Test(expected = NuxeoException.class)
+    public void shouldNotRemoveActivitiesWithoutCriteria() {
+        activityStreamService.removeActivities(new ActivityCriteria());
+    }
+
+    @Test(expected = NuxeoException.class)
+    public void shouldFailFastWithoutEntityManager() {
+        JpaActivityStore.getEntityManager(activityStreamService);
+    }
+
     @SuppressWarnings("unchecked")
     private List<TweetActivity> getAllTweetActivities() {
         return ((ActivityStreamServiceImpl) activityStreamService).getOrCreatePersistenceProvider().run(true,
@@ -544,6 +595,63 @@ public class TestActivityStreamService {
         }
     }
 
+    @Test
+    public void shouldWalkThroughAllActivities() {
+        int offset = getOffset();
+
+        addTestActivities(10);
+
+        List<Activity> activities = new ArrayList<>();
+        activityStreamService.forEachActivity(3, activities::add);
+        assertEquals(offset + 10, activities.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("activity" + i, activities.get(offset + i).getObject());
+        }
+        for (int i = 1; i < activities.size(); i++) {
+            assertTrue((Long) activities.get(i - 1).getId() < (Long) activities.get(i).getId());
+        }
+    }
+
+    @Test
+    public void shouldQueryActivitySummaries() {
+        int offset = getOffset();
+
+        addTestActivities(3);
+        List<Activity> activities = activityStreamService.query(ActivityStreamService.ALL_ACTIVITIES, null, offset,
+                999);
+        assertEquals(3, activities.size());
+        Activity repliedActivity = activities.get(1);
+        ActivityReply reply = new ActivityReply("bender", "Bender", "First reply", new Date().getTime());
+        activityStreamService.addActivityReply(repliedActivity.getId(), reply);
+
+        List<ActivitySummary> summaries = activityStreamService.querySummaries(ActivityStreamService.ALL_ACTIVITIES,
+                null, offset, 999);
+        assertEquals(3, summaries.size());
+        for (int i = 0; i < 3; i++) {
+            ActivitySummary summary = summaries.get(i);
+            assertEquals(activities.get(i).getId(), summary.getId());
+            assertEquals("activity" + i, summary.getObject());
+            assertEquals("Administrator", summary.getActor());
+        }
+        assertEquals(0, summaries.get(0).getReplyCount());
+        assertFalse(summaries.get(0).hasReplies());
+        assertEquals(1, summaries.get(1).getReplyCount());
+        assertTrue(summaries.get(1).hasReplies());
+
+        List<Serializable> ids = new ArrayList<>();
+        for (ActivitySummary summary : summaries) {
+            ids.add(summary.getId());
+        }
+        assertEquals(3, activityStreamService.getActivitySummaries(ids).size());
+
+        Map<Serializable, List<ActivityReply>> replies = activityStreamService.getActivityReplies(ids);
+        assertEquals(1, replies.size());
+        List<ActivityReply> activityReplies = replies.get(repliedActivity.getId());
+        assertNotNull(activityReplies);
+        assertEquals(1, activityReplies.size());
+        assertEquals("First reply", activityReplies.get(0).getMessage());
+    }
+
     @Test
     public void testActivityUpgraders() {
         int offset = getOffset();
@@ -580,6 +688,335 @@ public class TestActivityStreamService {
         assertEquals("Dummy Actor", activity.getActor());
     }
 
+    @Test
+    public void shouldRunChunkedActivityUpgrader() {
+        int offset = getOffset();
+
+        addTestActivities(10);
+        // chunks are upgraded in their own transactions
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+
+        ActivityStreamServiceImpl activityStreamServiceImpl = (ActivityStreamServiceImpl) activityStreamService;
+        ActivityUpgrader upgrader = new DummyChunkedActivityUpgrader();
+        upgrader.setName("dummyChunkedUpgrader");
+        new ChunkedActivityUpgradeRunner(activityStreamServiceImpl, (ChunkedActivityUpgrader) upgrader, 3, 2).run();
+
+        List<Activity> activities = activityStreamService.query(ActivityStreamService.ALL_ACTIVITIES, null, offset,
+                999);
+        assertEquals(10, activities.size());
+        for (Activity activity : activities) {
+            assertEquals(DummyChunkedActivityUpgrader.UPGRADED_DISPLAY_ACTOR, activity.getDisplayActor());
+        }
+        assertEquals(activities.get(9).getId(), activityStreamServiceImpl.getUpgradeCheckpoint("dummyChunkedUpgrader"));
+        ActivityUpgradeProgress progress = activityStreamServiceImpl.getUpgradeProgress("dummyChunkedUpgrader");
+        assertNotNull(progress);
+        assertEquals(100, progress.getPercentage());
+    }
+
+    @Test
+    public void shouldRemoveExpiredActivities() {
+        int offset = getOffset();
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 4; i++) {
+            Activity activity = new ActivityImpl();
+            activity.setActor("Administrator");
+            activity.setVerb(i % 2 == 0 ? "expiringVerb" : "test");
+            activity.setObject("activity" + i);
+            activity.setPublishedDate(new Date(now - 40L * 24 * 60 * 60 * 1000));
+            activityStreamService.addActivity(activity);
+        }
+        Activity activity = new ActivityImpl();
+        activity.setActor("Administrator");
+        activity.setVerb("expiringVerb");
+        activity.setObject("recentActivity");
+        activity.setPublishedDate(new Date(now));
+        activityStreamService.addActivity(activity);
+
+        long removed = ((ActivityStreamServiceImpl) activityStreamService).removeExpiredActivities();
+        assertEquals(2, removed);
+
+        List<Activity> activities = activityStreamService.query(ActivityStreamService.ALL_ACTIVITIES, null, offset,
+                999);
+        assertEquals(3, activities.size());
+        assertEquals("activity1", activities.get(0).getObject());
+        assertEquals("activity3", activities.get(1).getObject());
+        assertEquals("recentActivity", activities.get(2).getObject());
+    }
+
+    @Test
+    public void shouldRollupRepeatedActivities() {
+        int offset = getOffset();
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            Activity activity = new ActivityImpl();
+            activity.setActor("Administrator");
+            activity.setVerb(DOCUMENT_UPDATED);
+            activity.setObject("doc:default:1234");
+            activity.setDisplayObject("Title " + i);
+            activity.setPublishedDate(new Date(now + i * 1000));
+            activityStreamService.addActivity(activity);
+        }
+        Activity activity = new ActivityImpl();
+        activity.setActor("Administrator");
+        activity.setVerb(DOCUMENT_UPDATED);
+        activity.setObject("doc:default:5678");
+        activity.setPublishedDate(new Date(now));
+        activityStreamService.addActivity(activity);
+
+        List<Activity> activities = activityStreamService.query(ActivityStreamService.ALL_ACTIVITIES, null, offset,
+                999);
+        assertEquals(2, activities.size());
+        Activity rolledUpActivity = activities.get(0);
+        assertEquals(Integer.valueOf(3), rolledUpActivity.getRollupCount());
+        assertEquals(now, rolledUpActivity.getRollupStartDate().getTime());
+        assertEquals(now + 2000, rolledUpActivity.getPublishedDate().getTime());
+        assertEquals("Title 2", rolledUpActivity.getDisplayObject());
+        assertEquals("3", rolledUpActivity.toMap().get("rollupCount"));
+        assertEquals(null, activities.get(1).getRollupCount());
+    }
+
+    @Test
+    @WithFrameworkProperty(name = ActivityStreamServiceImpl.COUNTERS_ENABLED_PROPERTY, value = "true")
+    public void shouldMaintainActivityCounters() {
+        Date now = new Date();
+        for (int i = 0; i < 4; i++) {
+            Activity activity = new ActivityImpl();
+            activity.setActor(i < 3 ? "Administrator" : "Bob");
+            activity.setVerb("counted");
+            activity.setObject("activity" + i);
+            activity.setContext("workspace");
+            activity.setPublishedDate(now);
+            activityStreamService.addActivity(activity);
+        }
+        // counters are updated once the activities are committed
+        List<ActivityCount> counts = activityStreamService.getTopActivityCounts(ActivityCounter.Dimension.ACTOR,
+                "counted", ActivityCounter.Granularity.DAY, new Date(0), new Date(now.getTime() + 1000), 10);
+        assertTrue(counts.isEmpty());
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+
+        Date from = new Date(now.getTime() - 24 * 60 * 60 * 1000);
+        Date to = new Date(now.getTime() + 24 * 60 * 60 * 1000);
+        counts = activityStreamService.getTopActivityCounts(ActivityCounter.Dimension.ACTOR,
+                "counted", ActivityCounter.Granularity.DAY, from, to, 10);
+        assertEquals(2, counts.size());
+        assertEquals("Administrator", counts.get(0).getValue());
+        assertEquals(3, counts.get(0).getCount());
+        assertEquals("Bob", counts.get(1).getValue());
+        assertEquals(1, counts.get(1).getCount());
+
+        SortedMap<Date, Long> histogram = activityStreamService.getActivityHistogram(
+                ActivityCounter.Dimension.CONTEXT, "workspace", "counted", ActivityCounter.Granularity.HOUR, from, to);
+        assertEquals(1, histogram.size());
+        assertEquals(ActivityCounter.Granularity.HOUR.getBucket(now), histogram.firstKey());
+        assertEquals(Long.valueOf(4), histogram.get(histogram.firstKey()));
+
+        activityStreamService.removeActivities(new ActivityCriteria().actors("Administrator").verbs("counted"));
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+        counts = activityStreamService.getTopActivityCounts(ActivityCounter.Dimension.ACTOR, null,
+                ActivityCounter.Granularity.DAY, from, to, 10);
+        assertEquals(1, counts.size());
+        assertEquals("Bob", counts.get(0).getValue());
+
+        activityStreamService.getActivityStore().deleteCounters();
+        assertTrue(((ActivityStreamServiceImpl) activityStreamService).rebuildCounters() >= 1);
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+        histogram = activityStreamService.getActivityHistogram(ActivityCounter.Dimension.CONTEXT, "workspace",
+                "counted", ActivityCounter.Granularity.HOUR, from, to);
+        assertEquals(Long.valueOf(1), histogram.get(histogram.firstKey()));
+    }
+
+    @Test
+    public void shouldQueryActivitiesSinceWatermark() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            Activity activity = new ActivityImpl();
+            activity.setActor("Administrator");
+            activity.setVerb("test");
+            activity.setObject("activity" + i);
+            activity.setContext("watermarkContext");
+            // same published date for the last 2 activities
+            activity.setPublishedDate(new Date(now + Math.min(i, 1) * 1000));
+            activityStreamService.addActivity(activity);
+        }
+
+        ActivityCriteria criteria = new ActivityCriteria().contexts("watermarkContext");
+        ActivitiesList activities = activityStreamService.querySince(criteria, null, 0);
+        assertEquals(3, activities.size());
+        ActivityWatermark watermark = ActivityWatermark.of(activities.get(1));
+
+        activities = activityStreamService.querySince(criteria, watermark, 0);
+        assertEquals(1, activities.size());
+        assertEquals("activity2", activities.get(0).getObject());
+
+        ActivityWatermark contextWatermark = activityStreamService.getContextWatermark("watermarkContext");
+        assertEquals(ActivityWatermark.of(activities.get(0)), contextWatermark);
+        assertEquals(contextWatermark, ActivityWatermark.fromETag(contextWatermark.toETag()));
+        assertTrue(activityStreamService.querySince(criteria, contextWatermark, 0).isEmpty());
+        assertEquals(ActivityWatermark.NONE, activityStreamService.getContextWatermark("unknownContext"));
+    }
+
+    @Test
+    public void shouldScanActivitiesThroughStore() {
+        long now = System.currentTimeMillis();
+        List<Activity> activities = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Activity activity = new ActivityImpl();
+            activity.setActor(i % 2 == 0 ? "Administrator" : "Bob");
+            activity.setVerb("test");
+            activity.setObject("activity" + i);
+            activity.setContext("storeContext");
+            activity.setPublishedDate(new Date(now + i * 1000));
+            activities.add(activity);
+        }
+        ActivityStore store = activityStreamService.getActivityStore();
+        List<Activity> stored = store.appendAll(activities);
+        assertEquals(4, stored.size());
+        assertNotNull(stored.get(0).getId());
+
+        ActivityCriteria criteria = new ActivityCriteria().contexts("storeContext").actors("Administrator");
+        ActivitiesList latest = store.scanBefore(criteria, null, 0);
+        assertEquals(2, latest.size());
+        assertEquals("activity2", latest.get(0).getObject());
+        assertEquals("activity0", latest.get(1).getObject());
+        ActivitiesList after = store.scanAfter(criteria, ActivityWatermark.of(latest.get(1)), 0);
+        assertEquals(1, after.size());
+        assertEquals("activity2", after.get(0).getObject());
+
+        List<Serializable> ids = store.getActivityIds(new ActivityCriteria().contexts("storeContext"), null, 10);
+        assertEquals(4, ids.size());
+        assertEquals(4, store.getActivities(ids).size());
+        assertEquals(2, store.remove(criteria, 1));
+        assertEquals(2, store.getActivityIds(new ActivityCriteria().contexts("storeContext"), null, 10).size());
+    }
+
+    @Test
+    public void shouldDispatchNewActivitiesToSubscribers() throws Exception {
+        BlockingQueue<Activity> received = new LinkedBlockingQueue<>();
+        try (ActivitySubscription subscription = activityStreamService.subscribe(
+                ActivityInterest.context("subscribedContext"), received::add)) {
+            Activity activity = new ActivityImpl();
+            activity.setActor("Administrator");
+            activity.setVerb("test");
+            activity.setObject("otherObject");
+            activity.setContext("otherContext");
+            activity.setPublishedDate(new Date());
+            activityStreamService.addActivity(activity);
+
+            activity = new ActivityImpl();
+            activity.setActor("Administrator");
+            activity.setVerb("test");
+            activity.setObject("subscribedObject");
+            activity.setContext("subscribedContext");
+            activity.setPublishedDate(new Date());
+            activityStreamService.addActivity(activity);
+            TransactionHelper.commitOrRollbackTransaction();
+            TransactionHelper.startTransaction();
+
+            Activity dispatched = received.poll(10, TimeUnit.SECONDS);
+            assertNotNull(dispatched);
+            assertEquals("subscribedObject", dispatched.getObject());
+            assertTrue(received.isEmpty());
+        }
+    }
+
+    @Test
+    public void shouldSearchActivities() throws InterruptedException {
+        Activity report = new ActivityImpl();
+        report.setActor("Administrator");
+        report.setDisplayActor("Administrator");
+        report.setVerb("test");
+        report.setObject("doc:default:report");
+        report.setDisplayObject("Quarterly Report");
+        report.setPublishedDate(new Date());
+        report = activityStreamService.addActivity(report);
+        Activity minutes = new ActivityImpl();
+        minutes.setActor("Bob");
+        minutes.setDisplayActor("Bob Dupont");
+        minutes.setVerb("test");
+        minutes.setObject("doc:default:minutes");
+        minutes.setDisplayObject("Meeting minutes");
+        minutes.setDisplayTarget("Quarterly meetings");
+        minutes.setPublishedDate(new Date(report.getPublishedDate().getTime() + 1000));
+        minutes = activityStreamService.addActivity(minutes);
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+
+        // index built in the background from the stored activities
+        activityStreamService.searchActivities("quarterly", 0, 10);
+        assertTrue(workManager.awaitCompletion(10, TimeUnit.SECONDS));
+        ActivitiesList activities = activityStreamService.searchActivities("quarterly", 0, 10);
+        assertEquals(2, activities.size());
+        assertEquals(minutes.getId(), activities.get(0).getId());
+        assertEquals(report.getId(), activities.get(1).getId());
+        assertEquals(1, activityStreamService.searchActivities("quarterly report", 0, 10).size());
+        assertEquals(1, activityStreamService.searchActivities("quarterly", 1, 10).size());
+        assertEquals(1, activityStreamService.searchActivities("meet*", 0, 0).size());
+        assertTrue(activityStreamService.searchActivities("budget", 0, 10).isEmpty());
+
+        // kept up to date
+        activityStreamService.addActivityReply(report.getId(),
+                new ActivityReply("Bob", "Bob Dupont", "Budget looks <b>fine</b>", System.currentTimeMillis()));
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+        activities = activityStreamService.searchActivities("budget fine", 0, 10);
+        assertEquals(1, activities.size());
+        assertEquals(report.getId(), activities.get(0).getId());
+
+        activityStreamService.removeActivities(Collections.singleton(report));
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+        assertTrue(activityStreamService.searchActivities("budget", 0, 10).isEmpty());
+        assertEquals(1, activityStreamService.searchActivities("quarterly", 0, 10).size());
+
+        activityStreamService.removeActivities(Collections.singleton(minutes));
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+        assertTrue(activityStreamService.searchActivities("quarterly", 0, 10).isEmpty());
+    }
+
+    @Test
+    public void shouldExportAndImportActivities() {
+        ActivityStreamServiceImpl impl = (ActivityStreamServiceImpl) activityStreamService;
+        for (int i = 0; i < 3; i++) {
+            Activity activity = new ActivityImpl();
+            activity.setActor("Administrator");
+            activity.setVerb("test");
+            activity.setObject("exported" + i);
+            activity.setContext("exportContext");
+            activity.setPublishedDate(new Date());
+            activity = activityStreamService.addActivity(activity);
+            if (i == 0) {
+                activityStreamService.addActivityReply(activity.getId(),
+                        new ActivityReply("bender", "Bender", "First reply", System.currentTimeMillis()));
+            }
+        }
+        ActivityCriteria criteria = new ActivityCriteria().contexts("exportContext");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(3, impl.exportActivities(criteria, out));
+        assertEquals(3, impl.removeActivities(criteria));
+
+        assertEquals(3, impl.importActivities(new ByteArrayInputStream(out.toByteArray())));
+        ActivitiesList activities = impl.getActivities(
+                activityStreamService.getActivityStore().getActivityIds(criteria, null, 10));
+        assertEquals(3, activities.size());
+        Activity replied = activities.get(0);
+        assertEquals("exported0", replied.getObject());
+        List<ActivityReply> replies = replied.getActivityReplies();
+        assertEquals(1, replies.size());
+        assertEquals(replied.getId() + "-reply-1", replies.get(0).getId());
+        assertEquals("First reply", replies.get(0).getMessage());
+
+        // imported through the same path as the added activities
+        List<Activity> filtered = activityStreamService.query(DummyActivityStreamFilter.ID, null, 0, 0);
+        assertEquals(activities.get(2).getId(), filtered.get(0).getId());
+    }
+
     @Test
     public void testActivityUpgradersOrder() {
         List<ActivityUpgrader> upgraders = ((ActivityStreamServiceImpl) activityStreamService).activityUpgraderRegistry.getOrderedActivityUpgraders();
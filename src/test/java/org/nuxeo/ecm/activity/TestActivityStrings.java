@@ -0,0 +1,61 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+/**
+ * @since 11.1
+ */
+public class TestActivityStrings {
+
+    @Test
+    public void shouldShareEqualStrings() {
+        String verb = ActivityStrings.dedup(new String("documentModified"));
+        assertSame(verb, ActivityStrings.dedup(new String("documentModified")));
+        assertNull(ActivityStrings.dedup(null));
+
+        String longValue = StringUtils.repeat('x', ActivityStrings.MAX_LENGTH + 1);
+        String otherLongValue = new String(longValue);
+        assertSame(otherLongValue, ActivityStrings.dedup(otherLongValue));
+        assertNotSame(longValue, ActivityStrings.dedup(otherLongValue));
+    }
+
+    @Test
+    public void shouldShareActivityStrings() {
+        Activity first = new ActivityBuilder().actor(new String("user:Administrator"))
+                                              .verb(new String("documentCreated"))
+                                              .context(new String("doc:default:workspace"))
+                                              .build();
+        Activity second = new ActivityBuilder().actor(new String("user:Administrator"))
+                                               .verb(new String("documentCreated"))
+                                               .context(new String("doc:default:workspace"))
+                                               .build();
+        assertSame(first.getActor(), second.getActor());
+        assertSame(first.getVerb(), second.getVerb());
+        assertSame(first.getContext(), second.getContext());
+        assertEquals("default", ActivityHelper.getRepositoryName("doc:default:1234"));
+        assertSame(ActivityHelper.getRepositoryName("doc:default:1234"),
+                ActivityHelper.getRepositoryName("doc:default:5678"));
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+/**
+ * @since 11.1
+ */
+@RunWith(FeaturesRunner.class)
+@Features(ActivityFeature.class)
+@RepositoryConfig(cleanup = Granularity.METHOD)
+@Deploy("org.nuxeo.ecm.activity:activity-timeline-test.xml")
+public class TestActivityTimelines {
+
+    protected static final String ROLLED_UP_VERB = "rolledUp";
+
+    @Inject
+    protected ActivityStreamService activityStreamService;
+
+    @Test
+    public void shouldReadMaterializedTimelines() {
+        Activity activity = addActivity("Administrator", "activity", 1000);
+        Activity celebrityActivity = addActivity(DummyTimelineActivityStreamFilter.CELEBRITY, "celebrityActivity",
+                2000);
+
+        List<Activity> activities = queryTimeline("user1");
+        assertEquals(2, activities.size());
+        assertEquals(celebrityActivity.getId(), activities.get(0).getId());
+        assertEquals(activity.getId(), activities.get(1).getId());
+
+        // high fan-out activity, merged at read time
+        activities = queryTimeline("user4");
+        assertEquals(1, activities.size());
+        assertEquals(celebrityActivity.getId(), activities.get(0).getId());
+
+        activities = queryTimeline("unknown");
+        assertEquals(1, activities.size());
+
+        activityStreamService.removeActivities(Collections.singleton(celebrityActivity));
+        activities = queryTimeline("user1");
+        assertEquals(1, activities.size());
+        assertEquals(activity.getId(), activities.get(0).getId());
+        assertTrue(queryTimeline("user4").isEmpty());
+    }
+
+    @Test
+    public void shouldMoveRolledUpActivitiesInTimelines() {
+        Activity activity = addActivity("Administrator", ROLLED_UP_VERB, "activity", 1000);
+        Activity otherActivity = addActivity("Administrator", "otherActivity", 2000);
+        Activity rolledUpActivity = addActivity("Administrator", ROLLED_UP_VERB, "activity", 3000);
+        assertEquals(activity.getId(), rolledUpActivity.getId());
+
+        List<Activity> activities = queryTimeline("user1");
+        assertEquals(2, activities.size());
+        assertEquals(activity.getId(), activities.get(0).getId());
+        assertEquals(3000, activities.get(0).getPublishedDate().getTime());
+        assertEquals(Integer.valueOf(2), activities.get(0).getRollupCount());
+        assertEquals(otherActivity.getId(), activities.get(1).getId());
+    }
+
+    protected Activity addActivity(String actor, String object, long publishedDate) {
+        return addActivity(actor, "test", object, publishedDate);
+    }
+
+    protected Activity addActivity(String actor, String verb, String object, long publishedDate) {
+        Activity activity = new ActivityImpl();
+        activity.setActor(actor);
+        activity.setVerb(verb);
+        activity.setObject(object);
+        activity.setPublishedDate(new Date(publishedDate));
+        return activityStreamService.addActivity(activity);
+    }
+
+    protected List<Activity> queryTimeline(String owner) {
+        Map<String, Serializable> parameters = new HashMap<>();
+        parameters.put(AbstractTimelineActivityStreamFilter.TIMELINE_OWNER_PARAMETER, owner);
+        return activityStreamService.query(DummyTimelineActivityStreamFilter.ID, parameters, 0, 999);
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * @since 11.1
+ */
+@RunWith(FeaturesRunner.class)
+@Features(ActivityFeature.class)
+@Deploy("org.nuxeo.ecm.activity:activity-upgrade-test.xml")
+public class TestActivityUpgrades {
+
+    protected static final String UPGRADER_NAME = "dummyChunkedUpgrader";
+
+    @Inject
+    protected ActivityStreamService activityStreamService;
+
+    @Inject
+    protected WorkManager workManager;
+
+    @Test
+    public void shouldUpgradeActivitiesInBackground() throws InterruptedException {
+        List<Serializable> activityIds = addActivities(5);
+        ActivityStreamServiceImpl activityStreamServiceImpl = (ActivityStreamServiceImpl) activityStreamService;
+
+        // the work is scheduled once the transaction is committed
+        activityStreamServiceImpl.scheduleUpgradeActivities();
+        assertEquals(ActivityUpgradeStatus.SCHEDULED, activityStreamServiceImpl.getUpgradeStatus());
+        assertTrue(activityStreamServiceImpl.isUpgradePending());
+        assertNotNull(activityStreamServiceImpl.getUpgradeProgress(UPGRADER_NAME));
+        for (Activity activity : activityStreamService.getActivities(activityIds)) {
+            assertEquals(DummyChunkedActivityUpgrader.UPGRADED_DISPLAY_ACTOR, activity.getDisplayActor());
+        }
+
+        TransactionHelper.commitOrRollbackTransaction();
+        assertTrue(workManager.awaitCompletion(10, TimeUnit.SECONDS));
+        TransactionHelper.startTransaction();
+
+        assertEquals(ActivityUpgradeStatus.COMPLETED, activityStreamServiceImpl.getUpgradeStatus());
+        assertFalse(activityStreamServiceImpl.isUpgradePending());
+        ActivityUpgradeProgress progress = activityStreamServiceImpl.getUpgradeProgress(UPGRADER_NAME);
+        assertEquals(100, progress.getPercentage());
+        assertEquals(activityIds.get(4), progress.getLastId());
+        assertEquals(activityIds.get(4), activityStreamServiceImpl.getUpgradeCheckpoint(UPGRADER_NAME));
+        // stored upgraded, no longer upgraded on the fly
+        for (Activity activity : activityStreamService.getActivities(activityIds)) {
+            assertEquals(DummyChunkedActivityUpgrader.UPGRADED_DISPLAY_ACTOR, activity.getDisplayActor());
+        }
+    }
+
+    @Test
+    public void shouldNotStoreActivitiesUpgradedOnTheFly() {
+        List<Serializable> activityIds = addActivities(5);
+        ActivityStreamServiceImpl activityStreamServiceImpl = (ActivityStreamServiceImpl) activityStreamService;
+
+        // upgrade pending after the third activity
+        activityStreamServiceImpl.upgradeStarted(
+                new ActivityUpgradeProgress(UPGRADER_NAME, 2, (Long) activityIds.get(2)));
+        activityStreamServiceImpl.pendingUpgraders.add(UPGRADER_NAME);
+        try {
+            assertTrue(activityStreamServiceImpl.isUpgradePending());
+            ActivitiesList activities = activityStreamService.getActivities(activityIds);
+            assertEquals(5, activities.size());
+            for (Activity activity : activities) {
+                boolean upgraded = activityIds.indexOf(activity.getId()) > 2;
+                String expected = upgraded ? DummyChunkedActivityUpgrader.UPGRADED_DISPLAY_ACTOR : "Bender";
+                assertEquals(expected, activity.getDisplayActor());
+            }
+            TransactionHelper.commitOrRollbackTransaction();
+            TransactionHelper.startTransaction();
+        } finally {
+            activityStreamServiceImpl.pendingUpgraders.remove(UPGRADER_NAME);
+        }
+
+        assertFalse(activityStreamServiceImpl.isUpgradePending());
+        for (Activity activity : activityStreamService.getActivities(activityIds)) {
+            assertEquals("Bender", activity.getDisplayActor());
+        }
+    }
+
+    protected List<Serializable> addActivities(int count) {
+        List<Serializable> activityIds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Activity activity = new ActivityImpl();
+            activity.setActor("user:bender");
+            activity.setDisplayActor("Bender");
+            activity.setVerb("test");
+            activity.setObject("activity" + i);
+            activityIds.add(activityStreamService.addActivity(activity).getId());
+        }
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+        return activityIds;
+    }
+
+}
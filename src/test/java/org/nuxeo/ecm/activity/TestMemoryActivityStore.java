@@ -0,0 +1,178 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.nuxeo.ecm.core.api.event.DocumentEventTypes.DOCUMENT_UPDATED;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.WithFrameworkProperty;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Runs the {@code ActivityStreamService} configured with a {@link MemoryActivityStore}.
+ *
+ * @since 11.1
+ */
+@RunWith(FeaturesRunner.class)
+@Features(MemoryActivityFeature.class)
+@RepositoryConfig(cleanup = Granularity.METHOD)
+@Deploy("org.nuxeo.ecm.activity:activity-rollup-test.xml")
+public class TestMemoryActivityStore {
+
+    @Inject
+    protected ActivityStreamService activityStreamService;
+
+    @After
+    public void clearStore() {
+        ((MemoryActivityStore) activityStreamService.getActivityStore()).clear();
+    }
+
+    @Test
+    public void shouldUseMemoryStore() {
+        assertTrue(activityStreamService.getActivityStore() instanceof MemoryActivityStore);
+    }
+
+    protected Activity addActivity(String actor, String verb, String object, long publishedDate) {
+        Activity activity = new ActivityImpl();
+        activity.setActor(actor);
+        activity.setVerb(verb);
+        activity.setObject(object);
+        activity.setContext("memoryContext");
+        activity.setPublishedDate(new Date(publishedDate));
+        return activityStreamService.addActivity(activity);
+    }
+
+    @Test
+    public void shouldStoreActivitiesInMemory() {
+        long now = System.currentTimeMillis();
+        Activity activity = addActivity("Administrator", "test", "activity0", now);
+        addActivity("Bob", "test", "activity1", now + 1000);
+        assertNotNull(activity.getId());
+        assertEquals(2, activityStreamService.getActivityStore().getActivityIds(new ActivityCriteria(), null, 10)
+                                             .size());
+
+        List<Activity> activities = activityStreamService.query(ActivityStreamService.ALL_ACTIVITIES, null);
+        assertEquals(2, activities.size());
+        assertEquals("activity0", activities.get(0).getObject());
+
+        ActivityReply reply = activityStreamService.addActivityReply(activity.getId(),
+                new ActivityReply("Bob", "Bob", "a reply", now));
+        Activity stored = ((ActivityStreamServiceImpl) activityStreamService).getActivity(activity.getId());
+        assertEquals(1, stored.getActivityReplies().size());
+        activityStreamService.removeActivityReply(activity.getId(), reply.getId());
+        stored = ((ActivityStreamServiceImpl) activityStreamService).getActivity(activity.getId());
+        assertTrue(stored.getActivityReplies().isEmpty());
+
+        ActivitiesList since = activityStreamService.querySince(
+                new ActivityCriteria().contexts("memoryContext"), ActivityWatermark.of(activity), 0);
+        assertEquals(1, since.size());
+        assertEquals("activity1", since.get(0).getObject());
+
+        assertEquals(1, activityStreamService.removeActivities(new ActivityCriteria().actors("Bob")));
+        assertNull(((ActivityStreamServiceImpl) activityStreamService).getActivity(since.get(0).getId()));
+    }
+
+    @Test
+    public void shouldRollupActivitiesInMemory() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            addActivity("Administrator", DOCUMENT_UPDATED, "doc:default:1234", now + i * 1000);
+        }
+        List<Activity> activities = activityStreamService.query(ActivityStreamService.ALL_ACTIVITIES, null);
+        assertEquals(1, activities.size());
+        assertEquals(Integer.valueOf(3), activities.get(0).getRollupCount());
+        assertEquals(now + 2000, activities.get(0).getPublishedDate().getTime());
+    }
+
+    @Test
+    @WithFrameworkProperty(name = ActivityStreamServiceImpl.COUNTERS_ENABLED_PROPERTY, value = "true")
+    public void shouldCountActivitiesInMemory() {
+        long now = System.currentTimeMillis();
+        addActivity("Administrator", "counted", "activity0", now);
+        addActivity("Administrator", "counted", "activity1", now);
+        addActivity("Bob", "counted", "activity2", now);
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+
+        List<ActivityCount> counts = activityStreamService.getTopActivityCounts(ActivityCounter.Dimension.ACTOR,
+                "counted", ActivityCounter.Granularity.DAY, new Date(now - 1000), new Date(now + 1000), 10);
+        assertEquals(2, counts.size());
+        assertEquals("Administrator", counts.get(0).getValue());
+        assertEquals(2, counts.get(0).getCount());
+    }
+
+    @Test
+    @WithFrameworkProperty(name = ActivityStreamServiceImpl.COUNTERS_ENABLED_PROPERTY, value = "true")
+    public void shouldRebuildCounters() {
+        long now = System.currentTimeMillis();
+        addActivity("Administrator", "counted", "activity0", now);
+        addActivity("Bob", "counted", "activity1", now);
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+
+        // the deltas lost by a crash
+        activityStreamService.getActivityStore().deleteCounters();
+        ActivityStreamServiceImpl activityStreamServiceImpl = (ActivityStreamServiceImpl) activityStreamService;
+        assertEquals(2, activityStreamServiceImpl.rebuildCounters());
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+
+        List<ActivityCount> counts = activityStreamService.getTopActivityCounts(ActivityCounter.Dimension.ACTOR,
+                "counted", ActivityCounter.Granularity.DAY, new Date(now - 1000), new Date(now + 1000), 10);
+        assertEquals(2, counts.size());
+        assertEquals(1, counts.get(0).getCount());
+    }
+
+    @Test
+    public void shouldIterateOverAllActivities() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            addActivity("Administrator", "test", "activity" + i, now + i);
+        }
+        List<Activity> activities = new ArrayList<>();
+        activityStreamService.forEachActivity(2, activities::add);
+        assertEquals(5, activities.size());
+        assertEquals("activity4", activities.get(4).getObject());
+    }
+
+    @Test
+    @Deploy("org.nuxeo.ecm.activity:activity-upgrade-test.xml")
+    public void shouldSkipChunkedUpgradersInMemory() {
+        ActivityStreamServiceImpl activityStreamServiceImpl = (ActivityStreamServiceImpl) activityStreamService;
+        activityStreamServiceImpl.scheduleUpgradeActivities();
+        assertFalse(activityStreamServiceImpl.isUpgradePending());
+        assertNull(activityStreamServiceImpl.getUpgradeProgress("dummyChunkedUpgrader"));
+    }
+
+}
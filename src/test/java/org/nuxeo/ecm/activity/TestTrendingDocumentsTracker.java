@@ -0,0 +1,118 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.nuxeo.ecm.core.api.event.DocumentEventTypes.DOCUMENT_CREATED;
+import static org.nuxeo.ecm.core.api.event.DocumentEventTypes.DOCUMENT_UPDATED;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * @since 11.1
+ */
+public class TestTrendingDocumentsTracker {
+
+    protected TrendingDocumentsTracker newTracker() {
+        return new TrendingDocumentsTracker(TimeUnit.HOURS.toMillis(1),
+                TrendingDocumentsTracker.DEFAULT_VERB_WEIGHTS);
+    }
+
+    @Test
+    public void shouldRankDocumentsByDecayedScore() {
+        TrendingDocumentsTracker tracker = newTracker();
+        long now = System.currentTimeMillis();
+        long twoHoursAgo = now - TimeUnit.HOURS.toMillis(2);
+        for (int i = 0; i < 3; i++) {
+            tracker.record("workspace", "doc:default:old", DOCUMENT_UPDATED, twoHoursAgo);
+        }
+        tracker.record("workspace", "doc:default:recent", DOCUMENT_UPDATED, now);
+        tracker.record("workspace", "doc:default:created", DOCUMENT_CREATED, now);
+        tracker.record("other", "doc:default:other", DOCUMENT_CREATED, now);
+        // not a document, and not a weighted verb
+        tracker.record("workspace", "user:Administrator", DOCUMENT_CREATED, now);
+        tracker.record("workspace", "doc:default:ignored", "documentRemoved", now);
+
+        List<TrendingDocument> trendingDocuments = tracker.getTrendingDocuments("workspace", 10);
+        assertEquals(3, trendingDocuments.size());
+        assertEquals("doc:default:created", trendingDocuments.get(0).getObject());
+        assertEquals("doc:default:recent", trendingDocuments.get(1).getObject());
+        assertEquals("doc:default:old", trendingDocuments.get(2).getObject());
+        // 3 modifications two half-lives ago
+        assertEquals(0.75, trendingDocuments.get(2).getScore(), 0.01);
+
+        trendingDocuments = tracker.getTrendingDocuments(null, 2);
+        assertEquals(2, trendingDocuments.size());
+        assertEquals(2, trendingDocuments.get(0).getScore(), 0.01);
+
+        tracker.remove("doc:default:created");
+        assertEquals("doc:default:recent", tracker.getTrendingDocuments("workspace", 1).get(0).getObject());
+        assertTrue(tracker.getTrendingDocuments("unknown", 10).isEmpty());
+    }
+
+    @Test
+    public void shouldKeepTheBestScoresSorted() {
+        TrendingDocumentsTracker tracker = new TrendingDocumentsTracker(TimeUnit.HOURS.toMillis(1),
+                TrendingDocumentsTracker.DEFAULT_VERB_WEIGHTS, 2);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j <= i; j++) {
+                tracker.record("workspace", "doc:default:" + i, DOCUMENT_UPDATED, now);
+            }
+        }
+        // a document leaving the top is replaced by the best one out of it
+        tracker.remove("doc:default:4");
+
+        List<TrendingDocument> trendingDocuments = tracker.getTrendingDocuments("workspace", 2);
+        assertEquals(2, trendingDocuments.size());
+        assertEquals("doc:default:3", trendingDocuments.get(0).getObject());
+        assertEquals("doc:default:2", trendingDocuments.get(1).getObject());
+        // more documents than the kept ones
+        trendingDocuments = tracker.getTrendingDocuments("workspace", 10);
+        assertEquals(4, trendingDocuments.size());
+        assertEquals("doc:default:0", trendingDocuments.get(3).getObject());
+    }
+
+    @Test
+    public void shouldCheckpointScores() throws IOException {
+        TrendingDocumentsTracker tracker = newTracker();
+        tracker.record("workspace", "doc:default:1234", DOCUMENT_CREATED, System.currentTimeMillis());
+
+        File dir = Files.createTempDirectory("trending").toFile();
+        try {
+            File file = new File(dir, "trending-documents.json");
+            tracker.checkpoint(file);
+
+            TrendingDocumentsTracker loadedTracker = newTracker();
+            loadedTracker.load(file);
+            List<TrendingDocument> trendingDocuments = loadedTracker.getTrendingDocuments("workspace", 10);
+            assertEquals(1, trendingDocuments.size());
+            assertEquals("doc:default:1234", trendingDocuments.get(0).getObject());
+            assertEquals(2, trendingDocuments.get(0).getScore(), 0.01);
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+}
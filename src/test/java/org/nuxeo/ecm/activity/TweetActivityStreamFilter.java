@@ -19,6 +19,7 @@
 package org.nuxeo.ecm.activity;
 
 import java.io.Serializable;
+import java.util.List;
 import java.util.Map;
 
 import javax.persistence.EntityManager;
@@ -47,7 +48,7 @@ public class TweetActivityStreamFilter implements ActivityStreamFilter {
     @Override
     public void handleNewActivity(ActivityStreamService activityStreamService, Activity activity) {
         if (TWEET_VERB.equals(activity.getVerb())) {
-            EntityManager em = ((ActivityStreamServiceImpl) activityStreamService).getEntityManager();
+            EntityManager em = JpaActivityStore.getEntityManager(activityStreamService);
             TweetActivity tweetActivity = new TweetActivity();
             tweetActivity.setActivityId(activity.getId());
             tweetActivity.setSeenBy("Bob");
@@ -65,12 +66,21 @@ public class TweetActivityStreamFilter implements ActivityStreamFilter {
 
     @Override
     public void handleRemovedActivities(ActivityStreamService activityStreamService, ActivitiesList activities) {
-        EntityManager em = ((ActivityStreamServiceImpl) activityStreamService).getEntityManager();
+        EntityManager em = JpaActivityStore.getEntityManager(activityStreamService);
         Query query = em.createQuery("delete from Tweet tweet where tweet.activityId in (:activityIds)");
         query.setParameter("activityIds", activities.toActivityIds());
         query.executeUpdate();
     }
 
+    @Override
+    public void handleRemovedActivityIds(ActivityStreamService activityStreamService,
+            List<Serializable> activityIds) {
+        EntityManager em = JpaActivityStore.getEntityManager(activityStreamService);
+        Query query = em.createQuery("delete from Tweet tweet where tweet.activityId in (:activityIds)");
+        query.setParameter("activityIds", activityIds);
+        query.executeUpdate();
+    }
+
     @Override
     public void handleRemovedActivityReply(ActivityStreamService activityStreamService, Activity activity,
             ActivityReply activityReply) {
@@ -82,7 +92,7 @@ public class TweetActivityStreamFilter implements ActivityStreamFilter {
             long offset, long limit) {
         if (parameters.containsKey("seenBy")) {
             String seenBy = (String) parameters.get("seenBy");
-            EntityManager em = ((ActivityStreamServiceImpl) activityStreamService).getEntityManager();
+            EntityManager em = JpaActivityStore.getEntityManager(activityStreamService);
             Query query = em.createQuery(
                     "select activity from Tweet tweet, Activity activity where tweet.seenBy=:seenBy and tweet.activityId = activity.id");
             query.setParameter("seenBy", seenBy);
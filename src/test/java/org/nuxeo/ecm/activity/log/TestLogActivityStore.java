@@ -0,0 +1,241 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nuxeo.ecm.activity.ActivitiesList;
+import org.nuxeo.ecm.activity.Activity;
+import org.nuxeo.ecm.activity.ActivityCounter;
+import org.nuxeo.ecm.activity.ActivityCriteria;
+import org.nuxeo.ecm.activity.ActivityImpl;
+import org.nuxeo.ecm.activity.ActivityReply;
+import org.nuxeo.ecm.activity.ActivitySummary;
+import org.nuxeo.ecm.activity.ActivityWatermark;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * @since 11.1
+ */
+public class TestLogActivityStore {
+
+    protected static final int SEGMENT_SIZE = 1024;
+
+    protected File directory;
+
+    protected LogActivityStore store;
+
+    @Before
+    public void openStore() throws IOException {
+        directory = Files.createTempDirectory("activity-log").toFile();
+        store = newStore();
+    }
+
+    @After
+    public void closeStore() throws IOException {
+        store.deactivate();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    protected LogActivityStore newStore() {
+        LogActivityStore logStore = new LogActivityStore();
+        logStore.open(directory, SEGMENT_SIZE, 0, false);
+        return logStore;
+    }
+
+    protected Activity append(String actor, String context, long publishedDate) {
+        ActivityImpl activity = new ActivityImpl();
+        activity.setActor(actor);
+        activity.setDisplayActor("Display " + actor);
+        activity.setVerb("test");
+        activity.setObject("doc:default:" + publishedDate);
+        activity.setContext(context);
+        activity.setPublishedDate(new Date(publishedDate));
+        return store.append(activity);
+    }
+
+    @Test
+    public void shouldAppendAndScanActivities() {
+        for (int i = 0; i < 30; i++) {
+            append(i % 3 == 0 ? "Administrator" : "Bob", i % 2 == 0 ? "even" : "odd", 1000 + i);
+        }
+        assertTrue(store.getSegmentsCount() > 1);
+        assertEquals(30, store.size());
+
+        ActivitiesList latest = store.scanBefore(new ActivityCriteria().actors("Administrator").contexts("even"),
+                null, 3);
+        assertEquals(3, latest.size());
+        assertEquals(new Date(1024), latest.get(0).getPublishedDate());
+        assertEquals(new Date(1018), latest.get(1).getPublishedDate());
+        assertEquals("Display Administrator", latest.get(0).getDisplayActor());
+
+        ActivitiesList after = store.scanAfter(new ActivityCriteria(), ActivityWatermark.of(latest.get(1)), 0);
+        assertEquals(11, after.size());
+        assertEquals(new Date(1019), after.get(0).getPublishedDate());
+
+        List<Serializable> ids = store.getActivityIds(new ActivityCriteria().contexts("odd"), null, 100);
+        assertEquals(15, ids.size());
+        store.remove(ids);
+        assertEquals(15, store.size());
+        assertTrue(store.getActivities(ids).isEmpty());
+    }
+
+    @Test
+    public void shouldReopenLog() {
+        Activity first = append("Administrator", "workspace", 1000);
+        for (int i = 1; i < 20; i++) {
+            append("Bob", "workspace", 1000 + i);
+        }
+        first.setActivityReplies(Collections.singletonList(
+                new ActivityReply("Bob", "Bob", "a reply", System.currentTimeMillis())));
+        store.update(first);
+        store.remove(Collections.singletonList(store.scanBefore(new ActivityCriteria(), null, 1).get(0).getId()));
+
+        store.deactivate();
+        store = newStore();
+        assertEquals(19, store.size());
+        Activity reloaded = store.getActivities(Collections.singletonList(first.getId())).get(0);
+        assertEquals(1, reloaded.getActivityReplies().size());
+        assertEquals(1, store.scanBefore(new ActivityCriteria().actors("Administrator"), null, 0).size());
+
+        Activity appended = append("Administrator", "workspace", 2000);
+        assertTrue((Long) appended.getId() > (Long) first.getId());
+    }
+
+    @Test
+    public void shouldDeleteOldSegments() {
+        for (int i = 0; i < 60; i++) {
+            append("Administrator", "workspace", 1000 + i);
+        }
+        int segments = store.getSegmentsCount();
+        assertTrue(store.deleteSegmentsBefore(new Date(1030)) > 0);
+        assertTrue(store.getSegmentsCount() < segments);
+        assertTrue(store.size() < 60);
+        ActivitiesList remaining = store.scanAfter(new ActivityCriteria(), ActivityWatermark.NONE, 0);
+        assertEquals(store.size(), remaining.size());
+        assertEquals(new Date(1059), remaining.get(remaining.size() - 1).getPublishedDate());
+    }
+
+    @Test
+    public void shouldNotResurrectRemovedActivities() {
+        Activity removed = append("Administrator", "workspace", 5000);
+        for (int i = 0; i < 30; i++) {
+            append("Bob", "workspace", 1000 + i);
+        }
+        store.remove(Collections.singletonList(removed.getId()));
+        for (int i = 0; i < 30; i++) {
+            append("Bob", "workspace", 1000 + i);
+        }
+        // the first segment holds a recent activity, the ones holding the tombstone must be kept too
+        assertEquals(0, store.deleteSegmentsBefore(new Date(2000)));
+
+        store.deactivate();
+        store = newStore();
+        assertTrue(store.getActivities(Collections.singletonList(removed.getId())).isEmpty());
+        assertEquals(60, store.size());
+    }
+
+    @Test
+    public void shouldNotReuseIdsAfterRestart() {
+        Activity first = append("Administrator", "workspace", 1000);
+        Activity last = null;
+        for (int i = 1; i < 30; i++) {
+            last = append("Bob", "workspace", 1000 + i);
+        }
+        // once the old segments are deleted, the current one only holds updates of the first activity
+        int segments = store.getSegmentsCount();
+        while (store.getSegmentsCount() == segments) {
+            store.update(first);
+        }
+        assertEquals(segments, store.deleteSegmentsBefore(new Date(2000)));
+        assertEquals(1, store.size());
+
+        store.deactivate();
+        store = newStore();
+        Activity appended = append("Administrator", "workspace", 3000);
+        assertTrue((Long) appended.getId() > (Long) last.getId());
+    }
+
+    @Test
+    public void shouldOnlyLoadActivitiesPublishedInRange() {
+        AtomicInteger loads = new AtomicInteger();
+        store.deactivate();
+        store = new LogActivityStore() {
+            @Override
+            protected Activity load(Long id) {
+                loads.incrementAndGet();
+                return super.load(id);
+            }
+        };
+        store.open(directory, SEGMENT_SIZE, 0, false);
+        for (int i = 0; i < 20; i++) {
+            append("Administrator", "workspace", 1000 + i);
+        }
+
+        ActivitiesList activities = store.scanBefore(
+                new ActivityCriteria().actors("Administrator").publishedAfter(1015), null, 0);
+        assertEquals(5, activities.size());
+        assertEquals(new Date(1019), activities.get(0).getPublishedDate());
+        assertEquals(5, loads.get());
+
+        loads.set(0);
+        activities = store.scanAfter(new ActivityCriteria().publishedAfter(1005).publishedBefore(1010),
+                ActivityWatermark.NONE, 0);
+        assertEquals(5, activities.size());
+        assertEquals(new Date(1005), activities.get(0).getPublishedDate());
+        assertEquals(5, loads.get());
+
+        ActivityWatermark watermark = ActivityWatermark.of(activities.get(2));
+        assertEquals(2, store.scanBefore(new ActivityCriteria().publishedAfter(1005), watermark, 0).size());
+        assertEquals(0, store.scanBefore(new ActivityCriteria().publishedAfter(1010), watermark, 0).size());
+    }
+
+    @Test
+    public void shouldSummarizeActivities() {
+        Activity first = append("Administrator", "workspace", 1000);
+        Activity second = append("Bob", "workspace", 2000);
+        List<ActivitySummary> summaries = store.getActivitySummaries(Arrays.asList(second.getId(), first.getId()));
+        assertEquals(2, summaries.size());
+        assertEquals(first.getId(), summaries.get(0).getId());
+        assertEquals("Bob", summaries.get(1).getActor());
+        assertEquals(2, store.getActivities(0, 0).size());
+        assertEquals(second.getId(), store.getActivities(1, 1).get(0).getId());
+    }
+
+    @Test(expected = NuxeoException.class)
+    public void shouldFailFastOnCounters() {
+        assertFalse(store.isCountersSupported());
+        store.getTopActivityCounts(ActivityCounter.Dimension.ACTOR, null, ActivityCounter.Granularity.DAY,
+                new Date(0), new Date(), 10);
+    }
+
+}
@@ -0,0 +1,277 @@
+/*
+ * (C) Copyright 2019 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nuxeo.ecm.activity.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.activity.Activity;
+import org.nuxeo.ecm.activity.ActivityFeature;
+import org.nuxeo.ecm.activity.ActivityImpl;
+import org.nuxeo.ecm.activity.ActivityStreamService;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * @since 11.1
+ */
+@RunWith(FeaturesRunner.class)
+@Features(ActivityFeature.class)
+public class TestActivityEventsServlet {
+
+    @Inject
+    protected ActivityStreamService activityStreamService;
+
+    protected ActivityEventsServlet servlet;
+
+    @Before
+    public void initServlet() throws Exception {
+        servlet = new ActivityEventsServlet();
+        servlet.init();
+    }
+
+    @After
+    public void destroyServlet() {
+        servlet.destroy();
+    }
+
+    @Test
+    public void shouldRejectUnknownStreams() throws Exception {
+        Connection connection = new Connection("stream", "unknownStream");
+        servlet.doGet(connection.request(), connection.response());
+        assertEquals(HttpServletResponse.SC_NOT_FOUND, connection.status);
+        assertFalse(connection.asyncStarted);
+        assertTrue(servlet.eventStreams.isEmpty());
+    }
+
+    @Test
+    public void shouldRejectUnauthorizedSubscriptions() throws Exception {
+        Connection connection = new Connection("actor", "user:Administrator");
+        connection.principal = newPrincipal("bob", false);
+        servlet.doGet(connection.request(), connection.response());
+        assertEquals(HttpServletResponse.SC_FORBIDDEN, connection.status);
+        assertFalse(connection.asyncStarted);
+
+        // not a document
+        connection = new Connection("context", "eventsContext");
+        connection.principal = newPrincipal("bob", false);
+        servlet.doGet(connection.request(), connection.response());
+        assertEquals(HttpServletResponse.SC_FORBIDDEN, connection.status);
+
+        connection = new Connection("actor", "user:Administrator");
+        connection.principal = null;
+        servlet.doGet(connection.request(), connection.response());
+        assertEquals(HttpServletResponse.SC_UNAUTHORIZED, connection.status);
+        assertTrue(servlet.eventStreams.isEmpty());
+    }
+
+    @Test
+    public void shouldFollowOwnActivities() throws Exception {
+        Connection connection = new Connection("actor", "user:bob");
+        connection.principal = newPrincipal("bob", false);
+        servlet.doGet(connection.request(), connection.response());
+        assertTrue(connection.asyncStarted);
+        assertEquals(1, servlet.eventStreams.size());
+    }
+
+    @Test
+    public void shouldPushNewActivities() throws Exception {
+        Connection connection = new Connection("context", "eventsContext");
+        servlet.doGet(connection.request(), connection.response());
+        assertTrue(connection.asyncStarted);
+        assertEquals(1, servlet.eventStreams.size());
+        assertTrue(connection.output().contains(": connected"));
+
+        Activity activity = new ActivityImpl();
+        activity.setActor("Administrator");
+        activity.setVerb("test");
+        activity.setObject("eventsObject");
+        activity.setContext("eventsContext");
+        activity.setPublishedDate(new Date());
+        activity = activityStreamService.addActivity(activity);
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+
+        String expected = "data: {\"id\":\"" + activity.getId() + "\"}";
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!connection.output().contains(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(connection.output().contains(expected));
+    }
+
+    @Test
+    public void shouldDisconnectSlowClients() throws Exception {
+        Connection connection = new Connection("context", "slowContext");
+        connection.outputStream.ready = false;
+        servlet.doGet(connection.request(), connection.response());
+        assertEquals(1, servlet.eventStreams.size());
+        assertEquals("", connection.output());
+
+        // the connected event is already queued
+        for (int i = 0; i < ActivityEventsServlet.MAX_PENDING_EVENTS; i++) {
+            servlet.sendHeartbeats();
+        }
+        assertTrue(connection.completed);
+        assertTrue(servlet.eventStreams.isEmpty());
+    }
+
+    protected static NuxeoPrincipal newPrincipal(String name, boolean administrator) {
+        return (NuxeoPrincipal) Proxy.newProxyInstance(TestActivityEventsServlet.class.getClassLoader(),
+                new Class<?>[] { NuxeoPrincipal.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getName":
+                        return name;
+                    case "isAdministrator":
+                        return administrator;
+                    case "hashCode":
+                        return name.hashCode();
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Fake request and response of a client.
+     */
+    protected static class Connection {
+
+        protected final Map<String, String> parameters = new HashMap<>();
+
+        protected final CapturingOutputStream outputStream = new CapturingOutputStream();
+
+        protected NuxeoPrincipal principal = newPrincipal("Administrator", true);
+
+        protected int status;
+
+        protected boolean asyncStarted;
+
+        protected boolean completed;
+
+        protected Connection(String parameter, String value) {
+            parameters.put(parameter, value);
+        }
+
+        protected String output() {
+            synchronized (outputStream) {
+                return new String(outputStream.bytes.toByteArray(), StandardCharsets.UTF_8);
+            }
+        }
+
+        protected HttpServletRequest request() {
+            return (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { HttpServletRequest.class }, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                        case "getParameter":
+                            return parameters.get(args[0]);
+                        case "getUserPrincipal":
+                            return principal;
+                        case "startAsync":
+                            asyncStarted = true;
+                            return asyncContext();
+                        default:
+                            return null;
+                        }
+                    });
+        }
+
+        protected HttpServletResponse response() {
+            return (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { HttpServletResponse.class }, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                        case "sendError":
+                            status = (Integer) args[0];
+                            return null;
+                        case "getOutputStream":
+                            return outputStream;
+                        default:
+                            return null;
+                        }
+                    });
+        }
+
+        protected AsyncContext asyncContext() {
+            return (AsyncContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { AsyncContext.class }, (proxy, method, args) -> {
+                        if ("complete".equals(method.getName())) {
+                            completed = true;
+                        }
+                        return null;
+                    });
+        }
+
+    }
+
+    protected static class CapturingOutputStream extends ServletOutputStream {
+
+        protected final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        protected volatile boolean ready = true;
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            // like the containers, notify right away when ready
+            if (ready) {
+                try {
+                    writeListener.onWritePossible();
+                } catch (Exception e) {
+                    writeListener.onError(e);
+                }
+            }
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            bytes.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            bytes.write(b, off, len);
+        }
+
+    }
+
+}